@@ -32,10 +32,12 @@ package edu.mit.ll.em.api.rs;
 import java.util.ArrayList;
 import java.util.Collection;
 
+import edu.mit.ll.nics.common.entity.CollabroomDatalayer;
 import edu.mit.ll.nics.common.entity.datalayer.Datalayer;
 import edu.mit.ll.nics.common.entity.datalayer.DatalayerOrg;
 import edu.mit.ll.nics.common.entity.datalayer.Datalayerfolder;
 import edu.mit.ll.nics.common.entity.datalayer.Datasource;
+import edu.mit.ll.nics.common.entity.datalayer.ImageLayerJob;
 
 public class DatalayerServiceResponse {
 
@@ -45,6 +47,9 @@ public class DatalayerServiceResponse {
     private Collection<Datalayer> datalayers = new ArrayList<Datalayer>();
     private Collection<Datasource> datasources = new ArrayList<Datasource>();
     private Collection<DatalayerOrg> datalayerOrgs = new ArrayList<>();
+    private Collection<CollabroomDatalayer> collabroomDatalayers = new ArrayList<>();
+    private Collection<CollabroomDatalayer> skippedCollabroomDatalayers = new ArrayList<>();
+    private Collection<ImageLayerJob> imageLayerJobs = new ArrayList<>();
 
     private int count;
 
@@ -88,6 +93,36 @@ public class DatalayerServiceResponse {
         this.datalayerOrgs = datalayerOrgs;
     }
 
+    public Collection<CollabroomDatalayer> getCollabroomDatalayers() {
+        return collabroomDatalayers;
+    }
+
+    public void setCollabroomDatalayers(Collection<CollabroomDatalayer> collabroomDatalayers) {
+        this.collabroomDatalayers = collabroomDatalayers;
+    }
+
+    /**
+     * @return the requested collabroom datalayers that were left unchanged, e.g. because they were already removed
+     */
+    public Collection<CollabroomDatalayer> getSkippedCollabroomDatalayers() {
+        return skippedCollabroomDatalayers;
+    }
+
+    public void setSkippedCollabroomDatalayers(Collection<CollabroomDatalayer> skippedCollabroomDatalayers) {
+        this.skippedCollabroomDatalayers = skippedCollabroomDatalayers;
+    }
+
+    /**
+     * @return the background jobs provisioning image layers, see DatalayerService.finishImageLayer
+     */
+    public Collection<ImageLayerJob> getImageLayerJobs() {
+        return imageLayerJobs;
+    }
+
+    public void setImageLayerJobs(Collection<ImageLayerJob> imageLayerJobs) {
+        this.imageLayerJobs = imageLayerJobs;
+    }
+
     public String toString() {
         return "DatalayerServiceResponse [datalayers=" + datalayerfolders + ", "
                 + "message=" + message + "]";
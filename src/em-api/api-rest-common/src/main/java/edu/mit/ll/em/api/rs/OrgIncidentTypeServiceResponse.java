@@ -48,6 +48,10 @@ public class OrgIncidentTypeServiceResponse {
 	
 	private List<IncidentType> defaultIncidentTypes = new ArrayList<>();
 
+	private List<Integer> updatedIncidentTypeIds = new ArrayList<>();
+
+	private List<Integer> skippedIncidentTypeIds = new ArrayList<>();
+
 	public String getMessage() {
 		return message;
 	}
@@ -80,6 +84,28 @@ public class OrgIncidentTypeServiceResponse {
 		this.inactiveIncidentTypes = inactiveIncidentTypes;
 	}
 	
+	/**
+	 * @return the requested incident type ids that were added to or removed from the org
+	 */
+	public List<Integer> getUpdatedIncidentTypeIds() {
+		return updatedIncidentTypeIds;
+	}
+
+	public void setUpdatedIncidentTypeIds(List<Integer> updatedIncidentTypeIds) {
+		this.updatedIncidentTypeIds = updatedIncidentTypeIds;
+	}
+
+	/**
+	 * @return the requested incident type ids that needed no change, e.g. already mapped when adding
+	 */
+	public List<Integer> getSkippedIncidentTypeIds() {
+		return skippedIncidentTypeIds;
+	}
+
+	public void setSkippedIncidentTypeIds(List<Integer> skippedIncidentTypeIds) {
+		this.skippedIncidentTypeIds = skippedIncidentTypeIds;
+	}
+
 	public int getOrgId(){
 		return this.orgId;
 	}
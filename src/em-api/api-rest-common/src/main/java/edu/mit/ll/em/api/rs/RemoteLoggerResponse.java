@@ -41,6 +41,8 @@ public class RemoteLoggerResponse {
 
     private Collection<?> results = new ArrayList();
     private Collection<RemoteLogType> types = new ArrayList<RemoteLogType>();
+    private int accepted;
+    private int dropped;
 
     public String getMessage() {
         return message;
@@ -66,8 +68,25 @@ public class RemoteLoggerResponse {
         this.types = types;
     }
 
+    public int getAccepted() {
+        return accepted;
+    }
+
+    public void setAccepted(int accepted) {
+        this.accepted = accepted;
+    }
+
+    public int getDropped() {
+        return dropped;
+    }
+
+    public void setDropped(int dropped) {
+        this.dropped = dropped;
+    }
+
     @Override
     public String toString() {
-        return "RemoteLoggerResponse [message=" + message + ", results=" + results + "]";
+        return "RemoteLoggerResponse [message=" + message + ", results=" + results + ", accepted=" + accepted +
+                ", dropped=" + dropped + "]";
     }
 }
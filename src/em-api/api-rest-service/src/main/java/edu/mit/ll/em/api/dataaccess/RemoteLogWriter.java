@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.em.api.dataaccess;
+
+import java.sql.BatchUpdateException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+
+import edu.mit.ll.nics.common.entity.RemoteLog;
+import edu.mit.ll.nics.nicsdao.RemoteLogDAO;
+
+/**
+ * Persists client RemoteLog entries off the request thread. Entries are put on a bounded queue and a single
+ * background thread drains it, inserting up to batchSize entries per JDBC batch.
+ * <p>
+ * When the queue is full the {@link OverloadPolicy} decides what gets shed: the incoming entries, or the oldest
+ * queued ones. Either way the entry is counted as dropped rather than blocking the caller.
+ * </p>
+ * <p>
+ * A batch whose insert throws, e.g. while the database is unavailable, is retried up to maxRetries times, waiting
+ * retryDelay milliseconds before the first retry and twice as long before each one after it. New entries queue up
+ * meanwhile. A batch that still fails is dropped and counted as failed, so entries are lost during an outage longer
+ * than the retries cover.
+ * </p>
+ * <p>
+ * A batch the database rejects because of what is in it, such as an over-long or invalid field, is not retried as a
+ * whole. Its entries are written one at a time instead, each with the same retries, and only the entries that are
+ * rejected on their own are dropped.
+ * </p>
+ */
+public class RemoteLogWriter {
+
+    /**
+     * Logger
+     */
+    private static final Logger log = LoggerFactory.getLogger(RemoteLogWriter.class);
+
+    /**
+     * What to shed when the queue is full
+     */
+    public enum OverloadPolicy {
+        /** Drop the incoming entries, keeping what is already queued */
+        REJECT_NEWEST,
+        /** Drop the oldest queued entries to make room for the incoming ones */
+        DROP_OLDEST;
+
+        public static OverloadPolicy fromString(String value) {
+            if(value != null) {
+                try {
+                    return valueOf(value.trim().toUpperCase(Locale.US));
+                } catch(IllegalArgumentException e) {
+                    log.warn("Unknown remote log overload policy '{}', using {}", value, REJECT_NEWEST);
+                }
+            }
+            return REJECT_NEWEST;
+        }
+    }
+
+    private final RemoteLogDAO remoteLogDao;
+    private final BlockingQueue<RemoteLog> queue;
+    private final int batchSize;
+    private final OverloadPolicy policy;
+    private final int maxRetries;
+    private final long retryDelay;
+    private final Thread writerThread;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder persisted = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+
+    private volatile boolean running = true;
+
+    /**
+     * @param remoteLogDao the DAO to insert entries with
+     * @param capacity     most entries waiting to be written
+     * @param batchSize    most entries per JDBC batch
+     * @param policy       what to shed when the queue is full
+     * @param maxRetries   times a failed batch is retried before it is dropped
+     * @param retryDelay   milliseconds before the first retry, doubling for each further retry
+     */
+    public RemoteLogWriter(RemoteLogDAO remoteLogDao, int capacity, int batchSize, OverloadPolicy policy,
+                           int maxRetries, long retryDelay) {
+        this.remoteLogDao = remoteLogDao;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.batchSize = Math.max(1, batchSize);
+        this.policy = policy;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.retryDelay = Math.max(0, retryDelay);
+
+        writerThread = new Thread(this::drain, "RemoteLogWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queues the entries for persistence without blocking
+     *
+     * @param logs the entries to persist
+     * @return the number of the given entries that were queued
+     */
+    public int submit(Collection<RemoteLog> logs) {
+        int queued = 0;
+        for(RemoteLog remoteLog : logs) {
+            if(offer(remoteLog)) {
+                queued++;
+            }
+        }
+        accepted.add(queued);
+        dropped.add(logs.size() - queued);
+        return queued;
+    }
+
+    private boolean offer(RemoteLog remoteLog) {
+        if(!running) {
+            return false;
+        }
+        if(queue.offer(remoteLog)) {
+            return true;
+        }
+        if(policy == OverloadPolicy.DROP_OLDEST) {
+            while(!queue.offer(remoteLog)) {
+                if(queue.poll() != null) {
+                    // The evicted entry was already counted as accepted
+                    accepted.decrement();
+                    dropped.increment();
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void drain() {
+        List<RemoteLog> batch = new ArrayList<>(batchSize);
+        while(running || !queue.isEmpty()) {
+            try {
+                RemoteLog first = queue.poll(1, TimeUnit.SECONDS);
+                if(first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                write(batch);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Inserts the batch, falling back to one entry at a time if the database rejects it
+     *
+     * @throws InterruptedException if interrupted while waiting to retry, the unwritten entries are counted as failed
+     */
+    private void write(List<RemoteLog> batch) throws InterruptedException {
+        if(batch.isEmpty()) {
+            return;
+        }
+        try {
+            int count = insert(batch);
+            if(count < 0) {
+                failed.add(batch.size());
+                return;
+            }
+            persisted.add(count);
+            failed.add(batch.size() - count);
+            log.debug("Persisted {} of {} remote log entries", count, batch.size());
+            return;
+        } catch(InterruptedException e) {
+            failed.add(batch.size());
+            throw e;
+        } catch(Exception e) {
+            if(batch.size() == 1) {
+                failed.increment();
+                log.warn("Dropping remote log entry rejected by the database: {}", e.getMessage());
+                return;
+            }
+            log.warn("Batch of {} remote log entries rejected by the database, writing them one at a time: {}",
+                    batch.size(), e.getMessage());
+        }
+
+        for(int i = 0; i < batch.size(); i++) {
+            RemoteLog entry = batch.get(i);
+            try {
+                int count = insert(Collections.singletonList(entry));
+                persisted.add(Math.max(count, 0));
+                failed.add(count > 0 ? 0 : 1);
+            } catch(InterruptedException e) {
+                failed.add(batch.size() - i);
+                throw e;
+            } catch(Exception e) {
+                failed.increment();
+                log.warn("Dropping remote log entry of user {} rejected by the database: {}", entry.getUsername(),
+                        e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Inserts the entries, retrying with a doubling delay if the insert throws for a reason other than the entries
+     * themselves
+     *
+     * @return the number of entries inserted, or -1 if the insert still failed after maxRetries retries
+     * @throws Exception            if the database rejected the entries, which retrying won't fix
+     * @throws InterruptedException if interrupted while waiting to retry
+     */
+    private int insert(List<RemoteLog> entries) throws Exception {
+        for(int attempt = 0; ; attempt++) {
+            try {
+                return remoteLogDao.persistLogs(entries);
+            } catch(Exception e) {
+                if(isRejected(e)) {
+                    throw e;
+                }
+                if(attempt >= maxRetries) {
+                    log.error("Dropping {} remote log entries after {} attempts", entries.size(), attempt + 1, e);
+                    return -1;
+                }
+                long delay = retryDelay << Math.min(attempt, 10);
+                log.warn("Failed to persist {} remote log entries, retrying in {} ms: {}", entries.size(), delay,
+                        e.getMessage());
+                retried.increment();
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * @return true if the database refused the entries themselves, such as for an over-long or invalid field, rather
+     * than failing for a reason a retry might get past
+     */
+    static boolean isRejected(Throwable e) {
+        if(e instanceof DataIntegrityViolationException) {
+            return true;
+        }
+        if(e instanceof TransientDataAccessException || e instanceof RecoverableDataAccessException ||
+                e instanceof DataAccessResourceFailureException) {
+            return false;
+        }
+        for(Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if(cause instanceof BatchUpdateException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of entries waiting to be written
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * @return the writer's counters, in a form suitable for returning to clients
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("accepted", accepted.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("persisted", persisted.sum());
+        stats.put("failed", failed.sum());
+        stats.put("retried", retried.sum());
+        stats.put("queued", (long) queue.size());
+        return stats;
+    }
+
+    /**
+     * Stops accepting entries and waits up to the given time for queued entries to be written
+     *
+     * @param timeoutMillis how long to wait for the writer to finish
+     */
+    public void shutdown(long timeoutMillis) {
+        // The writer polls with a timeout, so it notices this and exits once the queue is empty
+        running = false;
+        try {
+            writerThread.join(timeoutMillis);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("RemoteLogWriter stopped: {}", getStats());
+    }
+}
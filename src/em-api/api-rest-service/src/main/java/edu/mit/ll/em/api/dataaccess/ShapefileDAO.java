@@ -33,6 +33,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
+import edu.mit.ll.em.api.util.CrsCache;
 import org.geotools.data.DataStore;
 import org.geotools.data.DataStoreFinder;
 import org.geotools.data.DefaultTransaction;
@@ -42,7 +43,6 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.data.simple.SimpleFeatureStore;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
-import org.geotools.referencing.CRS;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.referencing.FactoryException;
 
@@ -76,7 +76,7 @@ public class ShapefileDAO extends BaseDAO {
     public void insertFeatures(String tableName, SimpleFeatureSource featureSource)
             throws IOException, FactoryException {
         Query query = new Query();
-        query.setCoordinateSystemReproject(CRS.decode("EPSG:3857"));
+        query.setCoordinateSystemReproject(CrsCache.decode(CrsCache.WEB_MERCATOR));
         SimpleFeatureCollection featcollection = featureSource.getFeatures(query);
 
         DataStore datastore = getDataStore();
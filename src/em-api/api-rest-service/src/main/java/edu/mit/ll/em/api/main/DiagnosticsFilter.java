@@ -0,0 +1,670 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.em.api.main;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.apache.commons.configuration.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.mit.ll.em.api.util.APIConfig;
+
+/**
+ * Request diagnostics for the EM-API.
+ *
+ * <p>Every request gets one structured access log line with its timing and sizes, written to the
+ * {@link #ACCESS_LOGGER} logger at INFO. Request and response bodies are only captured for a sampled
+ * fraction of requests, only up to a fixed number of bytes, and never for excluded content types such as
+ * multipart uploads, archives and images. Bodies are written to the {@link #BODY_LOGGER} logger at DEBUG,
+ * together with the request headers. Body capture is off by default: the sample rate defaults to 0 and the
+ * body logger to INFO.</p>
+ *
+ * <p>Captured bodies have the values of sensitive JSON members and form fields, such as passwords, tokens
+ * and credentials, masked before they are logged, and the Authorization and Cookie headers are never
+ * logged in full.</p>
+ *
+ * <p>Both loggers are checked on every request, so either can be toggled at runtime by changing their
+ * levels in logback.xml, which is rescanned. Sampling rates, the body cap, the exclusions and the redacted
+ * field names are read from em-api.properties when the filter starts.</p>
+ */
+public class DiagnosticsFilter implements Filter {
+
+    /**
+     * Logger
+     */
+    private static final Logger log = LoggerFactory.getLogger(DiagnosticsFilter.class);
+
+    public static final String ACCESS_LOGGER = "edu.mit.ll.em.api.diagnostics.access";
+    public static final String BODY_LOGGER = "edu.mit.ll.em.api.diagnostics.body";
+
+    private static final Logger accessLog = LoggerFactory.getLogger(ACCESS_LOGGER);
+    private static final Logger bodyLog = LoggerFactory.getLogger(BODY_LOGGER);
+
+    private static final double DEFAULT_SAMPLE_RATE = 0;
+    private static final int DEFAULT_BODY_MAX_BYTES = 4096;
+    private static final String[] DEFAULT_EXCLUDED_TYPES = {"multipart/", "application/zip",
+            "application/x-zip", "application/octet-stream", "application/vnd.google-earth.kmz", "image/"};
+    private static final String[] DEFAULT_REDACTED_FIELDS = {"password", "token", "credentials", "secret"};
+    private static final String[] REDACTED_HEADERS = {"authorization", "proxy-authorization", "cookie"};
+    private static final String REDACTED = "***";
+
+    private double defaultRate;
+    private List<PathRate> pathRates;
+    private int bodyMaxBytes;
+    private String[] excludedTypes;
+    private String[] redactedFields;
+    private Pattern redactedFormField;
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+        Configuration config = APIConfig.getInstance().getConfiguration();
+
+        defaultRate = config.getDouble(APIConfig.DIAGNOSTICS_SAMPLE_RATE, DEFAULT_SAMPLE_RATE);
+        bodyMaxBytes = Math.max(0, config.getInt(APIConfig.DIAGNOSTICS_BODY_MAX_BYTES, DEFAULT_BODY_MAX_BYTES));
+
+        String[] excluded = config.getStringArray(APIConfig.DIAGNOSTICS_BODY_EXCLUDE);
+        excludedTypes = excluded.length == 0 ? DEFAULT_EXCLUDED_TYPES : lowerCase(excluded);
+
+        String[] redacted = config.getStringArray(APIConfig.DIAGNOSTICS_REDACT_FIELDS);
+        redactedFields = redacted.length == 0 ? DEFAULT_REDACTED_FIELDS : lowerCase(redacted);
+        redactedFormField = formFieldPattern(redactedFields);
+
+        pathRates = new ArrayList<>();
+        for(String entry : config.getStringArray(APIConfig.DIAGNOSTICS_SAMPLE_PATHS)) {
+            int separator = entry.lastIndexOf(':');
+            if(separator <= 0) {
+                log.warn("Ignoring diagnostics sample path '{}', expected <path prefix>:<rate>", entry);
+                continue;
+            }
+            try {
+                pathRates.add(new PathRate(entry.substring(0, separator).trim(),
+                        Double.parseDouble(entry.substring(separator + 1).trim())));
+            } catch(NumberFormatException e) {
+                log.warn("Ignoring diagnostics sample path '{}', rate is not a number", entry);
+            }
+        }
+        // Longest prefix wins
+        pathRates.sort(Comparator.comparingInt((PathRate pathRate) -> pathRate.prefix.length()).reversed());
+
+        log.info("Diagnostics filter started: default sample rate {}, {} path rates, body cap {} bytes",
+                defaultRate, pathRates.size(), bodyMaxBytes);
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+            throws IOException, ServletException {
+
+        boolean logAccess = accessLog.isInfoEnabled();
+        boolean logBodies = bodyLog.isDebugEnabled();
+        if((!logAccess && !logBodies) || !(servletRequest instanceof HttpServletRequest) ||
+                !(servletResponse instanceof HttpServletResponse)) {
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+        String path = getPath(request);
+
+        boolean sampled = logBodies && bodyMaxBytes > 0 && isSampled(path);
+        CapturingRequest capturingRequest = null;
+        CapturingResponse capturingResponse = null;
+        if(sampled) {
+            if(!isExcluded(request.getContentType())) {
+                capturingRequest = new CapturingRequest(request, bodyMaxBytes);
+                request = capturingRequest;
+            }
+            capturingResponse = new CapturingResponse(response, bodyMaxBytes, excludedTypes);
+            response = capturingResponse;
+        }
+
+        long start = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if(capturingResponse != null) {
+                capturingResponse.flushCapture();
+            }
+
+            if(logAccess) {
+                accessLog.info("method={} path={} status={} durationMs={} requestBytes={} responseBytes={} " +
+                                "sampled={}", request.getMethod(), path, response.getStatus(), durationMs,
+                        request.getContentLengthLong(), getResponseLength(response, capturingResponse), sampled);
+            }
+            if(sampled) {
+                bodyLog.debug("method={} path={} status={} headers={} request={} response={}", request.getMethod(),
+                        path, response.getStatus(), describeHeaders(request), describe(capturingRequest),
+                        describe(capturingResponse));
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        // Nothing to release
+    }
+
+    private boolean isSampled(String path) {
+        double rate = defaultRate;
+        for(PathRate pathRate : pathRates) {
+            if(path.startsWith(pathRate.prefix)) {
+                rate = pathRate.rate;
+                break;
+            }
+        }
+        return rate >= 1.0 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+    }
+
+    private boolean isExcluded(String contentType) {
+        return isExcluded(contentType, excludedTypes);
+    }
+
+    private static boolean isExcluded(String contentType, String[] excludedTypes) {
+        if(contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        for(String excluded : excludedTypes) {
+            if(type.startsWith(excluded)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getPath(HttpServletRequest request) {
+        String path = request.getServletPath();
+        if(request.getPathInfo() != null) {
+            path += request.getPathInfo();
+        }
+        return path;
+    }
+
+    private static long getResponseLength(HttpServletResponse response, CapturingResponse capturingResponse) {
+        if(capturingResponse != null && capturingResponse.getBytesWritten() > 0) {
+            return capturingResponse.getBytesWritten();
+        }
+        String contentLength = response.getHeader("Content-Length");
+        if(contentLength != null) {
+            try {
+                return Long.parseLong(contentLength);
+            } catch(NumberFormatException e) {
+                // Fall through to unknown
+            }
+        }
+        return -1;
+    }
+
+    private String describe(CapturingRequest request) {
+        return request == null ? "<not captured>" :
+                request.capture.describe(request.getCharacterEncoding(), this::redact);
+    }
+
+    private String describe(CapturingResponse response) {
+        if(response == null || response.capture == null) {
+            return "<not captured>";
+        }
+        return response.capture.describe(response.getCharacterEncoding(), this::redact);
+    }
+
+    private static String describeHeaders(HttpServletRequest request) {
+        StringBuilder headers = new StringBuilder("{");
+        Enumeration<String> names = request.getHeaderNames();
+        while(names != null && names.hasMoreElements()) {
+            String name = names.nextElement();
+            if(headers.length() > 1) {
+                headers.append(", ");
+            }
+            headers.append(name).append('=');
+            headers.append(isRedactedHeader(name) ? REDACTED : request.getHeader(name));
+        }
+        return headers.append('}').toString();
+    }
+
+    private static boolean isRedactedHeader(String name) {
+        for(String redacted : REDACTED_HEADERS) {
+            if(redacted.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Masks the values of JSON members and form fields whose names contain one of the redacted field names.
+     */
+    String redact(String body) {
+        String redacted = redactJson(body, redactedFields);
+        Matcher matcher = redactedFormField.matcher(redacted);
+        return matcher.find() ? matcher.replaceAll("$1$2=" + REDACTED) : redacted;
+    }
+
+    /**
+     * Matches form fields, name=value pairs separated by &amp;, whose name contains one of the given fields.
+     */
+    static Pattern formFieldPattern(String[] fields) {
+        StringBuilder names = new StringBuilder();
+        for(String field : fields) {
+            if(names.length() > 0) {
+                names.append('|');
+            }
+            names.append(Pattern.quote(field));
+        }
+        return Pattern.compile("(^|&)([^=&\\s]*(?:" + names + ")[^=&\\s]*)=[^&]*", Pattern.CASE_INSENSITIVE);
+    }
+
+    /**
+     * Replaces the value of every JSON member whose name contains one of the given fields, including object and
+     * array values, with a masked string. Truncated bodies are handled by masking up to the end of the text.
+     */
+    static String redactJson(String body, String[] fields) {
+        StringBuilder redacted = null;
+        int copied = 0;
+        int length = body.length();
+        int i = 0;
+        while(i < length) {
+            if(body.charAt(i) != '"') {
+                i++;
+                continue;
+            }
+            int nameEnd = skipString(body, i);
+            int colon = skipWhitespace(body, nameEnd);
+            if(colon >= length || body.charAt(colon) != ':') {
+                i = nameEnd;
+                continue;
+            }
+            int valueStart = skipWhitespace(body, colon + 1);
+            if(!isRedactedField(body.substring(i + 1, Math.max(i + 1, nameEnd - 1)), fields)) {
+                i = valueStart;
+                continue;
+            }
+            int valueEnd = skipValue(body, valueStart);
+            if(redacted == null) {
+                redacted = new StringBuilder(length);
+            }
+            redacted.append(body, copied, valueStart).append('"').append(REDACTED).append('"');
+            copied = valueEnd;
+            i = valueEnd;
+        }
+        if(redacted == null) {
+            return body;
+        }
+        return redacted.append(body, copied, length).toString();
+    }
+
+    private static boolean isRedactedField(String name, String[] fields) {
+        String lowered = name.toLowerCase(Locale.ROOT);
+        for(String field : fields) {
+            if(lowered.contains(field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the index just past the string starting at the quote at start, or the end of the text.
+     */
+    private static int skipString(String body, int start) {
+        int i = start + 1;
+        while(i < body.length()) {
+            char c = body.charAt(i);
+            if(c == '\\') {
+                i += 2;
+            } else if(c == '"') {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return body.length();
+    }
+
+    private static int skipWhitespace(String body, int start) {
+        int i = start;
+        while(i < body.length() && Character.isWhitespace(body.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the index just past the JSON value starting at start, or the end of the text.
+     */
+    private static int skipValue(String body, int start) {
+        int length = body.length();
+        if(start >= length) {
+            return length;
+        }
+        char first = body.charAt(start);
+        if(first == '"') {
+            return skipString(body, start);
+        }
+        if(first == '{' || first == '[') {
+            int depth = 0;
+            int i = start;
+            while(i < length) {
+                char c = body.charAt(i);
+                if(c == '"') {
+                    i = skipString(body, i);
+                    continue;
+                }
+                if(c == '{' || c == '[') {
+                    depth++;
+                } else if(c == '}' || c == ']') {
+                    if(--depth == 0) {
+                        return i + 1;
+                    }
+                }
+                i++;
+            }
+            return length;
+        }
+        int i = start;
+        while(i < length && ",}] \t\r\n".indexOf(body.charAt(i)) < 0) {
+            i++;
+        }
+        return i;
+    }
+
+    private static String[] lowerCase(String[] values) {
+        String[] lowered = new String[values.length];
+        for(int i = 0; i < values.length; i++) {
+            lowered[i] = values[i].trim().toLowerCase(Locale.ROOT);
+        }
+        return lowered;
+    }
+
+    private static final class PathRate {
+        private final String prefix;
+        private final double rate;
+
+        private PathRate(String prefix, double rate) {
+            this.prefix = prefix;
+            this.rate = rate;
+        }
+    }
+
+    /**
+     * Keeps the first maxBytes bytes passed to it and counts the rest.
+     */
+    private static final class Capture {
+        private final ByteArrayOutputStream buffer;
+        private final int maxBytes;
+        private long total;
+
+        private Capture(int maxBytes) {
+            this.buffer = new ByteArrayOutputStream(Math.min(maxBytes, 1024));
+            this.maxBytes = maxBytes;
+        }
+
+        private void write(int b) {
+            if(buffer.size() < maxBytes) {
+                buffer.write(b);
+            }
+            total++;
+        }
+
+        private void write(byte[] b, int off, int len) {
+            int room = maxBytes - buffer.size();
+            if(room > 0) {
+                buffer.write(b, off, Math.min(room, len));
+            }
+            total += len;
+        }
+
+        private String describe(String encoding, UnaryOperator<String> redact) {
+            if(total == 0) {
+                return "<empty>";
+            }
+            Charset charset = StandardCharsets.UTF_8;
+            if(encoding != null) {
+                try {
+                    charset = Charset.forName(encoding);
+                } catch(IllegalArgumentException e) {
+                    // Keep UTF-8
+                }
+            }
+            String body = redact.apply(new String(buffer.toByteArray(), charset));
+            return total > buffer.size() ? body + "...<truncated, " + total + " bytes>" : body;
+        }
+    }
+
+    private static final class CapturingRequest extends HttpServletRequestWrapper {
+        private final Capture capture;
+        private ServletInputStream inputStream;
+        private BufferedReader reader;
+
+        private CapturingRequest(HttpServletRequest request, int maxBytes) {
+            super(request);
+            this.capture = new Capture(maxBytes);
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if(inputStream == null) {
+                inputStream = new CapturingInputStream(super.getInputStream(), capture);
+            }
+            return inputStream;
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            if(reader == null) {
+                String encoding = getCharacterEncoding();
+                reader = new BufferedReader(new InputStreamReader(getInputStream(),
+                        encoding == null ? StandardCharsets.ISO_8859_1.name() : encoding));
+            }
+            return reader;
+        }
+    }
+
+    private static final class CapturingInputStream extends ServletInputStream {
+        private final ServletInputStream delegate;
+        private final Capture capture;
+
+        private CapturingInputStream(ServletInputStream delegate, Capture capture) {
+            this.delegate = delegate;
+            this.capture = capture;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = delegate.read();
+            if(b != -1) {
+                capture.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = delegate.read(b, off, len);
+            if(count > 0) {
+                capture.write(b, off, count);
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return delegate.isFinished();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            delegate.setReadListener(readListener);
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+
+    /**
+     * Captures the response body unless its content type is excluded when the body is first written.
+     */
+    private static final class CapturingResponse extends HttpServletResponseWrapper {
+        private final int maxBytes;
+        private final String[] excludedTypes;
+        private Capture capture;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        private CapturingResponse(HttpServletResponse response, int maxBytes, String[] excludedTypes) {
+            super(response);
+            this.maxBytes = maxBytes;
+            this.excludedTypes = excludedTypes;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if(outputStream == null) {
+                if(isExcluded(getContentType(), excludedTypes)) {
+                    outputStream = super.getOutputStream();
+                } else {
+                    capture = new Capture(maxBytes);
+                    outputStream = new CapturingOutputStream(super.getOutputStream(), capture);
+                }
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if(writer == null) {
+                if(isExcluded(getContentType(), excludedTypes)) {
+                    writer = super.getWriter();
+                } else {
+                    writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+                }
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            flushCapture();
+            super.flushBuffer();
+        }
+
+        private void flushCapture() {
+            if(writer != null) {
+                writer.flush();
+            }
+        }
+
+        private long getBytesWritten() {
+            return capture == null ? 0 : capture.total;
+        }
+    }
+
+    private static final class CapturingOutputStream extends ServletOutputStream {
+        private final ServletOutputStream delegate;
+        private final Capture capture;
+
+        private CapturingOutputStream(ServletOutputStream delegate, Capture capture) {
+            this.delegate = delegate;
+            this.capture = capture;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            capture.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            capture.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            delegate.setWriteListener(writeListener);
+        }
+    }
+}
@@ -68,6 +68,14 @@ public interface DatalayerService {
     @Produces(MediaType.APPLICATION_JSON)
     Response getToken(@PathParam("datasourceId") String datasourceId);
 
+    /**
+     * Retrieves the hit, miss, fetch and refresh counts of the ArcGIS token cache behind /token/{datasourceId}
+     */
+    @GET
+    @Path("/token/stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    Response getTokenStats();
+
     @GET
     @Path("/token")
     @Produces(MediaType.APPLICATION_JSON)
@@ -204,6 +212,13 @@ public interface DatalayerService {
             @QueryParam("usersessionid") int usersessionId,
             @QueryParam("folderId") String folderId);
 
+    @GET
+    @Path("/image/status")
+    @Produces(MediaType.APPLICATION_JSON)
+    Response getImageLayerStatus(
+            @PathParam("workspaceId") int workspaceId,
+            @QueryParam("id") String id);
+
 
     @GET
     @Path("/sources/{type}")
@@ -81,6 +81,24 @@ public interface FeatureService {
             @PathParam("featureId") long featureId,
             @HeaderParam("X-Remote-User") String username);
 
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path(value = "/collabroom/{collabRoomId}/remove")
+    Response deleteCollabRoomFeatures(
+            @PathParam("collabRoomId") int collabRoomId,
+            List<Long> featureIds,
+            @HeaderParam("X-Remote-User") String username);
+
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path(value = "/collabroom/{collabRoomId}/restore")
+    Response restoreCollabRoomFeatures(
+            @PathParam("collabRoomId") int collabRoomId,
+            List<Long> featureIds,
+            @HeaderParam("X-Remote-User") String username);
+
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
@@ -208,6 +226,17 @@ public interface FeatureService {
             @QueryParam("collabRoomId") int collabRoomId,
             @HeaderParam("X-Remote-User") String requestingUser);
 
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path(value = "/collabroom/{collabRoomId}/copy")
+    Response copyCollabRoomFeatures(
+            @PathParam("collabRoomId") int collabRoomId,
+            @QueryParam("toCollabRoomId") int toCollabRoomId,
+            @QueryParam("bbox") String bbox,
+            @DefaultValue("3857") @QueryParam("geoType") int geoType,
+            @QueryParam("type") List<String> types,
+            @HeaderParam("X-Remote-User") String requestingUser);
+
 
 }
 
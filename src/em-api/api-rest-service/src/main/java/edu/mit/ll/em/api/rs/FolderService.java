@@ -167,5 +167,32 @@ public interface FolderService {
             @QueryParam("folderId") String folderId,
             @QueryParam("datalayerfolderId") Integer datalayerfolderId,
             @QueryParam("index") int index);
-}
 
+    /**
+     * Sets the order of the child folders of a folder in one request
+     *
+     * @param folderIds ids of the child folders in their new order
+     */
+    @POST
+    @Path(value = "/reorder/{parentFolderId}/folders")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    Response reorderFolders(
+            @PathParam("workspaceId") int workspaceId,
+            @PathParam("parentFolderId") String parentFolderId,
+            List<String> folderIds);
+
+    /**
+     * Sets the order of the datalayers in a folder in one request
+     *
+     * @param datalayerfolderIds ids of the datalayerfolders in their new order
+     */
+    @POST
+    @Path(value = "/reorder/{parentFolderId}/datalayerfolders")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    Response reorderDatalayerfolders(
+            @PathParam("workspaceId") int workspaceId,
+            @PathParam("parentFolderId") String parentFolderId,
+            List<Integer> datalayerfolderIds);
+}
@@ -64,6 +64,12 @@ public interface LanguageTranslationService {
     /** Parameter for the language code: {@value} */
     String PARAM_LANGUAGECODE = "code";
 
+    /** Conditional request header carrying the client's cached ETag: {@value} */
+    String IF_NONE_MATCH_HEADER = "If-None-Match";
+
+    /** Request header listing the encodings the client accepts: {@value} */
+    String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+
 
     /**
      * Message string for loading Language translation file: {@value}
@@ -115,6 +121,27 @@ public interface LanguageTranslationService {
      */
     String MESSAGE_FAIL_LANGUAGE_WRITE = "Failed to write new Language";
 
+    /**
+     * Error message string for failure to serialize a Language translation bundle: {@value}
+     */
+    String MESSAGE_FAIL_BUNDLE = "Failed to build Language Translation bundle";
+
+    /**
+     * Error message string for failure to persist a Language translation in the background: {@value}
+     */
+    String MESSAGE_ERROR_TRANSLATION_SAVE = "Failed to save Language Translation {}, retrying in {} ms";
+
+    /**
+     * Error message string for giving up on persisting a Language translation in the background: {@value}
+     */
+    String MESSAGE_ERROR_TRANSLATION_UNSAVED =
+            "Gave up saving Language Translation {} after {} attempts, unsaved Language Translations: {}";
+
+    /**
+     * Error message string for Language translations still unsaved when the service stops: {@value}
+     */
+    String MESSAGE_ERROR_TRANSLATIONS_LOST = "Language Translations not saved to disk, edits are lost: {}";
+
     /**
      * Error message string for failures generating default Language translation map: {@value}
      */
@@ -122,42 +149,56 @@ public interface LanguageTranslationService {
 
     /**
      * Responsible for retrieving all Language Translations
+     * @param ifNoneMatch ETag of the bundle the client already holds, if any
+     * @param acceptEncoding encodings accepted by the client, gzip is used when offered
      * @return {@link LanguageTranslationResponse} containing all Language Translations
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @ApiResponses(value = {
         @ApiResponse(code = 200, message = "Successfully retrieved Language Translations"),
+        @ApiResponse(code = 304, message = "Language Translations not modified"),
         @ApiResponse(code = 500, message = "Error retrieving Language Translation")
     })
-    Response getAllLanguageTranslations();
+    Response getAllLanguageTranslations(@HeaderParam(IF_NONE_MATCH_HEADER) String ifNoneMatch,
+                                        @HeaderParam(ACCEPT_ENCODING_HEADER) String acceptEncoding);
 
     /**
      * Responsible for retrieving all Language Translations
+     * @param ifNoneMatch ETag of the bundle the client already holds, if any
+     * @param acceptEncoding encodings accepted by the client, gzip is used when offered
      * @return {@link LanguageTranslationResponse} containing all Language Translations
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @ApiResponses(value = {
         @ApiResponse(code = 200, message = "Successfully retrieved Language Translation codes"),
+        @ApiResponse(code = 304, message = "Language Translation codes not modified"),
         @ApiResponse(code = 500, message = "Error retrieving Language Translation codes")
     })
     @Path("/codes")
-    Response getLanguageTranslationCodes();
+    Response getLanguageTranslationCodes(@HeaderParam(IF_NONE_MATCH_HEADER) String ifNoneMatch,
+                                         @HeaderParam(ACCEPT_ENCODING_HEADER) String acceptEncoding);
 
     /**
      * Responsible for retrieving Language Translations by language code
+     * @param code Language code
+     * @param ifNoneMatch ETag of the bundle the client already holds, if any
+     * @param acceptEncoding encodings accepted by the client, gzip is used when offered
      * @return {@link LanguageTranslationResponse} containing the Language Translations
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @ApiResponses(value = {
         @ApiResponse(code = 200, message = "Successfully retrieved Language Translation codes"),
+        @ApiResponse(code = 304, message = "Language Translation not modified"),
         @ApiResponse(code = 404, message = "Language code not found"),
         @ApiResponse(code = 500, message = "Error creating Language")
     })
     @Path("/codes/{code}")
-    Response getLanguageTranslationByCode(@PathParam(PARAM_LANGUAGECODE) String code);
+    Response getLanguageTranslationByCode(@PathParam(PARAM_LANGUAGECODE) String code,
+                                          @HeaderParam(IF_NONE_MATCH_HEADER) String ifNoneMatch,
+                                          @HeaderParam(ACCEPT_ENCODING_HEADER) String acceptEncoding);
 
     /**
      * Update or create a Language Translation value for key and Language
@@ -29,6 +29,8 @@
  */
 package edu.mit.ll.em.api.rs;
 
+import java.util.List;
+
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.HeaderParam;
@@ -59,6 +61,22 @@ public interface LoggerService {
     Response postLog(@HeaderParam("X-Remote-User") String username, RemoteLog logEntity);
 
 
+    /**
+     * Accepts a batch of RemoteLog entities, such as the backlog a client flushes after reconnecting, and logs them
+     * like {@link #postLog(String, RemoteLog)}. Entries to persist are queued and written to the log table in the
+     * background; the response reports how many were queued and how many were dropped because the queue was full.
+     *
+     * @param username    User name of client posting the logs
+     * @param logEntities RemoteLog objects containing messages to log
+     * @return Response object with status and message
+     */
+    @Path("/batch")
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    Response postLogs(@HeaderParam("X-Remote-User") String username, List<RemoteLog> logEntities);
+
+
     /**
      * Retrieves RemoteLogTypes configured in database
      *
@@ -69,5 +87,18 @@ public interface LoggerService {
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
     Response getLogTypes();
+
+
+    /**
+     * Retrieves the counts of remote log entries accepted, dropped, persisted and failed, batch retries, and
+     * entries currently queued. Only available to super users
+     *
+     * @param requestingUser User name of the user requesting the counts
+     * @return Response object with the counts, or UNAUTHORIZED if the user isn't a super user
+     */
+    @Path("/stats")
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    Response getStats(@HeaderParam("X-Remote-User") String requestingUser);
 }
 
@@ -34,6 +34,18 @@ public class ReportOptParms extends QueryConstraintParms {
     private Integer incidentId = null;
     private Integer collabroomId = null;
 
+    /*
+     * Keyset paging: the seqtime and formid of the last report already read. When both are set, reports are sorted
+     * on seqtime and the page starts right after that report; offset is ignored.
+     */
+    private Long afterSeqtime = null;
+    private Integer afterFormId = null;
+
+    /*
+     * Return reports without their message, for lists that only need ids, type, times and sender.
+     */
+    private Boolean summary = null;
+
     public Integer getUserId() {
         return userId;
     }
@@ -57,4 +69,28 @@ public class ReportOptParms extends QueryConstraintParms {
     public void setCollabroomId(Integer collabroomId) {
         this.collabroomId = collabroomId;
     }
+
+    public Long getAfterSeqtime() {
+        return afterSeqtime;
+    }
+
+    public void setAfterSeqtime(Long afterSeqtime) {
+        this.afterSeqtime = afterSeqtime;
+    }
+
+    public Integer getAfterFormId() {
+        return afterFormId;
+    }
+
+    public void setAfterFormId(Integer afterFormId) {
+        this.afterFormId = afterFormId;
+    }
+
+    public Boolean getSummary() {
+        return summary;
+    }
+
+    public void setSummary(Boolean summary) {
+        this.summary = summary;
+    }
 }
@@ -33,6 +33,7 @@ import java.util.Collection;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
@@ -128,6 +129,24 @@ public interface UserService {
             @QueryParam("lastName") String lastName,
             @QueryParam("exact") boolean exact);
 
+    /**
+     * Typeahead search for users by username, first and last name, and email. Results are ranked, prefix matches
+     * first, and paged; see UserDAOImpl#searchUsers for the limits applied.
+     *
+     * @param term   the text to search for, at least 2 characters
+     * @param limit  the number of users to return, at most 100
+     * @param offset the index of the first user to return
+     *
+     * @return a UserResponse with the page of matching users
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/search")
+    Response searchUsers(
+            @QueryParam("term") String term,
+            @DefaultValue("25") @QueryParam("limit") int limit,
+            @DefaultValue("0") @QueryParam("offset") int offset);
+
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/enabled/{orgId}")
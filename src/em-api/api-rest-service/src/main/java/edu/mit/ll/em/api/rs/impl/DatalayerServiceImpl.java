@@ -41,8 +41,10 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -53,9 +55,6 @@ import java.util.zip.ZipInputStream;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.WebTarget;
-import javax.ws.rs.client.Invocation.Builder;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
@@ -87,8 +86,9 @@ import edu.mit.ll.em.api.rs.DatalayerService;
 import edu.mit.ll.em.api.rs.DatalayerServiceResponse;
 import edu.mit.ll.em.api.rs.FieldMapResponse;
 import edu.mit.ll.em.api.util.APIConfig;
+import edu.mit.ll.em.api.util.ArcGisTokenCache;
 import edu.mit.ll.em.api.util.FileUtil;
-import edu.mit.ll.em.api.util.ImageLayerGenerator;
+import edu.mit.ll.em.api.util.ImageLayerProvisioner;
 import edu.mit.ll.nics.common.constants.SADisplayConstants;
 import edu.mit.ll.nics.common.entity.User;
 import edu.mit.ll.nics.common.entity.UserOrg;
@@ -170,6 +170,10 @@ public class DatalayerServiceImpl implements DatalayerService {
 
     private final Client jerseyClient;
 
+    private final ArcGisTokenCache tokenCache;
+
+    private ImageLayerProvisioner imageLayerProvisioner;
+
     public DatalayerServiceImpl() {
         Configuration config = APIConfig.getInstance().getConfiguration();
         fileUploadPath = config.getString(APIConfig.FILE_UPLOAD_PATH, "/opt/data/nics/upload");
@@ -178,7 +182,31 @@ public class DatalayerServiceImpl implements DatalayerService {
         mapserverURL = config.getString(APIConfig.EXPORT_MAPSERVER_URL);
         mapserverPublicURL = config.getString(APIConfig.EXPORT_MAPSERVER_PUBLIC_URL);
         webserverURL = config.getString(APIConfig.EXPORT_WEBSERVER_URL);
-        jerseyClient = ClientBuilder.newClient();
+        long tokenTimeout = config.getLong(APIConfig.TOKEN_TIMEOUT, ArcGisTokenCache.DEFAULT_TIMEOUT);
+        jerseyClient = ArcGisTokenCache.newClient(tokenTimeout);
+        tokenCache = new ArcGisTokenCache(jerseyClient, this::getTokenCredentials,
+                config.getLong(APIConfig.TOKEN_REFRESH_AHEAD, ArcGisTokenCache.DEFAULT_REFRESH_AHEAD),
+                config.getLong(APIConfig.TOKEN_MIN_VALIDITY, ArcGisTokenCache.DEFAULT_MIN_VALIDITY),
+                tokenTimeout,
+                config.getLong(APIConfig.TOKEN_CREDENTIALS_CHECK, ArcGisTokenCache.DEFAULT_CREDENTIALS_CHECK));
+    }
+
+    /**
+     * Initialization method for this Service. Starts provisioning image layers in the background.
+     */
+    public void init() {
+        imageLayerProvisioner = new ImageLayerProvisioner(datalayerDao, this::publishImageLayer);
+        imageLayerProvisioner.start();
+    }
+
+    /**
+     * Destroy method for this Service.
+     */
+    public void destroy() {
+        if(imageLayerProvisioner != null) {
+            imageLayerProvisioner.stop();
+        }
+        tokenCache.shutdown();
     }
 
     @Override
@@ -268,10 +296,7 @@ public class DatalayerServiceImpl implements DatalayerService {
 
     @Override
     public Response postDataLayer(int workspaceId, String dataSourceId, Datalayer datalayer, String folderId) {
-        if(folderId == null || StringUtils.isBlank(folderId) ||
-                folderId.equalsIgnoreCase(NO_FOLDER_NAME)){
-            folderId = this.getUploadFolderId(workspaceId);
-        }
+        folderId = this.resolveFolderId(workspaceId, folderId);
         if(folderId == null){
             DatalayerDocumentServiceResponse datalayerResponse = new DatalayerDocumentServiceResponse();
             datalayerResponse.setSuccess(false);
@@ -281,6 +306,17 @@ public class DatalayerServiceImpl implements DatalayerService {
         return this.createDataLayer(workspaceId, dataSourceId, datalayer, folderId);
     }
 
+    /**
+     * @return the folder, or the workspace's upload folder when no folder is given
+     */
+    private String resolveFolderId(int workspaceId, String folderId) {
+        if(folderId == null || StringUtils.isBlank(folderId) ||
+                folderId.equalsIgnoreCase(NO_FOLDER_NAME)){
+            return this.getUploadFolderId(workspaceId);
+        }
+        return folderId;
+    }
+
     private Response createDataLayer(int workspaceId, String dataSourceId, Datalayer datalayer, String folderId) {
         DatalayerServiceResponse datalayerResponse = new DatalayerServiceResponse();
         Response response = null;
@@ -1049,36 +1085,23 @@ public class DatalayerServiceImpl implements DatalayerService {
 
         DatalayerServiceResponse datalayerResponse = new DatalayerServiceResponse();
         if(!cancel) {
-            ImageLayerGenerator generator = new ImageLayerGenerator(
-                    APIConfig.getInstance().getConfiguration().getString(APIConfig.IMAGE_LAYER_MAPSERVER_URL),
-                    APIConfig.getInstance().getConfiguration().getString(APIConfig.IMAGE_LAYER_MAPSERVER_USERNAME),
-                    APIConfig.getInstance().getConfiguration().getString(APIConfig.IMAGE_LAYER_MAPSERVER_PASSWORD),
-                    APIConfig.getInstance().getConfiguration().getString(APIConfig.IMAGE_LAYER_MAPSERVER_WORKSPACE),
-                    APIConfig.getInstance().getConfiguration().getString(APIConfig.IMAGE_LAYER_MAPSERVER_STORE));
-
-            boolean layerCreated = generator.addImageLayer(id, title);
-
-            log.debug("Layer Created : {}", layerCreated);
-
-            if(layerCreated) {
-                String datasourceId = datalayerDao.getDatasourceId(
-                        APIConfig.getInstance().getConfiguration().getString(APIConfig.IMAGE_LAYER_DATASOURCE_URL));
-
-                Datalayer datalayer = new Datalayer();
-                datalayer.setBaselayer(false);
-                datalayer.setCreated(new Date());
-                datalayer.setDisplayname(title);
-                datalayer.setUsersessionid(usersessionId);
-
-                Datalayersource datalayerSource = new Datalayersource();
-                datalayerSource.setLayername(id);
-                datalayer.setDatalayersource(datalayerSource);
-
-                log.debug("Post Datalayer (workspaceId, datasourceId, displayName): {}, {}, {}",
-                        workspaceId, datasourceId, datalayer.getDisplayname());
+            if(StringUtils.isBlank(id) || title == null) {
+                datalayerResponse.setMessage("Missing image layer id or title.");
+                return Response.ok(datalayerResponse).status(Status.BAD_REQUEST).build();
+            }
 
-                return this.postDataLayer(workspaceId, datasourceId, datalayer, folderId);
+            // The layer is created in the background, it's published to the workspace like any other new
+            // datalayer when it's ready and its progress can be read from getImageLayerStatus
+            ImageLayerJob job = new ImageLayerJob(id, workspaceId, title, usersessionId, folderId);
+            if(datalayerDao.insertImageLayerJob(job) < 0) {
+                datalayerResponse.setMessage(FAILED_TO_INSERT_DATALAYER);
+                return Response.ok(datalayerResponse).status(Status.INTERNAL_SERVER_ERROR).build();
             }
+            imageLayerProvisioner.submit();
+
+            datalayerResponse.setImageLayerJobs(Arrays.asList(datalayerDao.getImageLayerJob(id)));
+            datalayerResponse.setMessage(Status.ACCEPTED.toString());
+            return Response.ok(datalayerResponse).status(Status.ACCEPTED).build();
         } else {
             StringBuffer responseMessage = new StringBuffer();
             //Remove the image files from the file system
@@ -1112,6 +1135,7 @@ public class DatalayerServiceImpl implements DatalayerService {
             if(removed < 1) {
                 responseMessage.append("The images could not be removed from the database.");
             }
+            this.datalayerDao.removeImageLayerJob(id);
 
             if(responseMessage.length() != 0) {
                 datalayerResponse.setMessage(responseMessage.toString());
@@ -1121,6 +1145,83 @@ public class DatalayerServiceImpl implements DatalayerService {
         return Response.ok(datalayerResponse).status(Status.OK).build();
     }
 
+    public Response getImageLayerStatus(int workspaceId, String id) {
+        DatalayerServiceResponse datalayerResponse = new DatalayerServiceResponse();
+        ImageLayerJob job;
+        try {
+            job = datalayerDao.getImageLayerJob(id);
+        } catch(Exception e) {
+            log.error("Failed to read image layer job {}", id, e);
+            datalayerResponse.setMessage(FAILED_TO_RETRIEVE);
+            return Response.ok(datalayerResponse).status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+
+        if(job == null || job.getWorkspaceid() != workspaceId) {
+            datalayerResponse.setMessage("No image layer found for id " + id);
+            return Response.ok(datalayerResponse).status(Status.NOT_FOUND).build();
+        }
+        datalayerResponse.setImageLayerJobs(Arrays.asList(job));
+        datalayerResponse.setMessage(job.getStatus());
+        return Response.ok(datalayerResponse).status(Status.OK).build();
+    }
+
+    /**
+     * Creates the datalayer for an image layer ImageLayerProvisioner has added to GeoServer, in the folder it was
+     * uploaded to. A retried job may already have created the datalayer, e.g. when the job couldn't be marked
+     * complete afterwards, so an existing datalayer for the image is reused and only added to the folder if it is
+     * missing there.
+     *
+     * @return id of the datalayer
+     * @throws IllegalStateException if the datalayer couldn't be created
+     */
+    private String publishImageLayer(ImageLayerJob job) {
+        String datasourceId = datalayerDao.getDatasourceId(
+                APIConfig.getInstance().getConfiguration().getString(APIConfig.IMAGE_LAYER_DATASOURCE_URL));
+
+        String existingId = datalayerDao.getDatalayerId(datasourceId, job.getImageid());
+        if(existingId != null) {
+            log.info("Image layer {} already has datalayer {}, reusing it", job.getImageid(), existingId);
+            addToFolder(job.getWorkspaceid(), existingId, this.resolveFolderId(job.getWorkspaceid(),
+                    job.getFolderid()));
+            return existingId;
+        }
+
+        Datalayer datalayer = new Datalayer();
+        datalayer.setBaselayer(false);
+        datalayer.setCreated(new Date());
+        datalayer.setDisplayname(job.getTitle());
+        datalayer.setUsersessionid(job.getUsersessionid());
+
+        Datalayersource datalayerSource = new Datalayersource();
+        datalayerSource.setLayername(job.getImageid());
+        datalayer.setDatalayersource(datalayerSource);
+
+        log.debug("Post Datalayer (workspaceId, datasourceId, displayName): {}, {}, {}",
+                job.getWorkspaceid(), datasourceId, datalayer.getDisplayname());
+
+        Response response = this.postDataLayer(job.getWorkspaceid(), datasourceId, datalayer, job.getFolderid());
+        if(response.getStatus() != Status.OK.getStatusCode()) {
+            throw new IllegalStateException(FAILED_TO_INSERT_DATALAYER);
+        }
+        Collection<Datalayerfolder> folders = ((DatalayerServiceResponse) response.getEntity()).getDatalayerfolders();
+        return folders.isEmpty() ? null : folders.iterator().next().getDatalayerid();
+    }
+
+    /**
+     * Adds the datalayer to the folder unless it is already there
+     */
+    private void addToFolder(int workspaceId, String datalayerId, String folderId) {
+        if(folderId == null || datalayerDao.getDatalayerfolder(datalayerId, folderId) != null) {
+            return;
+        }
+        datalayerDao.insertDataLayerFolder(folderId, datalayerId, datalayerDao.getNextDatalayerFolderIndex(folderId));
+        try {
+            notifyNewChange(datalayerDao.getDatalayerfolder(datalayerId, folderId), workspaceId);
+        } catch(Exception e) {
+            log.error("Failed to publish DatalayerService message event", e);
+        }
+    }
+
     public Response postTrackingIcon(MultipartBody body, String username) {
         String filePath = APIConfig.getInstance().getConfiguration().getString(APIConfig.LAYER_ICON_UPLOAD_PATH,
                 "/opt/data/nics/upload/tracking");
@@ -1541,26 +1642,22 @@ public class DatalayerServiceImpl implements DatalayerService {
     }
 
     public Response getToken(String url, String username, String password) {
-        return Response.ok(this.requestToken(url, username, password)).status(Status.OK).build();
+        return Response.ok(tokenCache.requestToken(url, username, password)).status(Status.OK).build();
     }
 
     public Response getToken(String datasourceId) {
-        List<Map<String, Object>> data = datalayerDao.getAuthentication(datasourceId);
-
-        if(data.get(0) != null) {
-            String internalUrl = (String) data.get(0).get(SADisplayConstants.INTERNAL_URL);
-            String token = this.requestToken(internalUrl,
-                    (String) data.get(0).get(SADisplayConstants.USER_NAME),
-                    (String) data.get(0).get(SADisplayConstants.PASSWORD)
-            );
-            if(token != null) {
-                return Response.ok(token).status(Status.OK).build();
-            }
+        String token = tokenCache.getToken(datasourceId);
+        if(token != null) {
+            return Response.ok(token).status(Status.OK).build();
         }
 
         return Response.ok().status(Status.INTERNAL_SERVER_ERROR).build();
     }
 
+    public Response getTokenStats() {
+        return Response.ok(tokenCache.getStats()).status(Status.OK).build();
+    }
+
     public Response addCollabroomDatalayer(int collabroomId, String datalayerId) {
         DatalayerServiceResponse datalayerResponse = new DatalayerServiceResponse();
         Response response = null;
@@ -1610,15 +1707,24 @@ public class DatalayerServiceImpl implements DatalayerService {
 
         try {
 
-            datalayerDao.deleteCollabRoomDatalayers(collabroomDatalayers);
+            List<CollabroomDatalayer> deleted = datalayerDao.deleteCollabRoomDatalayers(collabroomDatalayers);
+
+            List<CollabroomDatalayer> skipped = new ArrayList<CollabroomDatalayer>(collabroomDatalayers);
+            skipped.removeAll(deleted);
 
-            notifyDeleteCollabroom(collabroomDatalayers);
-            datalayerResponse.setCount(collabroomDatalayers.size());
+            datalayerResponse.setCollabroomDatalayers(deleted);
+            datalayerResponse.setSkippedCollabroomDatalayers(skipped);
+            datalayerResponse.setCount(deleted.size());
             datalayerResponse.setMessage(Status.OK.toString());
             response = Response.ok(datalayerResponse).status(Status.OK).build();
 
+            try {
+                notifyDeleteCollabroom(deleted);
+            } catch(Exception e) {
+                log.error("Failed to publish collabroom datalayer delete", e);
+            }
         } catch(Exception ex) {
-            log.error("Failed to add collabroom datalayer", ex);
+            log.error("Failed to delete collabroom datalayers", ex);
             datalayerResponse.setMessage("failed");
             response = Response.ok(datalayerResponse).status(Status.INTERNAL_SERVER_ERROR).build();
         }
@@ -1637,6 +1743,7 @@ public class DatalayerServiceImpl implements DatalayerService {
         }
         if(dataSourceId != null) {
             int rowCount = datalayerDao.deleteDatasource(dataSourceId);
+            tokenCache.invalidate(dataSourceId);
             if (rowCount > 0) {
                 datalayerResponse.setCount(rowCount);
                 datalayerResponse.setMessage(Status.OK.toString());
@@ -1652,27 +1759,15 @@ public class DatalayerServiceImpl implements DatalayerService {
         }
     }
 
-    private String requestToken(String internalUrl, String username, String password) {
-        int index = internalUrl.indexOf("rest/services");
-        if(index == -1) {
-            index = internalUrl.indexOf("services");
-        }
-
-        if(index > -1) {
-            StringBuffer url = new StringBuffer(internalUrl.substring(0, index));
-            url.append("tokens/generateToken?");
-            url.append("username=");
-            url.append(username);
-            url.append("&password=");
-            url.append(password);
-            url.append("&f=json");
-
-            WebTarget target = jerseyClient.target(url.toString());
-            Builder builder = target.request("json");
-            return builder.get().readEntity(String.class);
+    private ArcGisTokenCache.Credentials getTokenCredentials(String datasourceId) {
+        List<Map<String, Object>> data = datalayerDao.getAuthentication(datasourceId);
+        if(data.isEmpty() || data.get(0) == null) {
+            return null;
         }
-
-        return null;
+        return new ArcGisTokenCache.Credentials(
+                (String) data.get(0).get(SADisplayConstants.INTERNAL_URL),
+                (String) data.get(0).get(SADisplayConstants.USER_NAME),
+                (String) data.get(0).get(SADisplayConstants.PASSWORD));
     }
 
     private Document getDocument(Attachment attachment, Path directory) {
@@ -1815,14 +1910,27 @@ public class DatalayerServiceImpl implements DatalayerService {
         }
     }
 
-    private void notifyDeleteCollabroom(ArrayList<CollabroomDatalayer> collabroomDatalayers)
+    private void notifyDeleteCollabroom(List<CollabroomDatalayer> collabroomDatalayers)
             throws IOException, TimeoutException, AlreadyClosedException {
-        if(collabroomDatalayers != null) {
-            String topic = String.format("iweb.NICS.collabroom.%d.datalayer.delete",
-                    collabroomDatalayers.get(0).getCollabroomid());
-            ObjectMapper mapper = new ObjectMapper();
-            String message = mapper.writeValueAsString(collabroomDatalayers);
-            getRabbitProducer().produce(topic, message);
+        if(collabroomDatalayers == null || collabroomDatalayers.isEmpty()) {
+            return;
+        }
+
+        // One message per room, so a bulk removal spanning rooms reaches each room's subscribers
+        Map<Integer, List<CollabroomDatalayer>> byRoom = new LinkedHashMap<Integer, List<CollabroomDatalayer>>();
+        for(CollabroomDatalayer collabroomDatalayer : collabroomDatalayers) {
+            List<CollabroomDatalayer> roomDatalayers = byRoom.get(collabroomDatalayer.getCollabroomid());
+            if(roomDatalayers == null) {
+                roomDatalayers = new ArrayList<CollabroomDatalayer>();
+                byRoom.put(collabroomDatalayer.getCollabroomid(), roomDatalayers);
+            }
+            roomDatalayers.add(collabroomDatalayer);
+        }
+
+        ObjectMapper mapper = new ObjectMapper();
+        for(Map.Entry<Integer, List<CollabroomDatalayer>> entry : byRoom.entrySet()) {
+            String topic = String.format("iweb.NICS.collabroom.%d.datalayer.delete", entry.getKey());
+            getRabbitProducer().produce(topic, mapper.writeValueAsString(entry.getValue()));
         }
     }
 
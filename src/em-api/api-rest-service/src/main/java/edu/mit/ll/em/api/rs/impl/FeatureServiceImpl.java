@@ -140,6 +140,11 @@ public class FeatureServiceImpl implements FeatureService {
     private static final String FEATURE_COMMENT_UPDATE = "update";
     private static final String FEATURE_COMMENT_DELETE = "delete";
 
+    /**
+     * Most feature ids accepted by one bulk delete or restore
+     */
+    private static final int MAX_BULK_FEATURES = 10000;
+
     private RabbitPubSubProducer rabbitProducer;
 
     private final String fileUploadPath;
@@ -565,6 +570,79 @@ public class FeatureServiceImpl implements FeatureService {
         return persistFeatureChange(feature, 3857);
     }
 
+    /**
+     * Deletes a set of features from a collaboration room, e.g. a multi-select delete or clearing the room
+     *
+     * @param collabRoomId
+     * @param featureIds
+     * @return Response A FeatureServiceResponse listing the ids that were deleted
+     */
+    public Response deleteCollabRoomFeatures(int collabRoomId, List<Long> featureIds, String requestingUser) {
+        return setCollabRoomFeaturesDeleted(collabRoomId, featureIds, true, requestingUser);
+    }
+
+    /**
+     * Restores a set of deleted features to a collaboration room, undoing {@link #deleteCollabRoomFeatures}
+     *
+     * @param collabRoomId
+     * @param featureIds
+     * @return Response A FeatureServiceResponse with the restored features
+     */
+    public Response restoreCollabRoomFeatures(int collabRoomId, List<Long> featureIds, String requestingUser) {
+        return setCollabRoomFeaturesDeleted(collabRoomId, featureIds, false, requestingUser);
+    }
+
+    private Response setCollabRoomFeaturesDeleted(int collabRoomId, List<Long> featureIds, boolean deleted,
+                                                  String requestingUser) {
+        if(!collabRoomDao.hasPermissions(userDao.getUserId(requestingUser), collabRoomId)) {
+            return getAccessDeniedResponse();
+        }
+
+        FeatureServiceResponse featureResponse = new FeatureServiceResponse();
+        if(featureIds == null || featureIds.isEmpty() || featureIds.size() > MAX_BULK_FEATURES) {
+            featureResponse.setMessage(String.format("Between 1 and %d featureIds are required", MAX_BULK_FEATURES));
+            return Response.ok(featureResponse).status(Status.BAD_REQUEST).build();
+        }
+
+        List<Long> changedIds;
+        List<Feature> restored = Collections.emptyList();
+        try {
+            changedIds = featureDao.setCollabroomFeaturesDeleted(collabRoomId, featureIds, deleted);
+            if(!deleted && !changedIds.isEmpty()) {
+                restored = featureDao.getFeatures(changedIds);
+                buildDocumentUrls(restored);
+            }
+        } catch(Exception e) {
+            log.error("Failed to set deleted={} on {} features in collabroom {}", deleted, featureIds.size(),
+                    collabRoomId, e);
+            featureResponse.setMessage(deleted ? ERROR_REMOVING_FROM_THE_MAP : UE_PERSISTING_FEATURE);
+            return Response.ok(featureResponse).status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+
+        // One message for the whole set, in the same shape the change topic already accepts on reconnect
+        FeatureServiceResponse change = new FeatureServiceResponse();
+        if(deleted) {
+            change.setDeletedFeature(changedIds);
+            featureResponse.setDeletedFeature(changedIds);
+        } else {
+            change.setFeatures(restored);
+            featureResponse.setFeatures(restored);
+        }
+
+        if(!changedIds.isEmpty()) {
+            try {
+                getRabbitProducer().produce(String.format("iweb.NICS.collabroom.%s.changefeature", collabRoomId),
+                        new ObjectMapper().writeValueAsString(change));
+            } catch(Exception e) {
+                log.error(deleted ? ERROR_PUBLISH_DELETE : PUBLISH_COLLABROOM_ERROR, e);
+            }
+        }
+
+        featureResponse.setMessage(Status.OK.getReasonPhrase());
+        featureResponse.setCount(changedIds.size());
+        return Response.ok(featureResponse).status(Status.OK).build();
+    }
+
     /**
      * Share all of the user's features with the specified collaboration room.
      *
@@ -660,6 +738,85 @@ public class FeatureServiceImpl implements FeatureService {
         return Response.ok(response).build();
     }
 
+    /**
+     * Copy the features of one collaboration room into another, e.g. to carry a map into the room for a new
+     * operational period.
+     *
+     * @param collabRoomId   The id of the collaboration room to copy from
+     * @param toCollabRoomId The id of the collaboration room to copy to
+     * @param bbox           Optional "minx,miny,maxx,maxy" in geoType coordinates, limiting the copy to that area
+     * @param geoType        The SRID of the bbox
+     * @param types          Optional feature types to limit the copy to
+     * @return Response A FeatureServiceResponse with the number of features copied
+     */
+    @Override
+    public Response copyCollabRoomFeatures(int collabRoomId, int toCollabRoomId, String bbox, int geoType,
+                                           List<String> types, String requestingUser) {
+        long userId = userDao.getUserId(requestingUser);
+        if(!collabRoomDao.hasPermissions(userId, collabRoomId) || !collabRoomDao.hasPermissions(userId,
+                toCollabRoomId)) {
+            return getAccessDeniedResponse();
+        }
+
+        FeatureServiceResponse response = new FeatureServiceResponse();
+        if(collabRoomId == toCollabRoomId) {
+            response.setMessage("Cannot copy a collaboration room's features into itself");
+            return Response.ok(response).status(Status.BAD_REQUEST).build();
+        }
+
+        double[] bounds = null;
+        if(bbox != null && !bbox.trim().isEmpty()) {
+            bounds = parseBbox(bbox);
+            if(bounds == null) {
+                response.setMessage("bbox must be minx,miny,maxx,maxy");
+                return Response.ok(response).status(Status.BAD_REQUEST).build();
+            }
+        }
+
+        List<Long> newFeatureIds;
+        try {
+            newFeatureIds = featureDao.copyCollabroomFeatures(collabRoomId, toCollabRoomId, bounds, geoType, types);
+        } catch(Exception e) {
+            log.error("Failed to copy features from collabroom {} to {}", collabRoomId, toCollabRoomId, e);
+            response.setMessage(UE_PERSISTING_FEATURE);
+            return Response.ok(response).status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+
+        if(!newFeatureIds.isEmpty()) {
+            String topic = String.format("iweb.NICS.collabroom.%s.feature", toCollabRoomId);
+            List<Feature> newFeatures = featureDao.getFeatures(newFeatureIds);
+            buildDocumentUrls(newFeatures);
+            for(Feature newFeature : newFeatures) {
+                try {
+                    notifyNewFeature(newFeature, topic);
+                } catch(Exception e) {
+                    log.error("Failed to publish new feature message", e);
+                }
+            }
+        }
+
+        response.setMessage(Status.OK.getReasonPhrase());
+        response.setCount(newFeatureIds.size());
+        return Response.ok(response).status(Status.OK).build();
+    }
+
+    private double[] parseBbox(String bbox) {
+        String[] parts = bbox.split(",");
+        if(parts.length != 4) {
+            return null;
+        }
+
+        double[] bounds = new double[4];
+        try {
+            for(int i = 0; i < parts.length; i++) {
+                bounds[i] = Double.parseDouble(parts[i].trim());
+            }
+        } catch(NumberFormatException e) {
+            return null;
+        }
+        return bounds[0] <= bounds[2] && bounds[1] <= bounds[3] ? bounds : null;
+    }
+
     @Override
     public Response postFeatureDocument(long featureId, String documentId, String requestingUser) {
         try {
@@ -398,63 +398,118 @@ public class FolderServiceImpl implements FolderService {
         FolderDataServiceResponse folderResponse = new FolderDataServiceResponse();
 
         if(folderId != null && !folderId.isEmpty()) {
-            Folder folder = folderDao.getFolder(folderId);
-            //decrement all higher indexes from previous parent OR REORDER
-            folderDao.decrementIndexes(folder.getParentfolderid(), folder.getIndex());
+            //move between the new neighbors, renumbering the siblings in the same transaction if there's no room.
+            //the moved folder goes first, followed by any renumbered siblings
+            List<Folder> folders = folderDao.moveFolder(folderDao.getFolder(folderId), parentFolderId, index);
+            if(folders == null) {
+                folderResponse.setMessage(ERROR_MESSAGE);
+                return Response.ok(folderResponse).status(Status.INTERNAL_SERVER_ERROR).build();
+            }
 
-            //increment all higher/equal indexes in new parent
-            folderDao.incrementIndexes(parentFolderId, index);
+            String topic = String.format("iweb.NICS.%s.folder.update", workspaceId);
+            for(Folder updated : folders) {
+                try {
+                    notifyFolder(updated, topic);
+                } catch(Exception e) {
+                    log.error("Failed to publish updating a folder message event", e);
+                }
+            }
 
-            //update parent folder id
-            folder.setParentfolderid(parentFolderId);
-            //update index
-            folder.setIndex(index);
-            folder = folderDao.updateFolder(folder);
+            folderResponse.setCount(folders.size());
+            folderResponse.setFolders(folders);
+            response = Response.ok(folderResponse).build();
+        } else if(datalayerfolderId != null) {
+            //move between the new neighbors, renumbering the siblings in the same transaction if there's no room.
+            //the moved datalayerfolder goes first, followed by any renumbered siblings
+            List<Datalayerfolder> dlFolders = datalayerDao.moveDatalayerfolder(datalayerfolderId, parentFolderId,
+                    index);
+            if(dlFolders == null) {
+                folderResponse.setMessage(ERROR_MESSAGE);
+                return Response.ok(folderResponse).status(Status.INTERNAL_SERVER_ERROR).build();
+            }
+
+            String topic = String.format("iweb.NICS.%s.datalayer.update", workspaceId);
+            for(Datalayerfolder updated : dlFolders) {
+                try {
+                    notifyFolder(updated, topic);
+                } catch(Exception e) {
+                    log.error("Failed to publish updating a folder message event", e);
+                }
+            }
+
+            folderResponse.setCount(dlFolders.size());
+            folderResponse.setDatalayerfolders(dlFolders);
+            response = Response.ok(folderResponse).build();
+        } else {
+            folderResponse.setMessage(ERROR_MESSAGE);
+            response = Response.ok(folderResponse).status(Status.BAD_REQUEST).build();
+        }
+
+        return response;
+    }
+
+    @Override
+    public Response reorderFolders(int workspaceId, String parentFolderId, List<String> folderIds) {
+        FolderDataServiceResponse folderResponse = new FolderDataServiceResponse();
 
+        if(folderIds == null || folderIds.isEmpty()) {
+            folderResponse.setMessage(ERROR_MESSAGE);
+            return Response.ok(folderResponse).status(Status.BAD_REQUEST).build();
+        }
+
+        try {
+            folderDao.reorderFolders(parentFolderId, folderIds);
+        } catch(Exception e) {
+            log.error("Data access exception while reordering folders in folder {}", parentFolderId, e);
+            folderResponse.setMessage(ERROR_MESSAGE);
+            return Response.ok(folderResponse).status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+
+        List<Folder> folders = folderDao.getOrderedFolders(parentFolderId, workspaceId);
+        String topic = String.format("iweb.NICS.%s.folder.update", workspaceId);
+        for(Folder folder : folders) {
             try {
-                String topic = String.format("iweb.NICS.%s.folder.update", workspaceId);
                 notifyFolder(folder, topic);
-
             } catch(Exception e) {
                 log.error("Failed to publish updating a folder message event", e);
             }
+        }
 
-            folderResponse.setCount(1);
-            folderResponse.setFolders(Arrays.asList(folder));
-            response = Response.ok(folderResponse).build();
-        } else if(datalayerfolderId != null) {
-            Datalayerfolder dlFolder = datalayerDao.getDatalayerfolder(datalayerfolderId);
+        folderResponse.setCount(folders.size());
+        folderResponse.setFolders(folders);
+        return Response.ok(folderResponse).build();
+    }
 
-            //decrement all higher indexes from previous parent
-            datalayerDao.decrementIndexes(dlFolder.getFolderid(), dlFolder.getIndex());
+    @Override
+    public Response reorderDatalayerfolders(int workspaceId, String parentFolderId, List<Integer> datalayerfolderIds) {
+        FolderDataServiceResponse folderResponse = new FolderDataServiceResponse();
 
-            //make space for destination. increment all higher/equal indexes in new parent
-            datalayerDao.incrementIndexes(parentFolderId, index);
+        if(datalayerfolderIds == null || datalayerfolderIds.isEmpty()) {
+            folderResponse.setMessage(ERROR_MESSAGE);
+            return Response.ok(folderResponse).status(Status.BAD_REQUEST).build();
+        }
 
-            //make the move. update parent folder id, update index
-            dlFolder.setFolderid(parentFolderId);
-            dlFolder.setIndex(index);
-            dlFolder = datalayerDao.updateDatalayerfolder(dlFolder);
-            dlFolder = datalayerDao.getDatalayerfolder(
-                    dlFolder.getDatalayerid(), dlFolder.getFolderid());
+        try {
+            datalayerDao.reorderDatalayerfolders(parentFolderId, datalayerfolderIds);
+        } catch(Exception e) {
+            log.error("Data access exception while reordering datalayers in folder {}", parentFolderId, e);
+            folderResponse.setMessage(ERROR_MESSAGE);
+            return Response.ok(folderResponse).status(Status.INTERNAL_SERVER_ERROR).build();
+        }
 
+        List<Datalayerfolder> dlFolders = datalayerDao.getDatalayerFolders(parentFolderId);
+        String topic = String.format("iweb.NICS.%s.datalayer.update", workspaceId);
+        for(Datalayerfolder dlFolder : dlFolders) {
             try {
-                String topic = String.format("iweb.NICS.%s.datalayer.update", workspaceId);
                 notifyFolder(dlFolder, topic);
-
             } catch(Exception e) {
                 log.error("Failed to publish updating a folder message event", e);
             }
-
-            folderResponse.setCount(1);
-            folderResponse.setDatalayerfolders(Arrays.asList(dlFolder));
-            response = Response.ok(folderResponse).build();
-        } else {
-            folderResponse.setMessage(ERROR_MESSAGE);
-            response = Response.ok(folderResponse).status(Status.BAD_REQUEST).build();
         }
 
-        return response;
+        folderResponse.setCount(dlFolders.size());
+        folderResponse.setDatalayerfolders(dlFolders);
+        return Response.ok(folderResponse).build();
     }
 
     private String getDocumentUploadPath(int orgId, int incidentId, int collabroomId) {
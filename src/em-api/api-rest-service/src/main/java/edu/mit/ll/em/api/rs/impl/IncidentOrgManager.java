@@ -112,8 +112,8 @@ public class IncidentOrgManager {
     public boolean validateRemoval(IncidentOrg incOrg,
                                    List<Integer> incidentOrgs,
                                    List<Integer> orgsToBeRemoved) {
-        List<Integer> childIds =
-                orgDao.getAllChildren(Arrays.asList(incOrg.getOrgid()));
+        Set<Integer> childIds =
+                orgDao.getDescendantOrgIds(Collections.singletonList(incOrg.getOrgid()));
 
         for(int childId : childIds) {
             if(incidentOrgs.contains(childId) &&
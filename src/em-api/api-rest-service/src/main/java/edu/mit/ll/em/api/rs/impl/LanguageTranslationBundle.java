@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.em.api.rs.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+import javax.ws.rs.core.EntityTag;
+
+/**
+ * Immutable, pre-serialized Language Translation response. Holds the JSON bytes, a gzipped copy of
+ * them, and an ETag for each derived from the content so identical bundles produce identical tags across
+ * restarts and across em-api instances. The two copies are different bytes, so they carry different strong tags.
+ */
+public final class LanguageTranslationBundle {
+
+    /**
+     * Wildcard value for the If-None-Match header: {@value}
+     */
+    private static final String ANY_TAG = "*";
+
+    /**
+     * Prefix of a weak entity tag: {@value}
+     */
+    private static final String WEAK_PREFIX = "W/";
+
+    /**
+     * Suffix of the gzipped copy's ETag value: {@value}
+     */
+    private static final String GZIP_SUFFIX = "-gzip";
+
+    private final byte[] json;
+
+    private final byte[] gzipped;
+
+    private final EntityTag entityTag;
+
+    private final EntityTag gzippedEntityTag;
+
+    private LanguageTranslationBundle(final byte[] json, final byte[] gzipped, final String digest) {
+        this.json = json;
+        this.gzipped = gzipped;
+        this.entityTag = new EntityTag(digest);
+        this.gzippedEntityTag = new EntityTag(digest + GZIP_SUFFIX);
+    }
+
+    /**
+     * Builds a bundle from serialized JSON, computing its gzipped form and ETags once.
+     *
+     * @param json the serialized response
+     * @return the bundle
+     * @throws IOException if the content could not be compressed
+     */
+    public static LanguageTranslationBundle of(final byte[] json) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(json);
+        }
+        return new LanguageTranslationBundle(json, bytes.toByteArray(), digest(json));
+    }
+
+    public byte[] getJson() {
+        return json;
+    }
+
+    public byte[] getGzipped() {
+        return gzipped;
+    }
+
+    /**
+     * @param gzip whether the gzipped copy is served
+     * @return the ETag of the copy served
+     */
+    public EntityTag getEntityTag(final boolean gzip) {
+        return gzip ? gzippedEntityTag : entityTag;
+    }
+
+    /**
+     * Checks an If-None-Match header value against this bundle's ETags. Weak tags are compared by their
+     * opaque value, since intermediaries that re-encode the response commonly weaken the tag.
+     *
+     * @param ifNoneMatch the raw If-None-Match header value, may be null
+     * @param gzip whether the gzipped copy would be served, which is the one a wildcard matches
+     * @return the ETag of the copy the client already holds, or null if it holds neither
+     */
+    public EntityTag match(final String ifNoneMatch, final boolean gzip) {
+        if (ifNoneMatch == null || ifNoneMatch.isEmpty()) {
+            return null;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (ANY_TAG.equals(tag)) {
+                return getEntityTag(gzip);
+            }
+            if (tag.startsWith(WEAK_PREFIX)) {
+                tag = tag.substring(WEAK_PREFIX.length());
+            }
+            if (tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+                tag = tag.substring(1, tag.length() - 1);
+            }
+            if (entityTag.getValue().equals(tag)) {
+                return entityTag;
+            }
+            if (gzippedEntityTag.getValue().equals(tag)) {
+                return gzippedEntityTag;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Utility method to compute a hex SHA-256 digest of the content, used as the ETag value.
+     */
+    private static String digest(final byte[] content) {
+        try {
+            final byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+            final StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
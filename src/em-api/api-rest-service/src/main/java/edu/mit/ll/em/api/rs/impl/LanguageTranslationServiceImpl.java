@@ -41,23 +41,37 @@ import edu.mit.ll.nics.common.entity.Org;
 import edu.mit.ll.nics.common.entity.UserOrg;
 import edu.mit.ll.nics.nicsdao.impl.UserOrgDAOImpl;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.List;
 import java.util.Map;
 import java.util.Collection;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.lang.StringBuilder;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -73,6 +87,10 @@ import org.json.JSONObject;
 
 /**
  * Language Translation Service Implementation.  Provides CRUD operations nn Language Translations.
+ *
+ * <p>Responses are served from pre-serialized, pre-gzipped {@link LanguageTranslationBundle}s that are only
+ * rebuilt when a Language changes, and are tagged with an ETag so clients can revalidate with If-None-Match.
+ * Edits are persisted by a debounced background writer rather than on the request thread.</p>
  */
 public class LanguageTranslationServiceImpl implements LanguageTranslationService {
     /**
@@ -85,6 +103,36 @@ public class LanguageTranslationServiceImpl implements LanguageTranslationServic
      */
     private static final UserOrgDAOImpl userorgDao = new UserOrgDAOImpl();
 
+    /**
+     * Mapper used to pre-serialize bundles, matching the JSON provider used for the other responses.
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Bundle cache key for the response containing all Language translations.
+     */
+    private static final String BUNDLE_ALL = "*all";
+
+    /**
+     * Bundle cache key for the response containing the Language codes.
+     */
+    private static final String BUNDLE_CODES = "*codes";
+
+    /**
+     * Default delay, in milliseconds, after the last edit before a Language is written to disk.
+     */
+    private static final long DEFAULT_WRITE_DELAY = 2000;
+
+    /**
+     * Default longest time, in milliseconds, an edit may wait to be written while edits keep arriving.
+     */
+    private static final long DEFAULT_WRITE_MAX_DELAY = 10000;
+
+    /**
+     * Default number of times writing a Language is attempted before it is left unsaved until its next edit.
+     */
+    private static final int DEFAULT_WRITE_MAX_ATTEMPTS = 5;
+
     /**
      * The root language translation path from the em-api configuration.
      */
@@ -95,6 +143,48 @@ public class LanguageTranslationServiceImpl implements LanguageTranslationServic
      */
     private static ConcurrentHashMap<String, LanguageTranslation> translationMap = new ConcurrentHashMap<>();
 
+    /**
+     * Pre-serialized responses keyed by Language code, or by {@link #BUNDLE_ALL}/{@link #BUNDLE_CODES}.
+     */
+    private static final ConcurrentHashMap<String, LanguageTranslationBundle> bundleMap = new ConcurrentHashMap<>();
+
+    /**
+     * Guards mutation of the translation JSON against concurrent serialization of bundles and files.
+     */
+    private static final Object translationLock = new Object();
+
+    /**
+     * Language codes with edits that have not yet been written to disk.
+     */
+    private static final Set<String> dirtyCodes = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Failed write attempts of Language codes that could not be written to disk, cleared by a successful write or
+     * a new edit.
+     */
+    private static final ConcurrentHashMap<String, Integer> failedWrites = new ConcurrentHashMap<>();
+
+    /**
+     * Single background thread writing edited Languages to disk.
+     */
+    private static ScheduledExecutorService translationWriter = null;
+
+    /**
+     * Pending debounced write, rescheduled on every edit.
+     */
+    private static ScheduledFuture<?> pendingWrite = null;
+
+    /**
+     * Time the oldest unwritten edit was made, used to cap the debounce.
+     */
+    private static long firstPendingEdit = 0;
+
+    private static long writeDelay = DEFAULT_WRITE_DELAY;
+
+    private static long writeMaxDelay = DEFAULT_WRITE_MAX_DELAY;
+
+    private static int writeMaxAttempts = DEFAULT_WRITE_MAX_ATTEMPTS;
+
     /**
      * Reference holder to the default Language code.
      */
@@ -109,9 +199,58 @@ public class LanguageTranslationServiceImpl implements LanguageTranslationServic
      * Initialization method for this Service.
      */
     public void init() {
+        writeDelay = APIConfig.getInstance().getConfiguration()
+                .getLong(APIConfig.TRANSLATION_WRITE_DELAY, DEFAULT_WRITE_DELAY);
+        writeMaxDelay = APIConfig.getInstance().getConfiguration()
+                .getLong(APIConfig.TRANSLATION_WRITE_MAX_DELAY, DEFAULT_WRITE_MAX_DELAY);
+        writeMaxAttempts = APIConfig.getInstance().getConfiguration()
+                .getInt(APIConfig.TRANSLATION_WRITE_MAX_ATTEMPTS, DEFAULT_WRITE_MAX_ATTEMPTS);
+
+        synchronized (LanguageTranslationServiceImpl.class) {
+            if (translationWriter == null) {
+                final ScheduledThreadPoolExecutor writer = new ScheduledThreadPoolExecutor(1, runnable -> {
+                    final Thread thread = new Thread(runnable, "translation-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                // destroy() writes whatever is still waiting, so waiting retries don't hold up the shutdown
+                writer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+                translationWriter = writer;
+            }
+        }
+
         loadTranslations();
     }
 
+    /**
+     * Destroy method for this Service. Writes any pending edits, including those whose earlier writes failed, before
+     * stopping the background writer, and reports the Languages that still could not be written.
+     */
+    public void destroy() {
+        final ScheduledExecutorService writer;
+        synchronized (LanguageTranslationServiceImpl.class) {
+            writer = translationWriter;
+            translationWriter = null;
+            if (pendingWrite != null) {
+                pendingWrite.cancel(false);
+            }
+        }
+
+        if (writer != null) {
+            writer.shutdown();
+            try {
+                writer.awaitTermination(writeMaxDelay, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        dirtyCodes.addAll(failedWrites.keySet());
+        writePendingTranslations();
+        if (!failedWrites.isEmpty()) {
+            LOG.error(MESSAGE_ERROR_TRANSLATIONS_LOST, failedWrites.keySet());
+        }
+    }
+
     /**
      * Method loads a specified translation file from disk and adds to
      * Language translation map.
@@ -168,8 +307,7 @@ public class LanguageTranslationServiceImpl implements LanguageTranslationServic
         }
     }
 
-    public Response getAllLanguageTranslations() {
-        Response response;
+    public Response getAllLanguageTranslations(String ifNoneMatch, String acceptEncoding) {
         LanguageTranslationResponse translationResponse = new LanguageTranslationResponse();
 
         if (invalidConfig) {
@@ -177,35 +315,30 @@ public class LanguageTranslationServiceImpl implements LanguageTranslationServic
             return Response.ok(translationResponse).status(Status.INTERNAL_SERVER_ERROR).build();
         }
 
-        translationResponse.setMessage(MESSAGE_SUCCESS);
-        translationResponse.setTranslations(translationMap.values());
-        return Response.ok(translationResponse).status(Status.OK).build();
+        return bundleResponse(BUNDLE_ALL, () -> translationMap.values(), ifNoneMatch, acceptEncoding);
     }
 
-    public Response getLanguageTranslationCodes() {
-        Response response;
+    public Response getLanguageTranslationCodes(String ifNoneMatch, String acceptEncoding) {
         LanguageTranslationResponse translationResponse = new LanguageTranslationResponse();
-        ArrayList<LanguageTranslation> codes = new ArrayList<>();
 
         if (invalidConfig) {
             translationResponse.setMessage(MESSAGE_INVALID_CONFIG);
             return Response.ok(translationResponse).status(Status.INTERNAL_SERVER_ERROR).build();
         }
 
-        for (Map.Entry<String, LanguageTranslation> entry: translationMap.entrySet()) {
-            final LanguageTranslation val = entry.getValue();
-            final LanguageTranslation code = new LanguageTranslation(val.getCode(), val.getLanguage(), false,
-                    val.getSelectOrgText(), new JSONObject());
-            codes.add(code);
-        }
-
-        translationResponse.setMessage(MESSAGE_SUCCESS);
-        translationResponse.setTranslations(codes);
-        return Response.ok(translationResponse).status(Status.OK).build();
+        return bundleResponse(BUNDLE_CODES, () -> {
+            ArrayList<LanguageTranslation> codes = new ArrayList<>();
+            for (Map.Entry<String, LanguageTranslation> entry: translationMap.entrySet()) {
+                final LanguageTranslation val = entry.getValue();
+                final LanguageTranslation code = new LanguageTranslation(val.getCode(), val.getLanguage(), false,
+                        val.getSelectOrgText(), new JSONObject());
+                codes.add(code);
+            }
+            return codes;
+        }, ifNoneMatch, acceptEncoding);
     }
 
-    public Response getLanguageTranslationByCode(String code) {
-        Response response;
+    public Response getLanguageTranslationByCode(String code, String ifNoneMatch, String acceptEncoding) {
         LanguageTranslationResponse translationResponse = new LanguageTranslationResponse();
 
         if (invalidConfig) {
@@ -214,9 +347,7 @@ public class LanguageTranslationServiceImpl implements LanguageTranslationServic
         }
 
         if (translationMap.containsKey(code)) {
-            translationResponse.setMessage(MESSAGE_SUCCESS);
-            translationResponse.setTranslations(Arrays.asList(translationMap.get(code)));
-            return Response.ok(translationResponse).status(Status.OK).build();
+            return bundleResponse(code, () -> Arrays.asList(translationMap.get(code)), ifNoneMatch, acceptEncoding);
         } else {
             translationResponse.setMessage(new StringBuilder().append(MESSAGE_BAD_LANGUAGE_CODE)
                 .append(code).toString());
@@ -252,12 +383,7 @@ public class LanguageTranslationServiceImpl implements LanguageTranslationServic
 
         final String key = translation.getKey();
         final String value = translation.getValue();
-        try {
-            updateTranslationMap(code, key, value);
-        } catch (IOException ioe) {
-            translationResponse.setMessage(MESSAGE_FAIL_LANGUAGE_WRITE);
-            return Response.ok(translationResponse).status(Status.INTERNAL_SERVER_ERROR).build();
-        }
+        updateTranslationMap(code, key, value);
 
         translationResponse.setMessage(MESSAGE_SUCCESS);
         return Response.ok(translationResponse).status(Status.OK).build();
@@ -291,6 +417,7 @@ public class LanguageTranslationServiceImpl implements LanguageTranslationServic
                 selectOrgText, generateDefaultTranslationMap());
         try {
             saveTranslation(lt);
+            addLanguageTranslationToMap(code, lt);
 
             translationResponse.setMessage(MESSAGE_SUCCESS);
             translationResponse.setTranslations(Arrays.asList(lt));
@@ -305,33 +432,197 @@ public class LanguageTranslationServiceImpl implements LanguageTranslationServic
      * Utility method to handle adding LanguageTranslation to the translation map.
      */
     private void addLanguageTranslationToMap(final String code, final LanguageTranslation lt) {
-        translationMap.put(code, lt);
+        synchronized (translationLock) {
+            translationMap.put(code, lt);
+            bundleMap.remove(code);
+            bundleMap.remove(BUNDLE_ALL);
+            bundleMap.remove(BUNDLE_CODES);
+        }
     }
 
     /**
-     * Utility method to save updated LanguageTranslation objects to the filesystem.
+     * Utility method to serve a cached bundle, answering 304 when the client already holds it and
+     * the gzipped form when the client accepts it.
+     *
+     * @param key the bundle cache key
+     * @param translations supplies the Language translations to serialize if the bundle is not cached
+     * @param ifNoneMatch the If-None-Match header sent by the client
+     * @param acceptEncoding the Accept-Encoding header sent by the client
+     */
+    private Response bundleResponse(final String key, final Supplier<Collection<LanguageTranslation>> translations,
+                                    final String ifNoneMatch, final String acceptEncoding) {
+        final LanguageTranslationBundle bundle;
+        try {
+            bundle = getBundle(key, translations);
+        } catch (IOException ioe) {
+            LOG.error(MESSAGE_FAIL_BUNDLE, ioe);
+            return Response.ok(new LanguageTranslationResponse(MESSAGE_FAIL_BUNDLE))
+                    .status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+
+        // Each encoding has its own ETag, and Vary keeps caches from handing one to a client that asked for the other
+        final boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+        final EntityTag held = bundle.match(ifNoneMatch, gzip);
+        if (held != null) {
+            return Response.notModified(held)
+                    .header(HttpHeaders.CACHE_CONTROL, "no-cache")
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+
+        final ResponseBuilder builder = Response.ok()
+                .type(MediaType.APPLICATION_JSON)
+                .tag(bundle.getEntityTag(gzip))
+                .header(HttpHeaders.CACHE_CONTROL, "no-cache")
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            builder.entity(bundle.getGzipped()).header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        } else {
+            builder.entity(bundle.getJson());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Utility method to get a bundle from the cache, serializing it once if it has been invalidated.
+     */
+    private LanguageTranslationBundle getBundle(final String key,
+                                               final Supplier<Collection<LanguageTranslation>> translations)
+            throws IOException {
+        LanguageTranslationBundle bundle = bundleMap.get(key);
+        if (bundle == null) {
+            synchronized (translationLock) {
+                bundle = bundleMap.get(key);
+                if (bundle == null) {
+                    final LanguageTranslationResponse translationResponse =
+                            new LanguageTranslationResponse(MESSAGE_SUCCESS);
+                    translationResponse.setTranslations(translations.get());
+                    bundle = LanguageTranslationBundle.of(MAPPER.writeValueAsBytes(translationResponse));
+                    bundleMap.put(key, bundle);
+                }
+            }
+        }
+        return bundle;
+    }
+
+    /**
+     * Utility method to save updated LanguageTranslation objects to the filesystem. The file is written
+     * to a temporary file beside the target and renamed over it, so readers never see a partial file.
      * @param lt {@link LanguageTranslation}
      */
     private void saveTranslation(final LanguageTranslation lt) throws IOException {
-            final String outPath = new StringBuilder().append(rootTranslationPath)
-                    .append(File.separator)
-                    .append(lt.getCode().toLowerCase())
-                    .append(".json").toString();
-            final FileWriter writer = new FileWriter(outPath);
-            writer.write(lt.toFileFormat().toString());
-            writer.flush();
-            writer.close();
+        final String content;
+        synchronized (translationLock) {
+            content = lt.toFileFormat().toString();
+        }
+
+        final Path outPath = Paths.get(rootTranslationPath, lt.getCode().toLowerCase() + ".json");
+        final Path tempPath = Files.createTempFile(outPath.getParent(), lt.getCode().toLowerCase(), ".tmp");
+        try {
+            Files.write(tempPath, content.getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tempPath, outPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(tempPath, outPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
     }
 
     /**
-     * Utility method to handle accessing and mutation of the translation map.
+     * Utility method to handle accessing and mutation of the translation map. Only the edited Language's
+     * bundle (and the bundle of all Languages that embeds it) is invalidated, and the write to disk is deferred
+     * to the background writer.
      */
-    private void updateTranslationMap(final String code, final String key, final String value) throws IOException {
+    private void updateTranslationMap(final String code, final String key, final String value) {
+        synchronized (translationLock) {
+            translationMap.get(code).updateTranslation(key, value);
+            bundleMap.remove(code);
+            bundleMap.remove(BUNDLE_ALL);
+        }
+
+        // A new edit gets a fresh set of write attempts
+        failedWrites.remove(code);
+        scheduleSave(code);
+    }
+
+    /**
+     * Utility method to mark a Language as edited and (re)start the debounce timer. The write is pushed back
+     * on every edit, but never beyond the configured maximum delay from the first unwritten edit.
+     */
+    private void scheduleSave(final String code) {
+        dirtyCodes.add(code);
+
+        synchronized (LanguageTranslationServiceImpl.class) {
+            if (translationWriter == null) {
+                // Shutting down, destroy() writes whatever is pending
+                return;
+            }
+
+            final long now = System.currentTimeMillis();
+            if (pendingWrite == null || pendingWrite.getDelay(TimeUnit.MILLISECONDS) <= 0
+                    || !pendingWrite.cancel(false)) {
+                // No write waiting, or it has already started and may miss this edit
+                firstPendingEdit = now;
+            }
+            final long delay = Math.max(0, Math.min(writeDelay, firstPendingEdit + writeMaxDelay - now));
+            pendingWrite = translationWriter.schedule(this::writePendingTranslations, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes every edited Language to disk.
+     */
+    private void writePendingTranslations() {
+        for (Iterator<String> it = dirtyCodes.iterator(); it.hasNext(); ) {
+            final String code = it.next();
+            it.remove();
+            writeTranslation(code);
+        }
+    }
+
+    /**
+     * Writes a Language to disk. A failed write is retried on its own, waiting the write delay and doubling it for
+     * every further failure, until the configured attempts are used up. The Language then stays unsaved until it is
+     * edited again or the service stops.
+     */
+    private void writeTranslation(final String code) {
         final LanguageTranslation lt = translationMap.get(code);
-        lt.updateTranslation(key, value);
-        translationMap.put(code, lt);
+        if (lt == null) {
+            failedWrites.remove(code);
+            return;
+        }
+        try {
+            saveTranslation(lt);
+            failedWrites.remove(code);
+        } catch (IOException ioe) {
+            final int attempts = failedWrites.merge(code, 1, Integer::sum);
+            if (attempts >= writeMaxAttempts) {
+                LOG.error(MESSAGE_ERROR_TRANSLATION_UNSAVED, code, attempts, failedWrites.keySet(), ioe);
+                return;
+            }
 
-        saveTranslation(lt);
+            final long delay = writeDelay << Math.min(attempts - 1, 10);
+            synchronized (LanguageTranslationServiceImpl.class) {
+                if (translationWriter == null) {
+                    // Shutting down, destroy() reports what is left unsaved
+                    return;
+                }
+                LOG.warn(MESSAGE_ERROR_TRANSLATION_SAVE, code, delay, ioe);
+                translationWriter.schedule(() -> retryTranslation(code, attempts), delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Retries a failed write, unless the Language was written or edited since the failure it was scheduled for.
+     */
+    private void retryTranslation(final String code, final int attempts) {
+        final Integer failed = failedWrites.get(code);
+        if (failed != null && failed == attempts && !dirtyCodes.contains(code)) {
+            writeTranslation(code);
+        }
     }
 
     /**
@@ -29,22 +29,28 @@
  */
 package edu.mit.ll.em.api.rs.impl;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import org.apache.commons.configuration.Configuration;
 import org.apache.commons.lang.NullArgumentException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.event.Level;
 import edu.mit.ll.em.api.rs.RemoteLoggerResponse;
 import edu.mit.ll.em.api.dataaccess.EntityCacheMgr;
 import edu.mit.ll.em.api.dataaccess.ICSDatastoreException;
+import edu.mit.ll.em.api.dataaccess.RemoteLogWriter;
 import edu.mit.ll.em.api.rs.LoggerService;
 import edu.mit.ll.em.api.util.APIConfig;
 import edu.mit.ll.nics.common.constants.SADisplayConstants;
 import edu.mit.ll.nics.common.entity.RemoteLog;
 import edu.mit.ll.nics.common.entity.RemoteLogType;
 import edu.mit.ll.nics.nicsdao.impl.RemoteLogDAOImpl;
+import edu.mit.ll.nics.nicsdao.impl.UserOrgDAOImpl;
 
 
 /**
@@ -55,6 +61,10 @@ import edu.mit.ll.nics.nicsdao.impl.RemoteLogDAOImpl;
  * Meant to work in conjunction with a logback config that will sift messages for this class to a separate client log
  * file.
  * </p>
+ * <p>
+ * Entries to be persisted are handed to a {@link RemoteLogWriter}, which writes them to the database in batches on a
+ * background thread, so clients flushing a backlog of entries don't hold request threads or database connections.
+ * </p>
  */
 public class LoggerServiceImpl implements LoggerService {
 
@@ -69,6 +79,36 @@ public class LoggerServiceImpl implements LoggerService {
      */
     private static final String PATTERN = "\nUsername: {}\nUserSessionID: {}\nMessage:\n{}\nError:\n{}";
 
+    /**
+     * Default capacity of the queue of entries waiting to be persisted
+     */
+    private static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    /**
+     * Default number of entries inserted per JDBC batch
+     */
+    private static final int DEFAULT_BATCH_SIZE = 200;
+
+    /**
+     * Default maximum number of entries accepted in one batch request
+     */
+    private static final int DEFAULT_BATCH_MAX_ENTRIES = 1000;
+
+    /**
+     * Default number of times a batch that failed to insert is retried before it is dropped
+     */
+    private static final int DEFAULT_RETRY_MAX = 3;
+
+    /**
+     * Default milliseconds before the first retry of a failed batch, doubling for each further retry
+     */
+    private static final long DEFAULT_RETRY_DELAY = 1000;
+
+    /**
+     * Milliseconds to wait for queued entries to be written on shutdown
+     */
+    private static final long SHUTDOWN_TIMEOUT = 10000;
+
     /**
      * Whether or not to log to database. Default is false.
      */
@@ -80,9 +120,14 @@ public class LoggerServiceImpl implements LoggerService {
     private boolean persistExceptions;
 
     /**
-     * The Log level to log the message
+     * The Log level to log the message, resolved once from {@link APIConfig#LOGGER_LEVEL}
+     */
+    private Level logLevel;
+
+    /**
+     * Largest number of entries accepted by {@link #postLogs(String, List)}
      */
-    private String logLevel;
+    private int batchMaxEntries;
 
     /**
      * RemoteLogDAO instance
@@ -90,29 +135,49 @@ public class LoggerServiceImpl implements LoggerService {
     private static final RemoteLogDAOImpl remoteLogDao = new RemoteLogDAOImpl();
 
     /**
-     * Denotes whether or not the config was read
+     * UserOrgDAO instance, for checking who may read the writer's counts
+     */
+    private static final UserOrgDAOImpl userOrgDao = new UserOrgDAOImpl();
+
+    /**
+     * Writes queued entries to the database
      */
-    private boolean isInited;
+    private RemoteLogWriter writer;
 
 
     /**
-     * Initialize the logToDb property
+     * Initialize the properties and start the database writer
      */
-    private void init() {
+    public void init() {
         log.debug("Initializing LoggerService properties...");
-        logToDb = APIConfig.getInstance().getConfiguration()
-                .getBoolean(APIConfig.LOGGER_LOGTODB, false);
-        persistExceptions = APIConfig.getInstance().getConfiguration()
-                .getBoolean(APIConfig.LOGGER_PERSIST_EXCEPTIONS, false);
-        logLevel = APIConfig.getInstance().getConfiguration().getString(
-                APIConfig.LOGGER_LEVEL, APIConfig.LOGGER_LEVEL_DEFAULT);
-        isInited = true;
+        Configuration config = APIConfig.getInstance().getConfiguration();
+        logToDb = config.getBoolean(APIConfig.LOGGER_LOGTODB, false);
+        persistExceptions = config.getBoolean(APIConfig.LOGGER_PERSIST_EXCEPTIONS, false);
+        logLevel = toLevel(config.getString(APIConfig.LOGGER_LEVEL, APIConfig.LOGGER_LEVEL_DEFAULT));
+        batchMaxEntries = config.getInt(APIConfig.LOGGER_BATCH_MAX_ENTRIES, DEFAULT_BATCH_MAX_ENTRIES);
+
+        writer = new RemoteLogWriter(remoteLogDao,
+                config.getInt(APIConfig.LOGGER_QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY),
+                config.getInt(APIConfig.LOGGER_BATCH_SIZE, DEFAULT_BATCH_SIZE),
+                RemoteLogWriter.OverloadPolicy.fromString(config.getString(APIConfig.LOGGER_OVERLOAD_POLICY)),
+                config.getInt(APIConfig.LOGGER_RETRY_MAX, DEFAULT_RETRY_MAX),
+                config.getLong(APIConfig.LOGGER_RETRY_DELAY, DEFAULT_RETRY_DELAY));
+    }
+
+
+    /**
+     * Stops the database writer, giving it a chance to write out queued entries
+     */
+    public void destroy() {
+        if(writer != null) {
+            writer.shutdown(SHUTDOWN_TIMEOUT);
+        }
     }
 
 
     /**
-     * Accepts a RemoteLog entity from a client, and logs it to a server side log, and calls {@link
-     * LoggerServiceImpl#persistLog(RemoteLog)}
+     * Accepts a RemoteLog entity from a client, logs it to a server side log, and queues it for the database if
+     * configured to
      *
      * @param username  the username specified by the CUSTOM-UID header
      * @param logEntity the RemoteLog entity to log
@@ -120,47 +185,95 @@ public class LoggerServiceImpl implements LoggerService {
     @Override
     public Response postLog(String username, RemoteLog logEntity) {
         log.debug("Received remote log request from user: {}", username);
-        if(!isInited) {
-            init();
-        }
-
-        RemoteLoggerResponse response = new RemoteLoggerResponse();
 
         if(logEntity == null) {
+            RemoteLoggerResponse response = new RemoteLoggerResponse();
             response.setMessage("RemoteLog entity is null, not logging");
             return Response.ok(response).status(Status.BAD_REQUEST).build();
         }
 
+        return handleLogs(username, Collections.singletonList(logEntity));
+    }
 
-        StringBuffer responseMessage = new StringBuffer(65);
 
-        // Log with logging level specified by logLevel
-        doLog(username, logEntity.getUsersessionid(), logEntity);
-        responseMessage.append("Logged to server successfully.");
+    /**
+     * Accepts a batch of RemoteLog entities from a client, logs them to a server side log, and queues them for the
+     * database if configured to
+     *
+     * @param username    the username specified by the CUSTOM-UID header
+     * @param logEntities the RemoteLog entities to log
+     */
+    @Override
+    public Response postLogs(String username, List<RemoteLog> logEntities) {
+        log.debug("Received remote log batch request from user: {}", username);
 
-        // Override logToDb and persist if it's of type exception, and
-        // persistExceptions is enabled
-        boolean persisted = false;
-        if(logToDb || isException(logEntity)) {
-            persisted = persistLog(logEntity);
+        RemoteLoggerResponse response = new RemoteLoggerResponse();
+        if(logEntities == null || logEntities.isEmpty()) {
+            response.setMessage("No RemoteLog entities, not logging");
+            return Response.ok(response).status(Status.BAD_REQUEST).build();
         }
 
-        if((logToDb || isException(logEntity)) && !persisted) {
-            // error persisting
-            responseMessage.append(
-                    " Also specified to log to database, but failed.");
+        if(logEntities.size() > batchMaxEntries) {
+            response.setMessage("Too many RemoteLog entities in one request, the limit is " + batchMaxEntries);
+            return Response.ok(response).status(Status.REQUEST_ENTITY_TOO_LARGE).build();
         }
 
-        if(persisted) {
-            responseMessage.append(" Also successfully logged to database "
-                    + ((persistExceptions)
-                    ? "(due to persist exceptions override)."
-                    : "."));
+        return handleLogs(username, logEntities);
+    }
+
+
+    /**
+     * Logs each entity server side and queues the ones that should be persisted
+     *
+     * @param username    of client
+     * @param logEntities the non-empty list of entities to log
+     * @return Response with the number of entries queued and dropped for the database. SERVICE_UNAVAILABLE if
+     *     entries should have been persisted but none could be queued
+     */
+    private Response handleLogs(String username, List<RemoteLog> logEntities) {
+        List<RemoteLog> toPersist = new ArrayList<>();
+        for(RemoteLog logEntity : logEntities) {
+            if(logEntity == null) {
+                continue;
+            }
+            // Log with logging level specified by logLevel
+            doLog(username, logEntity.getUsersessionid(), logEntity);
+
+            // Override logToDb and persist if it's of type exception, and
+            // persistExceptions is enabled
+            if(logToDb || isException(logEntity)) {
+                toPersist.add(logEntity);
+            }
         }
 
+        RemoteLoggerResponse response = new RemoteLoggerResponse();
+        StringBuilder responseMessage = new StringBuilder("Logged to server successfully.");
+
+        if(toPersist.isEmpty()) {
+            response.setMessage(responseMessage.toString());
+            return Response.ok(response).status(Status.OK).build();
+        }
+
+        int accepted = writer.submit(toPersist);
+        int dropped = toPersist.size() - accepted;
+        response.setAccepted(accepted);
+        response.setDropped(dropped);
+
+        if(accepted == 0) {
+            log.warn("Remote log queue is full, dropped {} entries from user: {}", dropped, username);
+            responseMessage.append(" Also specified to log to database, but the server is busy.");
+            response.setMessage(responseMessage.toString());
+            return Response.ok(response).status(Status.SERVICE_UNAVAILABLE).build();
+        }
+
+        responseMessage.append(" Queued ").append(accepted).append(" for the database");
+        if(dropped > 0) {
+            responseMessage.append(", dropped ").append(dropped).append(" because the server is busy");
+        }
+        responseMessage.append('.');
+
         response.setMessage(responseMessage.toString());
-        return Response.ok(response).status(Status.OK)
-                .build();
+        return Response.ok(response).status(Status.OK).build();
     }
 
 
@@ -181,28 +294,21 @@ public class LoggerServiceImpl implements LoggerService {
             username = logEntity.getUsername();
         }
 
-        switch(logLevel.toLowerCase(Locale.US)) { // TODO: May need to load
-            // locale dynamically for
-            // non-US locales?
-            case "info":
+        switch(logLevel) {
+            case INFO:
                 log.info(PATTERN, username, userSessionId,
                         logEntity.getMessage(), logEntity.getError());
                 break;
-            case "debug":
-                log.debug(PATTERN, username, userSessionId,
-                        logEntity.getMessage(), logEntity.getError());
-                break;
-            case "warn":
+            case WARN:
                 log.warn(PATTERN, username, userSessionId,
                         logEntity.getMessage(), logEntity.getError());
                 break;
-            case "trace":
+            case TRACE:
                 log.trace(PATTERN, username, userSessionId,
                         logEntity.getMessage(), logEntity.getError());
                 break;
+            case DEBUG:
             default:
-                log.warn("Invalid log level specified ({}), so using 'debug'",
-                        logLevel);
                 log.debug(PATTERN, username, userSessionId,
                         logEntity.getMessage(), logEntity.getError());
                 break;
@@ -211,13 +317,25 @@ public class LoggerServiceImpl implements LoggerService {
 
 
     /**
-     * Uses {@link RemoteLogDAOImpl} to persist RemoteLog entity
+     * Resolves the configured log level name
      *
-     * @param log the RemoteLog entity to persist
-     * @return true if the RemoteLog entity was successfully persisted, false otherwise
+     * @param level name of the level, one of info, debug, warn or trace
+     * @return the matching Level, or DEBUG if the name is not one of those
      */
-    private boolean persistLog(RemoteLog log) {
-        return remoteLogDao.persistLog(log.getWorkspaceid(), log);
+    private static Level toLevel(String level) {
+        switch(level.toLowerCase(Locale.US)) {
+            case "info":
+                return Level.INFO;
+            case "debug":
+                return Level.DEBUG;
+            case "warn":
+                return Level.WARN;
+            case "trace":
+                return Level.TRACE;
+            default:
+                log.warn("Invalid log level specified ({}), so using 'debug'", level);
+                return Level.DEBUG;
+        }
     }
 
 
@@ -238,6 +356,27 @@ public class LoggerServiceImpl implements LoggerService {
     }
 
 
+    /**
+     * Retrieves the accepted, dropped, persisted, failed, retried and queued counts of the database writer
+     *
+     * @param requestingUser User name of the user requesting the counts
+     * @return Response object with the counts as its single result, or UNAUTHORIZED if the user isn't a super user
+     */
+    @Override
+    public Response getStats(String requestingUser) {
+        RemoteLoggerResponse response = new RemoteLoggerResponse();
+        if(!userOrgDao.isUserRole(requestingUser, SADisplayConstants.SUPER_ROLE_ID)) {
+            response.setMessage("User not authorized");
+            return Response.ok(response).status(Status.UNAUTHORIZED).build();
+        }
+
+        response.setResults(Collections.singletonList(writer.getStats()));
+        response.setMessage("Retrieved remote log stats");
+
+        return Response.ok(response).status(Status.OK).build();
+    }
+
+
     /**
      * If {@link LoggerServiceImpl.persistExceptions} is set, this checks the status member on the specified RemoteLog
      * entity to see if it matches the Exception type.
@@ -65,6 +65,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeoutException;
 
 
@@ -638,17 +639,23 @@ public class OrganizationServiceImpl implements OrganizationService {
             }
 
 
-            int ret = orgDao.addOrgIncidentTypes(orgId, orgIncidentTypeList);
-            if(ret != -1) {
-                serviceResponse.setMessage("OK");
-                serviceResponse.setOrgId(orgId);
-                response = Response.ok(serviceResponse).status(Status.OK).build();
+            List<Integer> added;
+            try {
+                added = orgDao.addOrgIncidentTypes(orgId, orgIncidentTypeList);
+            } catch(DataAccessException e) {
+                log.error("Failed to add incidenttypes {} to org {}", orgIncidentTypeList, orgId, e);
+                return Response.ok("There was an error adding the incidenttype to the org.")
+                        .status(Status.INTERNAL_SERVER_ERROR).build();
+            }
+
+            setIncidentTypeResults(serviceResponse, orgIncidentTypeList, added);
+            serviceResponse.setMessage("OK");
+            serviceResponse.setOrgId(orgId);
+            response = Response.ok(serviceResponse).status(Status.OK).build();
 
+            if(!added.isEmpty()) {
                 Response latest = this.getOrgIncidentTypes(orgId);
                 notifyOrgIncidentType(orgId, latest);
-            } else {
-                response = Response.ok("There was an error adding the incidenttype to the org.")
-                        .status(Status.INTERNAL_SERVER_ERROR).build();
             }
         } catch(Exception e) {
             response = Response.ok(e.getMessage()).status(Status.INTERNAL_SERVER_ERROR).build();
@@ -678,17 +685,23 @@ public class OrganizationServiceImpl implements OrganizationService {
                 return Response.ok(serviceResponse).status(Status.PRECONDITION_FAILED).build();
             }
 
-            int ret = orgDao.removeOrgIncidentTypes(orgId, incidentTypeList);
-            if(ret != -1) {
-                serviceResponse.setMessage("OK");
-                serviceResponse.setOrgId(orgId);
-                response = Response.ok(serviceResponse).status(Status.OK).build();
+            List<Integer> removed;
+            try {
+                removed = orgDao.removeOrgIncidentTypes(orgId, incidentTypeList);
+            } catch(DataAccessException e) {
+                log.error("Failed to remove incidenttypes {} from org {}", incidentTypeList, orgId, e);
+                return Response.ok("There was an error removing the incidenttype from the org.")
+                        .status(Status.INTERNAL_SERVER_ERROR).build();
+            }
 
+            setIncidentTypeResults(serviceResponse, incidentTypeList, removed);
+            serviceResponse.setMessage("OK");
+            serviceResponse.setOrgId(orgId);
+            response = Response.ok(serviceResponse).status(Status.OK).build();
+
+            if(!removed.isEmpty()) {
                 Response latest = this.getOrgIncidentTypes(orgId);
                 notifyOrgIncidentType(orgId, latest);
-            } else {
-                response = Response.ok("There was an error removing the incidenttype from the org.")
-                        .status(Status.INTERNAL_SERVER_ERROR).build();
             }
         } catch(Exception e) {
             response = Response.ok(e.getMessage()).status(Status.INTERNAL_SERVER_ERROR).build();
@@ -697,6 +710,25 @@ public class OrganizationServiceImpl implements OrganizationService {
         return response;
     }
 
+    /**
+     * Splits the requested incident type ids into the ones the DAO changed and the ones it skipped
+     */
+    private void setIncidentTypeResults(OrgIncidentTypeServiceResponse serviceResponse, List<Integer> requested,
+                                        List<Integer> changed) {
+        Set<Integer> changedIds = new HashSet<Integer>(changed);
+        Set<Integer> seen = new HashSet<Integer>();
+        for(Integer incidentTypeId : requested) {
+            if(incidentTypeId == null || !seen.add(incidentTypeId)) {
+                continue;
+            }
+            if(changedIds.contains(incidentTypeId)) {
+                serviceResponse.getUpdatedIncidentTypeIds().add(incidentTypeId);
+            } else {
+                serviceResponse.getSkippedIncidentTypeIds().add(incidentTypeId);
+            }
+        }
+    }
+
 	public Response getOrgsWithIncidentType(int incidentId){
 		try{
 			OrganizationServiceResponse organizationResponse = new OrganizationServiceResponse();
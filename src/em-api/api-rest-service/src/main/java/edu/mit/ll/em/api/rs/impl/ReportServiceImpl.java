@@ -85,6 +85,7 @@ import edu.mit.ll.nics.common.constants.SADisplayConstants;
 
 
 import edu.mit.ll.nics.nicsdao.impl.*;
+import edu.mit.ll.nics.nicsdao.query.QueryConstraint;
 import org.springframework.dao.DataAccessException;
 
 /**
@@ -145,6 +146,11 @@ public class ReportServiceImpl implements ReportService {
         Map<String, Object> queryConstraints = QueryConstraintHelper.parseOptions(optParms);
         queryConstraints.put(SADisplayConstants.INCIDENT_ID, incidentId);
         queryConstraints.put(SADisplayConstants.COLLAB_ROOM_ID, optParms.getCollabroomId());
+        queryConstraints.put(QueryConstraint.KEY_SUMMARY, optParms.getSummary());
+        if(optParms.getAfterSeqtime() != null && optParms.getAfterFormId() != null) {
+            queryConstraints.put(QueryConstraint.KEY_KEYSET,
+                    new QueryConstraint.Keyset(optParms.getAfterSeqtime(), optParms.getAfterFormId()));
+        }
 
         ReportServiceResponse reportResponse = new ReportServiceResponse();
         int formTypeId = -1;
@@ -166,6 +172,9 @@ public class ReportServiceImpl implements ReportService {
             reportResponse.setMessage(Status.OK.getReasonPhrase());
             reportResponse.setCount(reportResponse.getReports().size());
             response = Response.ok(reportResponse).status(Status.OK).build();
+        } catch(IllegalArgumentException e) {
+            reportResponse.setMessage(e.getMessage());
+            response = Response.ok(reportResponse).status(Status.BAD_REQUEST).build();
         } catch(Exception e) {
             e.printStackTrace();
             reportResponse.setMessage(FAILED_TO_READ_REPORTS);
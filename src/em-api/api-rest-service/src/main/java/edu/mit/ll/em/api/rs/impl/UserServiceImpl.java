@@ -60,6 +60,7 @@ import edu.mit.ll.nics.common.entity.UserOrgWorkspace;
 import edu.mit.ll.nics.common.entity.Workspace;
 import edu.mit.ll.nics.common.rabbitmq.RabbitFactory;
 import edu.mit.ll.nics.common.rabbitmq.RabbitPubSubProducer;
+import edu.mit.ll.nics.nicsdao.LastSeenTracker;
 import edu.mit.ll.nics.nicsdao.impl.IncidentDAOImpl;
 import edu.mit.ll.nics.nicsdao.impl.OrgDAOImpl;
 import edu.mit.ll.nics.nicsdao.impl.UserDAOImpl;
@@ -148,6 +149,13 @@ public class UserServiceImpl implements UserService {
 
     private RabbitPubSubProducer rabbitProducer;
 
+    /**
+     * Writes the heartbeats LastSeenTracker still holds and stops its flush thread
+     */
+    public void destroy() {
+        LastSeenTracker.shutdown();
+    }
+
 	/**
 	 * Return the User specified by the username in the identity header.
 	 *
@@ -887,6 +895,28 @@ public class UserServiceImpl implements UserService {
         return response;
     }
 
+    public Response searchUsers(String term, int limit, int offset) {
+        UserResponse userResponse = new UserResponse();
+
+        if(term == null || term.trim().length() < UserDAOImpl.SEARCH_MIN_TERM_LENGTH) {
+            userResponse.setMessage(String.format("Search term must be at least %d characters",
+                    UserDAOImpl.SEARCH_MIN_TERM_LENGTH));
+            return Response.ok(userResponse).status(Status.BAD_REQUEST).build();
+        }
+
+        try {
+            List<User> foundUsers = userDao.searchUsers(term, limit, offset);
+            userResponse.setUsers(foundUsers);
+            userResponse.setCount(foundUsers.size());
+            userResponse.setMessage(Status.OK.getReasonPhrase());
+            return Response.ok(userResponse).status(Status.OK).build();
+        } catch(DataAccessException e) {
+            log.error("Exception searching users for term {}", term, e);
+            userResponse.setMessage(DATA_ACCESS_ERROR);
+            return Response.ok(userResponse).status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     public Response setUserActive(int userOrgWorkspaceId, int userId, boolean active, String requestingUser) {
         Response response = null;
         UserResponse userResponse = new UserResponse();
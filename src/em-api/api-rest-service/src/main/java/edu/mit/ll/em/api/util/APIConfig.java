@@ -128,12 +128,24 @@ public class APIConfig {
     public static final String IMAGE_LAYER_MAPSERVER_PASSWORD = "em.api.service.image.layer.mapserver.password";
     public static final String IMAGE_LAYER_MAPSERVER_WORKSPACE = "em.api.service.image.layer.mapserver.workspace";
     public static final String IMAGE_LAYER_MAPSERVER_STORE = "em.api.service.image.layer.mapserver.store";
+    public static final String IMAGE_LAYER_JOB_BATCH_DELAY = "em.api.service.image.layer.job.batch.delay";
+    public static final String IMAGE_LAYER_JOB_BATCH_SIZE = "em.api.service.image.layer.job.batch.size";
+    public static final String IMAGE_LAYER_JOB_POLL_INTERVAL = "em.api.service.image.layer.job.poll.interval";
+    public static final String IMAGE_LAYER_JOB_MAX_ATTEMPTS = "em.api.service.image.layer.job.maxattempts";
+    public static final String IMAGE_LAYER_JOB_RETRY_DELAY = "em.api.service.image.layer.job.retry.delay";
+    public static final String IMAGE_LAYER_JOB_STALE = "em.api.service.image.layer.job.stale";
 
     public static final String IMPORT_SHAPEFILE_WORKSPACE = "em.api.service.import.shapefileWorkspace";
     public static final String IMPORT_SHAPEFILE_STORE = "em.api.service.import.shapefileStore";
     public static final String IMAGE_LAYER_DATASOURCE_URL = "em.api.service.image.layer.datasource.url";
     public static final String IMPORT_GEOTIFF_DATASOURCE_URL = "em.api.service.geotiff.layer.datasource.url";
 
+    // ArcGIS datasource tokens
+    public static final String TOKEN_REFRESH_AHEAD = "em.api.service.token.refresh.ahead";
+    public static final String TOKEN_MIN_VALIDITY = "em.api.service.token.min.validity";
+    public static final String TOKEN_TIMEOUT = "em.api.service.token.timeout";
+    public static final String TOKEN_CREDENTIALS_CHECK = "em.api.service.token.credentials.check";
+
 
     public static final String INCIDENT_MAP = "em.api.collabroom.incident.map";
 
@@ -152,6 +164,12 @@ public class APIConfig {
     public static final String LOGGER_LEVEL_DEFAULT = "debug";
     public static final String LOGGER_LOGTODB = "em.api.logger.logtodb";
     public static final String LOGGER_PERSIST_EXCEPTIONS = "em.api.logger.persistexceptions";
+    public static final String LOGGER_QUEUE_CAPACITY = "em.api.logger.queue.capacity";
+    public static final String LOGGER_BATCH_SIZE = "em.api.logger.batch.size";
+    public static final String LOGGER_BATCH_MAX_ENTRIES = "em.api.logger.batch.maxentries";
+    public static final String LOGGER_OVERLOAD_POLICY = "em.api.logger.overload.policy";
+    public static final String LOGGER_RETRY_MAX = "em.api.logger.retry.max";
+    public static final String LOGGER_RETRY_DELAY = "em.api.logger.retry.delay";
 
 
     public static final String ARCHIVED_ROOT_FOLDER = "em.api.service.incident.archived.folder.name";
@@ -173,6 +191,16 @@ public class APIConfig {
 
     // Language Translation Service
     public static final String TRANSLATION_PATH = "em.api.service.translation.path";
+    public static final String TRANSLATION_WRITE_DELAY = "em.api.service.translation.write.delay";
+    public static final String TRANSLATION_WRITE_MAX_DELAY = "em.api.service.translation.write.maxdelay";
+    public static final String TRANSLATION_WRITE_MAX_ATTEMPTS = "em.api.service.translation.write.maxattempts";
+
+    // Request diagnostics
+    public static final String DIAGNOSTICS_SAMPLE_RATE = "em.api.diagnostics.sample.rate";
+    public static final String DIAGNOSTICS_SAMPLE_PATHS = "em.api.diagnostics.sample.paths";
+    public static final String DIAGNOSTICS_BODY_MAX_BYTES = "em.api.diagnostics.body.maxbytes";
+    public static final String DIAGNOSTICS_BODY_EXCLUDE = "em.api.diagnostics.body.exclude";
+    public static final String DIAGNOSTICS_REDACT_FIELDS = "em.api.diagnostics.redact.fields";
 
 
     private Configuration config;
@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.em.api.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.Form;
+import javax.ws.rs.core.MediaType;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tokens for secured ArcGIS datasources, shared by every client loading their layers. A token is fetched from the
+ * datasource's tokens/generateToken endpoint once and handed out until it nears its expiry. Within refreshAhead of
+ * the expiry it is still handed out while a new one is fetched in the background, so clients only wait on the
+ * token server for the first token or after one has lapsed. Concurrent requests for a datasource share one fetch.
+ *
+ * <p>Datasources are edited in the database rather than through this service. A cached token is therefore checked
+ * against its datasource's current url and credentials every credentialsCheck milliseconds, in the background, and
+ * dropped if they changed.</p>
+ */
+public class ArcGisTokenCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ArcGisTokenCache.class);
+
+    public static final long DEFAULT_REFRESH_AHEAD = 300000;
+    public static final long DEFAULT_MIN_VALIDITY = 30000;
+    public static final long DEFAULT_TIMEOUT = 30000;
+    public static final long DEFAULT_CREDENTIALS_CHECK = 60000;
+
+    /**
+     * Where and as whom to request a datasource's tokens.
+     */
+    public static final class Credentials {
+        private final String internalUrl;
+        private final String username;
+        private final String password;
+
+        public Credentials(String internalUrl, String username, String password) {
+            this.internalUrl = internalUrl;
+            this.username = username;
+            this.password = password;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) {
+                return true;
+            }
+            if(!(o instanceof Credentials)) {
+                return false;
+            }
+            Credentials other = (Credentials) o;
+            return Objects.equals(internalUrl, other.internalUrl) && Objects.equals(username, other.username) &&
+                    Objects.equals(password, other.password);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(internalUrl, username, password);
+        }
+    }
+
+    public interface CredentialsLookup {
+
+        /**
+         * @return the datasource's credentials, or null if it has none
+         */
+        Credentials lookup(String datasourceId);
+    }
+
+    private static final class Token {
+        private final String response;
+        private final long expires;
+        private final long refreshAt;
+        private final Credentials credentials;
+        private final AtomicLong checkAt;
+
+        private Token(String response, long expires, long refreshAt, Credentials credentials, long checkAt) {
+            this.response = response;
+            this.expires = expires;
+            this.refreshAt = refreshAt;
+            this.credentials = credentials;
+            this.checkAt = new AtomicLong(checkAt);
+        }
+    }
+
+    private final Client client;
+    private final CredentialsLookup credentialsLookup;
+    private final long refreshAhead;
+    private final long minValidity;
+    private final long timeout;
+    private final long credentialsCheck;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final ConcurrentMap<String, Token> tokens = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<Token>> fetching = new ConcurrentHashMap<>();
+
+    private final ExecutorService fetcher = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "arcgis-token-fetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+    private final LongAdder fetches = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder invalidated = new LongAdder();
+
+    /**
+     * @param client            client to call the token servers with
+     * @param credentialsLookup reads a datasource's url and credentials, called on every fetch so changes to the
+     *                          datasource are picked up with its next token
+     * @param refreshAhead      milliseconds before a token's expiry to start fetching the next one. Capped at half
+     *                          the token's lifetime
+     * @param minValidity       milliseconds a token must still be valid for to be handed out
+     * @param timeout           longest a request waits for a fetch, in milliseconds
+     * @param credentialsCheck  milliseconds between checks of a cached token's datasource for changed credentials,
+     *                          0 to never check
+     */
+    public ArcGisTokenCache(Client client, CredentialsLookup credentialsLookup, long refreshAhead, long minValidity,
+                            long timeout, long credentialsCheck) {
+        this.client = client;
+        this.credentialsLookup = credentialsLookup;
+        this.refreshAhead = refreshAhead;
+        this.minValidity = minValidity;
+        this.timeout = timeout;
+        this.credentialsCheck = credentialsCheck;
+    }
+
+    /**
+     * @param timeout the timeout given to the cache, in milliseconds
+     * @return a client for the token servers whose connect and read timeouts add up to less than timeout, so a fetch
+     * gives up on an unresponsive token server before the requests waiting on it do
+     */
+    public static Client newClient(long timeout) {
+        return ClientBuilder.newBuilder()
+                .connectTimeout(timeout / 3, TimeUnit.MILLISECONDS)
+                .readTimeout(timeout / 2, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * @return the generateToken response for the datasource, from the cache when its token is still valid. An error
+     * response from the token server is returned but not cached. Null if the datasource has no credentials or the
+     * token server couldn't be reached in time
+     */
+    public String getToken(String datasourceId) {
+        Token token = tokens.get(datasourceId);
+        long now = System.currentTimeMillis();
+        if(token != null && now < token.expires - minValidity) {
+            hits.increment();
+            if(now >= token.refreshAt) {
+                fetch(datasourceId, true);
+            } else if(now >= token.checkAt.get()) {
+                checkCredentials(datasourceId, token);
+            }
+            return token.response;
+        }
+
+        misses.increment();
+        try {
+            token = fetch(datasourceId, false).get(timeout, TimeUnit.MILLISECONDS);
+            return token != null ? token.response : null;
+        } catch(ExecutionException e) {
+            log.error("Failed to request a token for datasource {}", datasourceId, e.getCause());
+        } catch(TimeoutException e) {
+            log.error("Timed out requesting a token for datasource {}", datasourceId);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * Forgets the datasource's token, e.g. when the datasource is removed or its credentials change.
+     */
+    public void invalidate(String datasourceId) {
+        tokens.remove(datasourceId);
+    }
+
+    /**
+     * Requests a token from the ArcGIS server hosting the given service, with the credentials in the POST body.
+     *
+     * @param internalUrl url of a service on the server, the token endpoint is found from it
+     * @return the generateToken response, or null if the url doesn't look like an ArcGIS service
+     */
+    public String requestToken(String internalUrl, String username, String password) {
+        int index = internalUrl.indexOf("rest/services");
+        if(index == -1) {
+            index = internalUrl.indexOf("services");
+        }
+
+        if(index > -1) {
+            Form form = new Form()
+                    .param("username", StringUtils.defaultString(username))
+                    .param("password", StringUtils.defaultString(password))
+                    .param("f", "json");
+            return client.target(internalUrl.substring(0, index) + "tokens/generateToken")
+                    .request(MediaType.APPLICATION_JSON)
+                    .post(Entity.form(form))
+                    .readEntity(String.class);
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the cache's counters, in a form suitable for returning to clients
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("shared", shared.sum());
+        stats.put("fetches", fetches.sum());
+        stats.put("refreshes", refreshes.sum());
+        stats.put("failures", failures.sum());
+        stats.put("invalidated", invalidated.sum());
+        stats.put("cached", (long) tokens.size());
+        return stats;
+    }
+
+    public void shutdown() {
+        fetcher.shutdownNow();
+    }
+
+    /**
+     * Starts fetching the datasource's token, or joins the fetch already under way.
+     *
+     * @param refresh whether this is a refresh ahead of expiry, which nothing waits on
+     */
+    private CompletableFuture<Token> fetch(String datasourceId, boolean refresh) {
+        CompletableFuture<Token> future = new CompletableFuture<>();
+        CompletableFuture<Token> existing = fetching.putIfAbsent(datasourceId, future);
+        if(existing != null) {
+            if(!refresh) {
+                shared.increment();
+            }
+            return existing;
+        }
+
+        fetches.increment();
+        if(refresh) {
+            refreshes.increment();
+        }
+        try {
+            fetcher.execute(() -> {
+                // The fetch stops being joinable before it completes, so a request made once it has completed, e.g.
+                // right after an invalidate, starts a new one
+                try {
+                    Token token = fetchToken(datasourceId);
+                    if(token != null && token.expires > 0) {
+                        tokens.put(datasourceId, token);
+                    }
+                    fetching.remove(datasourceId, future);
+                    future.complete(token);
+                } catch(Exception e) {
+                    failures.increment();
+                    // A refresh that fails leaves the current token to be handed out until it lapses
+                    log.warn("Failed to request a token for datasource {}", datasourceId, e);
+                    fetching.remove(datasourceId, future);
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch(RuntimeException e) {
+            fetching.remove(datasourceId, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Drops the datasource's token, in the background, if the datasource is gone or its url or credentials are no
+     * longer the ones the token was fetched with. The next request then fetches a token with the new ones.
+     */
+    private void checkCredentials(String datasourceId, Token token) {
+        long checkAt = token.checkAt.get();
+        // One check at a time per token
+        if(!token.checkAt.compareAndSet(checkAt, Long.MAX_VALUE)) {
+            return;
+        }
+        try {
+            fetcher.execute(() -> {
+                try {
+                    if(!token.credentials.equals(credentialsLookup.lookup(datasourceId))) {
+                        if(tokens.remove(datasourceId, token)) {
+                            invalidated.increment();
+                            log.info("Credentials of datasource {} changed, dropped its token", datasourceId);
+                        }
+                        return;
+                    }
+                } catch(RuntimeException e) {
+                    log.warn("Failed to check the credentials of datasource {}", datasourceId, e);
+                }
+                token.checkAt.set(nextCheck(System.currentTimeMillis()));
+            });
+        } catch(RuntimeException e) {
+            token.checkAt.set(checkAt);
+        }
+    }
+
+    private long nextCheck(long now) {
+        return credentialsCheck > 0 ? now + credentialsCheck : Long.MAX_VALUE;
+    }
+
+    private Token fetchToken(String datasourceId) {
+        Credentials credentials = credentialsLookup.lookup(datasourceId);
+        if(credentials == null || credentials.internalUrl == null) {
+            return null;
+        }
+
+        String response = requestToken(credentials.internalUrl, credentials.username, credentials.password);
+        if(response == null) {
+            return null;
+        }
+
+        long expires = 0;
+        try {
+            JsonNode json = mapper.readTree(response);
+            if(json.path("token").isTextual()) {
+                expires = json.path("expires").asLong(0);
+            }
+        } catch(IOException e) {
+            log.debug("Token server response for datasource {} is not JSON", datasourceId, e);
+        }
+        long now = System.currentTimeMillis();
+        if(expires <= now) {
+            log.warn("No usable token for datasource {} in the token server's response", datasourceId);
+            return new Token(response, 0, 0, credentials, Long.MAX_VALUE);
+        }
+        return new Token(response, expires, expires - Math.min(refreshAhead, (expires - now) / 2), credentials,
+                nextCheck(now));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.em.api.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.geotools.referencing.CRS;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decoded coordinate reference systems and the transforms between them, shared by every request. Decoding a code
+ * and finding a transform are much slower than using them, and the API only ever deals with a few
+ */
+public final class CrsCache {
+
+    private static final Logger log = LoggerFactory.getLogger(CrsCache.class);
+
+    public static final String WGS84 = "EPSG:4326";
+    public static final String WEB_MERCATOR = "EPSG:3857";
+
+    private static final ConcurrentMap<String, CoordinateReferenceSystem> crsByCode =
+            new ConcurrentHashMap<String, CoordinateReferenceSystem>();
+
+    private static final ConcurrentMap<String, MathTransform> transforms =
+            new ConcurrentHashMap<String, MathTransform>();
+
+    private CrsCache() {
+    }
+
+    /**
+     * @param code an authority code, such as EPSG:3857
+     * @return the CRS, the same instance for the same code
+     *
+     * @throws FactoryException if the code isn't known
+     */
+    public static CoordinateReferenceSystem decode(String code) throws FactoryException {
+        CoordinateReferenceSystem crs = crsByCode.get(code);
+        if(crs == null) {
+            crs = CRS.decode(code);
+            CoordinateReferenceSystem existing = crsByCode.putIfAbsent(code, crs);
+            if(existing != null) {
+                crs = existing;
+            }
+        }
+        return crs;
+    }
+
+    /**
+     * @return the transform between the CRSs with the given codes, allowing for datum shifts
+     *
+     * @throws FactoryException if either isn't known or there's no transform between them
+     */
+    public static MathTransform findMathTransform(String sourceCode, String targetCode) throws FactoryException {
+        String key = sourceCode + ">" + targetCode;
+        MathTransform transform = transforms.get(key);
+        if(transform == null) {
+            transform = CRS.findMathTransform(decode(sourceCode), decode(targetCode), false);
+            MathTransform existing = transforms.putIfAbsent(key, transform);
+            if(existing != null) {
+                transform = existing;
+            }
+        }
+        return transform;
+    }
+
+    /**
+     * Decodes EPSG:4326 and EPSG:3857 and finds the transforms both ways, so the first request using them doesn't
+     * pay for loading the EPSG database. Called once at startup from cxf-rest-service.xml. A failure is only logged,
+     * the request that needs them will report it
+     */
+    public static void warmUp() {
+        try {
+            findMathTransform(WGS84, WEB_MERCATOR);
+            findMathTransform(WEB_MERCATOR, WGS84);
+        } catch(FactoryException e) {
+            log.warn("Could not load the " + WGS84 + " and " + WEB_MERCATOR + " transforms", e);
+        }
+    }
+}
@@ -72,24 +72,29 @@ public class ImageLayerGenerator extends GeoServer {
     }
 
     /**
-     * Add a SQL view layer of an incident view (polygons representing the bounds of the collab rooms) to the geoserver
+     * Add a SQL view layer over the imagefeatures of an image batch to the geoserver. The feature type is created
+     * with its title and bounds in one request, then the layer style is set. If the feature type can't be added because
+     * an earlier, partly failed attempt left it behind, it is reused, so the call can be retried.
      *
-     * @param incidentName name of the incident to be added
-     * @param incidentId   id of the incident to be added
-     * @return
+     * @param layerId id of the image batch, used as the layer name
+     * @param title   title of the layer
+     * @return whether the layer is in place
      */
     public boolean addImageLayer(String layerId, String title) {
-        if(this.addFeatureTypeSQL(workspaceName, dataStoreName, layerId, SRS_STRING,
+        if(!this.addFeatureTypeSQL(workspaceName, dataStoreName, layerId, SRS_STRING,
                 "SELECT * from imagefeature where imageid='" + layerId + "'",
-                "location", "Geometry", SRID)) {
-            this.updateLayerStyle(layerId, workspaceName, "point");
-            this.updateFeatureTypeTitle(layerId, workspaceName, dataStoreName, title);
-            this.updateFeatureTypeBounds(workspaceName, dataStoreName, layerId, maxExtent, maxExtentLatLon, SRS_STRING);
-            this.updateFeatureTypeEnabled(workspaceName, dataStoreName, layerId, true);
-            this.updateLayerEnabled(layerId, workspaceName, true);
-            return true;
-        } else {
+                "location", "Geometry", SRID, title, maxExtent, maxExtentLatLon) && !this.hasFeatureType(layerId)) {
             return false;
         }
+        return this.updateLayerStyle(layerId, workspaceName, "point");
+    }
+
+    /**
+     * @param layerId name of the feature type
+     * @return whether the feature type exists in the workspace's datastore
+     */
+    public boolean hasFeatureType(String layerId) {
+        String featureType = this.getFeatureType(workspaceName, dataStoreName, layerId, "application/json");
+        return featureType != null && featureType.contains("\"featureType\"");
     }
 }
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.em.api.util;
+
+import edu.mit.ll.nics.common.entity.datalayer.ImageLayerJob;
+import edu.mit.ll.nics.nicsdao.DatalayerDAO;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.commons.configuration.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provisions image layers in the background from the jobs recorded in the imagelayerjob table. A single worker
+ * claims every job that is due and works through them with one {@link ImageLayerGenerator}, so uploads finished
+ * together are provisioned in one pass. A failed job is retried with a doubling delay until its attempts run out,
+ * and the table is polled so retries and jobs left running by a stopped instance are picked up.
+ */
+public class ImageLayerProvisioner {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageLayerProvisioner.class);
+
+    public static final long DEFAULT_BATCH_DELAY = 1000;
+    public static final int DEFAULT_BATCH_SIZE = 20;
+    public static final long DEFAULT_POLL_INTERVAL = 30000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final long DEFAULT_RETRY_DELAY = 10000;
+    public static final long DEFAULT_STALE_AFTER = 600000;
+
+    /**
+     * Creates the datalayer for an image layer once it is in GeoServer.
+     */
+    public interface DatalayerPublisher {
+
+        /**
+         * @return id of the new datalayer
+         *
+         * @throws Exception if the datalayer couldn't be created, the job is retried
+         */
+        String publish(ImageLayerJob job) throws Exception;
+    }
+
+    private final DatalayerDAO datalayerDao;
+    private final DatalayerPublisher publisher;
+
+    private final long batchDelay;
+    private final int batchSize;
+    private final long pollInterval;
+    private final int maxAttempts;
+    private final long retryDelay;
+    private final long staleAfter;
+
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    private ScheduledExecutorService worker;
+
+    public ImageLayerProvisioner(DatalayerDAO datalayerDao, DatalayerPublisher publisher) {
+        this.datalayerDao = datalayerDao;
+        this.publisher = publisher;
+
+        Configuration config = APIConfig.getInstance().getConfiguration();
+        this.batchDelay = config.getLong(APIConfig.IMAGE_LAYER_JOB_BATCH_DELAY, DEFAULT_BATCH_DELAY);
+        this.batchSize = config.getInt(APIConfig.IMAGE_LAYER_JOB_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        this.pollInterval = config.getLong(APIConfig.IMAGE_LAYER_JOB_POLL_INTERVAL, DEFAULT_POLL_INTERVAL);
+        this.maxAttempts = config.getInt(APIConfig.IMAGE_LAYER_JOB_MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS);
+        this.retryDelay = config.getLong(APIConfig.IMAGE_LAYER_JOB_RETRY_DELAY, DEFAULT_RETRY_DELAY);
+        this.staleAfter = config.getLong(APIConfig.IMAGE_LAYER_JOB_STALE, DEFAULT_STALE_AFTER);
+    }
+
+    /**
+     * Starts the worker, which drains the due jobs right away and then every poll interval.
+     */
+    public synchronized void start() {
+        if(worker != null) {
+            return;
+        }
+        worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "image-layer-provisioner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        worker.scheduleWithFixedDelay(this::drain, 0, pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the worker, waiting up to the poll interval for the claimed batch to finish. Jobs not yet claimed stay
+     * pending in the table.
+     */
+    public void stop() {
+        final ScheduledExecutorService stopping;
+        synchronized(this) {
+            stopping = worker;
+            worker = null;
+        }
+        if(stopping != null) {
+            stopping.shutdownNow();
+            try {
+                stopping.awaitTermination(pollInterval, TimeUnit.MILLISECONDS);
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Asks for a pass over the due jobs after the batch delay. Jobs submitted before that pass starts share it.
+     */
+    public void submit() {
+        final ScheduledExecutorService current;
+        synchronized(this) {
+            current = worker;
+        }
+        if(current != null && drainScheduled.compareAndSet(false, true)) {
+            current.schedule(this::drain, batchDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Returns stale running jobs to pending, then provisions due jobs a batch at a time until none are left.
+     */
+    private void drain() {
+        drainScheduled.set(false);
+        resetStaleJobs();
+        try {
+            ImageLayerGenerator generator = null;
+            List<ImageLayerJob> jobs;
+            while(!Thread.currentThread().isInterrupted() &&
+                    !(jobs = datalayerDao.claimImageLayerJobs(batchSize)).isEmpty()) {
+                log.debug("Provisioning {} image layers", jobs.size());
+                if(generator == null) {
+                    generator = createGenerator();
+                }
+                for(ImageLayerJob job : jobs) {
+                    provision(generator, job);
+                }
+            }
+        } catch(Exception e) {
+            // Keep the scheduled poll alive, claimed jobs go back to pending once they are stale
+            log.error("Failed to provision image layers", e);
+        }
+    }
+
+    /**
+     * Returns jobs left running, by this or another instance, to pending once they are stale, so a job whose worker
+     * stopped mid job is picked up again without a restart.
+     */
+    private void resetStaleJobs() {
+        try {
+            int reset = datalayerDao.resetImageLayerJobs(staleAfter);
+            if(reset > 0) {
+                log.info("Returned {} stale image layer jobs to pending", reset);
+            }
+        } catch(Exception e) {
+            log.error("Failed to reset stale image layer jobs", e);
+        }
+    }
+
+    private void provision(ImageLayerGenerator generator, ImageLayerJob job) {
+        String failure;
+        try {
+            if(generator.addImageLayer(job.getImageid(), job.getTitle())) {
+                String datalayerId = publisher.publish(job);
+                datalayerDao.completeImageLayerJob(job.getImageid(), datalayerId);
+                log.debug("Provisioned image layer {} as datalayer {}", job.getImageid(), datalayerId);
+                return;
+            }
+            failure = "GeoServer did not accept the image layer.";
+        } catch(Exception e) {
+            log.warn("Failed to provision image layer {}", job.getImageid(), e);
+            failure = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        }
+
+        if(job.getAttempts() >= maxAttempts) {
+            log.error("Giving up on image layer {} after {} attempts: {}", job.getImageid(), job.getAttempts(),
+                    failure);
+            datalayerDao.failImageLayerJob(job.getImageid(), failure);
+        } else {
+            long delay = retryDelay << Math.min(job.getAttempts() - 1, 10);
+            datalayerDao.retryImageLayerJob(job.getImageid(), failure, delay);
+        }
+    }
+
+    private ImageLayerGenerator createGenerator() {
+        Configuration config = APIConfig.getInstance().getConfiguration();
+        return new ImageLayerGenerator(
+                config.getString(APIConfig.IMAGE_LAYER_MAPSERVER_URL),
+                config.getString(APIConfig.IMAGE_LAYER_MAPSERVER_USERNAME),
+                config.getString(APIConfig.IMAGE_LAYER_MAPSERVER_PASSWORD),
+                config.getString(APIConfig.IMAGE_LAYER_MAPSERVER_WORKSPACE),
+                config.getString(APIConfig.IMAGE_LAYER_MAPSERVER_STORE));
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.em.api.test.util;
+
+import static org.testng.Assert.*;
+
+import com.sun.net.httpserver.HttpServer;
+import edu.mit.ll.em.api.util.ArcGisTokenCache;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Exercises {@link ArcGisTokenCache} against a stub ArcGIS token server on localhost. The stub hands out numbered
+ * tokens valid for {@link #lifetime} milliseconds.
+ */
+@Test
+public class ArcGisTokenCacheTest {
+
+    private HttpServer server;
+    private Client client;
+    private String serviceUrl;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile long lifetime;
+    private volatile long delay;
+    private volatile String lastMethod;
+    private volatile String lastQuery;
+    private volatile String lastBody;
+    private volatile String password;
+
+    @BeforeMethod
+    public void before() throws Exception {
+        requests.set(0);
+        lifetime = 60000;
+        delay = 0;
+        password = "p&ss";
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/arcgis/tokens/generateToken", exchange -> {
+            int n = requests.incrementAndGet();
+            lastMethod = exchange.getRequestMethod();
+            lastQuery = exchange.getRequestURI().getRawQuery();
+            lastBody = read(exchange.getRequestBody());
+            try {
+                Thread.sleep(delay);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] response = ("{\"token\":\"token-" + n + "\",\"expires\":" +
+                    (System.currentTimeMillis() + lifetime) + ",\"ssl\":false}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            try(OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+
+        serviceUrl = "http://localhost:" + server.getAddress().getPort() + "/arcgis/rest/services/Fire/MapServer";
+        client = ClientBuilder.newClient();
+    }
+
+    @AfterMethod
+    public void after() {
+        client.close();
+        server.stop(0);
+    }
+
+    private ArcGisTokenCache cache(long refreshAhead, long minValidity) {
+        return cache(client, refreshAhead, minValidity, 5000, 0);
+    }
+
+    private ArcGisTokenCache cache(Client client, long refreshAhead, long minValidity, long timeout,
+                                   long credentialsCheck) {
+        return new ArcGisTokenCache(client,
+                datasourceId -> new ArcGisTokenCache.Credentials(serviceUrl, "user " + datasourceId, password),
+                refreshAhead, minValidity, timeout, credentialsCheck);
+    }
+
+    @Test(description = "Credentials are sent in the POST body, not the url")
+    public void testCredentialsInBody() {
+        String response = cache(0, 0).getToken("ds1");
+
+        assertTrue(response.contains("\"token-1\""), response);
+        assertEquals(lastMethod, "POST");
+        assertNull(lastQuery);
+        assertTrue(lastBody.contains("username=user+ds1"), lastBody);
+        assertTrue(lastBody.contains("password=p%26ss"), lastBody);
+        assertTrue(lastBody.contains("f=json"), lastBody);
+    }
+
+    @Test(description = "A valid token is reused, per datasource")
+    public void testCachedPerDatasource() {
+        ArcGisTokenCache cache = cache(1000, 1000);
+
+        String first = cache.getToken("ds1");
+        assertEquals(cache.getToken("ds1"), first);
+        assertEquals(cache.getToken("ds1"), first);
+        assertNotEquals(cache.getToken("ds2"), first);
+
+        assertEquals(requests.get(), 2);
+        Map<String, Long> stats = cache.getStats();
+        assertEquals(stats.get("hits").longValue(), 2);
+        assertEquals(stats.get("misses").longValue(), 2);
+        assertEquals(stats.get("cached").longValue(), 2);
+    }
+
+    @Test(description = "Concurrent requests for a datasource share one request to the token server")
+    public void testSingleFlight() throws Exception {
+        delay = 300;
+        ArcGisTokenCache cache = cache(1000, 1000);
+
+        int callers = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> results = new ArrayList<>();
+        for(int i = 0; i < callers; i++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                return cache.getToken("ds1");
+            }));
+        }
+        start.countDown();
+        for(Future<String> result : results) {
+            assertTrue(result.get().contains("\"token-1\""));
+        }
+        pool.shutdown();
+
+        assertEquals(requests.get(), 1);
+        assertEquals(cache.getStats().get("fetches").longValue(), 1);
+    }
+
+    @Test(description = "A token near its expiry is still handed out while the next is fetched in the background")
+    public void testRefreshAhead() throws Exception {
+        lifetime = 2000;
+        ArcGisTokenCache cache = cache(1500, 100);
+
+        assertTrue(cache.getToken("ds1").contains("\"token-1\""));
+        // Refresh is due 1000ms in, half the lifetime
+        Thread.sleep(1200);
+        assertTrue(cache.getToken("ds1").contains("\"token-1\""));
+
+        long deadline = System.currentTimeMillis() + 2000;
+        String token;
+        while(!(token = cache.getToken("ds1")).contains("\"token-2\"") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(token.contains("\"token-2\""), token);
+        assertEquals(requests.get(), 2);
+        assertEquals(cache.getStats().get("refreshes").longValue(), 1);
+    }
+
+    @Test(description = "An expired token is fetched again before it's handed out, and invalidate forgets a token")
+    public void testExpiredAndInvalidated() throws Exception {
+        lifetime = 300;
+        ArcGisTokenCache cache = cache(0, 100);
+
+        assertTrue(cache.getToken("ds1").contains("\"token-1\""));
+        Thread.sleep(250);
+        assertTrue(cache.getToken("ds1").contains("\"token-2\""));
+
+        lifetime = 60000;
+        cache.invalidate("ds1");
+        assertTrue(cache.getToken("ds1").contains("\"token-3\""));
+        assertTrue(cache.getToken("ds1").contains("\"token-3\""));
+        assertEquals(requests.get(), 3);
+    }
+
+    @Test(description = "A token is dropped once its datasource's credentials are seen to have changed")
+    public void testCredentialsChanged() throws Exception {
+        ArcGisTokenCache cache = cache(client, 1000, 1000, 5000, 100);
+
+        assertTrue(cache.getToken("ds1").contains("\"token-1\""));
+        password = "changed";
+        Thread.sleep(150);
+
+        long deadline = System.currentTimeMillis() + 2000;
+        String token;
+        while(!(token = cache.getToken("ds1")).contains("\"token-2\"") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(token.contains("\"token-2\""), token);
+        assertTrue(lastBody.contains("password=changed"), lastBody);
+        assertEquals(cache.getStats().get("invalidated").longValue(), 1);
+    }
+
+    @Test(description = "A token server that doesn't answer fails the fetch within the cache's timeout")
+    public void testUnresponsiveTokenServer() throws Exception {
+        delay = 3000;
+        Client timed = ArcGisTokenCache.newClient(1000);
+        try {
+            ArcGisTokenCache cache = cache(timed, 0, 0, 1000, 0);
+
+            long start = System.currentTimeMillis();
+            assertNull(cache.getToken("ds1"));
+            // The read timeout ends the fetch itself, well before the server would answer
+            long deadline = start + 2000;
+            while(cache.getStats().get("failures") == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(cache.getStats().get("failures").longValue(), 1);
+            assertTrue(System.currentTimeMillis() - start < 2000);
+        } finally {
+            timed.close();
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
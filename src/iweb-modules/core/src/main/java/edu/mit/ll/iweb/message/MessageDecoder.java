@@ -30,20 +30,21 @@
 package edu.mit.ll.iweb.message;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import java.io.IOException;
 import org.atmosphere.config.managed.Decoder;
 
 /**
- * Decode a String into a {@link Message}.
+ * Decode a String into a {@link Message}. Thread safe, a single instance may be shared.
  */
 public class MessageDecoder implements Decoder<String, RequestMessage> {
 
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final ObjectReader reader = new ObjectMapper().readerFor(RequestMessage.class);
 
     @Override
     public RequestMessage decode(String s) {
         try {
-            return mapper.readValue(s, RequestMessage.class);
+            return reader.readValue(s);
         } catch(IOException e) {
             throw new RuntimeException(e);
         }
@@ -30,20 +30,21 @@
 package edu.mit.ll.iweb.message;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import java.io.IOException;
 import org.atmosphere.config.managed.Encoder;
 
 /**
- * Encode a {@link Message} into a String
+ * Encode a {@link Message} into a String. Thread safe, a single instance may be shared.
  */
 public class MessageEncoder implements Encoder<ResponseMessage, String> {
 
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final ObjectWriter writer = new ObjectMapper().writerFor(ResponseMessage.class);
 
     @Override
     public String encode(ResponseMessage m) {
         try {
-            return mapper.writeValueAsString(m);
+            return writer.writeValueAsString(m);
         } catch(IOException e) {
             throw new RuntimeException(e);
         }
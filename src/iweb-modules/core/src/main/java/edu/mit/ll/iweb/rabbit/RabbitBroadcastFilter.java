@@ -31,12 +31,16 @@ package edu.mit.ll.iweb.rabbit;
 
 import edu.mit.ll.iweb.message.MessageEncoder;
 import edu.mit.ll.iweb.message.ResponseMessage;
+import edu.mit.ll.iweb.websocket.SubscribedTopics;
+import java.util.Collection;
 import java.util.Iterator;
-import java.util.List;
 import org.atmosphere.cpr.AtmosphereResource;
 import org.atmosphere.cpr.PerRequestBroadcastFilter;
 
 public class RabbitBroadcastFilter implements PerRequestBroadcastFilter {
+
+    private static final MessageEncoder ENCODER = new MessageEncoder();
+
     /**
      * Transform or Filter a message per request, with V as an indicator. Be careful when setting headers on the {@link
      * AtmosphereResponse} as the headers may have been already sent back to the browser.
@@ -49,6 +53,16 @@ public class RabbitBroadcastFilter implements PerRequestBroadcastFilter {
 
     @Override
     public BroadcastAction filter(String arg0, Object message, Object arg2) {
+        // Encode once per broadcast rather than once per subscribed resource
+        if(message instanceof ResponseMessage) {
+            try {
+                return (new BroadcastAction(BroadcastAction.ACTION.CONTINUE,
+                        ENCODER.encode((ResponseMessage) message)));
+            } catch(Exception e) {
+                //Response not formatted correctly
+                return (new BroadcastAction(BroadcastAction.ACTION.ABORT, null));
+            }
+        }
         return (new BroadcastAction(BroadcastAction.ACTION.CONTINUE, message));
     }
 
@@ -57,11 +71,12 @@ public class RabbitBroadcastFilter implements PerRequestBroadcastFilter {
         try {
             ResponseMessage response = ((ResponseMessage) originalMessage);
 
-            List<String> topics = (List<String>) r.getRequest().getSession().getAttribute("topics");
+            Collection<String> topics = (Collection<String>) r.getRequest().getSession().getAttribute("topics");
             String topic = response.getEventName();
 
-            if(findMatch(topics, topic)) {
-                return (new BroadcastAction(BroadcastAction.ACTION.CONTINUE, new MessageEncoder().encode(response)));
+            if(topics != null && findMatch(topics, topic)) {
+                return (new BroadcastAction(BroadcastAction.ACTION.CONTINUE,
+                        message instanceof String ? message : ENCODER.encode(response)));
             }
             return (new BroadcastAction(BroadcastAction.ACTION.ABORT, null));
         } catch(Exception e) {
@@ -72,14 +87,18 @@ public class RabbitBroadcastFilter implements PerRequestBroadcastFilter {
 
     ;
 
-    private boolean findMatch(List<String> topics, String topic) {
+    private boolean findMatch(Collection<String> topics, String topic) {
+        // The session's subscriptions hold their own compiled wildcard patterns
+        if(topics instanceof SubscribedTopics) {
+            return ((SubscribedTopics) topics).matches(topic);
+        }
+        if(topics.contains(topic)) {
+            return true;
+        }
         for(Iterator<String> itr = topics.iterator(); itr.hasNext(); ) {
             String subscribedTopic = itr.next();
-            if(subscribedTopic.indexOf("#") != -1) {
-                if(topic.matches(subscribedTopic.replace("#", "(.*)"))) {
-                    return true;
-                }
-            } else if(subscribedTopic.equals(topic)) {
+            if(subscribedTopic.indexOf("#") != -1 && SubscribedTopics.compile(subscribedTopic).matcher(topic)
+                    .matches()) {
                 return true;
             }
         }
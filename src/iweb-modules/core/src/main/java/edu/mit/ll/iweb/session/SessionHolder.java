@@ -34,14 +34,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.ws.rs.core.Cookie;
 import org.apache.commons.configuration2.Configuration;
 
 
 public final class SessionHolder {
     public static String TOKEN = "token";
+    public static String USERNAME = "username";
 
-    private static Map<String, Map<String, Object>> sessions = new HashMap<String, Map<String, Object>>();
+    private static Map<String, Map<String, Object>> sessions = new ConcurrentHashMap<String, Map<String, Object>>();
 
     public static void addSession(String sessionId, Map<String, Object> sessionData) {
         sessions.put(sessionId, sessionData);
@@ -35,19 +35,24 @@ import edu.mit.ll.iweb.message.MessageDecoder;
 import edu.mit.ll.iweb.message.MessageEncoder;
 import edu.mit.ll.iweb.message.RequestMessage;
 import edu.mit.ll.iweb.message.ResponseMessage;
-import edu.mit.ll.nics.common.rabbitmq.RabbitFactory;
+import edu.mit.ll.iweb.session.SessionHolder;
+import edu.mit.ll.nics.common.rabbitmq.RabbitAsyncPubSubProducer;
 import edu.mit.ll.nics.common.rabbitmq.RabbitPubSubProducer;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeoutException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpSession;
 import org.apache.camel.Message;
 import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.event.ConfigurationEvent;
+import org.apache.commons.configuration2.event.EventSource;
 import org.atmosphere.cache.UUIDBroadcasterCache;
 import org.atmosphere.client.TrackMessageSizeInterceptor;
 import org.atmosphere.config.service.AtmosphereHandlerService;
@@ -75,7 +80,9 @@ public class Mediator implements AtmosphereHandler {
 
     private static final String INVALID_MESSAGE_FORMAT = "Invalid Message Format";
     private static final String SUBSCRIBE_EXCEPTION = "Exception subscribing";
+    private static final String SUBSCRIBE_DENIED = "Subscription denied";
     private static final String PUBLISH_EXCEPTION = "Exception publishing";
+    private static final String PUBLISH_QUEUE_FULL = "Publish queue full";
     private static final String SUCCESS = "Success";
 
     private static final String SUBSCRIBE = "subscribe";
@@ -89,18 +96,73 @@ public class Mediator implements AtmosphereHandler {
 
     private static final String PRIVATE = "private";
 
+    /**
+     * Header carrying the authenticated username, and the configured cookies that may carry the session token
+     */
+    private static final String REMOTE_USER_HEADER = "X-Remote-User";
+    private static final String[] TOKEN_COOKIE_KEYS = {"openam", "iplanet"};
+
     private static final String RECEIVED_PREFIX = "\n!!! Received incoming request: ";
     private static final String RESPONDING_PREFIX = "\n!!! Responding to request  id: ";
 
-    private RabbitPubSubProducer rabbitProducer;
+    public static final String PUBLISH_QUEUE_CAPACITY_KEY = "private.mediator.publish.queue.capacity";
+    private static final int DEFAULT_PUBLISH_QUEUE_CAPACITY = 10000;
+
+    /**
+     * Codecs are stateless apart from their thread safe ObjectMapper, so one of each is shared by all requests
+     */
+    private static final MessageDecoder DECODER = new MessageDecoder();
+    private static final MessageEncoder ENCODER = new MessageEncoder();
+
+    /**
+     * Publishes messages to Rabbit
+     */
+    public interface MessagePublisher {
+        /**
+         * @return false if the message could not be queued for publishing
+         */
+        boolean publish(String topic, String message);
+    }
+
+    private final Configuration configuration;
+
+    private volatile MessagePublisher publisher;
+
+    private RabbitAsyncPubSubProducer rabbitProducer;
 
     private final ObjectWriter objectWriter;
 
     private Collection<SubscriptionValidator> subscriptionValidators;
 
+    private final SubscriptionAuthorizer subscriptionAuthorizer;
+
+    /**
+     * Serialized client configuration, built on first use and discarded when the configuration changes
+     */
+    private volatile String clientConfig;
+
     public Mediator() {
+        this(Config.getInstance().getConfiguration(), null);
+    }
+
+    /**
+     * @param configuration the web configuration
+     * @param publisher     the publisher to use, or null to publish to the configured Rabbit exchange
+     */
+    Mediator(Configuration configuration, MessagePublisher publisher) {
+        this.configuration = configuration;
+        this.publisher = publisher;
         objectWriter = new ObjectMapper().writer();
-        subscriptionValidators = new ArrayList<SubscriptionValidator>();
+        subscriptionValidators = new CopyOnWriteArrayList<SubscriptionValidator>();
+        subscriptionAuthorizer = new SubscriptionAuthorizer(subscriptionValidators, configuration);
+
+        if(configuration instanceof EventSource) {
+            ((EventSource) configuration).addEventListener(ConfigurationEvent.ANY, event -> {
+                if(!event.isBeforeUpdate()) {
+                    clientConfig = null;
+                }
+            });
+        }
     }
 
     public void addSubscriptionValidator(
@@ -126,6 +188,9 @@ public class Mediator implements AtmosphereHandler {
 
             LOGGER.debug("Suspending session id {}", req.getSession().getId());
 
+            // Keep the identity the subscription validators call the API with
+            rememberSession(req);
+
             // Tell Atmosphere to allow bi-directional communication by
             // suspending.
             r.suspend();
@@ -137,13 +202,13 @@ public class Mediator implements AtmosphereHandler {
                 if(req.getReader() != null) {
                     String body = req.getReader().readLine().trim();
 
-                    RequestMessage request = new MessageDecoder().decode(body);
+                    RequestMessage request = DECODER.decode(body);
                     LOGGER.debug("{}{}", RECEIVED_PREFIX, request.getRequestId());
                     ResponseMessage response = this.onMessage(request, r);
 
                     if(response != null) {
                         r.getResponse().getWriter()
-                                .write(new MessageEncoder().encode(response));
+                                .write(ENCODER.encode(response));
                     }
                 }
             } catch(Exception e) {
@@ -187,10 +252,21 @@ public class Mediator implements AtmosphereHandler {
             LOGGER.info("Not Resuming HTTP Session ID <{}>",
                     resource.getRequest().getSession().getId());
         }
+
+        if(event.isCancelled() || event.isClosedByClient()) {
+            SessionHolder.removeSession(resource.getRequest().getSession().getId());
+        }
     }
 
     @Override
     public void destroy() {
+        subscriptionAuthorizer.destroy();
+        synchronized(this) {
+            if(rabbitProducer != null) {
+                rabbitProducer.destroy();
+                rabbitProducer = null;
+            }
+        }
     }
 
     /**
@@ -226,44 +302,118 @@ public class Mediator implements AtmosphereHandler {
     }
 
     /**
-     * Return the producer template used to publish messages
+     * Return the publisher used to publish messages. The Rabbit producer is created once and queues messages for a
+     * dedicated publishing thread, so publishing never waits on Rabbit.
      *
      * @return
      */
-    private RabbitPubSubProducer getRabbitProducer() throws IOException, TimeoutException {
-        if(rabbitProducer == null) {
-            rabbitProducer = RabbitFactory.makeRabbitPubSubProducer(
-                    Config.getInstance().getConfiguration().getString(Config.RABBIT_HOSTNAME_KEY),
-                    Config.getInstance().getConfiguration().getString(Config.RABBIT_EXCHANGENAME_KEY),
-                    Config.getInstance().getConfiguration().getString(Config.RABBIT_USERNAME_KEY),
-                    Config.getInstance().getConfiguration().getString(Config.RABBIT_USERPWD_KEY));
+    private MessagePublisher getPublisher() {
+        MessagePublisher current = publisher;
+        if(current == null) {
+            synchronized(this) {
+                if(publisher == null) {
+                    final String host = configuration.getString(Config.RABBIT_HOSTNAME_KEY);
+                    final String exchange = configuration.getString(Config.RABBIT_EXCHANGENAME_KEY);
+                    final String username = configuration.getString(Config.RABBIT_USERNAME_KEY);
+                    final String password = configuration.getString(Config.RABBIT_USERPWD_KEY);
+
+                    rabbitProducer = new RabbitAsyncPubSubProducer(
+                            () -> new RabbitPubSubProducer(host, exchange, username, password),
+                            configuration.getInt(PUBLISH_QUEUE_CAPACITY_KEY, DEFAULT_PUBLISH_QUEUE_CAPACITY));
+                    publisher = rabbitProducer::produce;
+                }
+                current = publisher;
+            }
         }
-
-        return rabbitProducer;
+        return current;
     }
 
     /**
-     * Return array of subscribed topics for this request
+     * Return the set of subscribed topics for this request
      *
      * @param request
      * @return
      */
-    private List<String> getTopics(AtmosphereRequest request) {
+    private Set<String> getTopics(AtmosphereRequest request) {
         HttpSession session = request.getSession();
-        List<String> topics = (List<String>) session.getAttribute(TOPICS);
-        if(topics == null) {
-            topics = new ArrayList<String>();
-            session.setAttribute(TOPICS, topics);
+        Object topics = session.getAttribute(TOPICS);
+        if(!(topics instanceof SubscribedTopics)) {
+            // Subscriptions may be completed by the validation workers while messages are being broadcast
+            SubscribedTopics subscribed = new SubscribedTopics();
+            if(topics instanceof Collection) {
+                subscribed.addAll((Collection<String>) topics);
+            }
+            session.setAttribute(TOPICS, subscribed);
+            return subscribed;
+        }
+        return (Set<String>) topics;
+    }
+
+    /**
+     * Store the username and token of the request in the {@link SessionHolder}, where the subscription validators read
+     * them from. The username is taken from the X-Remote-User header and the token from the first configured token
+     * cookie present on the request. The session is left untouched when the request carries neither.
+     *
+     * @param request
+     */
+    private void rememberSession(AtmosphereRequest request) {
+        String username = request.getHeader(REMOTE_USER_HEADER);
+        String token = getTokenCookie(request);
+        if(username == null && token == null) {
+            return;
         }
-        return topics;
+
+        Map<String, Object> sessionData = new HashMap<String, Object>();
+        sessionData.put(SessionHolder.USERNAME, username);
+        sessionData.put(SessionHolder.TOKEN, token);
+        SessionHolder.addSession(request.getSession().getId(), sessionData);
+    }
+
+    /**
+     * @param request
+     * @return the value of the first configured token cookie on the request, or null if there is none
+     */
+    private String getTokenCookie(AtmosphereRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if(cookies == null) {
+            return null;
+        }
+        for(String key : TOKEN_COOKIE_KEYS) {
+            String name = configuration.getString(key.concat(".key"));
+            if(name == null) {
+                continue;
+            }
+            for(Cookie cookie : cookies) {
+                if(name.equals(cookie.getName())) {
+                    return cookie.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the identity that subscription decisions are cached for. This is the token the validators authenticate,
+     * not the X-Remote-User header, so a client naming another user cannot reuse that user's decisions. Requests
+     * without a token fall back to their own session.
+     *
+     * @param request
+     * @return
+     */
+    private String getSubscriber(AtmosphereRequest request) {
+        String sessionId = request.getSession().getId();
+        Object token = SessionHolder.getData(sessionId, SessionHolder.TOKEN);
+        return token != null ? "token:" + token : "session:" + sessionId;
     }
 
     /**
-     * Add the topic the Atmosphere request Subscribe to the topic on the rabbit listener
+     * Add the topic the Atmosphere request Subscribe to the topic on the rabbit listener. Access is resolved by the
+     * {@link SubscriptionAuthorizer}; when no cached decision exists the subscribe either proceeds optimistically or
+     * the response is written once the decision arrives, according to the configured policy.
      *
      * @param reqMessage the request message
      * @param resource   the atmosphere resource
-     * @return
+     * @return the response, or null if it will be written when the decision arrives
      */
     private ResponseMessage subscribe(RequestMessage reqMessage, AtmosphereResource resource) {
         final String topic = reqMessage.getTopic();
@@ -271,22 +421,51 @@ public class Mediator implements AtmosphereHandler {
         ResponseMessage message = new ResponseMessage(reqMessage.getRequestId());
 
         try {
+            // The connect request normally stored the identity, but the session may have been dropped by another
+            // connection of the same session closing
+            if(!SessionHolder.hasSession(resource.getRequest().getSession().getId())) {
+                rememberSession(resource.getRequest());
+            }
 
-            /** Blocking **/
-            /*for (SubscriptionValidator sv : this.subscriptionValidators) {
-                if (!sv.validate(resource, topic)) {
-                    // Send back exception
-                    message.setSuccessMessage(SUBSCRIBE_EXCEPTION);
-                    return message;
+            final Set<String> topics = getTopics(resource.getRequest());
+            final CompletableFuture<Boolean> decision = subscriptionAuthorizer.authorize(resource,
+                    getSubscriber(resource.getRequest()), topic);
+
+            if(decision.isDone()) {
+                if(decision.join()) {
+                    // Add new pattern to the topic array stored in the request
+                    topics.add(topic);
+                    message.setSuccessMessage(SUCCESS);
+                } else {
+                    message.setSuccessMessage(SUBSCRIBE_DENIED);
                 }
-            }*/
-
-            // Add new pattern to the topic array stored in the request
-            getTopics(resource.getRequest()).add(topic);
-
-            // Send back success
-            message.setSuccessMessage(SUCCESS);
-
+            } else if(subscriptionAuthorizer.getPolicy() == SubscriptionAuthorizer.Policy.OPTIMISTIC) {
+                topics.add(topic);
+                message.setSuccessMessage(SUCCESS);
+
+                decision.thenAccept(allowed -> {
+                    if(!allowed) {
+                        LOGGER.warn("User({}) denied topic {}, removing subscription", reqMessage.getUserId(), topic);
+                        topics.remove(topic);
+                        ResponseMessage denied = new ResponseMessage(reqMessage.getRequestId());
+                        denied.setSuccessMessage(SUBSCRIBE_DENIED);
+                        writeResponse(resource, denied);
+                    }
+                });
+            } else {
+                decision.thenAccept(allowed -> {
+                    ResponseMessage deferred = new ResponseMessage(reqMessage.getRequestId());
+                    if(allowed) {
+                        topics.add(topic);
+                        deferred.setSuccessMessage(SUCCESS);
+                    } else {
+                        deferred.setSuccessMessage(SUBSCRIBE_DENIED);
+                    }
+                    LOGGER.debug("{}{}", RESPONDING_PREFIX, reqMessage.getRequestId());
+                    writeResponse(resource, deferred);
+                });
+                return null;
+            }
         } catch(Exception e) {
             // log exception
             e.printStackTrace();
@@ -297,6 +476,20 @@ public class Mediator implements AtmosphereHandler {
         return message;
     }
 
+    /**
+     * Write a response that was resolved after the request was handled
+     *
+     * @param resource the atmosphere resource
+     * @param response the response message
+     */
+    private void writeResponse(AtmosphereResource resource, ResponseMessage response) {
+        try {
+            resource.getResponse().getWriter().write(ENCODER.encode(response));
+        } catch(Exception e) {
+            LOGGER.warn("Unable to write deferred response {}", response.getRequestId(), e);
+        }
+    }
+
     /**
      * Remove the topic from the Atmosphere request Unsubscribe the topic from the rabbit listener
      *
@@ -336,12 +529,13 @@ public class Mediator implements AtmosphereHandler {
         final String message = reqMessage.getMessage();
         ResponseMessage responseMessage = new ResponseMessage(reqMessage.getRequestId());
         try {
-            LOGGER.debug("in Publish method");
-
-            getRabbitProducer().produce(topic, message);
-            LOGGER.info("Publishing on topic: {}\nPublishing message: {}", topic, message);
-
-            responseMessage.setSuccessMessage(SUCCESS);
+            if(getPublisher().publish(topic, message)) {
+                LOGGER.debug("Publishing on topic: {}\nPublishing message: {}", topic, message);
+                responseMessage.setSuccessMessage(SUCCESS);
+            } else {
+                LOGGER.warn("Publish queue full, rejected message on topic {}", topic);
+                responseMessage.setErrorMessage(PUBLISH_QUEUE_FULL);
+            }
         } catch(Exception e) {
             e.printStackTrace();
             responseMessage.setErrorMessage(PUBLISH_EXCEPTION);
@@ -359,10 +553,43 @@ public class Mediator implements AtmosphereHandler {
      * @throws IOException
      */
     private ResponseMessage loadConfig(String reqId, String sessionId) throws IOException {
-        Map<String, Object> config = new HashMap<>();
         ResponseMessage response = new ResponseMessage(reqId);
+        response.setEventName(LOAD_CONFIG);
+        response.setData(getClientConfig());
+
+        LOGGER.debug("{}{}", RESPONDING_PREFIX, reqId);
+        return response;
+    }
 
-        Configuration systemConfig = Config.getInstance().getConfiguration();
+    /**
+     * Return the serialized client configuration, building it only if the configuration changed since it was last
+     * built
+     *
+     * @return
+     *
+     * @throws IOException
+     */
+    private String getClientConfig() throws IOException {
+        String current = clientConfig;
+        if(current == null) {
+            synchronized(this) {
+                if(clientConfig == null) {
+                    clientConfig = objectWriter.writeValueAsString(buildClientConfig(configuration));
+                }
+                current = clientConfig;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Build the nested map of all non-private configuration properties, split on their dot notation
+     *
+     * @param systemConfig
+     * @return
+     */
+    private Map<String, Object> buildClientConfig(Configuration systemConfig) {
+        Map<String, Object> config = new HashMap<>();
         try {
             for(Iterator<String> itr = systemConfig.getKeys(); itr.hasNext(); ) {
                 String key = itr.next();
@@ -415,11 +642,7 @@ public class Mediator implements AtmosphereHandler {
         } catch(Exception e) {
             e.printStackTrace();
         }
-        response.setEventName(LOAD_CONFIG);
-        response.setData(objectWriter.writeValueAsString(config));
-
-        LOGGER.debug("{}{}", RESPONDING_PREFIX, reqId);
-        return response;
+        return config;
     }
 
 }
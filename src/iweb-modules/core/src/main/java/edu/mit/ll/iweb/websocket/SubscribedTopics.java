@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.iweb.websocket;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * The topics a session is subscribed to. Wildcard subscriptions, those containing '#', are compiled when they are
+ * added and dropped when they are removed, so a session only ever holds patterns for its current subscriptions.
+ *
+ * <p>Reads are lock free, as messages are broadcast while subscriptions are being completed by the validation
+ * workers.</p>
+ */
+public class SubscribedTopics extends AbstractSet<String> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Set<String> topics = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentHashMap<String, Pattern> wildcards = new ConcurrentHashMap<>();
+
+    /**
+     * @param topic the topic of a message
+     * @return true if the topic is subscribed to, exactly or through a wildcard subscription
+     */
+    public boolean matches(String topic) {
+        // Exact subscriptions are a set lookup, only wildcard subscriptions need to be scanned
+        if(topics.contains(topic)) {
+            return true;
+        }
+        for(Pattern pattern : wildcards.values()) {
+            if(pattern.matcher(topic).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param topic a subscription
+     * @return the pattern messages are matched against for a wildcard subscription
+     */
+    public static Pattern compile(String topic) {
+        return Pattern.compile(topic.replace("#", "(.*)"));
+    }
+
+    @Override
+    public synchronized boolean add(String topic) {
+        if(topic.indexOf('#') != -1) {
+            wildcards.computeIfAbsent(topic, SubscribedTopics::compile);
+        }
+        return topics.add(topic);
+    }
+
+    @Override
+    public synchronized boolean remove(Object topic) {
+        wildcards.remove(topic);
+        return topics.remove(topic);
+    }
+
+    @Override
+    public boolean contains(Object topic) {
+        return topics.contains(topic);
+    }
+
+    @Override
+    public int size() {
+        return topics.size();
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        final Iterator<String> iterator = topics.iterator();
+        return new Iterator<String>() {
+            private String current;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public String next() {
+                current = iterator.next();
+                return current;
+            }
+
+            @Override
+            public void remove() {
+                if(current == null) {
+                    throw new IllegalStateException();
+                }
+                SubscribedTopics.this.remove(current);
+                current = null;
+            }
+        };
+    }
+}
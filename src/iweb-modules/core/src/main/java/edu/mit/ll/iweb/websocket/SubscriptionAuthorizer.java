@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.iweb.websocket;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.configuration2.Configuration;
+import org.atmosphere.cpr.AtmosphereResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves whether a user may subscribe to a topic by running the registered {@link SubscriptionValidator}s on a
+ * worker pool instead of the websocket thread. Decisions are cached per (identity, topic) for a short time, positive
+ * and negative separately, and concurrent requests for the same (identity, topic) share a single validation. The
+ * identity must be one the validators authenticate, such as the session token, never a client supplied name.
+ *
+ * <p>Validation is on unless {@value #ENABLED_KEY} is set to false, in which case every subscription is granted.</p>
+ */
+public class SubscriptionAuthorizer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionAuthorizer.class);
+
+    /**
+     * How a subscribe is handled while its decision is still pending.
+     */
+    public enum Policy {
+        /**
+         * Subscribe immediately, and drop the subscription if access is later denied.
+         */
+        OPTIMISTIC,
+        /**
+         * Only subscribe once access has been granted. The websocket thread is not held while waiting.
+         */
+        WAIT
+    }
+
+    public static final String ENABLED_KEY = "private.subscription.validation.enabled";
+    public static final String POLICY_KEY = "private.subscription.validation.policy";
+    public static final String ALLOW_TTL_KEY = "private.subscription.validation.allow.ttl";
+    public static final String DENY_TTL_KEY = "private.subscription.validation.deny.ttl";
+    public static final String THREADS_KEY = "private.subscription.validation.threads";
+    public static final String MAX_ENTRIES_KEY = "private.subscription.validation.maxentries";
+
+    private static final long DEFAULT_ALLOW_TTL = 60;
+    private static final long DEFAULT_DENY_TTL = 10;
+    private static final int DEFAULT_THREADS = 8;
+    private static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private static final CompletableFuture<Boolean> GRANTED = CompletableFuture.completedFuture(true);
+
+    private final Collection<SubscriptionValidator> validators;
+
+    private final boolean enabled;
+
+    private final Policy policy;
+
+    private final long allowTtlMillis;
+
+    private final long denyTtlMillis;
+
+    private final int maxEntries;
+
+    private final ExecutorService executor;
+
+    private final ConcurrentHashMap<String, Decision> decisions = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param validators the validators to consult, must be safe to iterate while validators are added
+     * @param config     the web configuration
+     */
+    public SubscriptionAuthorizer(Collection<SubscriptionValidator> validators, Configuration config) {
+        this.validators = validators;
+        this.enabled = config.getBoolean(ENABLED_KEY, true);
+        this.policy = Policy.valueOf(config.getString(POLICY_KEY, Policy.WAIT.name()).toUpperCase());
+        this.allowTtlMillis = config.getLong(ALLOW_TTL_KEY, DEFAULT_ALLOW_TTL) * 1000;
+        this.denyTtlMillis = config.getLong(DENY_TTL_KEY, DEFAULT_DENY_TTL) * 1000;
+        this.maxEntries = config.getInt(MAX_ENTRIES_KEY, DEFAULT_MAX_ENTRIES);
+
+        if(enabled) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(config.getInt(THREADS_KEY, DEFAULT_THREADS), runnable -> {
+                Thread thread = new Thread(runnable, "subscription-validator-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.executor = null;
+            LOGGER.warn("Subscription validation is disabled by {}, every subscription is granted", ENABLED_KEY);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Resolve access for the identity to the topic. The returned future is already complete when a cached decision
+     * exists or validation is disabled; otherwise it completes on a worker thread. It never completes exceptionally,
+     * a failing validator is treated as a denial that is not cached.
+     *
+     * @param resource the client requesting a subscription
+     * @param identity the authenticated identity the decision is cached for
+     * @param topic    the subscription pattern
+     * @return true if access is granted
+     */
+    public CompletableFuture<Boolean> authorize(final AtmosphereResource resource, final String identity,
+                                                final String topic) {
+        if(!enabled) {
+            return GRANTED;
+        }
+
+        final String key = identity + '\n' + topic;
+
+        Decision decision = decisions.get(key);
+        if(decision != null && !decision.isExpired(System.currentTimeMillis())) {
+            return CompletableFuture.completedFuture(decision.allowed);
+        }
+
+        final CompletableFuture<Boolean> pending = new CompletableFuture<>();
+        final CompletableFuture<Boolean> existing = inFlight.putIfAbsent(key, pending);
+        if(existing != null) {
+            return existing;
+        }
+
+        executor.execute(() -> {
+            boolean allowed = false;
+            try {
+                allowed = validate(resource, topic);
+                cache(key, allowed);
+            } catch(Exception e) {
+                LOGGER.error("Exception validating subscription of session {} to topic {}",
+                        resource.getRequest().getSession().getId(), topic, e);
+            } finally {
+                inFlight.remove(key, pending);
+                pending.complete(allowed);
+            }
+        });
+        return pending;
+    }
+
+    /**
+     * Stop the validation workers.
+     */
+    public void destroy() {
+        if(executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private boolean validate(AtmosphereResource resource, String topic) {
+        for(SubscriptionValidator validator : validators) {
+            if(!validator.validate(resource, topic)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void cache(String key, boolean allowed) {
+        final long now = System.currentTimeMillis();
+        if(decisions.size() >= maxEntries) {
+            decisions.values().removeIf(decision -> decision.isExpired(now));
+        }
+        decisions.put(key, new Decision(allowed, now + (allowed ? allowTtlMillis : denyTtlMillis)));
+    }
+
+    private static final class Decision {
+        private final boolean allowed;
+        private final long expires;
+
+        private Decision(boolean allowed, long expires) {
+            this.allowed = allowed;
+            this.expires = expires;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expires;
+        }
+    }
+}
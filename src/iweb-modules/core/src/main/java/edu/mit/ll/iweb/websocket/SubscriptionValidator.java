@@ -31,6 +31,10 @@ package edu.mit.ll.iweb.websocket;
 
 import org.atmosphere.cpr.AtmosphereResource;
 
+/**
+ * Decides whether a client may subscribe to a topic. Validators are run by the {@link SubscriptionAuthorizer} on its
+ * worker pool, concurrently for different subscriptions, and their decisions are cached per (user, topic).
+ */
 public interface SubscriptionValidator {
 
     public boolean validate(AtmosphereResource r, String subscription);
@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.iweb.websocket;
+
+import edu.mit.ll.iweb.message.ResponseMessage;
+import edu.mit.ll.iweb.rabbit.RabbitBroadcastFilter;
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.servlet.http.HttpSession;
+import org.apache.commons.configuration2.BaseConfiguration;
+import org.atmosphere.cpr.AtmosphereRequest;
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.AtmosphereResource.TRANSPORT;
+import org.atmosphere.cpr.AtmosphereResponse;
+import org.atmosphere.cpr.BroadcastFilter.BroadcastAction;
+
+/**
+ * In-process load harness for the {@link Mediator} message path. Simulates thousands of Atmosphere clients that load
+ * the config, subscribe to a collaboration room and publish, then fans broadcasts out through the
+ * {@link RabbitBroadcastFilter}, reporting throughput and latency percentiles for each phase. Rabbit is replaced by a
+ * counting publisher so only the Mediator path is measured.
+ *
+ * <p>Not a unit test, run it from the test classpath:</p>
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=edu.mit.ll.iweb.websocket.MediatorLoadHarness -Dexec.args="[clients] [messages] [threads]"
+ * </pre>
+ */
+public final class MediatorLoadHarness {
+
+    private static final int ROOMS = 20;
+    private static final int BROADCASTS = 200;
+    private static final String ROOM_TOPIC = "iweb.NICS.collabroom.%d.feature";
+
+    private MediatorLoadHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int clients = intArg(args, 0, 2000);
+        final int messages = intArg(args, 1, 50);
+        final int threads = intArg(args, 2, Runtime.getRuntime().availableProcessors() * 2);
+
+        final BaseConfiguration config = new BaseConfiguration();
+        config.addProperty("endpoint.rest", "http://localhost:8080/em-api/v1");
+        config.addProperty("logging.level", "info");
+        config.addProperty("main.site.title", "NICS");
+        config.addProperty(SubscriptionAuthorizer.POLICY_KEY, "wait");
+
+        final LongAdder published = new LongAdder();
+        final Mediator mediator = new Mediator(config, (topic, message) -> {
+            published.increment();
+            return true;
+        });
+
+        final List<SimulatedClient> sims = new ArrayList<>(clients);
+        for(int i = 0; i < clients; i++) {
+            sims.add(new SimulatedClient("session-" + i, String.format(ROOM_TOPIC, i % ROOMS)));
+        }
+
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            System.out.printf("Mediator load: %d clients, %d messages each, %d threads%n", clients, messages, threads);
+
+            run("config", pool, sims, 1, (sim, i) ->
+                    mediator.onRequest(sim.post("{\"type\":\"config\",\"requestId\":\"c" + i + "\"}")));
+
+            run("subscribe", pool, sims, 1, (sim, i) ->
+                    mediator.onRequest(sim.post("{\"type\":\"subscribe\",\"topic\":\"" + sim.room
+                            + "\",\"requestId\":\"s" + i + "\"}")));
+            awaitSubscriptions(sims);
+
+            run("publish", pool, sims, messages, (sim, i) ->
+                    mediator.onRequest(sim.post("{\"type\":\"publish\",\"topic\":\"" + sim.room
+                            + "\",\"message\":\"{\\\"id\\\":" + i + ",\\\"geometry\\\":\\\"POINT(0 0)\\\"}\""
+                            + ",\"requestId\":\"p" + i + "\"}")));
+            System.out.printf("  published to producer: %d%n", published.sum());
+
+            fanOut(sims);
+        } finally {
+            pool.shutdownNow();
+            mediator.destroy();
+        }
+    }
+
+    private interface Operation {
+        void apply(SimulatedClient sim, int iteration) throws Exception;
+    }
+
+    /**
+     * Run the operation for every client, repeated the given number of times, and report its latency
+     */
+    private static void run(String phase, ExecutorService pool, List<SimulatedClient> sims, int repeat,
+                            Operation operation) throws Exception {
+        final int perTask = Math.max(1, sims.size() / 64);
+        final long[] latencies = new long[sims.size() * repeat];
+        final List<Future<?>> futures = new ArrayList<>();
+
+        final long start = System.nanoTime();
+        for(int from = 0; from < sims.size(); from += perTask) {
+            final int first = from;
+            final int last = Math.min(sims.size(), from + perTask);
+            futures.add(pool.submit(() -> {
+                for(int r = 0; r < repeat; r++) {
+                    for(int c = first; c < last; c++) {
+                        long begin = System.nanoTime();
+                        operation.apply(sims.get(c), r);
+                        latencies[c * repeat + r] = System.nanoTime() - begin;
+                    }
+                }
+                return null;
+            }));
+        }
+        for(Future<?> future : futures) {
+            future.get();
+        }
+        report(phase, latencies, System.nanoTime() - start);
+    }
+
+    private static void awaitSubscriptions(List<SimulatedClient> sims) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        for(SimulatedClient sim : sims) {
+            while(!sim.isSubscribed() && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    /**
+     * Broadcast room messages through the filter for every client, as the Atmosphere broadcaster does
+     */
+    private static void fanOut(List<SimulatedClient> sims) {
+        final RabbitBroadcastFilter filter = new RabbitBroadcastFilter();
+        final long[] latencies = new long[BROADCASTS];
+        long delivered = 0;
+
+        final long start = System.nanoTime();
+        for(int i = 0; i < BROADCASTS; i++) {
+            long begin = System.nanoTime();
+            ResponseMessage response = new ResponseMessage(String.format(ROOM_TOPIC, i % ROOMS),
+                    "{\"id\":" + i + "}", "b" + i);
+            Object encoded = filter.filter("/mediator", response, response).message();
+            for(SimulatedClient sim : sims) {
+                BroadcastAction action = filter.filter("/mediator", sim.resource(null), response, encoded);
+                if(action.action() == BroadcastAction.ACTION.CONTINUE) {
+                    delivered++;
+                }
+            }
+            latencies[i] = System.nanoTime() - begin;
+        }
+        report("fan-out", latencies, System.nanoTime() - start);
+        System.out.printf("  delivered: %d (%d clients per broadcast)%n", delivered, delivered / BROADCASTS);
+    }
+
+    private static void report(String phase, long[] latencies, long elapsedNanos) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("  %-10s %9d ops  %10.0f ops/sec  p50 %7.1f us  p99 %8.1f us  max %9.1f us%n",
+                phase, sorted.length, sorted.length / seconds,
+                percentile(sorted, 0.50) / 1e3, percentile(sorted, 0.99) / 1e3, sorted[sorted.length - 1] / 1e3);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    private static int intArg(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+
+    /**
+     * A client with its own session and response stream, built from dynamic proxies of the Atmosphere interfaces
+     */
+    private static final class SimulatedClient {
+        private final String room;
+        private final HttpSession session;
+        private final AtmosphereResponse response;
+
+        SimulatedClient(String sessionId, String room) {
+            this.room = room;
+
+            final Map<String, Object> attributes = new ConcurrentHashMap<>();
+            this.session = stub(HttpSession.class, (method, args) -> {
+                switch(method) {
+                    case "getId":
+                        return sessionId;
+                    case "getAttribute":
+                        return attributes.get(args[0]);
+                    case "setAttribute":
+                        attributes.put((String) args[0], args[1]);
+                        return null;
+                    default:
+                        return null;
+                }
+            });
+
+            final PrintWriter writer = new PrintWriter(new DiscardingWriter());
+            this.response = stub(AtmosphereResponse.class, (method, args) ->
+                    "getWriter".equals(method) ? writer : null);
+        }
+
+        AtmosphereResource post(String body) {
+            return resource(body);
+        }
+
+        AtmosphereResource resource(String body) {
+            final AtmosphereRequest request = stub(AtmosphereRequest.class, (method, args) -> {
+                switch(method) {
+                    case "getMethod":
+                        return "POST";
+                    case "getReader":
+                        return body == null ? null : new BufferedReader(new StringReader(body));
+                    case "getSession":
+                        return session;
+                    default:
+                        return null;
+                }
+            });
+            return stub(AtmosphereResource.class, (method, args) -> {
+                switch(method) {
+                    case "getRequest":
+                        return request;
+                    case "getResponse":
+                        return response;
+                    case "transport":
+                        return TRANSPORT.WEBSOCKET;
+                    case "uuid":
+                        return session.getId();
+                    default:
+                        return null;
+                }
+            });
+        }
+
+        boolean isSubscribed() {
+            Object topics = session.getAttribute("topics");
+            return topics instanceof Set && ((Set<?>) topics).contains(room);
+        }
+    }
+
+    private interface StubHandler {
+        Object invoke(String method, Object[] args) throws Exception;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, StubHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            switch(method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                default:
+                    break;
+            }
+            Object result = handler.invoke(method.getName(), args);
+            if(result == null && method.getReturnType().isPrimitive()) {
+                return defaultValue(method.getReturnType());
+            }
+            return result;
+        });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if(type == boolean.class) {
+            return false;
+        } else if(type == void.class) {
+            return null;
+        } else if(type == char.class) {
+            return '\0';
+        } else if(type == long.class) {
+            return 0L;
+        } else if(type == float.class) {
+            return 0f;
+        } else if(type == double.class) {
+            return 0d;
+        } else if(type == byte.class) {
+            return (byte) 0;
+        } else if(type == short.class) {
+            return (short) 0;
+        }
+        return 0;
+    }
+
+    /**
+     * Writer that only counts what the Mediator writes back to the client
+     */
+    private static final class DiscardingWriter extends Writer {
+        private final LongAdder chars = new LongAdder();
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            chars.add(len);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.iweb.websocket;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import edu.mit.ll.iweb.session.SessionHolder;
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpSession;
+import org.apache.commons.configuration2.BaseConfiguration;
+import org.atmosphere.cpr.AtmosphereRequest;
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.AtmosphereResource.TRANSPORT;
+import org.atmosphere.cpr.AtmosphereResponse;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class MediatorSubscriptionTest {
+
+    private static final String TOKEN_COOKIE = "iPlanetDirectoryPro";
+    private static final String ROOM_TOPIC = "iweb.NICS.collabroom.1.feature";
+
+    private BaseConfiguration config;
+    private Mediator mediator;
+    private AtomicInteger validations;
+
+    @BeforeMethod
+    public void setUp() {
+        config = new BaseConfiguration();
+        config.addProperty("openam.key", TOKEN_COOKIE);
+        config.addProperty(SubscriptionAuthorizer.POLICY_KEY, "wait");
+        validations = new AtomicInteger();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        if(mediator != null) {
+            mediator.destroy();
+        }
+    }
+
+    @Test
+    public void testSubscribeWithValidSessionIsGranted() throws Exception {
+        start();
+        Client client = new Client("session-1", "alice", "alice-token");
+
+        mediator.onRequest(client.subscribe(ROOM_TOPIC));
+
+        assertTrue(client.awaitResponse("Success"), client.written());
+        assertTrue(client.isSubscribed(ROOM_TOPIC));
+        assertEquals(SessionHolder.getData("session-1", SessionHolder.USERNAME), "alice");
+        assertEquals(SessionHolder.getData("session-1", SessionHolder.TOKEN), "alice-token");
+    }
+
+    @Test
+    public void testSubscribeWithoutIdentityIsDenied() throws Exception {
+        start();
+        Client client = new Client("session-2", null, null);
+
+        mediator.onRequest(client.subscribe(ROOM_TOPIC));
+
+        assertTrue(client.awaitResponse("Subscription denied"), client.written());
+        assertFalse(client.isSubscribed(ROOM_TOPIC));
+    }
+
+    @Test
+    public void testDecisionIsSharedBySessionsWithTheSameToken() throws Exception {
+        start();
+        Client first = new Client("session-3", "bob", "bob-token");
+        Client second = new Client("session-4", "bob", "bob-token");
+
+        mediator.onRequest(first.subscribe(ROOM_TOPIC));
+        assertTrue(first.awaitResponse("Success"), first.written());
+        mediator.onRequest(second.subscribe(ROOM_TOPIC));
+
+        assertTrue(second.isSubscribed(ROOM_TOPIC));
+        assertEquals(validations.get(), 1);
+    }
+
+    @Test
+    public void testClaimedUsernameDoesNotReuseAnotherSessionsDecision() throws Exception {
+        start();
+        Client owner = new Client("session-5", "carol", "carol-token");
+        Client impostor = new Client("session-6", "carol", "forged-token");
+
+        mediator.onRequest(owner.subscribe(ROOM_TOPIC));
+        assertTrue(owner.awaitResponse("Success"), owner.written());
+        mediator.onRequest(impostor.subscribe(ROOM_TOPIC));
+
+        assertTrue(impostor.awaitResponse("Subscription denied"), impostor.written());
+        assertFalse(impostor.isSubscribed(ROOM_TOPIC));
+        assertEquals(validations.get(), 2);
+    }
+
+    @Test
+    public void testValidationIsEnabledByDefault() throws Exception {
+        mediator = new Mediator(config, (topic, message) -> true);
+        mediator.addSubscriptionValidator((resource, topic) -> {
+            validations.incrementAndGet();
+            return false;
+        });
+        Client client = new Client("session-7", "dave", "dave-token");
+
+        mediator.onRequest(client.subscribe(ROOM_TOPIC));
+
+        assertTrue(client.awaitResponse("Subscription denied"), client.written());
+        assertFalse(client.isSubscribed(ROOM_TOPIC));
+        assertEquals(validations.get(), 1);
+    }
+
+    @Test
+    public void testDisabledValidationGrantsEverySubscription() throws Exception {
+        config.setProperty(SubscriptionAuthorizer.ENABLED_KEY, false);
+        mediator = new Mediator(config, (topic, message) -> true);
+        mediator.addSubscriptionValidator((resource, topic) -> {
+            validations.incrementAndGet();
+            return false;
+        });
+        Client client = new Client("session-8", null, null);
+
+        mediator.onRequest(client.subscribe(ROOM_TOPIC));
+
+        assertTrue(client.isSubscribed(ROOM_TOPIC));
+        assertEquals(validations.get(), 0);
+    }
+
+    /**
+     * Start a mediator whose validator, like the collaboration room validator, requires the username and token of the
+     * session
+     */
+    private void start() {
+        mediator = new Mediator(config, (topic, message) -> true);
+        mediator.addSubscriptionValidator((resource, topic) -> {
+            validations.incrementAndGet();
+            String sessionId = resource.getRequest().getSession().getId();
+            Object username = SessionHolder.getData(sessionId, SessionHolder.USERNAME);
+            Object token = SessionHolder.getData(sessionId, SessionHolder.TOKEN);
+            return username != null && (username + "-token").equals(token);
+        });
+    }
+
+    /**
+     * A websocket client whose requests carry the username header and token cookie of its user
+     */
+    private static final class Client {
+        private final String username;
+        private final Cookie[] cookies;
+        private final HttpSession session;
+        private final StringWriter output = new StringWriter();
+        private final AtmosphereResponse response;
+
+        Client(String sessionId, String username, String token) {
+            this.username = username;
+            this.cookies = token == null ? new Cookie[0] : new Cookie[] {new Cookie(TOKEN_COOKIE, token)};
+            SessionHolder.removeSession(sessionId);
+
+            final Map<String, Object> attributes = new ConcurrentHashMap<>();
+            this.session = stub(HttpSession.class, (method, args) -> {
+                switch(method) {
+                    case "getId":
+                        return sessionId;
+                    case "getAttribute":
+                        return attributes.get(args[0]);
+                    case "setAttribute":
+                        attributes.put((String) args[0], args[1]);
+                        return null;
+                    default:
+                        return null;
+                }
+            });
+
+            final PrintWriter writer = new PrintWriter(output, true);
+            this.response = stub(AtmosphereResponse.class, (method, args) ->
+                    "getWriter".equals(method) ? writer : null);
+        }
+
+        AtmosphereResource subscribe(String topic) {
+            final String body = "{\"type\":\"subscribe\",\"topic\":\"" + topic + "\",\"requestId\":\"s1\"}";
+            final AtmosphereRequest request = stub(AtmosphereRequest.class, (method, args) -> {
+                switch(method) {
+                    case "getMethod":
+                        return "POST";
+                    case "getReader":
+                        return new BufferedReader(new StringReader(body));
+                    case "getSession":
+                        return session;
+                    case "getHeader":
+                        return "X-Remote-User".equals(args[0]) ? username : null;
+                    case "getCookies":
+                        return cookies;
+                    default:
+                        return null;
+                }
+            });
+            return stub(AtmosphereResource.class, (method, args) -> {
+                switch(method) {
+                    case "getRequest":
+                        return request;
+                    case "getResponse":
+                        return response;
+                    case "transport":
+                        return TRANSPORT.WEBSOCKET;
+                    default:
+                        return null;
+                }
+            });
+        }
+
+        boolean awaitResponse(String expected) throws InterruptedException {
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while(!written().contains(expected) && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            return written().contains(expected);
+        }
+
+        String written() {
+            synchronized(output) {
+                return output.toString();
+            }
+        }
+
+        boolean isSubscribed(String topic) {
+            Object topics = session.getAttribute("topics");
+            return topics instanceof Set && ((Set<?>) topics).contains(topic);
+        }
+    }
+
+    private interface StubHandler {
+        Object invoke(String method, Object[] args) throws Exception;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, StubHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            switch(method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    break;
+            }
+            Object result = handler.invoke(method.getName(), args);
+            if(result == null && method.getReturnType() == boolean.class) {
+                return false;
+            }
+            return result;
+        });
+    }
+}
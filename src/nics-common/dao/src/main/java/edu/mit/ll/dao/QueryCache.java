@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.dao;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Named statements whose SQL text is built by a {@link QueryModel} once and then reused.
+ *
+ * A DAO method asks for its statement by name and passes the definition as a non-capturing lambda:
+ * <pre>
+ * String sql = QueryCache.get("UserSessionDAO.updateLoggedOutToNow", () -&gt; QueryManager.createQuery(TABLE)
+ *         .update(LOGGED_OUT).now().where().equals(USERSESSION_ID));
+ * </pre>
+ * The definition only runs the first time the name is requested. After that a call costs one map lookup, and a
+ * non-capturing lambda is not even allocated.
+ *
+ * Only statements whose text is the same on every call may be cached. A definition whose model reports
+ * {@link QueryModel#isDynamic()} is rejected with an IllegalStateException rather than cached, so a statement built
+ * from runtime values can't end up reused with another call's values. Bind those values as named parameters instead.
+ */
+public final class QueryCache {
+
+    private static final ConcurrentMap<String, String> statements = new ConcurrentHashMap<String, String>();
+
+    private QueryCache() {
+    }
+
+    /**
+     * @param name       unique statement name, conventionally DAOName.methodName
+     * @param definition builds the statement, called at most once per name while it is cached
+     * @return the SQL text of the statement
+     * @throws IllegalStateException if the definition's SQL depends on runtime values
+     */
+    public static String get(String name, Supplier<QueryModel> definition) {
+        String sql = statements.get(name);
+        if(sql == null) {
+            sql = statements.computeIfAbsent(name, key -> toStaticSql(key, definition.get()));
+        }
+        return sql;
+    }
+
+    /**
+     * @return the number of cached statements
+     */
+    public static int size() {
+        return statements.size();
+    }
+
+    /**
+     * Drops every cached statement, so they are rebuilt on next use
+     */
+    public static void clear() {
+        statements.clear();
+    }
+
+    private static String toStaticSql(String name, QueryModel model) {
+        if(model.isDynamic()) {
+            throw new IllegalStateException("Statement " + name + " depends on runtime values and can't be cached: " +
+                    model);
+        }
+        return model.toString();
+    }
+}
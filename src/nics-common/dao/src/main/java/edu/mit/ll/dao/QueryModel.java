@@ -42,6 +42,11 @@ public class QueryModel {
     private StringBuffer query = new StringBuffer();
     private String table;
 
+    /**
+     * Set when a runtime value was written into the SQL text, see {@link #isDynamic()}
+     */
+    private boolean dynamic;
+
     public QueryModel() {
     }
 
@@ -92,6 +97,7 @@ public class QueryModel {
     public QueryModel selectAllFromFeatureTable(int geoType) {
         query.append(QueryBuilder.selectFrom(table, QueryBuilder.ALL + ",ST_AsText(st_transform(geometry," +
                 geoType + "))", false));
+        dynamic = true;
         return this;
     }
 
@@ -316,6 +322,11 @@ public class QueryModel {
         return this;
     }
 
+    public QueryModel notIn(String value, QueryModel subQuery) {
+        dynamic |= subQuery.isDynamic();
+        return this.notIn(value, subQuery.toString());
+    }
+
     public QueryModel left() {
         query.append(QueryBuilder.LEFT);
         return this;
@@ -356,6 +367,7 @@ public class QueryModel {
         query.append(QueryBuilder.SPACE);
         query.append(select.toString());
         parameters.putAll(select.getParameters());
+        dynamic |= select.dynamic;
         return this;
     }
 
@@ -409,7 +421,13 @@ public class QueryModel {
         return this;
     }
 
+    public QueryModel inAsSQL(String column, QueryModel subQuery) {
+        dynamic |= subQuery.isDynamic();
+        return this.inAsSQL(column, subQuery.toString());
+    }
+
     public QueryModel inAsLong(String column, List<Long> values) {
+        dynamic = true;
         query.append(QueryBuilder.SPACE);
         query.append(column);
         query.append(QueryBuilder.IN);
@@ -420,6 +438,7 @@ public class QueryModel {
     }
 
     public QueryModel inAsInteger(String column, List<Integer> values) {
+        dynamic = true;
         query.append(QueryBuilder.SPACE);
         query.append(column);
         query.append(QueryBuilder.IN);
@@ -430,6 +449,7 @@ public class QueryModel {
     }
 
     public QueryModel notInAsInteger(String column, List<Integer> values) {
+        dynamic = true;
         query.append(QueryBuilder.SPACE);
         query.append(column);
         query.append(QueryBuilder.SPACE);
@@ -441,6 +461,7 @@ public class QueryModel {
     }
 
     public QueryModel inAsString(String column, List<String> fields) {
+        dynamic = true;
         query.append(QueryBuilder.SPACE);
         query.append(column);
         query.append(QueryBuilder.IN);
@@ -581,6 +602,7 @@ public class QueryModel {
         query.append(QueryBuilder.CLOSE);
         query.append(QueryBuilder.SPACE);
         parameters.putAll(subQuery.getParameters());
+        dynamic |= subQuery.dynamic;
         return this;
     }
 
@@ -588,6 +610,19 @@ public class QueryModel {
         return this.parameters;
     }
 
+    /**
+     * Whether this statement can't be reused across calls. That is the case when the builder wrote a runtime value
+     * into the SQL text (the inAs* lists, a feature table's SRID), or when values were captured into
+     * {@link #getParameters()}, which a cached SQL string would silently drop. Strings passed verbatim, such as to
+     * {@link #value(String)} or {@link #inAsSQL(String, String)}, are not inspected.
+     *
+     * @return true if the SQL text or its parameters depend on the values this model was built with
+     * @see QueryCache
+     */
+    public boolean isDynamic() {
+        return dynamic || !parameters.isEmpty();
+    }
+
     public String toString() {
         //System.out.println("***********************" + query.toString());
         return query.toString();
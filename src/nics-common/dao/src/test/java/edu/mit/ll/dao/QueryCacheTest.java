@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryCacheTest {
+
+    @Before
+    public void setUp() {
+        QueryCache.clear();
+    }
+
+    @Test
+    public void testStaticStatementIsBuiltOnce() {
+        final int[] built = new int[1];
+        String first = QueryCache.get("test.static", () -> {
+            built[0]++;
+            return new QueryModel("folder").selectAllFromTableWhere().equals("parentfolderid")
+                    .orderBy("index");
+        });
+        String second = QueryCache.get("test.static", () -> {
+            built[0]++;
+            return new QueryModel("folder").selectAllFromTable();
+        });
+
+        assertSame(first, second);
+        assertEquals(1, built[0]);
+        assertEquals(new QueryModel("folder").selectAllFromTableWhere().equals("parentfolderid")
+                .orderBy("index").toString(), first);
+    }
+
+    @Test
+    public void testInlinedValuesAreDynamic() {
+        assertTrue(new QueryModel("org").selectAllFromTable().where().inAsInteger("orgid", Arrays.asList(1, 2))
+                .isDynamic());
+        assertTrue(new QueryModel("org").selectAllFromTableWhere().equals("orgid", 1).isDynamic());
+
+        QueryModel sub = new QueryModel("org").selectFromTable("orgid").where().equals("parentorgid", 4);
+        assertTrue(new QueryModel("org").selectAllFromTable().where().notIn("orgid", sub).isDynamic());
+
+        assertFalse(new QueryModel("org").selectAllFromTableWhere().equals("orgid").isDynamic());
+    }
+
+    @Test
+    public void testDynamicStatementIsRejected() {
+        try {
+            QueryCache.get("test.dynamic", () -> new QueryModel("org").selectAllFromTable().where()
+                    .inAsInteger("orgid", Arrays.asList(1, 2)));
+            fail("Expected the dynamic statement to be rejected");
+        } catch(IllegalStateException e) {
+            assertEquals(0, QueryCache.size());
+        }
+    }
+}
@@ -176,6 +176,14 @@ public class Form {
         this.message = message;
     }
 
+    public int getSenderuserid() {
+        return this.senderuserid;
+    }
+
+    public void setSenderuserid(int senderuserid) {
+        this.senderuserid = senderuserid;
+    }
+
     public Boolean getDistributed() {
         return this.distributed;
     }
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.common.entity.datalayer;
+
+import java.util.Date;
+
+/**
+ * Imagelayerjob, the background provisioning of an image layer: the GeoServer SQL view over the batch's
+ * imagefeatures and the datalayer pointing at it.
+ */
+public class ImageLayerJob {
+
+    public static final String PENDING = "pending";
+    public static final String RUNNING = "running";
+    public static final String COMPLETE = "complete";
+    public static final String FAILED = "failed";
+
+    private String imageid;
+    private int workspaceid;
+    private String title;
+    private int usersessionid;
+    private String folderid;
+    private String status = PENDING;
+    private int attempts;
+    private String message;
+    private String datalayerid;
+    private Date created;
+    private Date lastupdate;
+    private Date nextattempt;
+
+    public ImageLayerJob() {
+    }
+
+    public ImageLayerJob(String imageid, int workspaceid, String title, int usersessionid, String folderid) {
+        this.imageid = imageid;
+        this.workspaceid = workspaceid;
+        this.title = title;
+        this.usersessionid = usersessionid;
+        this.folderid = folderid;
+    }
+
+    public String getImageid() {
+        return this.imageid;
+    }
+
+    public void setImageid(String imageid) {
+        this.imageid = imageid;
+    }
+
+    public int getWorkspaceid() {
+        return this.workspaceid;
+    }
+
+    public void setWorkspaceid(int workspaceid) {
+        this.workspaceid = workspaceid;
+    }
+
+    public String getTitle() {
+        return this.title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public int getUsersessionid() {
+        return this.usersessionid;
+    }
+
+    public void setUsersessionid(int usersessionid) {
+        this.usersessionid = usersessionid;
+    }
+
+    public String getFolderid() {
+        return this.folderid;
+    }
+
+    public void setFolderid(String folderid) {
+        this.folderid = folderid;
+    }
+
+    /**
+     * @return one of {@link #PENDING}, {@link #RUNNING}, {@link #COMPLETE} or {@link #FAILED}
+     */
+    public String getStatus() {
+        return this.status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public int getAttempts() {
+        return this.attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    /**
+     * @return why the last attempt failed, if it did
+     */
+    public String getMessage() {
+        return this.message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    /**
+     * @return the datalayer created for the image layer, once the job is complete
+     */
+    public String getDatalayerid() {
+        return this.datalayerid;
+    }
+
+    public void setDatalayerid(String datalayerid) {
+        this.datalayerid = datalayerid;
+    }
+
+    public Date getCreated() {
+        return this.created;
+    }
+
+    public void setCreated(Date created) {
+        this.created = created;
+    }
+
+    public Date getLastupdate() {
+        return this.lastupdate;
+    }
+
+    public void setLastupdate(Date lastupdate) {
+        this.lastupdate = lastupdate;
+    }
+
+    /**
+     * @return when a pending job is next due to be attempted
+     */
+    public Date getNextattempt() {
+        return this.nextattempt;
+    }
+
+    public void setNextattempt(Date nextattempt) {
+        this.nextattempt = nextattempt;
+    }
+}
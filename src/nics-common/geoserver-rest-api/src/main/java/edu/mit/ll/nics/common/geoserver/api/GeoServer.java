@@ -331,15 +331,46 @@ public class GeoServer extends SuperGeoServer {
      */
     private String buildFeatureTypeXML(String workspaceName, String dataStoreName, String featureTypeName, String srs,
                                        String sqlFilter, String geometryAttribute, String geometryType, Integer srid) {
+        return buildFeatureTypeXML(workspaceName, dataStoreName, featureTypeName, srs, sqlFilter, geometryAttribute,
+                geometryType, srid, featureTypeName, null, null);
+    }
+
+    /**
+     * Private function to build XML from feature type paramaters, with the title and bounds set up front
+     *
+     * @param title        title of the feature type
+     * @param nativeBounds native bounds in srs, or null to leave them for geoserver to compute
+     * @param latlonBounds lat/lon bounds, only used with nativeBounds
+     * @return
+     */
+    private String buildFeatureTypeXML(String workspaceName, String dataStoreName, String featureTypeName, String srs,
+                                       String sqlFilter, String geometryAttribute, String geometryType, Integer srid,
+                                       String title, Envelope nativeBounds, Envelope latlonBounds) {
         String xml = "<featureType>"
                 + "<name>" + featureTypeName + "</name>"
                 + "<nativeName>" + featureTypeName + "</nativeName>"
                 + "<namespace>"
                 + "<name>" + workspaceName + "</name>"
                 + "</namespace>"
-                + "<title>" + featureTypeName + "</title>"
+                + "<title>" + title + "</title>"
                 + "<srs>" + srs + "</srs>"
                 + "<enabled>true</enabled>";
+        if(nativeBounds != null && latlonBounds != null) {
+            xml = xml + "<nativeBoundingBox>"
+                    + "<minx>" + nativeBounds.getMinX() + "</minx>"
+                    + "<miny>" + nativeBounds.getMinY() + "</miny>"
+                    + "<maxx>" + nativeBounds.getMaxX() + "</maxx>"
+                    + "<maxy>" + nativeBounds.getMaxY() + "</maxy>"
+                    + "<crs class=\"projected\">" + srs + "</crs>"
+                    + "</nativeBoundingBox>"
+                    + "<latLonBoundingBox>"
+                    + "<minx>" + latlonBounds.getMinX() + "</minx>"
+                    + "<miny>" + latlonBounds.getMinY() + "</miny>"
+                    + "<maxx>" + latlonBounds.getMaxX() + "</maxx>"
+                    + "<maxy>" + latlonBounds.getMaxY() + "</maxy>"
+                    + "<crs>EPSG:4326</crs>"
+                    + "</latLonBoundingBox>";
+        }
         if(sqlFilter != null) {
             xml = xml + "<metadata>"
                     + "<entry key=\"JDBC_VIRTUAL_TABLE\">"
@@ -398,6 +429,34 @@ public class GeoServer extends SuperGeoServer {
                 "application/xml");
     }
 
+    /**
+     * Add a SQL view Feature type to geoserver with its title and bounds, in one request instead of an add followed
+     * by updates
+     *
+     * @param workspaceName
+     * @param dataStoreName
+     * @param featureTypeName
+     * @param srs
+     * @param sqlFilter       sql query to build view with
+     * @param title
+     * @param nativeBounds    bounds in srs
+     * @param latlonBounds
+     * @return success of object add
+     */
+    public boolean addFeatureTypeSQL(String workspaceName, String dataStoreName, String featureTypeName, String srs,
+                                     String sqlFilter, String geometryAttribute, String geometryType, Integer srid,
+                                     String title, Envelope nativeBounds, Envelope latlonBounds) {
+        if(nativeBounds.isNull() || latlonBounds.isNull()) {
+            log.warning("Incorrect bounds envelope must have 4 points");
+            return false;
+        }
+        String xml =
+                buildFeatureTypeXML(workspaceName, dataStoreName, featureTypeName, srs, sqlFilter, geometryAttribute,
+                        geometryType, srid, title, nativeBounds, latlonBounds);
+        return restPost("/workspaces/" + workspaceName + "/datastores/" + dataStoreName + "/featuretypes", xml,
+                "application/xml");
+    }
+
     /**
      * Update the native bounds for a feature type
      *
@@ -428,6 +428,9 @@ public final class SADisplayConstants {
     public static final String IMAGE_FEATURE_TABLE = "imagefeature";
     public static final String LOCATION = "location";
     public static final String IMAGE_ID = "imageid";
+    public static final String IMAGE_LAYER_JOB_TABLE = "imagelayerjob";
+    public static final String IMAGE_LAYER_JOB_ATTEMPTS = "attempts";
+    public static final String IMAGE_LAYER_JOB_NEXT_ATTEMPT = "nextattempt";
 
     public static final String FEATURE_COMMENT_ID = "featureCommentId";
     public static final String FEATURE_COMMENT = "comment";
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.nicsdao;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+/**
+ * Single source of the DataSource used by every {@link GenericDAO}.
+ *
+ * In the container the pooled datasource is looked up from JNDI once, the first time any DAO needs it, and then shared.
+ * Stand-alone code such as tests, benchmarks and tools can call {@link #setDataSource(DataSource)} with any plain
+ * DataSource before creating DAOs, and no JNDI lookup happens at all.
+ *
+ * Each DAO gets its own {@link InstrumentedDataSource} view of the shared datasource. Statement timings, slow
+ * statements and connection waits are therefore tracked per DAO class and can be read with {@link #getStats()}.
+ */
+public final class DAOFactory {
+
+    public static final String JNDI_NAME = "java:comp/env/jboss/sadisplayDatasource";
+
+    /**
+     * System property holding the slow statement threshold in milliseconds
+     */
+    public static final String SLOW_QUERY_MILLIS_PROPERTY = "nics.dao.slowQueryMillis";
+
+    public static final long DEFAULT_SLOW_QUERY_MILLIS = 500;
+
+    /**
+     * Key of the entry in {@link #getStats()} that totals every DAO
+     */
+    public static final String TOTAL = "total";
+
+    private static final Logger log = LoggerFactory.getLogger(DAOFactory.class);
+
+    private static final ConcurrentMap<String, DAOStats> stats = new ConcurrentHashMap<String, DAOStats>();
+
+    private static volatile DataSource dataSource;
+
+    private static volatile long slowQueryMillis = Long.getLong(SLOW_QUERY_MILLIS_PROPERTY,
+            DEFAULT_SLOW_QUERY_MILLIS);
+
+    private DAOFactory() {
+    }
+
+    /**
+     * Sets the DataSource shared by DAOs created from now on. DAOs that already exist keep the one they were created
+     * with.
+     *
+     * @param dataSource a pooled or plain DataSource, or null to fall back to the JNDI lookup
+     */
+    public static void setDataSource(DataSource dataSource) {
+        DAOFactory.dataSource = unwrap(dataSource);
+    }
+
+    /**
+     * @return the shared DataSource, looking it up from JNDI on first use. Null if none was set and the lookup fails,
+     * in which case the lookup is retried on the next call
+     */
+    public static DataSource getDataSource() {
+        DataSource shared = dataSource;
+        if(shared == null) {
+            synchronized(DAOFactory.class) {
+                shared = dataSource;
+                if(shared == null) {
+                    shared = lookup();
+                    dataSource = shared;
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * @param owner the DAO class the statements are recorded against
+     * @return an instrumented view of the shared DataSource, or null if there is none
+     */
+    public static DataSource getDataSource(Class<?> owner) {
+        return instrument(getDataSource(), owner);
+    }
+
+    /**
+     * @param dataSource the DataSource to instrument. An existing view is re-pointed at the new owner, never nested
+     * @param owner      the DAO class the statements are recorded against
+     * @return an instrumented view of dataSource, or null if dataSource is null
+     */
+    public static DataSource instrument(DataSource dataSource, Class<?> owner) {
+        DataSource target = unwrap(dataSource);
+        if(target == null) {
+            return null;
+        }
+
+        String name = owner.getSimpleName();
+        return new InstrumentedDataSource(target, name, stats.computeIfAbsent(name, key -> new DAOStats()));
+    }
+
+    /**
+     * @param owner the DAO class the statements are recorded against
+     * @return a template over an instrumented view of the shared DataSource
+     */
+    public static NamedParameterJdbcTemplate createTemplate(Class<?> owner) {
+        return new NamedParameterJdbcTemplate(getDataSource(owner));
+    }
+
+    public static long getSlowQueryMillis() {
+        return slowQueryMillis;
+    }
+
+    public static void setSlowQueryMillis(long slowQueryMillis) {
+        DAOFactory.slowQueryMillis = slowQueryMillis;
+    }
+
+    /**
+     * @return counters per DAO simple class name, sorted by name, plus a {@link #TOTAL} entry summing them
+     */
+    public static Map<String, Map<String, Long>> getStats() {
+        Map<String, Map<String, Long>> snapshot = new TreeMap<String, Map<String, Long>>();
+        DAOStats total = new DAOStats();
+        for(Map.Entry<String, DAOStats> entry : stats.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().toMap());
+            entry.getValue().addTo(total);
+        }
+        snapshot.put(TOTAL, total.toMap());
+        return snapshot;
+    }
+
+    public static void resetStats() {
+        for(DAOStats daoStats : stats.values()) {
+            daoStats.reset();
+        }
+    }
+
+    private static DataSource unwrap(DataSource dataSource) {
+        if(dataSource instanceof InstrumentedDataSource) {
+            return ((InstrumentedDataSource) dataSource).getTarget();
+        }
+        return dataSource;
+    }
+
+    private static DataSource lookup() {
+        try {
+            Context ctx = new InitialContext();
+            return (DataSource) ctx.lookup(JNDI_NAME);
+        } catch(NamingException e) {
+            log.error("Failed to look up datasource {}", JNDI_NAME, e);
+            return null;
+        }
+    }
+}
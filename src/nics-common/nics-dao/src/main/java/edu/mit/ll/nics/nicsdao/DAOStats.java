@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.nicsdao;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statement and connection counters for one DAO, updated by {@link InstrumentedDataSource}.
+ */
+class DAOStats {
+
+    final LongAdder statements = new LongAdder();
+    final LongAdder statementNanos = new LongAdder();
+    final LongAccumulator maxStatementNanos = new LongAccumulator(Math::max, 0);
+    final LongAdder slowStatements = new LongAdder();
+    final LongAdder failedStatements = new LongAdder();
+
+    final LongAdder connections = new LongAdder();
+    final LongAdder connectionWaitNanos = new LongAdder();
+    final LongAccumulator maxConnectionWaitNanos = new LongAccumulator(Math::max, 0);
+    final LongAdder failedConnections = new LongAdder();
+
+    void recordStatement(long nanos, boolean failed, boolean slow) {
+        statements.increment();
+        statementNanos.add(nanos);
+        maxStatementNanos.accumulate(nanos);
+        if(failed) {
+            failedStatements.increment();
+        }
+        if(slow) {
+            slowStatements.increment();
+        }
+    }
+
+    void recordConnection(long nanos, boolean failed) {
+        connections.increment();
+        connectionWaitNanos.add(nanos);
+        maxConnectionWaitNanos.accumulate(nanos);
+        if(failed) {
+            failedConnections.increment();
+        }
+    }
+
+    /**
+     * Adds this DAO's counters to a running total, see {@link DAOFactory#getStats()}
+     */
+    void addTo(DAOStats total) {
+        total.statements.add(statements.sum());
+        total.statementNanos.add(statementNanos.sum());
+        total.maxStatementNanos.accumulate(maxStatementNanos.get());
+        total.slowStatements.add(slowStatements.sum());
+        total.failedStatements.add(failedStatements.sum());
+        total.connections.add(connections.sum());
+        total.connectionWaitNanos.add(connectionWaitNanos.sum());
+        total.maxConnectionWaitNanos.accumulate(maxConnectionWaitNanos.get());
+        total.failedConnections.add(failedConnections.sum());
+    }
+
+    void reset() {
+        statements.reset();
+        statementNanos.reset();
+        maxStatementNanos.reset();
+        slowStatements.reset();
+        failedStatements.reset();
+        connections.reset();
+        connectionWaitNanos.reset();
+        maxConnectionWaitNanos.reset();
+        failedConnections.reset();
+    }
+
+    Map<String, Long> toMap() {
+        Map<String, Long> map = new LinkedHashMap<String, Long>();
+        map.put("statements", statements.sum());
+        map.put("statementMillis", TimeUnit.NANOSECONDS.toMillis(statementNanos.sum()));
+        map.put("maxStatementMillis", TimeUnit.NANOSECONDS.toMillis(maxStatementNanos.get()));
+        map.put("slowStatements", slowStatements.sum());
+        map.put("failedStatements", failedStatements.sum());
+        map.put("connections", connections.sum());
+        map.put("connectionWaitMillis", TimeUnit.NANOSECONDS.toMillis(connectionWaitNanos.sum()));
+        map.put("maxConnectionWaitMillis", TimeUnit.NANOSECONDS.toMillis(maxConnectionWaitNanos.get()));
+        map.put("failedConnections", failedConnections.sum());
+        return map;
+    }
+}
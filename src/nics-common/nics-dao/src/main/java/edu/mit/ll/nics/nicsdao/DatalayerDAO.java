@@ -33,7 +33,7 @@ import edu.mit.ll.nics.common.entity.CollabroomDatalayer;
 import edu.mit.ll.nics.common.entity.datalayer.Datalayer;
 import edu.mit.ll.nics.common.entity.datalayer.Datalayerfolder;
 import edu.mit.ll.nics.common.entity.datalayer.Datasource;
-import java.util.ArrayList;
+import edu.mit.ll.nics.common.entity.datalayer.ImageLayerJob;
 import java.util.List;
 import java.util.Map;
 
@@ -50,6 +50,8 @@ public interface DatalayerDAO extends BaseDAO {
 
     public String getDatalayersourceId(String layername);
 
+    public String getDatalayerId(String datasourceId, String layername);
+
     public String getUnofficialDatalayerId(String collabroom, String folderid);
 
     public List<String> getAvailableStyles();
@@ -72,12 +74,26 @@ public interface DatalayerDAO extends BaseDAO {
 
     public Datalayerfolder updateDatalayerfolder(Datalayerfolder dlFolder);
 
-    public void decrementIndexes(String parentFolderId, int index);
-
-    public void incrementIndexes(String parentFolderId, int index);
-
     public int getNextDatalayerFolderIndex(String folderid);
 
+    /**
+     * Moves a datalayerfolder to a position in a folder, at an index between its new neighbors. The siblings are only
+     * renumbered when there's no room between them, see {@link SiblingOrder}. The renumbering and the update of the
+     * datalayerfolder run in one transaction.
+     *
+     * @param datalayerfolderId the datalayerfolder being moved
+     * @param folderId          the folder it's moving to
+     * @param position          index of the sibling datalayerfolder it's moving in front of
+     * @return the moved datalayerfolder followed by the siblings if they were renumbered, or null if the move was
+     * rolled back
+     */
+    public List<Datalayerfolder> moveDatalayerfolder(int datalayerfolderId, String folderId, int position);
+
+    /**
+     * Sets the order of the datalayerfolders in a folder
+     */
+    public void reorderDatalayerfolders(String folderId, List<Integer> datalayerfolderIds);
+
     public String insertDatalayerOrg(String datalayerid, int orgid);
 
     public List<Map<String, Object>> getAuthentication(String datasourceid);
@@ -90,7 +106,14 @@ public interface DatalayerDAO extends BaseDAO {
 
     public CollabroomDatalayer insertCollabRoomDatalayer(int collabRoomId, String dataLayerId);
 
-    public void deleteCollabRoomDatalayers(ArrayList<CollabroomDatalayer> collabroomDataLayerIds);
+    /**
+     * Removes the given datalayers from their collabrooms in a single statement, so either all matching rows are
+     * removed or none are.
+     *
+     * @param collabroomDatalayers the (collabroomid, datalayerid) pairs to remove
+     * @return the entries from collabroomDatalayers that matched a row and were removed
+     */
+    public List<CollabroomDatalayer> deleteCollabRoomDatalayers(List<CollabroomDatalayer> collabroomDatalayers);
 
     public int deleteDatasource(String datasourceId);
 
@@ -98,5 +121,21 @@ public interface DatalayerDAO extends BaseDAO {
 
     public int removeImageFeatures(String id);
 
+    public int insertImageLayerJob(ImageLayerJob job);
+
+    public ImageLayerJob getImageLayerJob(String imageId);
+
+    public List<ImageLayerJob> claimImageLayerJobs(int limit);
+
+    public int completeImageLayerJob(String imageId, String datalayerId);
+
+    public int retryImageLayerJob(String imageId, String message, long delay);
+
+    public int failImageLayerJob(String imageId, String message);
+
+    public int resetImageLayerJobs(long stale);
+
+    public int removeImageLayerJob(String imageId);
+
     public boolean updateCollabroomDatalayer(CollabroomDatalayer collabroomDatalayer);
 }
@@ -53,6 +53,8 @@ public interface FeatureDAO extends BaseDAO {
 
     public int setCollabroomFeatureDeleted(long featureId, boolean deleted) throws Exception;
 
+    public List<Long> setCollabroomFeaturesDeleted(int collabRoomId, List<Long> featureIds, boolean deleted);
+
     public int setUserFeatureDeleted(long featureId, boolean deleted) throws Exception;
 
     public int deleteUserFeature(long featureId) throws Exception;
@@ -73,6 +75,9 @@ public interface FeatureDAO extends BaseDAO {
 
     public List<Long> copyFeatures(int userId, int collabRoomId);
 
+    public List<Long> copyCollabroomFeatures(int fromCollabRoomId, int toCollabRoomId, double[] bbox, int bboxSrid,
+                                             List<String> types);
+
     public List<Feature> getFeatures(List<Long> featureIds);
 
     public List<FeatureComment> getFeatureComments(long featureid);
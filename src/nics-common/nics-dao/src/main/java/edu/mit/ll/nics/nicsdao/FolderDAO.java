@@ -59,7 +59,20 @@ public interface FolderDAO extends BaseDAO {
 
     public boolean removeFolder(String folderid);
 
-    public void decrementIndexes(String parentFolderId, int index);
+    /**
+     * Moves a folder to a position under a parent, at an index between its new neighbors. The siblings are only
+     * renumbered when there's no room between them, see {@link SiblingOrder}. The renumbering and the update of the
+     * folder run in one transaction.
+     *
+     * @param folder         the folder being moved
+     * @param parentFolderId the folder it's moving to
+     * @param position       index of the sibling folder it's moving in front of
+     * @return the moved folder followed by the siblings if they were renumbered, or null if the move was rolled back
+     */
+    public List<Folder> moveFolder(Folder folder, String parentFolderId, int position);
 
-    public void incrementIndexes(String parentFolderId, int index);
+    /**
+     * Sets the order of the child folders of a parent
+     */
+    public void reorderFolders(String parentFolderId, List<String> folderIds);
 }
\ No newline at end of file
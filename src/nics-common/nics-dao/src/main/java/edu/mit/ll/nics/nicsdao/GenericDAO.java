@@ -29,8 +29,6 @@
  */
 package edu.mit.ll.nics.nicsdao;
 
-import javax.naming.Context;
-import javax.naming.InitialContext;
 import javax.sql.DataSource;
 
 public abstract class GenericDAO implements BaseDAO {
@@ -44,19 +42,14 @@ public abstract class GenericDAO implements BaseDAO {
     }
 
     public GenericDAO(DataSource datasource) {
-        this.datasource = datasource;
+        this.datasource = DAOFactory.instrument(datasource, getClass());
         initialize();
     }
 
     public abstract void initialize();
 
     private void doInit() {
-        try {
-            Context ctx = new InitialContext();
-            datasource = (DataSource) ctx.lookup("java:comp/env/jboss/sadisplayDatasource");
-        } catch(Exception e) {
-            e.printStackTrace();
-        }
+        datasource = DAOFactory.getDataSource(getClass());
         initialized = true;
         initialize();
     }
@@ -69,7 +62,7 @@ public abstract class GenericDAO implements BaseDAO {
     }
 
     public void setDataSource(DataSource datasource) {
-        this.datasource = datasource;
+        this.datasource = DAOFactory.instrument(datasource, getClass());
     }
 
 
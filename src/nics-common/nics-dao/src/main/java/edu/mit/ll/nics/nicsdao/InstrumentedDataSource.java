@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.nicsdao;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * DataSource view handed to a single DAO by {@link DAOFactory}.
+ *
+ * Connections come from the shared target DataSource. The time spent in getConnection() is recorded as connection
+ * wait, which with a pooled datasource is the time spent waiting on the pool. Each execute call on a statement from
+ * those connections is timed. Statements slower than {@link DAOFactory#getSlowQueryMillis()} are logged with their SQL
+ * and the types of their bound parameters. Parameter values are never logged, since they routinely hold user data.
+ */
+public class InstrumentedDataSource implements DataSource {
+
+    private static final Logger log = LoggerFactory.getLogger(InstrumentedDataSource.class);
+
+    private final DataSource target;
+    private final String owner;
+    private final DAOStats stats;
+
+    InstrumentedDataSource(DataSource target, String owner, DAOStats stats) {
+        this.target = target;
+        this.owner = owner;
+        this.stats = stats;
+    }
+
+    /**
+     * @return the uninstrumented DataSource this view draws connections from
+     */
+    public DataSource getTarget() {
+        return target;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Connection connection = target.getConnection();
+            failed = false;
+            return wrap(connection);
+        } finally {
+            stats.recordConnection(System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Connection connection = target.getConnection(username, password);
+            failed = false;
+            return wrap(connection);
+        } finally {
+            stats.recordConnection(System.nanoTime() - start, failed);
+        }
+    }
+
+    private Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(InstrumentedDataSource.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, new ConnectionHandler(connection));
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return target.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        target.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        target.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return target.getLoginTimeout();
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return target.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if(iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return target.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || target.isWrapperFor(iface);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch(InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Wraps the statements a connection creates, everything else goes straight to the connection
+     */
+    private class ConnectionHandler implements InvocationHandler {
+        private final Connection connection;
+
+        ConnectionHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = InstrumentedDataSource.invoke(connection, method, args);
+
+            Class<?> statementType;
+            String name = method.getName();
+            if("prepareStatement".equals(name)) {
+                statementType = PreparedStatement.class;
+            } else if("prepareCall".equals(name)) {
+                statementType = CallableStatement.class;
+            } else if("createStatement".equals(name)) {
+                statementType = Statement.class;
+            } else {
+                return result;
+            }
+
+            String sql = args != null && args.length > 0 ? (String) args[0] : null;
+            return Proxy.newProxyInstance(InstrumentedDataSource.class.getClassLoader(),
+                    new Class<?>[] {statementType}, new StatementHandler((Statement) result, sql));
+        }
+    }
+
+    /**
+     * Times execute* calls and keeps the types of bound parameters for the slow statement log
+     */
+    private class StatementHandler implements InvocationHandler {
+        private final Statement statement;
+        private final String sql;
+        private final Map<Integer, String> parameters = new TreeMap<Integer, String>();
+        private int batched;
+
+        StatementHandler(Statement statement, String sql) {
+            this.statement = statement;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if(name.startsWith("execute")) {
+                return execute(method, args);
+            }
+
+            if(name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                parameters.put((Integer) args[0], redact(name, args[1]));
+            } else if("clearParameters".equals(name)) {
+                parameters.clear();
+            } else if("addBatch".equals(name)) {
+                batched++;
+            } else if("clearBatch".equals(name)) {
+                batched = 0;
+            }
+            return InstrumentedDataSource.invoke(statement, method, args);
+        }
+
+        private Object execute(Method method, Object[] args) throws Throwable {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                Object result = InstrumentedDataSource.invoke(statement, method, args);
+                failed = false;
+                return result;
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                boolean slow = elapsed >= TimeUnit.MILLISECONDS.toNanos(DAOFactory.getSlowQueryMillis());
+                stats.recordStatement(elapsed, failed, slow);
+                if(slow) {
+                    String text = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sql;
+                    log.warn("Slow statement in {}: {} ms{}, sql={}, parameters={}", owner,
+                            TimeUnit.NANOSECONDS.toMillis(elapsed), batched > 0 ? " (batch of " + batched + ")" : "",
+                            text, parameters.values());
+                }
+                if(method.getName().equals("executeBatch")) {
+                    batched = 0;
+                }
+            }
+        }
+
+        private String redact(String setter, Object value) {
+            if(value == null || "setNull".equals(setter)) {
+                return "null";
+            }
+            if(value instanceof CharSequence) {
+                return "String(" + ((CharSequence) value).length() + ")";
+            }
+            return value.getClass().getSimpleName();
+        }
+    }
+}
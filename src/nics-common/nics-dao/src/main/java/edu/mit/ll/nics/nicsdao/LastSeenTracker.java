@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.nicsdao;
+
+import edu.mit.ll.nics.common.constants.SADisplayConstants;
+import edu.mit.ll.nics.common.entity.CurrentUserSession;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+/**
+ * Coalesces current user session heartbeats in memory and writes them to currentusersession in batches.
+ *
+ * Every heartbeat used to be its own UPDATE. Now {@link #record(int)} only keeps the latest time seen per user, and
+ * a background thread writes them every {@link #FLUSH_MILLIS_PROPERTY} milliseconds with one
+ * UPDATE ... FROM (VALUES ...) per {@link #BATCH_SIZE} users. Sessions read in this process are patched with
+ * {@link #apply(Collection)}, so lastseen is current here and at most one flush interval behind everywhere else.
+ *
+ * {@link #shutdown()} writes the pending heartbeats and stops the flush thread when the application stops. Heartbeats
+ * pending when the JVM dies without it are lost, which at worst makes a user look idle one interval early. A flush
+ * interval of 0 or less turns coalescing off and every heartbeat is written straight away.
+ */
+public final class LastSeenTracker {
+
+    /**
+     * System property holding the flush interval, i.e. the staleness bound, in milliseconds
+     */
+    public static final String FLUSH_MILLIS_PROPERTY = "nics.dao.lastSeenFlushMillis";
+
+    public static final long DEFAULT_FLUSH_MILLIS = 30000;
+
+    /**
+     * Most users written by one UPDATE statement
+     */
+    public static final int BATCH_SIZE = 500;
+
+    /**
+     * Longest time shutdown waits for a flush that is already running
+     */
+    private static final long SHUTDOWN_WAIT_MILLIS = 10000;
+
+    private static final Logger log = LoggerFactory.getLogger(LastSeenTracker.class);
+
+    private static final long flushMillis = Long.getLong(FLUSH_MILLIS_PROPERTY, DEFAULT_FLUSH_MILLIS);
+
+    private static final ConcurrentMap<Integer, Long> pending = new ConcurrentHashMap<Integer, Long>();
+
+    private static final LongAdder heartbeats = new LongAdder();
+    private static final LongAdder coalesced = new LongAdder();
+    private static final LongAdder flushed = new LongAdder();
+    private static final LongAdder flushStatements = new LongAdder();
+    private static final LongAdder failedFlushes = new LongAdder();
+
+    private static volatile NamedParameterJdbcTemplate template;
+
+    private static volatile ScheduledExecutorService scheduler;
+
+    private static volatile boolean stopped;
+
+    private LastSeenTracker() {
+    }
+
+    /**
+     * Records that a user was seen now
+     *
+     * @param userid the user sending the heartbeat
+     */
+    public static void record(int userid) {
+        long now = System.currentTimeMillis();
+        heartbeats.increment();
+        if(flushMillis <= 0 || stopped) {
+            write(Collections.singletonMap(userid, now));
+            return;
+        }
+
+        if(pending.putIfAbsent(userid, now) != null) {
+            coalesced.increment();
+            pending.merge(userid, now, Math::max);
+        }
+        if(stopped) {
+            // Shutdown already flushed, don't leave this one behind
+            flush();
+        } else {
+            startScheduler();
+        }
+    }
+
+    /**
+     * Overlays heartbeats that have not been written yet on sessions read from the database
+     *
+     * @param sessions the sessions to patch in place, may be null
+     */
+    public static void apply(Collection<CurrentUserSession> sessions) {
+        if(sessions == null || pending.isEmpty()) {
+            return;
+        }
+
+        for(CurrentUserSession session : sessions) {
+            Long seen = pending.get(session.getUserid());
+            if(seen != null && (session.getLastseen() == null || session.getLastseen().getTime() < seen)) {
+                session.setLastseen(new Date(seen));
+            }
+        }
+    }
+
+    /**
+     * Writes every pending heartbeat now. Runs on the flush thread, and from {@link #shutdown()}
+     *
+     * @return the number of users written
+     */
+    public static int flush() {
+        if(pending.isEmpty()) {
+            return 0;
+        }
+
+        // Only take entries that are still unchanged, a newer heartbeat stays pending for the next flush
+        int written = 0;
+        Map<Integer, Long> batch = new LinkedHashMap<Integer, Long>();
+        for(Map.Entry<Integer, Long> entry : pending.entrySet()) {
+            if(pending.remove(entry.getKey(), entry.getValue())) {
+                batch.put(entry.getKey(), entry.getValue());
+            }
+            if(batch.size() == BATCH_SIZE) {
+                written += write(batch);
+                batch = new LinkedHashMap<Integer, Long>();
+            }
+        }
+        if(!batch.isEmpty()) {
+            written += write(batch);
+        }
+        return written;
+    }
+
+    /**
+     * Stops the flush thread, waiting for a flush in progress, and writes the heartbeats still pending. Heartbeats
+     * recorded afterwards are written straight away.
+     */
+    public static void shutdown() {
+        ScheduledExecutorService executor;
+        synchronized(LastSeenTracker.class) {
+            stopped = true;
+            executor = scheduler;
+            scheduler = null;
+        }
+
+        if(executor != null) {
+            executor.shutdown();
+            try {
+                if(!executor.awaitTermination(SHUTDOWN_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch(InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        int written = flush();
+        if(written > 0) {
+            log.info("Wrote lastseen for {} users on shutdown", written);
+        }
+    }
+
+    /**
+     * Uses the given template instead of one from the {@link DAOFactory}
+     *
+     * @param jdbcTemplate the template heartbeats are written with
+     */
+    public static void setTemplate(NamedParameterJdbcTemplate jdbcTemplate) {
+        template = jdbcTemplate;
+    }
+
+    /**
+     * @return heartbeats received, coalesced into an already pending one, written, and the statements used
+     */
+    public static Map<String, Long> getStats() {
+        Map<String, Long> map = new LinkedHashMap<String, Long>();
+        map.put("heartbeats", heartbeats.sum());
+        map.put("coalesced", coalesced.sum());
+        map.put("pending", (long) pending.size());
+        map.put("flushed", flushed.sum());
+        map.put("flushStatements", flushStatements.sum());
+        map.put("failedFlushes", failedFlushes.sum());
+        return map;
+    }
+
+    public static void resetStats() {
+        heartbeats.reset();
+        coalesced.reset();
+        flushed.reset();
+        flushStatements.reset();
+        failedFlushes.reset();
+    }
+
+    public static long getFlushMillis() {
+        return flushMillis;
+    }
+
+    /**
+     * @return the number of users written, 0 if the statement failed
+     */
+    private static int write(Map<Integer, Long> batch) {
+        StringBuilder sql = new StringBuilder("UPDATE ")
+                .append(SADisplayConstants.CURRENT_USERSESSION_TABLE).append(" AS c SET ")
+                .append(SADisplayConstants.LAST_SEEN).append(" = GREATEST(c.").append(SADisplayConstants.LAST_SEEN)
+                .append(", v.lastseen) FROM (VALUES ");
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        int i = 0;
+        for(Map.Entry<Integer, Long> entry : batch.entrySet()) {
+            sql.append(i == 0 ? "" : ", ")
+                    .append("(CAST(:u").append(i).append(" AS integer), CAST(:t").append(i).append(" AS timestamp))");
+            params.addValue("u" + i, entry.getKey());
+            params.addValue("t" + i, new Timestamp(entry.getValue()));
+            i++;
+        }
+        sql.append(") AS v(userid, lastseen) WHERE c.").append(SADisplayConstants.USER_ID).append(" = v.userid");
+
+        try {
+            getTemplate().update(sql.toString(), params);
+            flushStatements.increment();
+            flushed.add(batch.size());
+            return batch.size();
+        } catch(Exception e) {
+            failedFlushes.increment();
+            log.error("Failed to write lastseen for {} users", batch.size(), e);
+            if(flushMillis > 0 && !stopped) {
+                // Keep them for the next flush unless a newer heartbeat arrived meanwhile
+                for(Map.Entry<Integer, Long> entry : batch.entrySet()) {
+                    pending.merge(entry.getKey(), entry.getValue(), Math::max);
+                }
+            }
+            return 0;
+        }
+    }
+
+    private static NamedParameterJdbcTemplate getTemplate() {
+        NamedParameterJdbcTemplate shared = template;
+        if(shared == null) {
+            shared = DAOFactory.createTemplate(LastSeenTracker.class);
+            template = shared;
+        }
+        return shared;
+    }
+
+    private static void startScheduler() {
+        if(scheduler != null) {
+            return;
+        }
+
+        synchronized(LastSeenTracker.class) {
+            if(scheduler == null && !stopped) {
+                ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "nics-lastseen-flush");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                executor.scheduleWithFixedDelay(() -> {
+                    try {
+                        flush();
+                    } catch(RuntimeException e) {
+                        log.error("Unexpected error flushing lastseen", e);
+                    }
+                }, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+                scheduler = executor;
+            }
+        }
+    }
+}
@@ -36,8 +36,10 @@ import edu.mit.ll.nics.common.entity.OrgCap;
 import edu.mit.ll.nics.common.entity.OrgType;
 import edu.mit.ll.nics.common.entity.IncidentType;
 import edu.mit.ll.nics.common.entity.OrgIncidentType;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 
 public interface OrgDAO extends BaseDAO {
@@ -45,6 +47,12 @@ public interface OrgDAO extends BaseDAO {
 
     public List<String> getOrgAdmins(int orgid);
 
+    public Set<Integer> getDescendantOrgIds(Collection<Integer> orgIds);
+
+    public Map<Integer, Set<Integer>> getDescendantOrgIdsByOrg(Collection<Integer> orgIds);
+
+    public Set<Integer> getAncestorOrgIds(Collection<Integer> orgIds);
+
     public List<Org> getUserOrgs(int userid, int workspaceId);
 
     public List<Org> getAdminOrgs(int userid, int workspaceId);
@@ -43,5 +43,7 @@ public interface RemoteLogDAO extends BaseDAO {
 
     public boolean persistLog(int workspaceId, RemoteLog log);
 
+    public int persistLogs(List<RemoteLog> logs);
+
     public boolean deleteLog(long id);
 }
\ No newline at end of file
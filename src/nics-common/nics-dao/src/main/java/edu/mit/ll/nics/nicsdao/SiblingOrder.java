@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.nicsdao;
+
+import java.util.List;
+import java.util.Map;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+/**
+ * Keeps sibling order in an integer index column using sparse indexes. New and moved items get an index between
+ * their neighbors, so a move updates a single row. Siblings are only renumbered, {@link #GAP} apart, when two
+ * neighbors are adjacent and there is no room left between them.
+ * <p>
+ * Positions passed in are index values as the client sees them: an item moved to position p is placed after every
+ * sibling with an index below p and before every sibling at or above it.
+ * </p>
+ */
+public class SiblingOrder {
+
+    /**
+     * Spacing given to siblings when they're appended or renumbered
+     */
+    public static final int GAP = 1024;
+
+    private static final String INDEX = "index";
+    private static final String PARENT = "parent";
+    private static final String ID = "id";
+
+    private final NamedParameterJdbcTemplate template;
+    private final String idColumn;
+    private final String neighborsQuery;
+    private final String siblingsQuery;
+    private final String maxQuery;
+    private final String updateQuery;
+
+    /**
+     * @param template     template for the datasource holding the table
+     * @param table        table holding the ordered items
+     * @param parentColumn column holding the id of the items' parent
+     * @param idColumn     primary key of the table
+     */
+    public SiblingOrder(NamedParameterJdbcTemplate template, String table, String parentColumn, String idColumn) {
+        this.template = template;
+        this.idColumn = idColumn;
+        String siblings = String.format("FROM %s WHERE %s = :%s AND %s <> :%s", table, parentColumn, PARENT,
+                idColumn, ID);
+        this.neighborsQuery = String.format("SELECT (SELECT max(index) %1$s AND index < :index) AS prev, " +
+                "(SELECT min(index) %1$s AND index >= :index) AS next", siblings);
+        this.siblingsQuery = String.format("SELECT %s, index %s ORDER BY index, %s", idColumn, siblings, idColumn);
+        this.maxQuery = String.format("SELECT max(index) FROM %s WHERE %s = :%s", table, parentColumn, PARENT);
+        this.updateQuery = String.format("UPDATE %s SET index = :index WHERE %s = :%s AND %s = :%s", table,
+                idColumn, ID, parentColumn, PARENT);
+    }
+
+    /**
+     * @param parentId the parent to append to
+     * @return index placing a new item after all of the parent's current children
+     */
+    public int nextIndex(Object parentId) {
+        Integer max = template.queryForObject(maxQuery, new MapSqlParameterSource(PARENT, parentId), Integer.class);
+        Integer next = between(max, null);
+        return next == null ? max + 1 : next;
+    }
+
+    /**
+     * Finds an index for moving an item to a position without touching its siblings
+     *
+     * @param parentId the parent the item is moving to
+     * @param id       the item being moved
+     * @param position index, as the client sees it, of the sibling the item is moving in front of
+     * @return the index, or null if the neighbors are adjacent and {@link #renumber(Object, Object, int)} is needed
+     */
+    public Integer indexFor(Object parentId, Object id, int position) {
+        Map<String, Object> neighbors = template.queryForMap(neighborsQuery, new MapSqlParameterSource(PARENT, parentId)
+                .addValue(ID, id).addValue(INDEX, position));
+        return between((Integer) neighbors.get("prev"), (Integer) neighbors.get("next"));
+    }
+
+    /**
+     * Spaces the parent's children {@link #GAP} apart, keeping their order and leaving a hole at the position
+     *
+     * @param parentId the parent whose children are renumbered
+     * @param id       the item being moved, which is left out of the renumbering
+     * @param position index, as the client saw it before renumbering, of the sibling the item is moving in front of
+     * @return the index of the hole left for the moved item
+     */
+    public int renumber(Object parentId, Object id, int position) {
+        List<Map<String, Object>> siblings = template.queryForList(siblingsQuery,
+                new MapSqlParameterSource(PARENT, parentId).addValue(ID, id));
+
+        SqlParameterSource[] batch = new SqlParameterSource[siblings.size()];
+        Integer hole = null;
+        int slot = 1;
+        for(int i = 0; i < siblings.size(); i++) {
+            Map<String, Object> sibling = siblings.get(i);
+            Integer index = (Integer) sibling.get(INDEX);
+            // Null indexes sort last, so they belong after the hole too
+            if(hole == null && (index == null || index >= position)) {
+                hole = slot++ * GAP;
+            }
+            batch[i] = new MapSqlParameterSource(PARENT, parentId)
+                    .addValue(ID, sibling.get(idColumn))
+                    .addValue(INDEX, slot++ * GAP);
+        }
+        template.batchUpdate(updateQuery, batch);
+
+        return hole == null ? slot * GAP : hole;
+    }
+
+    /**
+     * Sets the order of the parent's children in one batch, spacing them {@link #GAP} apart
+     *
+     * @param parentId the parent whose children are reordered
+     * @param ids      ids of the children in their new order. Ids of items that aren't children of the parent are
+     *                 ignored
+     */
+    public void reorder(Object parentId, List<?> ids) {
+        SqlParameterSource[] batch = new SqlParameterSource[ids.size()];
+        for(int i = 0; i < ids.size(); i++) {
+            batch[i] = new MapSqlParameterSource(PARENT, parentId)
+                    .addValue(ID, ids.get(i))
+                    .addValue(INDEX, (i + 1) * GAP);
+        }
+        template.batchUpdate(updateQuery, batch);
+    }
+
+    /**
+     * @param prev index of the sibling before, or null if there is none
+     * @param next index of the sibling after, or null if there is none
+     * @return an index strictly between prev and next, or null if there is no room between them
+     */
+    public static Integer between(Integer prev, Integer next) {
+        long index;
+        if(prev == null && next == null) {
+            index = GAP;
+        } else if(prev == null) {
+            index = (long) next - GAP;
+        } else if(next == null) {
+            index = (long) prev + GAP;
+        } else if((long) next - prev > 1) {
+            index = prev + ((long) next - prev) / 2;
+        } else {
+            return null;
+        }
+        return index < Integer.MIN_VALUE || index > Integer.MAX_VALUE ? null : (int) index;
+    }
+}
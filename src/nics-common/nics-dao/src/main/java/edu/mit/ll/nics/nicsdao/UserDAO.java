@@ -82,6 +82,8 @@ public interface UserDAO extends BaseDAO {
 
     public List<User> getUsersNotInOrg(int notInOrgId);
 
+    public List<User> searchUsers(String term, int limit, int offset);
+
     public Contact getContact(String value);
 
     public String getUsernameFromEmail(String emailAddress);
@@ -30,6 +30,7 @@
 package edu.mit.ll.nics.nicsdao.impl;
 
 import edu.mit.ll.dao.QueryBuilder;
+import edu.mit.ll.dao.QueryCache;
 import edu.mit.ll.dao.QueryModel;
 import edu.mit.ll.jdbc.JoinRowCallbackHandler;
 import edu.mit.ll.jdbc.JoinRowMapper;
@@ -40,9 +41,11 @@ import edu.mit.ll.nics.common.entity.datalayer.Datalayerfolder;
 import edu.mit.ll.nics.common.entity.datalayer.Datalayersource;
 import edu.mit.ll.nics.common.entity.datalayer.Datasource;
 import edu.mit.ll.nics.common.entity.datalayer.Datasourcetype;
+import edu.mit.ll.nics.common.entity.datalayer.ImageLayerJob;
 import edu.mit.ll.nics.nicsdao.DatalayerDAO;
 import edu.mit.ll.nics.nicsdao.GenericDAO;
 import edu.mit.ll.nics.nicsdao.QueryManager;
+import edu.mit.ll.nics.nicsdao.SiblingOrder;
 import edu.mit.ll.nics.nicsdao.mappers.CollabRoomDatalayerRowMapper;
 import edu.mit.ll.nics.nicsdao.mappers.DatalayerOrgRowMapper;
 import edu.mit.ll.nics.nicsdao.mappers.DatalayerRowMapper;
@@ -50,23 +53,36 @@ import edu.mit.ll.nics.nicsdao.mappers.DatalayerfolderRowMapper;
 import edu.mit.ll.nics.nicsdao.mappers.DatalayersourceRowMapper;
 import edu.mit.ll.nics.nicsdao.mappers.DatasourceRowMapper;
 import edu.mit.ll.nics.nicsdao.mappers.DatasourcetypeRowMapper;
+import edu.mit.ll.nics.nicsdao.mappers.ImageLayerJobRowMapper;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import javax.sql.DataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
 
 public class DatalayerDAOImpl extends GenericDAO implements DatalayerDAO {
 
     private Logger log = LoggerFactory.getLogger(DatalayerDAOImpl.class);
 
+    private PlatformTransactionManager txManager;
     private NamedParameterJdbcTemplate template;
 
+    private SiblingOrder datalayerfolderOrder;
+
     public DatalayerDAOImpl() {
     }
 
@@ -77,6 +93,9 @@ public class DatalayerDAOImpl extends GenericDAO implements DatalayerDAO {
     @Override
     public void initialize() {
         this.template = new NamedParameterJdbcTemplate(datasource);
+        this.txManager = new DataSourceTransactionManager(datasource);
+        this.datalayerfolderOrder = new SiblingOrder(template, SADisplayConstants.DATALAYER_FOLDER_TABLE,
+                SADisplayConstants.FOLDER_ID, SADisplayConstants.DATALAYER_FOLDER_ID);
     }
 
     /**
@@ -272,20 +291,37 @@ public class DatalayerDAOImpl extends GenericDAO implements DatalayerDAO {
         }
     }
 
-    public void deleteCollabRoomDatalayers(ArrayList<CollabroomDatalayer> collabroomDataLayerIds) {
-
-        for (int i = 0; i < collabroomDataLayerIds.size(); i++) {
+    private static final String DELETE_COLLABROOM_DATALAYERS = "DELETE FROM collabroomdatalayer " +
+            "WHERE (collabroomid, datalayerid) IN (:collabroomDatalayers) RETURNING collabroomid, datalayerid";
 
-            QueryModel queryModel = QueryManager.createQuery(SADisplayConstants.COLLAB_ROOM_DATALAYER_TABLE)
-                    .deleteFromTableWhere().equals(SADisplayConstants.COLLAB_ROOM_ID)
-                    .and().equals(SADisplayConstants.DATALAYER_ID);
+    public List<CollabroomDatalayer> deleteCollabRoomDatalayers(List<CollabroomDatalayer> collabroomDatalayers) {
+        List<CollabroomDatalayer> deleted = new ArrayList<CollabroomDatalayer>();
+        if(collabroomDatalayers == null || collabroomDatalayers.isEmpty()) {
+            return deleted;
+        }
 
-            this.template.update(queryModel.toString(),
-                    new MapSqlParameterSource(SADisplayConstants.COLLAB_ROOM_ID,
-                            collabroomDataLayerIds.get(i).getCollabroomid())
-                            .addValue(SADisplayConstants.DATALAYER_ID, collabroomDataLayerIds.get(i).getDatalayerid()));
+        List<Object[]> pairs = new ArrayList<Object[]>(collabroomDatalayers.size());
+        for(CollabroomDatalayer collabroomDatalayer : collabroomDatalayers) {
+            pairs.add(new Object[] {collabroomDatalayer.getCollabroomid(), collabroomDatalayer.getDatalayerid()});
+        }
 
+        final Set<String> removedKeys = new HashSet<String>();
+        this.template.query(DELETE_COLLABROOM_DATALAYERS,
+                new MapSqlParameterSource("collabroomDatalayers", pairs), new RowCallbackHandler() {
+                    @Override
+                    public void processRow(ResultSet rs) throws SQLException {
+                        removedKeys.add(rs.getInt(SADisplayConstants.COLLAB_ROOM_ID) + ":" +
+                                rs.getString(SADisplayConstants.DATALAYER_ID));
+                    }
+                });
+
+        for(CollabroomDatalayer collabroomDatalayer : collabroomDatalayers) {
+            if(removedKeys.remove(collabroomDatalayer.getCollabroomid() + ":" +
+                    collabroomDatalayer.getDatalayerid())) {
+                deleted.add(collabroomDatalayer);
+            }
         }
+        return deleted;
     }
 
     public int insertImageFeature(String id, String location, String filename) {
@@ -295,11 +331,12 @@ public class DatalayerDAOImpl extends GenericDAO implements DatalayerDAO {
         map.addValue(SADisplayConstants.FILENAME, filename);
         map.addValue(QueryBuilder.TRANS, 4326);
 
-        QueryModel queryModel = QueryManager.createQuery(SADisplayConstants.IMAGE_FEATURE_TABLE)
-                .insertIntoFeatureWithGeo(Arrays.asList(SADisplayConstants.IMAGE_ID, SADisplayConstants.LOCATION,
-                        SADisplayConstants.FILENAME), true, null);
+        String sql = QueryCache.get("DatalayerDAO.insertImageFeature", () ->
+                QueryManager.createQuery(SADisplayConstants.IMAGE_FEATURE_TABLE)
+                        .insertIntoFeatureWithGeo(Arrays.asList(SADisplayConstants.IMAGE_ID,
+                                SADisplayConstants.LOCATION, SADisplayConstants.FILENAME), true, null));
         try {
-            return this.template.update(queryModel.toString(), map);
+            return this.template.update(sql, map);
         } catch(Exception e) {
             e.printStackTrace();
         }
@@ -316,6 +353,117 @@ public class DatalayerDAOImpl extends GenericDAO implements DatalayerDAO {
         }
     }
 
+    private static final String INSERT_IMAGE_LAYER_JOB = "INSERT INTO imagelayerjob " +
+            "(imageid, workspaceid, title, usersessionid, folderid) " +
+            "VALUES (:imageid, :workspaceid, :title, :usersessionid, :folderid) " +
+            "ON CONFLICT (imageid) DO UPDATE SET workspaceid = EXCLUDED.workspaceid, title = EXCLUDED.title, " +
+            "usersessionid = EXCLUDED.usersessionid, folderid = EXCLUDED.folderid, status = 'pending', " +
+            "attempts = 0, message = NULL, lastupdate = now(), nextattempt = now() " +
+            "WHERE imagelayerjob.status = 'failed'";
+
+    private static final String CLAIM_IMAGE_LAYER_JOBS = "UPDATE imagelayerjob " +
+            "SET status = 'running', attempts = attempts + 1, lastupdate = now() WHERE imageid IN (" +
+            "SELECT imageid FROM imagelayerjob WHERE status = 'pending' AND nextattempt <= now() " +
+            "ORDER BY nextattempt LIMIT :limit FOR UPDATE SKIP LOCKED) RETURNING *";
+
+    private static final String COMPLETE_IMAGE_LAYER_JOB = "UPDATE imagelayerjob " +
+            "SET status = 'complete', datalayerid = :datalayerid, message = NULL, lastupdate = now() " +
+            "WHERE imageid = :imageid";
+
+    private static final String RETRY_IMAGE_LAYER_JOB = "UPDATE imagelayerjob " +
+            "SET status = 'pending', message = :message, lastupdate = now(), " +
+            "nextattempt = now() + :delay * interval '1 millisecond' WHERE imageid = :imageid";
+
+    private static final String FAIL_IMAGE_LAYER_JOB = "UPDATE imagelayerjob " +
+            "SET status = 'failed', message = :message, lastupdate = now() WHERE imageid = :imageid";
+
+    private static final String RESET_IMAGE_LAYER_JOBS = "UPDATE imagelayerjob " +
+            "SET status = 'pending', lastupdate = now(), nextattempt = now() " +
+            "WHERE status = 'running' AND lastupdate < now() - :stale * interval '1 millisecond'";
+
+    /**
+     * Records an image layer to be provisioned in the background. A job that already exists is left as it is,
+     * unless it failed, in which case it is restarted with the given values.
+     *
+     * @param job the image layer to provision
+     * @return 1 if the job was recorded or restarted, 0 if it is already pending, running or complete, -1 on error
+     */
+    public int insertImageLayerJob(ImageLayerJob job) {
+        MapSqlParameterSource map = new MapSqlParameterSource(SADisplayConstants.IMAGE_ID, job.getImageid())
+                .addValue(SADisplayConstants.WORKSPACE_ID, job.getWorkspaceid())
+                .addValue(SADisplayConstants.TITLE, job.getTitle())
+                .addValue(SADisplayConstants.USERSESSION_ID, job.getUsersessionid())
+                .addValue(SADisplayConstants.FOLDER_ID, job.getFolderid());
+        try {
+            return this.template.update(INSERT_IMAGE_LAYER_JOB, map);
+        } catch(Exception e) {
+            log.error("Failed to insert image layer job {}", job.getImageid(), e);
+        }
+        return -1;
+    }
+
+    public ImageLayerJob getImageLayerJob(String imageId) {
+        QueryModel queryModel = QueryManager.createQuery(SADisplayConstants.IMAGE_LAYER_JOB_TABLE)
+                .selectAllFromTableWhere().equals(SADisplayConstants.IMAGE_ID);
+        List<ImageLayerJob> jobs = this.template.query(queryModel.toString(),
+                new MapSqlParameterSource(SADisplayConstants.IMAGE_ID, imageId), new ImageLayerJobRowMapper());
+        return jobs.isEmpty() ? null : jobs.get(0);
+    }
+
+    /**
+     * Marks up to limit pending jobs that are due as running and counts the attempt. Rows another instance is
+     * claiming at the same time are skipped rather than waited on.
+     *
+     * @param limit most jobs to claim
+     * @return the claimed jobs, oldest due first
+     */
+    public List<ImageLayerJob> claimImageLayerJobs(int limit) {
+        return this.template.query(CLAIM_IMAGE_LAYER_JOBS, new MapSqlParameterSource("limit", limit),
+                new ImageLayerJobRowMapper());
+    }
+
+    public int completeImageLayerJob(String imageId, String datalayerId) {
+        return this.template.update(COMPLETE_IMAGE_LAYER_JOB,
+                new MapSqlParameterSource(SADisplayConstants.IMAGE_ID, imageId)
+                        .addValue(SADisplayConstants.DATALAYER_ID, datalayerId));
+    }
+
+    /**
+     * Returns a running job to pending, due again after delay milliseconds.
+     */
+    public int retryImageLayerJob(String imageId, String message, long delay) {
+        return this.template.update(RETRY_IMAGE_LAYER_JOB,
+                new MapSqlParameterSource(SADisplayConstants.IMAGE_ID, imageId)
+                        .addValue(SADisplayConstants.MESSAGE, message)
+                        .addValue("delay", delay));
+    }
+
+    public int failImageLayerJob(String imageId, String message) {
+        return this.template.update(FAIL_IMAGE_LAYER_JOB,
+                new MapSqlParameterSource(SADisplayConstants.IMAGE_ID, imageId)
+                        .addValue(SADisplayConstants.MESSAGE, message));
+    }
+
+    /**
+     * Returns jobs left running, e.g. by an instance that stopped mid job, to pending once they have not been
+     * updated for stale milliseconds.
+     *
+     * @return number of jobs returned to pending
+     */
+    public int resetImageLayerJobs(long stale) {
+        return this.template.update(RESET_IMAGE_LAYER_JOBS, new MapSqlParameterSource("stale", stale));
+    }
+
+    public int removeImageLayerJob(String imageId) {
+        QueryModel queryModel = QueryManager.createQuery(SADisplayConstants.IMAGE_LAYER_JOB_TABLE)
+                .deleteFromTableWhere().equals(SADisplayConstants.IMAGE_ID, imageId);
+        try {
+            return this.template.update(queryModel.toString(), queryModel.getParameters());
+        } catch(Exception e) {
+            return -1;
+        }
+    }
+
     public List<Map<String, Object>> getTrackingLayers(int workspaceId, boolean secured) {
         //select displayname,layername from datalayer join datalayersource using(datalayersourceid) join 
         // datalayerfolder using(datalayerid) where folderid=(select folderid from rootfolder where 
@@ -469,6 +617,22 @@ public class DatalayerDAOImpl extends GenericDAO implements DatalayerDAO {
         }
     }
 
+    private static final String GET_DATALAYER_ID_BY_LAYERNAME = "SELECT datalayerid FROM datalayer " +
+            "JOIN datalayersource USING (datalayersourceid) " +
+            "WHERE datasourceid = :datasourceid AND layername = :layername ORDER BY datalayer.created LIMIT 1";
+
+    /**
+     * @param datasourceId the datasource the layer is served from
+     * @param layername    the layer name in the datasource
+     * @return id of the oldest datalayer of the layer, or null if there is none
+     */
+    public String getDatalayerId(String datasourceId, String layername) {
+        List<String> ids = this.template.queryForList(GET_DATALAYER_ID_BY_LAYERNAME,
+                new MapSqlParameterSource(SADisplayConstants.DATASOURCE_ID, datasourceId)
+                        .addValue(SADisplayConstants.LAYERNAME, layername), String.class);
+        return ids.isEmpty() ? null : ids.get(0);
+    }
+
     public String getUnofficialDatalayerId(String collabroom, String folderId) {
         String query =
                 "select datalayerid from datalayer join collabroom on name=displayname join datalayerfolder using" +
@@ -673,39 +837,60 @@ public class DatalayerDAOImpl extends GenericDAO implements DatalayerDAO {
 
     @Override
     public int getNextDatalayerFolderIndex(String folderid) {
-        int result = 0;
-
-        QueryModel indexQuery = QueryManager.createQuery(SADisplayConstants.DATALAYER_FOLDER_TABLE)
-                .selectMaxFromTable(SADisplayConstants.INDEX)
-                .where().equals(SADisplayConstants.FOLDER_ID, folderid);
-
+        int result = SiblingOrder.GAP;
         try {
-            int index = this.template.queryForObject(indexQuery.toString(),
-                    indexQuery.getParameters(), Integer.class);
-            result = index + 1;
+            result = datalayerfolderOrder.nextIndex(folderid);
         } catch(Exception e) {
             log.info("Could not find next folder index for folderid #0", folderid);
         }
         return result;
     }
 
-
     @Override
-    public void decrementIndexes(String parentFolderId, int index) {
-        QueryModel queryModel = QueryManager.createQuery(SADisplayConstants.DATALAYER_FOLDER_TABLE)
-                .update(SADisplayConstants.INDEX).value("= index - 1")
-                .where().equals(SADisplayConstants.FOLDER_ID, parentFolderId)
-                .and().greaterThanOrEquals(SADisplayConstants.INDEX, index);
-        this.template.update(queryModel.toString(), queryModel.getParameters());
+    public List<Datalayerfolder> moveDatalayerfolder(int datalayerfolderId, String folderId, int position) {
+        TransactionStatus txStatus = txManager.getTransaction(new DefaultTransactionDefinition());
+
+        try {
+            Datalayerfolder dlFolder = getDatalayerfolder(datalayerfolderId);
+            if(dlFolder == null) {
+                throw new IllegalStateException("No datalayerfolder " + datalayerfolderId);
+            }
+
+            Integer index = datalayerfolderOrder.indexFor(folderId, datalayerfolderId, position);
+            boolean renumbered = index == null;
+            if(renumbered) {
+                index = datalayerfolderOrder.renumber(folderId, datalayerfolderId, position);
+            }
+
+            dlFolder.setFolderid(folderId);
+            dlFolder.setIndex(index);
+            if(updateDatalayerfolder(dlFolder) == null) {
+                throw new IllegalStateException("Failed to update datalayerfolder " + datalayerfolderId);
+            }
+
+            List<Datalayerfolder> dlFolders = new ArrayList<>();
+            dlFolders.add(getDatalayerfolder(dlFolder.getDatalayerid(), folderId));
+            if(renumbered) {
+                for(Datalayerfolder sibling : getDatalayerFolders(folderId)) {
+                    if(sibling.getDatalayerfolderid() != datalayerfolderId) {
+                        dlFolders.add(sibling);
+                    }
+                }
+            }
+
+            txManager.commit(txStatus);
+            return dlFolders;
+        } catch(Exception e) {
+            log.error("Exception moving datalayerfolder {}, rolling back", datalayerfolderId, e);
+            txManager.rollback(txStatus);
+        }
+
+        return null;
     }
 
     @Override
-    public void incrementIndexes(String parentFolderId, int index) {
-        QueryModel queryModel = QueryManager.createQuery(SADisplayConstants.DATALAYER_FOLDER_TABLE)
-                .update(SADisplayConstants.INDEX).value("= index + 1")
-                .where().equals(SADisplayConstants.FOLDER_ID, parentFolderId)
-                .and().greaterThanOrEquals(SADisplayConstants.INDEX, index);
-        this.template.update(queryModel.toString(), queryModel.getParameters());
+    public void reorderDatalayerfolders(String folderId, List<Integer> datalayerfolderIds) {
+        datalayerfolderOrder.reorder(folderId, datalayerfolderIds);
     }
 
     @Override
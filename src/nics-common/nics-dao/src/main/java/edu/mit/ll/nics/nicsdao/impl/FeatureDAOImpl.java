@@ -49,6 +49,7 @@ import edu.mit.ll.nics.nicsdao.query.QueryConstraint.UTCRange;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -56,6 +57,7 @@ import java.util.Map;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.namedparam.BeanPropertySqlParameterSource;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
@@ -66,14 +68,44 @@ public class FeatureDAOImpl extends GenericDAO implements FeatureDAO {
 
     private NamedParameterJdbcTemplate template;
 
+    private static final String FEATURE_COLUMNS_QUERY = "SELECT column_name FROM information_schema.columns " +
+            "WHERE table_name = 'feature' AND table_schema = current_schema() AND column_name <> 'featureid' " +
+            "ORDER BY ordinal_position";
+
+    /**
+     * Quoted names of the feature table's columns, minus featureid. Copies need every column, and reading them from
+     * information_schema avoids hard-coding the list. They are resolved once, when the first FeatureDAOImpl is
+     * initialized, instead of on every copy.
+     */
+    private static volatile List<String> featureColumns;
+
     @Override
     public void initialize() {
         log = LoggerFactory.getLogger(FeatureDAOImpl.class);
         if(datasource != null) {
             this.template = new NamedParameterJdbcTemplate(datasource);
+            try {
+                getFeatureColumns();
+            } catch(DataAccessException e) {
+                log.warn("Failed to read the feature table columns, retrying on first copy", e);
+            }
         }
     }
 
+    private List<String> getFeatureColumns() {
+        List<String> columns = featureColumns;
+        if(columns == null) {
+            List<String> quoted = new ArrayList<String>();
+            for(String column : this.template.queryForList(FEATURE_COLUMNS_QUERY, new MapSqlParameterSource(),
+                    String.class)) {
+                quoted.add("\"" + column + "\"");
+            }
+            columns = Collections.unmodifiableList(quoted);
+            featureColumns = columns;
+        }
+        return columns;
+    }
+
     public List<Feature> getFeatureState(int collabroomId, UTCRange dateRange, int geoType) {
         QueryModel query = QueryManager.createQuery(SADisplayConstants.FEATURE).selectAllFromFeatureTable(geoType)
                 .join(SADisplayConstants.COLLABROOM_FEATURE_TABLE).using(SADisplayConstants.FEATURE_ID).left()
@@ -339,18 +371,49 @@ public class FeatureDAOImpl extends GenericDAO implements FeatureDAO {
         return features;
     }
 
-    public int setCollabroomFeatureDeleted(long featureId, boolean deleted) throws Exception {
-        QueryModel deleteUpdate = QueryManager.createQuery(SADisplayConstants.COLLABROOM_FEATURE).update()
-                .equals(SADisplayConstants.DELETED, deleted).where().equals(SADisplayConstants.FEATURE_ID, featureId);
+    private static final String SET_COLLABROOM_FEATURE_DELETED = "WITH touched AS (" +
+            "UPDATE feature SET lastupdate = :lastupdate, seqtime = :seqtime WHERE featureid = :featureId) " +
+            "UPDATE collabroomfeature SET deleted = :deleted WHERE featureid = :featureId";
 
-        QueryModel dateUpdate = QueryManager.createQuery(SADisplayConstants.FEATURE).update()
-                .equals(SADisplayConstants.LAST_UPDATE, new Date()).comma()
-                .equals(SADisplayConstants.SEQ_TIME, (System.currentTimeMillis() / 1000)).where()
-                .equals(SADisplayConstants.FEATURE_ID, featureId);
+    /**
+     * Only rows whose deleted flag actually changes are updated, and only their features get a new lastupdate
+     */
+    private static final String SET_COLLABROOM_FEATURES_DELETED = "WITH changed AS (" +
+            "UPDATE collabroomfeature SET deleted = :deleted WHERE collabroomid = :collabRoomId " +
+            "AND featureid IN (:featureIds) AND deleted <> :deleted RETURNING featureid), " +
+            "touched AS (UPDATE feature SET lastupdate = :lastupdate, seqtime = :seqtime " +
+            "WHERE featureid IN (SELECT featureid FROM changed)) " +
+            "SELECT DISTINCT featureid FROM changed";
 
-        template.update(dateUpdate.toString(), dateUpdate.getParameters());
+    public int setCollabroomFeatureDeleted(long featureId, boolean deleted) throws Exception {
+        return template.update(SET_COLLABROOM_FEATURE_DELETED,
+                new MapSqlParameterSource(SADisplayConstants.FEATURE_ID, featureId)
+                        .addValue(SADisplayConstants.DELETED, deleted)
+                        .addValue(SADisplayConstants.LAST_UPDATE, new Date())
+                        .addValue(SADisplayConstants.SEQ_TIME, System.currentTimeMillis() / 1000));
+    }
+
+    /**
+     * Marks a set of a collabroom's features deleted, or restores them, in one statement
+     *
+     * @param collabRoomId The id of the collabroom the features belong to
+     * @param featureIds   The ids of the features to change
+     * @param deleted      true to delete, false to restore
+     * @return the ids of the features whose state changed. Features that are not in the collabroom, or were already
+     * in the requested state, are left out
+     */
+    @Override
+    public List<Long> setCollabroomFeaturesDeleted(int collabRoomId, List<Long> featureIds, boolean deleted) {
+        if(featureIds == null || featureIds.isEmpty()) {
+            return new ArrayList<Long>();
+        }
 
-        return template.update(deleteUpdate.toString(), deleteUpdate.getParameters());
+        return template.queryForList(SET_COLLABROOM_FEATURES_DELETED,
+                new MapSqlParameterSource("collabRoomId", collabRoomId)
+                        .addValue("featureIds", featureIds)
+                        .addValue(SADisplayConstants.DELETED, deleted)
+                        .addValue(SADisplayConstants.LAST_UPDATE, new Date())
+                        .addValue(SADisplayConstants.SEQ_TIME, System.currentTimeMillis() / 1000), Long.class);
     }
 
     public int setUserFeatureDeleted(long featureId, boolean deleted) throws Exception {
@@ -406,13 +469,7 @@ public class FeatureDAOImpl extends GenericDAO implements FeatureDAO {
      */
     @Override
     public List<Long> copyFeatures(int userId, int collabRoomId) {
-        // dynamically get the list of columns to avoid hard-coding them all
-        QueryModel selectColumnsQuery = QueryManager.createQuery("information_schema.columns")
-                .selectFromTable("column_name").where().equals("table_name", SADisplayConstants.FEATURE_TABLE).and()
-                .notEqual("column_name", SADisplayConstants.FEATURE_ID.toLowerCase());
-
-        List<String> columns = this.template.queryForList(selectColumnsQuery.toString(),
-                selectColumnsQuery.getParameters(), String.class);
+        List<String> columns = getFeatureColumns();
 
         final String ALIAS = "copiedfeatures";
 
@@ -437,6 +494,66 @@ public class FeatureDAOImpl extends GenericDAO implements FeatureDAO {
                 insertCollabFeaturesStatement.getParameters(), Long.class);
     }
 
+    /**
+     * Copy the features of one collabroom into another in a single statement
+     * <p>
+     * The new feature ids are drawn from the feature sequence up front so each copy can be matched to its source. The
+     * copies, their collabroomfeature rows and their document_feature associations are then inserted together, so
+     * either the whole copy happens or none of it does.
+     *
+     * @param fromCollabRoomId The id of the collabroom to copy from. Deleted features are not copied
+     * @param toCollabRoomId   The id of the collabroom to copy to
+     * @param bbox             Optional minx, miny, maxx, maxy. Only features intersecting it are copied
+     * @param bboxSrid         The SRID of the bbox coordinates
+     * @param types            Optional feature types. Only features of these types are copied
+     * @return the ids of the new features
+     */
+    @Override
+    public List<Long> copyCollabroomFeatures(int fromCollabRoomId, int toCollabRoomId, double[] bbox, int bboxSrid,
+                                             List<String> types) {
+        List<String> columns = getFeatureColumns();
+        MapSqlParameterSource params = new MapSqlParameterSource("fromCollabRoomId", fromCollabRoomId)
+                .addValue("toCollabRoomId", toCollabRoomId);
+
+        StringBuilder sql = new StringBuilder()
+                .append("WITH source AS (SELECT sourceid, ")
+                .append("nextval(pg_get_serial_sequence('feature', 'featureid')) AS newid FROM (")
+                .append("SELECT DISTINCT f.featureid AS sourceid FROM feature f ")
+                .append("JOIN collabroomfeature cf ON cf.featureid = f.featureid ")
+                .append("WHERE cf.collabroomid = :fromCollabRoomId AND cf.deleted = false");
+        if(bbox != null) {
+            sql.append(" AND f.geometry && ST_Transform(ST_MakeEnvelope(:minx, :miny, :maxx, :maxy, :srid), 3857)");
+            params.addValue("minx", bbox[0]).addValue("miny", bbox[1])
+                    .addValue("maxx", bbox[2]).addValue("maxy", bbox[3])
+                    .addValue("srid", bboxSrid);
+        }
+        if(types != null && !types.isEmpty()) {
+            sql.append(" AND f.type IN (:types)");
+            params.addValue("types", types);
+        }
+        sql.append(") ids), ");
+
+        sql.append("copied AS (INSERT INTO feature (featureid");
+        for(String column : columns) {
+            sql.append(", ").append(column);
+        }
+        sql.append(") SELECT s.newid");
+        for(String column : columns) {
+            sql.append(", f.").append(column);
+        }
+        sql.append(" FROM source s JOIN feature f ON f.featureid = s.sourceid RETURNING featureid), ");
+
+        sql.append("documents AS (INSERT INTO document_feature (documentid, featureid) ")
+                .append("SELECT df.documentid, c.featureid FROM source s ")
+                .append("JOIN copied c ON c.featureid = s.newid ")
+                .append("JOIN document_feature df ON df.featureid = s.sourceid) ");
+
+        sql.append("INSERT INTO collabroomfeature (collabroomid, featureid) ")
+                .append("SELECT :toCollabRoomId, featureid FROM copied RETURNING featureid");
+
+        return this.template.queryForList(sql.toString(), params, Long.class);
+    }
+
     /**
      * Share all of the specified user's userfeatures to a given collabroom
      * <p>
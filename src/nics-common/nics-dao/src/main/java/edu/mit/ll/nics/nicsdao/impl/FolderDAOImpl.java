@@ -29,6 +29,7 @@
  */
 package edu.mit.ll.nics.nicsdao.impl;
 
+import edu.mit.ll.dao.QueryCache;
 import edu.mit.ll.dao.QueryModel;
 import edu.mit.ll.jdbc.JoinRowCallbackHandler;
 import edu.mit.ll.jdbc.JoinRowMapper;
@@ -39,6 +40,7 @@ import edu.mit.ll.nics.common.entity.datalayer.Rootfolder;
 import edu.mit.ll.nics.nicsdao.FolderDAO;
 import edu.mit.ll.nics.nicsdao.GenericDAO;
 import edu.mit.ll.nics.nicsdao.QueryManager;
+import edu.mit.ll.nics.nicsdao.SiblingOrder;
 import edu.mit.ll.nics.nicsdao.mappers.FolderRowMapper;
 import edu.mit.ll.nics.nicsdao.mappers.OrgFolderRowMapper;
 import edu.mit.ll.nics.nicsdao.mappers.RootFolderRowMapper;
@@ -49,17 +51,27 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
 
 public class FolderDAOImpl extends GenericDAO implements FolderDAO {
 
     private Logger log;
 
+    private PlatformTransactionManager txManager;
     private NamedParameterJdbcTemplate template;
 
+    private SiblingOrder folderOrder;
+
     @Override
     public void initialize() {
         log = LoggerFactory.getLogger(FeatureDAOImpl.class);
         this.template = new NamedParameterJdbcTemplate(datasource);
+        this.txManager = new DataSourceTransactionManager(datasource);
+        this.folderOrder = new SiblingOrder(template, SADisplayConstants.FOLDER_TABLE,
+                SADisplayConstants.PARENT_FOLDER_ID, SADisplayConstants.FOLDER_ID);
     }
 
     /**
@@ -118,22 +130,23 @@ public class FolderDAOImpl extends GenericDAO implements FolderDAO {
         JoinRowCallbackHandler<Folder> handler = getHandlerWith();
 
         //Do not include Incident specific folders
-        QueryModel incidentFolderIds = QueryManager.createQuery(SADisplayConstants.INCIDENT_FOLDER_TABLE)
-                .selectFromTable(String.format("%s.%s",
-                        SADisplayConstants.INCIDENT_FOLDER_TABLE,
-                        SADisplayConstants.FOLDER_ID))
-                .join(SADisplayConstants.INCIDENT_TABLE).using(SADisplayConstants.INCIDENT_ID)
-                .where().equals(SADisplayConstants.WORKSPACE_ID, workspaceid);
-
-        QueryModel queryModel = QueryManager.createQuery(SADisplayConstants.FOLDER)
-                .selectAllFromTableWhere().equals(SADisplayConstants.PARENT_FOLDER_ID)
-                .and().equals(SADisplayConstants.WORKSPACE_ID)
-                .and().notIn(
-                        SADisplayConstants.FOLDER_ID, incidentFolderIds.toString())
-                .orderBy(SADisplayConstants.INDEX);
+        String sql = QueryCache.get("FolderDAO.getOrderedFolders", () -> {
+            QueryModel incidentFolderIds = QueryManager.createQuery(SADisplayConstants.INCIDENT_FOLDER_TABLE)
+                    .selectFromTable(String.format("%s.%s",
+                            SADisplayConstants.INCIDENT_FOLDER_TABLE,
+                            SADisplayConstants.FOLDER_ID))
+                    .join(SADisplayConstants.INCIDENT_TABLE).using(SADisplayConstants.INCIDENT_ID)
+                    .where().equals(SADisplayConstants.WORKSPACE_ID);
+
+            return QueryManager.createQuery(SADisplayConstants.FOLDER)
+                    .selectAllFromTableWhere().equals(SADisplayConstants.PARENT_FOLDER_ID)
+                    .and().equals(SADisplayConstants.WORKSPACE_ID)
+                    .and().notIn(SADisplayConstants.FOLDER_ID, incidentFolderIds)
+                    .orderBy(SADisplayConstants.INDEX);
+        });
 
         template.query(
-                queryModel.toString(),
+                sql,
                 new MapSqlParameterSource(SADisplayConstants.PARENT_FOLDER_ID, folderid)
                         .addValue(SADisplayConstants.WORKSPACE_ID, workspaceid),
                 handler);
@@ -201,16 +214,16 @@ public class FolderDAOImpl extends GenericDAO implements FolderDAO {
         }
     }
 
+    /**
+     * getNextFolderIndex
+     *
+     * @param folderid - String - id of the parent folder
+     * @return int - index placing a new folder after the parent's current child folders
+     */
     public int getNextFolderIndex(String folderid) {
-        int result = 0;
-
-        QueryModel indexQuery = QueryManager.createQuery(SADisplayConstants.FOLDER_TABLE)
-                .selectMaxFromTable(SADisplayConstants.INDEX)
-                .where().equals(SADisplayConstants.PARENT_FOLDER_ID, folderid);
-
+        int result = SiblingOrder.GAP;
         try {
-            int index = this.template.queryForObject(indexQuery.toString(), indexQuery.getParameters(), Integer.class);
-            result = index + 1;
+            result = folderOrder.nextIndex(folderid);
         } catch(Exception e) {
             log.info("Could not find next folder index for folderid #0", folderid);
         }
@@ -313,21 +326,51 @@ public class FolderDAOImpl extends GenericDAO implements FolderDAO {
     }
 
     @Override
-    public void decrementIndexes(String parentFolderId, int index) {
-        QueryModel queryModel = QueryManager.createQuery(SADisplayConstants.FOLDER_TABLE)
-                .update(SADisplayConstants.INDEX).value("= index - 1")
-                .where().equals(SADisplayConstants.PARENT_FOLDER_ID, parentFolderId)
-                .and().greaterThanOrEquals(SADisplayConstants.INDEX, index);
-        this.template.update(queryModel.toString(), queryModel.getParameters());
+    public List<Folder> moveFolder(Folder folder, String parentFolderId, int position) {
+        if(folder == null) {
+            return null;
+        }
+
+        TransactionStatus txStatus = txManager.getTransaction(new DefaultTransactionDefinition());
+
+        try {
+            String folderId = folder.getFolderid();
+            Integer index = folderOrder.indexFor(parentFolderId, folderId, position);
+            boolean renumbered = index == null;
+            if(renumbered) {
+                index = folderOrder.renumber(parentFolderId, folderId, position);
+            }
+
+            folder.setParentfolderid(parentFolderId);
+            folder.setIndex(index);
+            Folder moved = updateFolder(folder);
+            if(moved == null) {
+                throw new IllegalStateException("Failed to update folder " + folderId);
+            }
+
+            List<Folder> folders = new ArrayList<>();
+            folders.add(moved);
+            if(renumbered) {
+                for(Folder sibling : getOrderedFolders(parentFolderId, moved.getWorkspaceid())) {
+                    if(!sibling.getFolderid().equals(folderId)) {
+                        folders.add(sibling);
+                    }
+                }
+            }
+
+            txManager.commit(txStatus);
+            return folders;
+        } catch(Exception e) {
+            log.error("Exception moving folder {}, rolling back", folder.getFolderid(), e);
+            txManager.rollback(txStatus);
+        }
+
+        return null;
     }
 
     @Override
-    public void incrementIndexes(String parentFolderId, int index) {
-        QueryModel queryModel = QueryManager.createQuery(SADisplayConstants.FOLDER_TABLE)
-                .update(SADisplayConstants.INDEX).value("= index + 1")
-                .where().equals(SADisplayConstants.PARENT_FOLDER_ID, parentFolderId)
-                .and().greaterThanOrEquals(SADisplayConstants.INDEX, index);
-        this.template.update(queryModel.toString(), queryModel.getParameters());
+    public void reorderFolders(String parentFolderId, List<String> folderIds) {
+        folderOrder.reorder(parentFolderId, folderIds);
     }
 
 
@@ -41,10 +41,13 @@ import edu.mit.ll.nics.nicsdao.FormDAO;
 import edu.mit.ll.nics.nicsdao.GenericDAO;
 import edu.mit.ll.nics.nicsdao.QueryManager;
 import edu.mit.ll.nics.nicsdao.mappers.FormRowMapper;
+import edu.mit.ll.nics.nicsdao.mappers.FormSummaryRowMapper;
 import edu.mit.ll.nics.nicsdao.mappers.FormTypeRowMapper;
 import edu.mit.ll.nics.nicsdao.query.QueryConstraint;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -63,6 +66,30 @@ public class FormDAOImpl extends GenericDAO implements FormDAO {
 
     private NamedParameterJdbcTemplate template;
 
+    /**
+     * Columns of the form table that readForms accepts in column selection and sorting
+     */
+    private static final Set<String> FORM_COLUMNS = new HashSet<String>(Arrays.asList(
+            SADisplayConstants.FORM_ID, SADisplayConstants.FORM_TYPE_ID, "incidentid", "incidentname",
+            SADisplayConstants.COLLAB_ROOM_ID, SADisplayConstants.USERSESSION_ID, SADisplayConstants.SEQ_TIME,
+            SADisplayConstants.SEQ_NUM, SADisplayConstants.MESSAGE, SADisplayConstants.DISTRIBUTED));
+
+    /**
+     * Columns readForms accepts as a date range
+     */
+    private static final Set<String> TIME_COLUMNS = new HashSet<String>(Arrays.asList(
+            SADisplayConstants.SEQ_TIME, SADisplayConstants.SEQ_NUM));
+
+    private static final String SELECT_FORM = "SELECT f.* FROM form f";
+
+    /**
+     * Everything but the message, with the sender resolved through the usersession's userorg
+     */
+    private static final String SELECT_FORM_SUMMARY = "SELECT f.formid, f.formtypeid, f.incidentid, " +
+            "f.incidentname, f.collabroomid, f.usersessionid, f.seqtime, f.seqnum, f.distributed, uo.userid AS " +
+            FormSummaryRowMapper.SENDER_USER_ID + " FROM form f JOIN usersession us ON us.usersessionid = " +
+            "f.usersessionid JOIN userorg uo ON uo.userorgid = us.userorgid";
+
     @Override
     public void initialize() {
         log = LoggerFactory.getLogger(FormDAOImpl.class);
@@ -155,16 +182,14 @@ public class FormDAOImpl extends GenericDAO implements FormDAO {
 
         int formTypeId = getFormTypeId(formTypeName);
 
-        MapSqlParameterSource params = new MapSqlParameterSource();
-    /*params.addValue("incidentid", incidentId);
-    params.addValue("formtypeid", formTypeId);*/
+        MapSqlParameterSource params = new MapSqlParameterSource("incidentid", incidentId)
+                .addValue(SADisplayConstants.FORM_TYPE_ID, formTypeId);
 
         JoinRowCallbackHandler<ReportLatest> handler = getReportLatestHandlerWith();
 
-        // TODO: build query and use proper parameter map
-        String query = "SELECT DISTINCT ON (userid) formid, seqtime, message, \"user\".username FROM form join usersession " +
-                "using(usersessionid) join userorg using(userorgid) join \"user\" using(userid) " +
-                "where formtypeid=" + formTypeId + " and incidentid="+incidentId+" ORDER BY userid, seqtime desc";
+        String query = "SELECT DISTINCT ON (userid) formid, seqtime, message, \"user\".username FROM form " +
+                "join usersession using(usersessionid) join userorg using(userorgid) join \"user\" using(userid) " +
+                "where formtypeid = :formtypeid and incidentid = :incidentid ORDER BY userid, seqtime desc";
 
         try {
             this.template.query(query, params, handler);
@@ -257,78 +282,137 @@ public class FormDAOImpl extends GenericDAO implements FormDAO {
 		return formId;
 	}*/
 
+    /**
+     * Reads forms of the given types, filtered, sorted, paged and projected as described by queryOpts. Every value
+     * is bound as a parameter, and column names are only accepted from {@link #FORM_COLUMNS}.
+     *
+     * <p>Supported options, all optional:</p>
+     * <ul>
+     *  <li>{@link SADisplayConstants#INCIDENT_ID}, {@link SADisplayConstants#COLLAB_ROOM_ID}: equality filters</li>
+     *  <li>{@link QueryConstraint#KEY_DATE_RANGE}: inclusive range on seqtime or seqnum</li>
+     *  <li>{@link QueryConstraint#KEY_ORDER_BY}: sort column and direction, formid breaks ties</li>
+     *  <li>{@link QueryConstraint#KEY_RESULTSET_RANGE}: limit and offset</li>
+     *  <li>{@link QueryConstraint#KEY_KEYSET}: seqtime and formid of the last row already read. Sorts on seqtime and
+     *  replaces the offset</li>
+     *  <li>{@link QueryConstraint#KEY_SUMMARY}, or a {@link QueryConstraint#KEY_COLUMN_SELECTION} without message:
+     *  everything but the message, plus the sender's userid</li>
+     * </ul>
+     *
+     * @param formTypeIds form types to read, all types if empty
+     * @param queryOpts   options keyed as above
+     * @return the matching forms
+     * @throws IllegalArgumentException if an option names an unknown column or an inverted date range
+     */
     public List<Form> readForms(List<Integer> formTypeIds,
                                 Map<String, Object> queryOpts) throws Exception {
+        if(queryOpts == null) {
+            queryOpts = Collections.emptyMap();
+        }
 
-        StringBuilder sql = new StringBuilder();
-
-        // Build the Form type ID predicate; i.e., single value vs. multi-value.
-        StringBuilder ftPred = new StringBuilder();
-        if(formTypeIds.size() == 1) {
-            ftPred.append("WHERE formtypeid=").append(formTypeIds.iterator().next());
-        } else if(formTypeIds.size() > 1) {
-            ftPred.append("WHERE formtypeid in (");
-            boolean firstOne = true;
-            for(Integer i : formTypeIds) {
-                if(firstOne) {
-                    firstOne = false;
-                } else {
-                    ftPred.append(", ");
-                }
-                ftPred.append(i);
-            }
-            ftPred.append(")");
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        List<String> predicates = new ArrayList<String>();
+
+        if(formTypeIds != null && !formTypeIds.isEmpty()) {
+            predicates.add("f.formtypeid IN (:formTypeIds)");
+            params.addValue("formTypeIds", formTypeIds);
+        }
+
+        Object incidentId = queryOpts.get(SADisplayConstants.INCIDENT_ID);
+        if(incidentId != null) {
+            predicates.add("f.incidentid = :incidentid");
+            params.addValue("incidentid", incidentId);
+        }
+
+        Object collabroomId = queryOpts.get(SADisplayConstants.COLLAB_ROOM_ID);
+        if(collabroomId != null) {
+            predicates.add("f.collabroomid = :collabroomid");
+            params.addValue("collabroomid", collabroomId);
         }
 
-        sql.append("SELECT ");
-        // Assemble the fields clause.
-        if(queryOpts.containsKey(QueryConstraint.KEY_COLUMN_SELECTION)) {
-            Set<String> columns = (Set<String>) queryOpts.get(
-                    QueryConstraint.KEY_COLUMN_SELECTION);
-            if(columns.size() > 0) {
-                sql.append(org.apache.commons.lang.StringUtils.join(columns, ","))
-                        .append(" FROM Form ").append(ftPred);
-            } else {
-                sql.append("* FROM Form ").append(ftPred);
+        QueryConstraint.UTCRange dateRange = (QueryConstraint.UTCRange) queryOpts.get(
+                QueryConstraint.KEY_DATE_RANGE);
+        if(dateRange != null && dateRange.colName != null && dateRange.from != null) {
+            String dateColumn = dateRange.colName.toLowerCase();
+            if(!TIME_COLUMNS.contains(dateColumn)) {
+                throw new IllegalArgumentException("Unsupported date column: " + dateRange.colName);
+            }
+            long to = dateRange.to == null ? System.currentTimeMillis() : dateRange.to;
+            if(dateRange.from > to) {
+                throw new IllegalArgumentException("fromDate cannot be greater than toDate");
             }
+            predicates.add("f." + dateColumn + " BETWEEN :fromDate AND :toDate");
+            params.addValue("fromDate", dateRange.from).addValue("toDate", to);
+        }
+
+        QueryConstraint.OrderBy orderBy = (QueryConstraint.OrderBy) queryOpts.get(QueryConstraint.KEY_ORDER_BY);
+        boolean descending = orderBy != null && orderBy.type == QueryConstraint.OrderByType.DESC;
+        String sortColumn = orderBy == null || orderBy.colName == null ? null : orderBy.colName.toLowerCase();
+        if(sortColumn != null && !FORM_COLUMNS.contains(sortColumn)) {
+            throw new IllegalArgumentException("Unsupported sort column: " + orderBy.colName);
+        }
+
+        QueryConstraint.Keyset keyset = (QueryConstraint.Keyset) queryOpts.get(QueryConstraint.KEY_KEYSET);
+        if(keyset != null && keyset.seqtime != null && keyset.id != null) {
+            sortColumn = SADisplayConstants.SEQ_TIME;
+            predicates.add(descending ? "(f.seqtime, f.formid) < (:afterSeqtime, :afterFormId)"
+                    : "(f.seqtime, f.formid) > (:afterSeqtime, :afterFormId)");
+            params.addValue("afterSeqtime", keyset.seqtime).addValue("afterFormId", keyset.id);
         } else {
-            sql.append("* FROM Form ").append(ftPred);
+            keyset = null;
         }
 
-        // Was an incidentId passed?
-        if(queryOpts.containsKey(SADisplayConstants.INCIDENT_ID)) {
-            sql.append(" AND incidentid = ").append(queryOpts.get(SADisplayConstants.INCIDENT_ID));
+        boolean summary = isSummary(queryOpts);
+        StringBuilder sql = new StringBuilder(summary ? SELECT_FORM_SUMMARY : SELECT_FORM);
+        if(!predicates.isEmpty()) {
+            sql.append(" WHERE ").append(String.join(" AND ", predicates));
         }
 
-        if(queryOpts.get(SADisplayConstants.COLLAB_ROOM_ID) != null) {
-            sql.append(" AND collabroomid = ").append(queryOpts.get(SADisplayConstants.COLLAB_ROOM_ID));
+        if(sortColumn != null) {
+            String direction = descending ? " DESC" : " ASC";
+            sql.append(" ORDER BY f.").append(sortColumn).append(direction);
+            if(!SADisplayConstants.FORM_ID.equals(sortColumn)) {
+                sql.append(", f.formid").append(direction);
+            }
         }
 
-        // Assemble the where clause.
-        //if (user != null && !user.isEmpty()) {
-        //	sql.append(" AND message LIKE '%\"user\":\"")
-        //	.append(user).append("\"%'");
-        //}
+        QueryConstraint.ResultSetPage page = (QueryConstraint.ResultSetPage) queryOpts.get(
+                QueryConstraint.KEY_RESULTSET_RANGE);
+        if(page != null && page.limit != null && page.limit > 0) {
+            sql.append(" LIMIT :limit");
+            params.addValue("limit", page.limit);
+        }
+        if(keyset == null && page != null && page.offset != null && page.offset > 0) {
+            sql.append(" OFFSET :offset");
+            params.addValue("offset", page.offset);
+        }
+
+        log.debug("Form query: {}", sql);
+
+        JoinRowCallbackHandler<Form> handler = summary
+                ? new JoinRowCallbackHandler<Form>(new FormSummaryRowMapper())
+                : new JoinRowCallbackHandler<Form>(new FormRowMapper());
+        template.query(sql.toString(), params, handler);
+        return handler.getResults();
+    }
 
-        // Assemble the optional clauses.
-        if(queryOpts != null) {
-            processQueryConstraintOptions(sql, queryOpts);
+    private static boolean isSummary(Map<String, Object> queryOpts) {
+        if(Boolean.TRUE.equals(queryOpts.get(QueryConstraint.KEY_SUMMARY))) {
+            return true;
         }
-        // TODO: use formDao calls
-        log.info("Form query: \n" + sql.toString() + "\n");
-        //List<Object> results = PhinicsDbUtil.sqlExecuteNative(sql.toString(), Form.class, em, log);
-
-        JoinRowCallbackHandler<Form> handler = new JoinRowCallbackHandler<Form>(new FormRowMapper());
-        template.query(sql.toString(), handler);
-        List<Form> queryForms = handler.getResults();
-        log.info("Got forms: " + queryForms.size());
-		
-		/*List<Form> forms = new ArrayList<Form>(results.size());
-		for (Object result : results) {
-			forms.add((Form)result);
-		}*/
-
-        return queryForms;
+
+        Set<String> columns = (Set<String>) queryOpts.get(QueryConstraint.KEY_COLUMN_SELECTION);
+        if(columns == null || columns.isEmpty()) {
+            return false;
+        }
+        boolean message = false;
+        for(String column : columns) {
+            String name = column.trim().toLowerCase();
+            if(!FORM_COLUMNS.contains(name)) {
+                throw new IllegalArgumentException("Unsupported column: " + column);
+            }
+            message |= SADisplayConstants.MESSAGE.equals(name);
+        }
+        return !message;
     }
 
 
@@ -460,97 +544,6 @@ public class FormDAOImpl extends GenericDAO implements FormDAO {
         return new JoinRowCallbackHandler(new ReportLatestRowMapper(), mappers);
     }
 
-    private void processQueryConstraintOptions(StringBuilder sql,
-                                               Map<String, Object> queryOpts) throws Exception {
-
-
-        if(queryOpts.containsKey(QueryConstraint.KEY_DATE_RANGE)) {
-            QueryConstraint.UTCRange dateRange = (QueryConstraint.UTCRange)
-                    queryOpts.get(QueryConstraint.KEY_DATE_RANGE);
-            try {
-
-                if(dateRange != null && dateRange.colName != null &&
-                        dateRange.from != null) {
-
-                    if(dateRange.to == null) {
-                        dateRange.to = System.currentTimeMillis();
-                    }
-
-                    String timeClause = makeTimeClause(dateRange.colName,
-                            dateRange.from, dateRange.to, log);
-                    if(!timeClause.isEmpty()) {
-                        sql.append(" AND ").append(timeClause);
-                    }
-                }
-            } catch(IllegalArgumentException ex) {
-                String errmsg = "Will not execute query: " + ex.getMessage();
-                log.error(errmsg);
-                throw new Exception(errmsg);
-            }
-        }
-
-        if(queryOpts.containsKey(QueryConstraint.KEY_ORDER_BY)) {
-            QueryConstraint.OrderBy orderBy = (QueryConstraint.OrderBy)
-                    queryOpts.get(QueryConstraint.KEY_ORDER_BY);
-            sql.append(" order by ").append(orderBy.colName).append(" ")
-                    .append(orderBy.type);
-        }
-
-        if(queryOpts.containsKey(QueryConstraint.KEY_RESULTSET_RANGE)) {
-            QueryConstraint.ResultSetPage rsPage = (QueryConstraint.ResultSetPage)
-                    queryOpts.get(QueryConstraint.KEY_RESULTSET_RANGE);
-            String resultSetRange = makeResultSetRangeClause(rsPage.offset, rsPage.limit);
-            if(!resultSetRange.isEmpty()) {
-                sql.append(resultSetRange);
-            }
-        }
-    }
-
-
-    protected static String makeResultSetRangeClause(Integer offset, Integer limit) {
-        StringBuilder sb = new StringBuilder();
-
-        if(limit != null && limit > 0) {
-            sb.append(" LIMIT ").append(limit);
-        }
-        if(offset != null && offset > 0) {
-            sb.append(" OFFSET ").append(offset);
-        }
-
-        return sb.toString();
-    }
-
-
-    protected static String makeTimeClause(String columnName, Long fromDate, Long toDate,
-                                           Logger log) {
-
-        StringBuilder sb = new StringBuilder();
-
-        if(fromDate == null && toDate == null) {
-            return "";
-        }
-        if(fromDate != null && toDate != null) {
-            if(fromDate > toDate) {
-                throw new IllegalArgumentException("fromDate cannot be greater than toDate");
-            }
-            if(fromDate.equals(toDate)) {
-                sb.append(" ").append(columnName).append(" = ").append(fromDate);
-                return sb.toString();
-            } else {
-                sb.append(" ").append(columnName).append(" BETWEEN ").
-                        append(fromDate).append(" AND ").append(toDate);
-                return sb.toString();
-            }
-        }
-        if(fromDate != null) {
-            sb.append(" ").append(columnName).append(" >= ").append(fromDate);
-        } else {
-            sb.append(" ").append(columnName).append(" <= ").append(toDate);
-        }
-
-        return sb.toString();
-    }
-
     /**
      * getHandlerWith
      *
@@ -55,14 +55,19 @@ import edu.mit.ll.nics.nicsdao.mappers.OrgTypeRowMapper;
 import edu.mit.ll.nics.nicsdao.mappers.UserOrgRowMapper;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.BeanPropertySqlParameterSource;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
@@ -77,6 +82,9 @@ public class OrgDAOImpl extends GenericDAO implements OrgDAO {
     private String ADMIN_ID = "adminsystemroleid";
     private String SUPER_ID = "supersystemroleid";
 
+    private static final String ORG_IDS = "orgIds";
+    private static final String INCIDENT_TYPE_IDS = "incidentTypeIds";
+
     @Override
     public void initialize() {
         log = LoggerFactory.getLogger(OrgDAOImpl.class);
@@ -185,78 +193,103 @@ public class OrgDAOImpl extends GenericDAO implements OrgDAO {
     }
 
     /**
-     * getAllChildren
+     * Recursive query selecting every (rootid, orgid) pair where orgid is a descendant of one of the :orgIds roots.
+     * UNION rather than UNION ALL stops the recursion if the parentorgid links ever form a cycle.
+     */
+    private static final String DESCENDANTS_CTE = "WITH RECURSIVE descendants(rootid, orgid) AS (" +
+            "SELECT parentorgid, orgid FROM org WHERE parentorgid IN (:orgIds) " +
+            "UNION " +
+            "SELECT d.rootid, o.orgid FROM org o JOIN descendants d ON o.parentorgid = d.orgid) ";
+
+    /**
+     * Recursive query selecting every org that is an ancestor of one of :orgIds. A parentorgid of 0 means no parent.
+     */
+    private static final String ANCESTORS_CTE = "WITH RECURSIVE ancestors(orgid) AS (" +
+            "SELECT parentorgid FROM org WHERE orgid IN (:orgIds) AND parentorgid IS NOT NULL AND parentorgid <> 0 " +
+            "UNION " +
+            "SELECT o.parentorgid FROM org o JOIN ancestors a ON o.orgid = a.orgid " +
+            "WHERE o.parentorgid IS NOT NULL AND o.parentorgid <> 0) ";
+
+    /**
+     * Resolves all descendants of the given orgs with a single recursive query
      *
-     * @param orgIds
-     * @return List<Integer> Recursively search for all children
+     * @param orgIds the orgs to find descendants of
+     * @return the ids of all children, grandchildren, etc. of the given orgs, not including the given orgs themselves
      */
-    public List<Integer> getAllChildren(List<Integer> orgIds) {
+    public Set<Integer> getDescendantOrgIds(Collection<Integer> orgIds) {
         if(orgIds == null || orgIds.isEmpty()) {
-            return new ArrayList<>();
+            return new HashSet<>();
         }
 
-        //Find all of the children that the user has access to...
-        //ids is set to the first level of children for these orgs
-        List<Integer> ids = this.getChildOrgIds(orgIds);
-
-        //Keep track of children until there are no more returned
-        List<Integer> childIds = new ArrayList<>();
-
-        //Array of children to return
-        List<Integer> foundChildren = new ArrayList<>();
-
-        if(ids != null) {
-            while(ids != null && ids.size() != 0) {
-                childIds.clear();
-                for(int id : ids) {
-                    //Make sure we haven't already searched on the id
-                    if(!orgIds.contains(id) &&
-                            !foundChildren.contains(id)) {
-                        //Add to the list of orgs
-                        foundChildren.add(id);
-
-                        //Search for children
-                        childIds.add(id);
-                    }
-                }
-                //Search for children in the new list
-                if(childIds.size() > 0) {
-                    ids = this.getChildOrgIds(childIds);
-                } else {
-                    //Done searching
-                    ids.clear();
-                }
-            }
+        String query = DESCENDANTS_CTE + "SELECT DISTINCT orgid FROM descendants WHERE orgid NOT IN (:orgIds)";
+        return new HashSet<>(this.template.queryForList(query,
+                new MapSqlParameterSource(ORG_IDS, orgIds), Integer.class));
+    }
+
+    /**
+     * Resolves the descendants of each of the given orgs with a single recursive query
+     *
+     * @param orgIds the orgs to find descendants of
+     * @return map of each given org id to the ids of its descendants, empty if it has none
+     */
+    public Map<Integer, Set<Integer>> getDescendantOrgIdsByOrg(Collection<Integer> orgIds) {
+        Map<Integer, Set<Integer>> descendants = new HashMap<>();
+        if(orgIds == null || orgIds.isEmpty()) {
+            return descendants;
         }
-        //returns a list of all original orgIds plus children
-        return foundChildren;
+        for(Integer orgId : orgIds) {
+            descendants.put(orgId, new HashSet<>());
+        }
+
+        String query = DESCENDANTS_CTE + "SELECT rootid, orgid FROM descendants WHERE orgid <> rootid";
+        this.template.query(query, new MapSqlParameterSource(ORG_IDS, orgIds),
+                (RowCallbackHandler) rs -> descendants.get(rs.getInt("rootid")).add(rs.getInt("orgid")));
+
+        return descendants;
+    }
+
+    /**
+     * Resolves all ancestors of the given orgs with a single recursive query
+     *
+     * @param orgIds the orgs to find ancestors of
+     * @return the ids of all parents, grandparents, etc. of the given orgs, not including the given orgs themselves
+     */
+    public Set<Integer> getAncestorOrgIds(Collection<Integer> orgIds) {
+        if(orgIds == null || orgIds.isEmpty()) {
+            return new HashSet<>();
+        }
+
+        String query = ANCESTORS_CTE + "SELECT DISTINCT orgid FROM ancestors WHERE orgid NOT IN (:orgIds)";
+        return new HashSet<>(this.template.queryForList(query,
+                new MapSqlParameterSource(ORG_IDS, orgIds), Integer.class));
+    }
+
+    /**
+     * getAllChildren
+     *
+     * @param orgIds
+     * @return List<Integer> All descendants of the given orgs, see {@link #getDescendantOrgIds(Collection)}
+     */
+    public List<Integer> getAllChildren(List<Integer> orgIds) {
+        return new ArrayList<>(getDescendantOrgIds(orgIds));
     }
 
     /**
-     * Calls {@link OrgDAOImpl#getAllChildren(List)} to then fetch the child orgs to
-     * return a list of child orgs for the given orgid.
+     * Fetches all descendant orgs of the given orgid, resolving the hierarchy and loading the rows in one query.
      *
      * @param orgId the ID of the Org to fetch children for.
      *
      * @return a list containing all child organizations if successful, or an empty list of none.
      */
     public List<Org> getChildOrgs(int orgId) {
-        List<Org> children = null;
-
-        List<Integer> childOrgIds = getAllChildren(Arrays.asList(orgId));
-        if(childOrgIds.size() > 0) {
-
-            QueryModel query = QueryManager.createQuery(SADisplayConstants.ORG_TABLE)
-                    .selectAllFromTableWhere()
-                    .inAsInteger(SADisplayConstants.ORG_ID, childOrgIds);
-
-            MapSqlParameterSource map = new MapSqlParameterSource();
-            JoinRowCallbackHandler<Org> handler = getHandlerWith();
+        String query = DESCENDANTS_CTE + "SELECT * FROM org WHERE orgid IN " +
+                "(SELECT orgid FROM descendants WHERE orgid NOT IN (:orgIds))";
 
-            this.template.query(query.toString(), map, handler);
-            children = handler.getResults();
-        }
+        JoinRowCallbackHandler<Org> handler = getHandlerWith();
+        this.template.query(query, new MapSqlParameterSource(ORG_IDS,
+                Collections.singletonList(orgId)), handler);
 
+        List<Org> children = handler.getResults();
         return children == null ? new ArrayList<>() : children;
     }
 
@@ -264,41 +297,10 @@ public class OrgDAOImpl extends GenericDAO implements OrgDAO {
      * getAllParents
      *
      * @param orgIds
-     * @return List<Integer> Recursively search for all children
+     * @return List<Integer> All ancestors of the given orgs, see {@link #getAncestorOrgIds(Collection)}
      */
     public List<Integer> getAllParents(List<Integer> orgIds) {
-        //Find all of the parents that the in this list of orgs
-        List<Integer> ids = this.getParentOrgIds(orgIds);
-
-        //Keep track of parents until there are no more returned
-        List<Integer> parentIds = new ArrayList<>();
-
-        //Array of parents to return
-        List<Integer> foundParents = new ArrayList<>();
-
-        while(ids.size() != 0) {
-            parentIds.clear();
-            for(int id : ids) {
-                //Make sure we haven't already searched on the id
-                if(!orgIds.contains(id) &&
-                        !foundParents.contains(id)) {
-                    //Add to the list of orgs
-                    foundParents.add(id);
-
-                    //Search for parents
-                    parentIds.add(id);
-                }
-            }
-            //Search for children in the new list
-            if(parentIds.size() > 0) {
-                ids = this.getParentOrgIds(parentIds);
-            } else {
-                //Done searching
-                ids.clear();
-            }
-        }
-        //returns a list of all original orgIds plus children
-        return foundParents;
+        return new ArrayList<>(getAncestorOrgIds(orgIds));
     }
 
     /**
@@ -656,30 +658,39 @@ public class OrgDAOImpl extends GenericDAO implements OrgDAO {
         }
     }
 
-    public int addOrgIncidentTypes(int orgId, List<Integer> incidentTypeIds) {
-        int count = 0;
-
-        if(incidentTypeIds != null && !incidentTypeIds.isEmpty()) {
-            int result;
-            for(int incidentTypeId : incidentTypeIds) {
-                try {
-                    result = addOrgIncidentType(orgId, incidentTypeId);
-                    if(result > 0) {
-                        count += result;
-                    }
-                } catch(Exception e) {
-                    log.error("Exception adding org incidenttype mapping", e);
-                }
-            }
-        } else {
-            return -1;
-        }
+    /**
+     * Maps the given incident types to the org in a single INSERT ... SELECT. Ids that are already mapped to the org,
+     * or that don't exist, are skipped. The statement either inserts every remaining mapping or none of them.
+     * NOT EXISTS can't see a mapping added by a concurrent transaction that hasn't committed yet, so ON CONFLICT on
+     * the table's unique (orgid, incidenttypeid) skips those too instead of failing the whole statement.
+     */
+    private static final String ADD_ORG_INCIDENTTYPES = "INSERT INTO org_incidenttype (orgid, incidenttypeid) " +
+            "SELECT :orgId, it.incidenttypeid FROM incidenttype it " +
+            "WHERE it.incidenttypeid IN (:incidentTypeIds) AND NOT EXISTS (" +
+            "SELECT 1 FROM org_incidenttype oit WHERE oit.orgid = :orgId AND oit.incidenttypeid = it.incidenttypeid) " +
+            "ON CONFLICT (orgid, incidenttypeid) DO NOTHING " +
+            "RETURNING incidenttypeid";
 
-        if(count != incidentTypeIds.size()) {
-            log.warn("Not all incidentTypes were added");
+    private static final String REMOVE_ORG_INCIDENTTYPES = "DELETE FROM org_incidenttype " +
+            "WHERE orgid = :orgId AND incidenttypeid IN (:incidentTypeIds) RETURNING incidenttypeid";
+
+    /**
+     * addOrgIncidentTypes
+     *
+     * @param orgId
+     * @param incidentTypeIds
+     * @return List<Integer> the incident type ids that were added, in no particular order. Requested ids missing from
+     * the result were already mapped to the org or don't exist
+     * @throws DataAccessException if the insert fails, in which case no mappings were added
+     */
+    public List<Integer> addOrgIncidentTypes(int orgId, List<Integer> incidentTypeIds) {
+        if(incidentTypeIds == null || incidentTypeIds.isEmpty()) {
+            return new ArrayList<Integer>();
         }
 
-        return count;
+        return this.template.queryForList(ADD_ORG_INCIDENTTYPES,
+                new MapSqlParameterSource(SADisplayConstants.ORG_ID, orgId)
+                        .addValue(INCIDENT_TYPE_IDS, incidentTypeIds), Integer.class);
     }
 
     public int addOrgIncidentType(int orgId, int incidentTypeId) throws Exception {
@@ -784,30 +795,23 @@ public class OrgDAOImpl extends GenericDAO implements OrgDAO {
 		}
 	}
 
-    public int removeOrgIncidentTypes(int orgId, List<Integer> incidentTypeIds) {
-        int count = 0;
-
-        if(incidentTypeIds != null && !incidentTypeIds.isEmpty()) {
-            int result;
-            for(int incidentTypeId : incidentTypeIds) {
-                try {
-                    result = removeOrgIncidentType(orgId, incidentTypeId);
-                    if(result > 0) {
-                        count += result;
-                    }
-                } catch(Exception e) {
-                    log.error("Exception removing org incidenttype mapping", e);
-                }
-            }
-        } else {
-            return -1;
-        }
-
-        if(count != incidentTypeIds.size()) {
-            log.warn("Not all incidentTypes were removed");
+    /**
+     * removeOrgIncidentTypes
+     *
+     * @param orgId
+     * @param incidentTypeIds
+     * @return List<Integer> the incident type ids that were removed. Requested ids missing from the result were not
+     * mapped to the org
+     * @throws DataAccessException if the delete fails, in which case no mappings were removed
+     */
+    public List<Integer> removeOrgIncidentTypes(int orgId, List<Integer> incidentTypeIds) {
+        if(incidentTypeIds == null || incidentTypeIds.isEmpty()) {
+            return new ArrayList<Integer>();
         }
 
-        return count;
+        return this.template.queryForList(REMOVE_ORG_INCIDENTTYPES,
+                new MapSqlParameterSource(SADisplayConstants.ORG_ID, orgId)
+                        .addValue(INCIDENT_TYPE_IDS, incidentTypeIds), Integer.class);
     }
 
     public int removeOrgIncidentType(int orgId, int incidentTypeId) {
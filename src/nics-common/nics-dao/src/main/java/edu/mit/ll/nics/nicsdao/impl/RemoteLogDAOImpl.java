@@ -40,7 +40,9 @@ import edu.mit.ll.nics.nicsdao.QueryManager;
 import edu.mit.ll.nics.nicsdao.RemoteLogDAO;
 import edu.mit.ll.nics.nicsdao.mappers.RemoteLogRowMapper;
 import edu.mit.ll.nics.nicsdao.mappers.RemoteLogTypeRowMapper;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -48,6 +50,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 
 
 /**
@@ -61,6 +64,13 @@ public class RemoteLogDAOImpl extends GenericDAO implements RemoteLogDAO {
     private static final Logger log = LoggerFactory
             .getLogger(RemoteLogDAOImpl.class);
 
+    /**
+     * Columns written by {@link #persistLogs(List)}, in a fixed order so every row in a batch binds the same statement
+     */
+    private static final List<String> PERSIST_FIELDS = Arrays.asList(SADisplayConstants.USERSESSION_ID,
+            SADisplayConstants.USER_NAME, SADisplayConstants.TYPE, SADisplayConstants.MESSAGE,
+            SADisplayConstants.WORKSPACE_ID, SADisplayConstants.REMOTELOG_ERROR);
+
     /**
      * Template for executing queries on the datasource with
      */
@@ -154,6 +164,47 @@ public class RemoteLogDAOImpl extends GenericDAO implements RemoteLogDAO {
     }
 
 
+    /**
+     * Persists the given RemoteLog entities with a single JDBC batch, using the workspaceid set on each entity. The
+     * batch is all or nothing: if the database rejects any entity, such as for an over-long field, none are persisted
+     * and the DataIntegrityViolationException is thrown, so callers can write the entities one at a time instead
+     *
+     * @param logs the RemoteLog entities to persist
+     * @return the number of entities persisted
+     */
+    @Override
+    public int persistLogs(List<RemoteLog> logs) {
+        if(logs == null || logs.isEmpty()) {
+            return 0;
+        }
+
+        SqlParameterSource[] batch = new SqlParameterSource[logs.size()];
+        for(int i = 0; i < logs.size(); i++) {
+            RemoteLog remoteLog = logs.get(i);
+            batch[i] = new MapSqlParameterSource()
+                    .addValue(SADisplayConstants.USERSESSION_ID, remoteLog.getUsersessionid())
+                    .addValue(SADisplayConstants.USER_NAME, remoteLog.getUsername())
+                    .addValue(SADisplayConstants.TYPE, remoteLog.getType())
+                    .addValue(SADisplayConstants.MESSAGE, remoteLog.getMessage())
+                    .addValue(SADisplayConstants.WORKSPACE_ID, remoteLog.getWorkspaceid())
+                    .addValue(SADisplayConstants.REMOTELOG_ERROR, remoteLog.getError());
+        }
+
+        QueryModel model = QueryManager
+                .createQuery(SADisplayConstants.REMOTELOG_TABLE)
+                .insertInto(PERSIST_FIELDS);
+
+        int persisted = 0;
+        for(int count : this.template.batchUpdate(model.toString(), batch)) {
+            // Drivers that can't report per-row counts return SUCCESS_NO_INFO (-2)
+            if(count == 1 || count == Statement.SUCCESS_NO_INFO) {
+                persisted++;
+            }
+        }
+        return persisted;
+    }
+
+
     /**
      * Deletes the RemoteLog entity with the specified id
      *
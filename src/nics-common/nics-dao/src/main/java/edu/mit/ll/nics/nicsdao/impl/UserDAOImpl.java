@@ -76,6 +76,40 @@ public class UserDAOImpl extends GenericDAO implements UserDAO {
     private PlatformTransactionManager txManager;
     private NamedParameterJdbcTemplate template;
 
+    /**
+     * Most users returned by one {@link #searchUsers(String, int, int)} call
+     */
+    public static final int SEARCH_MAX_LIMIT = 100;
+
+    /**
+     * Deepest position, offset plus limit, {@link #searchUsers(String, int, int)} will page to
+     */
+    public static final int SEARCH_MAX_RESULTS = 1000;
+
+    /**
+     * Shortest term {@link #searchUsers(String, int, int)} will search for
+     */
+    public static final int SEARCH_MIN_TERM_LENGTH = 2;
+
+    /**
+     * Full name expression, matching the user_fullname_trgm index so the planner can use it
+     */
+    private static final String FULL_NAME = "(coalesce(u.firstname, '') || ' ' || coalesce(u.lastname, ''))";
+
+    /**
+     * Matches the term anywhere in the username, the full name or an email contact, all backed by pg_trgm GIN indexes
+     * (see nics-db/Change/user_search.sql). Exact prefix matches rank first, then trigram similarity.
+     */
+    private static final String SEARCH_QUERY = "SELECT u.* FROM \"user\" u " +
+            "WHERE u.username ILIKE :pattern " +
+            "OR " + FULL_NAME + " ILIKE :pattern " +
+            "OR u.userid IN (SELECT c.userid FROM contact c WHERE c.contacttypeid = :contacttypeid " +
+            "AND c.value ILIKE :pattern) " +
+            "ORDER BY (u.username ILIKE :prefix OR u.firstname ILIKE :prefix OR u.lastname ILIKE :prefix) DESC, " +
+            "greatest(similarity(u.username, :term), similarity(" + FULL_NAME + ", :term)) DESC, " +
+            "u.username " +
+            "LIMIT :limit OFFSET :offset";
+
     @Override
     public void initialize() {
         log = LoggerFactory.getLogger(UserDAOImpl.class);
@@ -273,19 +307,21 @@ public class UserDAOImpl extends GenericDAO implements UserDAO {
         QueryModel queryModel = QueryManager.createQuery(SADisplayConstants.USER_ESCAPED)
                 .selectAllFromTable().where();
 
+        MapSqlParameterSource params = new MapSqlParameterSource();
         if(exact) {
             queryModel = queryModel.equals(SADisplayConstants.FIRSTNAME).and().equals(SADisplayConstants.LASTNAME);
+            params.addValue(SADisplayConstants.FIRSTNAME, firstName)
+                    .addValue(SADisplayConstants.LASTNAME, lastName);
         } else {
-            queryModel = queryModel.ilike(SADisplayConstants.FIRSTNAME).value("'%" + firstName + "%'")
-                    .and().ilike(SADisplayConstants.LASTNAME).value("'%" + lastName + "%'");
+            queryModel = queryModel.ilike(SADisplayConstants.FIRSTNAME).value(":" + SADisplayConstants.FIRSTNAME)
+                    .and().ilike(SADisplayConstants.LASTNAME).value(":" + SADisplayConstants.LASTNAME);
+            params.addValue(SADisplayConstants.FIRSTNAME, containsPattern(firstName))
+                    .addValue(SADisplayConstants.LASTNAME, containsPattern(lastName));
         }
 
         JoinRowCallbackHandler<User> handler = getHandlerWith();
 
-        this.template.query(queryModel.toString(),
-                new MapSqlParameterSource(SADisplayConstants.FIRSTNAME, firstName)
-                        .addValue(SADisplayConstants.LASTNAME, lastName),
-                handler);
+        this.template.query(queryModel.toString(), params, handler);
 
         try {
             return handler.getResults();
@@ -314,13 +350,13 @@ public class UserDAOImpl extends GenericDAO implements UserDAO {
         if(exact) {
             queryModel = queryModel.equals(field);
         } else {
-            queryModel = queryModel.ilike(field).value("'%" + value + "%'");
+            queryModel = queryModel.ilike(field).value(":" + field);
         }
 
         JoinRowCallbackHandler<User> handler = getHandlerWith();
 
         this.template.query(queryModel.toString(),
-                new MapSqlParameterSource(field, value),
+                new MapSqlParameterSource(field, exact ? value : containsPattern(value)),
                 handler);
 
         try {
@@ -331,6 +367,57 @@ public class UserDAOImpl extends GenericDAO implements UserDAO {
         return null;
     }
 
+    /**
+     * Searches users by username, first and last name, and email for typeahead style lookups. Results are ranked with
+     * prefix matches first, then by trigram similarity to the term, and paged.
+     *
+     * @param term   text to look for, at least {@link #SEARCH_MIN_TERM_LENGTH} characters
+     * @param limit  page size, capped at {@link #SEARCH_MAX_LIMIT}
+     * @param offset index of the first result, no page extends past {@link #SEARCH_MAX_RESULTS}
+     * @return the matching users, empty if the term is too short or the page is past the cap
+     */
+    public List<User> searchUsers(String term, int limit, int offset) {
+        if(this.template == null) {
+            this.initialize();
+        }
+
+        String trimmed = term == null ? "" : term.trim();
+        int start = Math.max(0, offset);
+        int size = Math.min(Math.min(Math.max(0, limit), SEARCH_MAX_LIMIT), SEARCH_MAX_RESULTS - start);
+        if(trimmed.length() < SEARCH_MIN_TERM_LENGTH || size <= 0) {
+            return new ArrayList<>();
+        }
+
+        String escaped = escapeLike(trimmed);
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("term", trimmed)
+                .addValue("pattern", "%" + escaped + "%")
+                .addValue("prefix", escaped + "%")
+                .addValue(SADisplayConstants.CONTACT_TYPE_ID, SADisplayConstants.EMAIL_TYPE_ID)
+                .addValue("limit", size)
+                .addValue("offset", start);
+
+        JoinRowCallbackHandler<User> handler = getHandlerWith();
+        this.template.query(SEARCH_QUERY, params, handler);
+
+        List<User> users = handler.getResults();
+        return users == null ? new ArrayList<>() : users;
+    }
+
+    /**
+     * @return value escaped for use inside a LIKE pattern, and wrapped to match anywhere
+     */
+    private static String containsPattern(String value) {
+        return "%" + escapeLike(value == null ? "" : value) + "%";
+    }
+
+    /**
+     * Escapes the LIKE wildcards, using Postgres' default escape character
+     */
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
     /**
      * getUserById
      *
@@ -29,6 +29,7 @@
  */
 package edu.mit.ll.nics.nicsdao.impl;
 
+import edu.mit.ll.dao.QueryCache;
 import edu.mit.ll.dao.QueryModel;
 import edu.mit.ll.jdbc.JoinRowCallbackHandler;
 import edu.mit.ll.jdbc.JoinRowMapper;
@@ -36,6 +37,7 @@ import edu.mit.ll.nics.common.constants.SADisplayConstants;
 import edu.mit.ll.nics.common.entity.CurrentUserSession;
 import edu.mit.ll.nics.common.entity.Usersession;
 import edu.mit.ll.nics.nicsdao.GenericDAO;
+import edu.mit.ll.nics.nicsdao.LastSeenTracker;
 import edu.mit.ll.nics.nicsdao.QueryManager;
 import edu.mit.ll.nics.nicsdao.UserSessionDAO;
 import edu.mit.ll.nics.nicsdao.mappers.CurrentUserSessionRowMapper;
@@ -252,7 +254,9 @@ public class UserSessionDAOImpl extends GenericDAO implements UserSessionDAO {
                 .query(queryModel.toString(), new MapSqlParameterSource(SADisplayConstants.WORKSPACE_ID, workspaceid),
                         handler);
 
-        return handler.getResults();
+        List<CurrentUserSession> sessions = handler.getResults();
+        LastSeenTracker.apply(sessions);
+        return sessions;
     }
 
     /**
@@ -324,6 +328,7 @@ public class UserSessionDAOImpl extends GenericDAO implements UserSessionDAO {
                 + "where userid=:userId order by loggedin desc", paramMap, handler);
 
         sessions = handler.getResults();
+        LastSeenTracker.apply(sessions);
 
         if(sessions == null || sessions.isEmpty()) {
             return null;
@@ -354,6 +359,7 @@ public class UserSessionDAOImpl extends GenericDAO implements UserSessionDAO {
                 + "where userid=:userId and workspaceid=:workspaceid order by loggedin desc", paramMap, handler);
 
         sessions = handler.getResults();
+        LastSeenTracker.apply(sessions);
 
         if(sessions == null || sessions.isEmpty()) {
             return null;
@@ -390,6 +396,7 @@ public class UserSessionDAOImpl extends GenericDAO implements UserSessionDAO {
         template.query(queryModel.toString(), paramMap, handler);
 
         sessions = handler.getResults();
+        LastSeenTracker.apply(sessions);
 
         if(sessions == null || sessions.isEmpty()) {
             return null;
@@ -398,21 +405,22 @@ public class UserSessionDAOImpl extends GenericDAO implements UserSessionDAO {
         return sessions;
     }
 
+    /**
+     * Records a heartbeat for the user. The write is coalesced with other heartbeats and batched, see
+     * {@link LastSeenTracker}
+     *
+     * @param userid
+     */
     public void updateLastSeen(int userid) {
-        QueryModel queryModel = QueryManager.createQuery(SADisplayConstants.CURRENT_USERSESSION_TABLE)
-                .update(SADisplayConstants.LAST_SEEN).now().where().equals(SADisplayConstants.USER_ID);
-
-        this.template.update(queryModel.toString(), new MapSqlParameterSource(SADisplayConstants.USER_ID, userid));
-    	
-    	/*em.createQuery("update CurrentUserSession set lastseen=now() where userid=:userid")
-		.setParameter("userid", cUserHome.getCurrentUser().getUserId()).executeUpdate();*/
+        LastSeenTracker.record(userid);
     }
 
     public int updateLoggedOutToNow(long userSessionId) {
-        QueryModel model = QueryManager.createQuery(SADisplayConstants.USERSESSION_TABLE)
-                .update("loggedout").now().where().equals(SADisplayConstants.USERSESSION_ID);
+        String sql = QueryCache.get("UserSessionDAO.updateLoggedOutToNow", () ->
+                QueryManager.createQuery(SADisplayConstants.USERSESSION_TABLE)
+                        .update("loggedout").now().where().equals(SADisplayConstants.USERSESSION_ID));
 
-        int result = template.update(model.toString(),
+        int result = template.update(sql,
                 new MapSqlParameterSource(SADisplayConstants.USERSESSION_ID, userSessionId));
 
         return result;
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.nicsdao.mappers;
+
+import edu.mit.ll.jdbc.JoinRowMapper;
+import edu.mit.ll.nics.common.constants.SADisplayConstants;
+import edu.mit.ll.nics.common.entity.Form;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the summary projection of a form, everything but the message, plus the sending user's id
+ */
+public class FormSummaryRowMapper extends JoinRowMapper<Form> {
+
+    public static final String SENDER_USER_ID = "senderuserid";
+
+    public FormSummaryRowMapper() {
+        super("form");
+    }
+
+    @Override
+    public Form createRowObject(ResultSet rs, int rowNum) throws SQLException {
+        Form form = new Form();
+        form.setDistributed(rs.getBoolean(SADisplayConstants.DISTRIBUTED));
+        form.setFormId(rs.getInt(SADisplayConstants.FORM_ID));
+        form.setFormtypeid(rs.getInt(SADisplayConstants.FORM_TYPE_ID));
+        form.setIncidentid(rs.getInt(SADisplayConstants.INCIDENT_ID));
+        form.setIncidentname(rs.getString(SADisplayConstants.INCIDENT_NAME));
+        form.setSeqnum(rs.getLong(SADisplayConstants.SEQ_NUM));
+        form.setSeqtime(rs.getLong(SADisplayConstants.SEQ_TIME));
+        form.setUsersessionid(rs.getInt(SADisplayConstants.USERSESSION_ID));
+        form.setCollabroomid(rs.getInt(SADisplayConstants.COLLAB_ROOM_ID));
+        form.setSenderuserid(rs.getInt(SENDER_USER_ID));
+        return form;
+    }
+
+    public Integer getKey(ResultSet rs) throws SQLException {
+        return rs.getInt(SADisplayConstants.FORM_ID);
+    }
+}
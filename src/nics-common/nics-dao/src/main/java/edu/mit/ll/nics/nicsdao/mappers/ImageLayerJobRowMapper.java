@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.nicsdao.mappers;
+
+import edu.mit.ll.jdbc.JoinRowMapper;
+import edu.mit.ll.nics.common.constants.SADisplayConstants;
+import edu.mit.ll.nics.common.entity.datalayer.ImageLayerJob;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class ImageLayerJobRowMapper extends JoinRowMapper<ImageLayerJob> {
+
+    public ImageLayerJobRowMapper() {
+        super(SADisplayConstants.IMAGE_LAYER_JOB_TABLE);
+    }
+
+    @Override
+    public ImageLayerJob createRowObject(ResultSet rs, int rowNum) throws SQLException {
+        ImageLayerJob job = new ImageLayerJob();
+        job.setImageid(rs.getString(SADisplayConstants.IMAGE_ID));
+        job.setWorkspaceid(rs.getInt(SADisplayConstants.WORKSPACE_ID));
+        job.setTitle(rs.getString(SADisplayConstants.TITLE));
+        job.setUsersessionid(rs.getInt(SADisplayConstants.USERSESSION_ID));
+        job.setFolderid(rs.getString(SADisplayConstants.FOLDER_ID));
+        job.setStatus(rs.getString(SADisplayConstants.STATUS));
+        job.setAttempts(rs.getInt(SADisplayConstants.IMAGE_LAYER_JOB_ATTEMPTS));
+        job.setMessage(rs.getString(SADisplayConstants.MESSAGE));
+        job.setDatalayerid(rs.getString(SADisplayConstants.DATALAYER_ID));
+        job.setCreated(rs.getTimestamp(SADisplayConstants.CREATED));
+        job.setLastupdate(rs.getTimestamp(SADisplayConstants.LAST_UPDATE));
+        job.setNextattempt(rs.getTimestamp(SADisplayConstants.IMAGE_LAYER_JOB_NEXT_ATTEMPT));
+        return job;
+    }
+
+    public String getKey(ResultSet rs) throws SQLException {
+        return rs.getString(SADisplayConstants.IMAGE_ID);
+    }
+}
@@ -40,6 +40,8 @@ public class QueryConstraint {
     public static final String KEY_RESULTSET_RANGE = "resultset_range";
     public static final String KEY_COLUMN_SELECTION = "column_selection";
     public static final String KEY_INCIDENT_ID = "incidentid";
+    public static final String KEY_KEYSET = "keyset";
+    public static final String KEY_SUMMARY = "summary";
 
     public static enum OrderByType {
         ASC("ASC"),
@@ -98,5 +100,20 @@ public class QueryConstraint {
     }
 
     ;
-}
 
+    /**
+     * Keyset paging cursor: the sort key of the last row of the previous page. Unlike an offset, the next page is
+     * found through the index no matter how deep it is, and rows added meanwhile don't shift the pages.
+     */
+    public static class Keyset {
+        public Long seqtime;
+        public Integer id;
+
+        public Keyset(Long seqtime, Integer id) {
+            this.seqtime = seqtime;
+            this.id = id;
+        }
+    }
+
+    ;
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.nicsdao.test;
+
+import edu.mit.ll.nics.nicsdao.DAOFactory;
+import edu.mit.ll.nics.nicsdao.GenericDAO;
+import edu.mit.ll.nics.nicsdao.InstrumentedDataSource;
+import java.util.Map;
+import javax.sql.DataSource;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testng.Assert;
+import org.testng.annotations.AfterTest;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+/**
+ * Tests DAOFactory against a plain in-memory DataSource, outside of any container
+ */
+public class DAOFactoryTest {
+
+    /**
+     * DataSource
+     */
+    private DriverManagerDataSource dataSource;
+
+    @BeforeTest
+    public void beforeTest() {
+        dataSource = new DriverManagerDataSource();
+        dataSource.setUrl("jdbc:hsqldb:mem:daofactory");
+        dataSource.setUsername("SA");
+        dataSource.setPassword("");
+
+        DAOFactory.setDataSource(dataSource);
+        DAOFactory.resetStats();
+    }
+
+    @AfterTest
+    public void afterTest() {
+        DAOFactory.setDataSource(null);
+        DAOFactory.setSlowQueryMillis(DAOFactory.DEFAULT_SLOW_QUERY_MILLIS);
+    }
+
+    @Test(testName = "SharedDataSource", description = "DAOs get an instrumented view of the injected DataSource")
+    public void testSharedDataSource() {
+        TestDAO dao = new TestDAO();
+
+        Assert.assertTrue(dao.datasource instanceof InstrumentedDataSource);
+        Assert.assertSame(((InstrumentedDataSource) dao.datasource).getTarget(), dataSource);
+
+        // Re-instrumenting a view must not nest proxies
+        DataSource again = DAOFactory.instrument(dao.datasource, TestDAO.class);
+        Assert.assertSame(((InstrumentedDataSource) again).getTarget(), dataSource);
+    }
+
+    @Test(testName = "StatementStats", description = "Statements and connections are counted per DAO")
+    public void testStatementStats() {
+        DAOFactory.setSlowQueryMillis(0);
+        TestDAO dao = new TestDAO();
+
+        dao.template.update("CREATE TABLE daofactory_test (id INTEGER, name VARCHAR(32))",
+                new MapSqlParameterSource());
+        dao.template.update("INSERT INTO daofactory_test (id, name) VALUES (:id, :name)",
+                new MapSqlParameterSource("id", 1).addValue("name", "secret"));
+        int count = dao.template.queryForObject("SELECT COUNT(*) FROM daofactory_test WHERE name = :name",
+                new MapSqlParameterSource("name", "secret"), Integer.class);
+        Assert.assertEquals(count, 1);
+
+        Map<String, Long> stats = DAOFactory.getStats().get(TestDAO.class.getSimpleName());
+        Assert.assertNotNull(stats);
+        Assert.assertEquals(stats.get("statements").longValue(), 3L);
+        Assert.assertEquals(stats.get("slowStatements").longValue(), 3L);
+        Assert.assertEquals(stats.get("failedStatements").longValue(), 0L);
+        Assert.assertEquals(stats.get("connections").longValue(), 3L);
+        Assert.assertTrue(DAOFactory.getStats().get(DAOFactory.TOTAL).get("statements") >= 3L);
+    }
+
+    /**
+     * Minimal DAO built the same way as the impl DAOs
+     */
+    public static class TestDAO extends GenericDAO {
+        private NamedParameterJdbcTemplate template;
+
+        @Override
+        public void initialize() {
+            this.template = new NamedParameterJdbcTemplate(datasource);
+        }
+    }
+}
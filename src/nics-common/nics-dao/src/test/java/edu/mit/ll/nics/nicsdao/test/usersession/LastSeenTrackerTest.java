@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.nicsdao.test.usersession;
+
+import edu.mit.ll.nics.common.entity.CurrentUserSession;
+import edu.mit.ll.nics.nicsdao.LastSeenTracker;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that LastSeenTracker coalesces heartbeats into batched UPDATE statements. The statements are captured rather
+ * than run, the UPDATE ... FROM (VALUES ...) form is PostgreSQL only.
+ */
+public class LastSeenTrackerTest {
+
+    /**
+     * Captured statements
+     */
+    private CapturingTemplate template;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        template = new CapturingTemplate();
+        LastSeenTracker.setTemplate(template);
+        LastSeenTracker.flush();
+        LastSeenTracker.resetStats();
+        template.statements.clear();
+    }
+
+    @Test(testName = "FlushBatchesHeartbeats", description = "Heartbeats are written by one GREATEST update")
+    public void testFlushWritesOneBatchedUpdate() {
+        LastSeenTracker.record(1);
+        LastSeenTracker.record(2);
+        LastSeenTracker.record(1);
+
+        Assert.assertEquals(LastSeenTracker.flush(), 2);
+        Assert.assertEquals(template.statements.size(), 1);
+
+        Statement statement = template.statements.get(0);
+        Assert.assertTrue(statement.sql.startsWith("UPDATE CurrentUserSession AS c SET lastseen = " +
+                "GREATEST(c.lastseen, v.lastseen) FROM (VALUES "), statement.sql);
+        Assert.assertTrue(statement.sql.endsWith(") AS v(userid, lastseen) WHERE c.userId = v.userid"),
+                statement.sql);
+        Assert.assertEquals(statement.users(), Arrays.asList(1, 2));
+
+        Assert.assertEquals(LastSeenTracker.getStats().get("heartbeats").longValue(), 3);
+        Assert.assertEquals(LastSeenTracker.getStats().get("coalesced").longValue(), 1);
+        Assert.assertEquals(LastSeenTracker.getStats().get("pending").longValue(), 0);
+    }
+
+    @Test(testName = "FlushSplitsBatches", description = "Each statement writes at most BATCH_SIZE users")
+    public void testFlushSplitsLargeBatches() {
+        for(int userid = 1; userid <= LastSeenTracker.BATCH_SIZE + 1; userid++) {
+            LastSeenTracker.record(userid);
+        }
+
+        Assert.assertEquals(LastSeenTracker.flush(), LastSeenTracker.BATCH_SIZE + 1);
+        Assert.assertEquals(template.statements.size(), 2);
+        Assert.assertEquals(template.statements.get(0).users().size(), LastSeenTracker.BATCH_SIZE);
+        Assert.assertEquals(template.statements.get(1).users().size(), 1);
+    }
+
+    @Test(testName = "FailedFlushMerges", description = "A failed write keeps the latest heartbeat pending")
+    public void testFailedFlushKeepsLatestHeartbeat() {
+        LastSeenTracker.record(3);
+        template.fail = true;
+        Assert.assertEquals(LastSeenTracker.flush(), 0);
+        Assert.assertEquals(LastSeenTracker.getStats().get("pending").longValue(), 1);
+        Assert.assertEquals(LastSeenTracker.getStats().get("failedFlushes").longValue(), 1);
+
+        // Pending heartbeats only ever move a session's lastseen forward
+        CurrentUserSession behind = session(3, new Date(0));
+        CurrentUserSession ahead = session(3, new Date(System.currentTimeMillis() + 60000));
+        LastSeenTracker.apply(Arrays.asList(behind, ahead));
+        Assert.assertTrue(behind.getLastseen().getTime() > 0);
+        Assert.assertTrue(ahead.getLastseen().getTime() > System.currentTimeMillis());
+
+        template.fail = false;
+        LastSeenTracker.record(3);
+        Assert.assertEquals(LastSeenTracker.flush(), 1);
+        Assert.assertEquals(template.statements.get(template.statements.size() - 1).users(), Arrays.asList(3));
+        Assert.assertEquals(LastSeenTracker.getStats().get("pending").longValue(), 0);
+    }
+
+    /**
+     * Runs last, the tracker writes straight through once it is shut down
+     */
+    @Test(testName = "ShutdownFlushes", description = "Shutdown writes pending heartbeats",
+            dependsOnMethods = {"testFlushWritesOneBatchedUpdate", "testFlushSplitsLargeBatches",
+                    "testFailedFlushKeepsLatestHeartbeat"})
+    public void testShutdownWritesPendingHeartbeats() {
+        LastSeenTracker.record(4);
+        LastSeenTracker.record(5);
+        Assert.assertTrue(template.statements.isEmpty());
+
+        LastSeenTracker.shutdown();
+        Assert.assertEquals(template.statements.size(), 1);
+        Assert.assertEquals(template.statements.get(0).users(), Arrays.asList(4, 5));
+
+        LastSeenTracker.record(6);
+        Assert.assertEquals(template.statements.size(), 2);
+        Assert.assertEquals(LastSeenTracker.getStats().get("pending").longValue(), 0);
+    }
+
+    private static CurrentUserSession session(int userid, Date lastseen) {
+        CurrentUserSession session = new CurrentUserSession();
+        session.setUserid(userid);
+        session.setLastseen(lastseen);
+        return session;
+    }
+
+    private static final class Statement {
+        private final String sql;
+        private final SqlParameterSource params;
+
+        private Statement(String sql, SqlParameterSource params) {
+            this.sql = sql;
+            this.params = params;
+        }
+
+        /**
+         * @return the users in the VALUES list, checking each has a timestamp
+         */
+        private List<Integer> users() {
+            List<Integer> users = new ArrayList<Integer>();
+            for(int i = 0; params.hasValue("u" + i); i++) {
+                Assert.assertTrue(params.getValue("t" + i) instanceof Timestamp);
+                users.add((Integer) params.getValue("u" + i));
+            }
+            return users;
+        }
+    }
+
+    /**
+     * Template that records updates instead of running them
+     */
+    private static final class CapturingTemplate extends NamedParameterJdbcTemplate {
+        private final List<Statement> statements = new ArrayList<Statement>();
+        private volatile boolean fail;
+
+        private CapturingTemplate() {
+            super(new DriverManagerDataSource());
+        }
+
+        @Override
+        public synchronized int update(String sql, SqlParameterSource paramSource) {
+            if(fail) {
+                throw new IllegalStateException("Database unavailable");
+            }
+            statements.add(new Statement(sql, paramSource));
+            return 0;
+        }
+    }
+}
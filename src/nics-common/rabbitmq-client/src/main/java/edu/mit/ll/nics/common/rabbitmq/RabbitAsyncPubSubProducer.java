@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.common.rabbitmq;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thread safe, non-blocking publisher. Callers only enqueue; a single publishing thread owns the underlying
+ * {@link RabbitPubSubProducer}, since a Rabbit channel must not be used by several threads at once. The producer is
+ * created on the publishing thread and recreated after a publishing failure.
+ */
+public class RabbitAsyncPubSubProducer {
+    private static final Logger log = LoggerFactory.getLogger(RabbitAsyncPubSubProducer.class);
+
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    /**
+     * Creates the producer used by the publishing thread.
+     */
+    public interface ProducerFactory {
+        RabbitPubSubProducer create() throws IOException, TimeoutException;
+    }
+
+    private final ProducerFactory factory;
+
+    private final BlockingQueue<RabbitPubSubMsg> queue;
+
+    private final Thread publisher;
+
+    private volatile boolean running = true;
+
+    private RabbitPubSubProducer producer;
+
+    /**
+     * @param factory  creates the underlying producer
+     * @param capacity the most messages that may wait to be published
+     */
+    public RabbitAsyncPubSubProducer(ProducerFactory factory, int capacity) {
+        this.factory = factory;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.publisher = new Thread(this::publishLoop, "rabbit-async-producer");
+        this.publisher.setDaemon(true);
+        this.publisher.start();
+    }
+
+    /**
+     * Queue a message for publishing without blocking.
+     *
+     * @param routingKey the topic to publish on
+     * @param message    the message body
+     * @return false if the queue is full or the producer has been destroyed
+     */
+    public boolean produce(String routingKey, String message) {
+        if(message == null) {
+            throw new IllegalArgumentException("message is null");
+        }
+        if(routingKey == null) {
+            throw new NullPointerException("routingKey is null");
+        }
+        return running && queue.offer(new RabbitPubSubMsg(message, routingKey));
+    }
+
+    /**
+     * @return the number of messages waiting to be published
+     */
+    public int getPending() {
+        return queue.size();
+    }
+
+    /**
+     * Stop accepting messages, publish those already queued and close the connection.
+     */
+    public void destroy() {
+        running = false;
+        publisher.interrupt();
+        try {
+            publisher.join(RETRY_DELAY_MILLIS * 5);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void publishLoop() {
+        RabbitPubSubMsg msg = null;
+        while(running || !queue.isEmpty() || msg != null) {
+            try {
+                if(msg == null) {
+                    msg = running ? queue.take() : queue.poll();
+                    if(msg == null) {
+                        break;
+                    }
+                }
+                if(producer == null) {
+                    producer = factory.create();
+                }
+                producer.produce(msg.getRoutingKey(), msg.getMsg());
+                msg = null;
+            } catch(InterruptedException e) {
+                // destroy() was called, drain what is already queued
+                running = false;
+            } catch(IOException | TimeoutException | RuntimeException e) {
+                log.error("Failed to publish on topic {}, reconnecting", msg == null ? null : msg.getRoutingKey(), e);
+                closeProducer();
+                if(!running) {
+                    break;
+                }
+                try {
+                    TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MILLIS);
+                } catch(InterruptedException ie) {
+                    running = false;
+                }
+            }
+        }
+        if(msg != null || !queue.isEmpty()) {
+            log.warn("Dropping {} unpublished messages on shutdown", queue.size() + (msg != null ? 1 : 0));
+        }
+        closeProducer();
+    }
+
+    private void closeProducer() {
+        if(producer != null) {
+            producer.destroy();
+            producer = null;
+        }
+    }
+}
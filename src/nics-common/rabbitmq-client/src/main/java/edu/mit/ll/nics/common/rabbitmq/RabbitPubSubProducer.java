@@ -66,7 +66,7 @@ public class RabbitPubSubProducer extends RabbitClient {
             throw new NullPointerException("routingKey is null");
         }
         getChannel().basicPublish(exchangeName, routingKey, null, message.getBytes());
-        log.info(" [x] Sent '" + routingKey + "':'" + message + "'");
+        log.debug(" [x] Sent '{}':'{}'", routingKey, message);
     }
 
     public void destroy() {
@@ -36,13 +36,15 @@ package edu.mit.ll.nics.processor.collab.feed;
 
 
 import edu.mit.ll.nics.common.entity.CollabRoom;
-import edu.mit.ll.nics.common.entity.HibernateFeature;
 import edu.mit.ll.nics.common.entity.Incident;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.persistence.EntityManager;
@@ -54,12 +56,16 @@ import org.apache.camel.Processor;
 import org.apache.camel.component.rabbitmq.RabbitMQConstants;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 /**
  * Extends TimerTask. Synchronizes the mapserver with the DB. If any rooms or incidents stored in the DB do not have
  * corresponding layers on the mapserver, the layers are created.  Also maintains the multi incident view KML document.
+ * <p>
+ * The full synchronization only runs on the timer. A feature or new room message for a room without a layer only
+ * provisions that room, and its incident, from the message or a lookup of that one room.
  *
  * @author LE22005
  */
@@ -88,10 +94,15 @@ public class CollabFeedSync extends TimerTask implements Processor {
     private String workspaceName;
     private String dataStoreName;
 
-    //List of collabrooms
-    private static List<String> geoserverList; //geoserver
+    private static final Pattern COLLABROOM_TOPIC = Pattern.compile("collabroom.([0-9]*)");
+
+    //Layers on geoserver, refreshed by each full sync. Null until the first is loaded
+    private static volatile Set<String> geoserverList; //geoserver
     //private static List<String> dbList; //database
 
+    //Layers being added right now, so concurrent messages for the same room only add it once
+    private static final ConcurrentMap<String, Boolean> inFlight = new ConcurrentHashMap<String, Boolean>();
+
 
     /**
      * Initialize the Synchronization timer
@@ -132,14 +143,10 @@ public class CollabFeedSync extends TimerTask implements Processor {
         log.debug("Recieved message: " + message);
         try {
             //log.info("Recieved message: " + message);
-            //get the JSON message from the exchange
-            JSONObject msg = new JSONObject(message);
-
             if(topic.indexOf("feature") != -1) { //feature message
-                log.info("processing feature message");
+                log.debug("processing feature message");
 
-                Pattern p = Pattern.compile("collabroom.([0-9]*)");
-                Matcher m = p.matcher(topic);
+                Matcher m = COLLABROOM_TOPIC.matcher(topic);
 
                 String collabroomId = null;
                 while(m.find()) {
@@ -147,41 +154,22 @@ public class CollabFeedSync extends TimerTask implements Processor {
                     break;
                 }
 
-                if(collabroomId != null) {
-                    boolean isaLayer = false;
-
-                    String layername = "R" + collabroomId;
-                    if(geoserverList != null) {
-                        isaLayer = geoserverList.contains(layername);
-                    } else {
-                        geoserverList = new ArrayList<String>();
-                    }
-
-                    //Create a new Room layer by calling run if its not in either the geoserver list or kml file
-                    // directory
-                    if(!isaLayer) {
-                        log.info("Running full sync, found new feature with room id: " + layername);
-                        run();
-                    }
+                if(collabroomId != null && !collabroomId.isEmpty()) {
+                    // The message is a feature, so the room itself is looked up if it needs a layer
+                    provisionRoom(Integer.parseInt(collabroomId), null);
                 }
 
-                //TODO: add in check for collab room in geoserverList. if it's not there, get the collabroom
-                // (probably from the db) and run syncRooms on that room
-
             } else if(topic.endsWith("newcollabroom")) { //new room message
-                String layername = "R" + String.valueOf(msg.getInt("collabRoomId"));
-                boolean isaLayer = geoserverList.contains(layername);
-
-                //Create a new Room layer by calling run if its not in either the geoserver list or kml file directory
-                if(!isaLayer) {
-                    log.info("Running full sync, found new room id: " + layername);
-                    run();
+                JSONObject room = new JSONObject(message);
+                provisionRoom(room.getInt("collabRoomId"), room);
+
+            } else if(topic.endsWith("newcollabrooms")) { //rooms created with a new incident
+                JSONArray rooms = new JSONArray(message);
+                for(int i = 0; i < rooms.length(); i++) {
+                    JSONObject room = rooms.getJSONObject(i);
+                    provisionRoom(room.getInt("collabRoomId"), room);
                 }
 
-                //TODO: add in check for collab room in geoserverList (this may not be necessary here
-                //since its new?). if it's not there, get the collabroom (probably from the db) and run syncRooms on 
-                //that room
-
             } /*else if (topic.endsWith("createIncident")) { //new incident message
                 JSONObject msgData = msg.getJSONObject("messageData");
                 String layername = "I" + String.valueOf(msgData.getString("incidentId"));
@@ -217,11 +205,190 @@ public class CollabFeedSync extends TimerTask implements Processor {
         } catch(JSONException ex) {
             ex.printStackTrace();
             log.error("Exception: " + ex);
+        } catch(Exception ex) {
+            log.error("Error provisioning layer for message on " + topic + ": " + ex, ex);
         }
 
     }
 
 
+    /**
+     * Adds the layer for one room, and for its incident if that has none, if the room needs one. The full sync adds a
+     * room layer once the room has features, or straight away if it has no incident, and this does the same.
+     *
+     * @param roomId the room
+     * @param room   the room as sent in a new room message, or null to look it up
+     */
+    private void provisionRoom(int roomId, JSONObject room) {
+        String layername = "R" + roomId;
+        if(!claim(layername)) {
+            return;
+        }
+
+        boolean added = false;
+        EntityManager em = null;
+        try {
+            RoomInfo info = room == null ? null : RoomInfo.fromJson(room);
+            em = emf.createEntityManager();
+            if(info == null) {
+                // Not in the message, so look up this one room rather than run a full sync
+                info = RoomInfo.load(em, roomId);
+                if(info == null) {
+                    log.warn("No collabroom " + roomId + " to add a layer for");
+                    return;
+                }
+            }
+
+            if(info.incidentid == 0 || (info.incidentActive && hasFeatures(em, roomId))) {
+                log.info("Adding layer: " + info.title() + " to geoserver");
+                geoserver.addCollabRoomView(info.title(), roomId);
+                added = true;
+
+                if(info.incidentid != 0 && info.incidentname != null) {
+                    provisionIncident(info.incidentid, info.incidentname);
+                }
+            }
+        } finally {
+            if(em != null) {
+                em.close();
+            }
+            release(layername, added);
+        }
+    }
+
+
+    /**
+     * Adds the layer for an active incident if it has none
+     */
+    private void provisionIncident(int incidentId, String incidentName) {
+        String layername = "I" + incidentId;
+        if(claim(layername)) {
+            try {
+                log.info("Adding layer: " + incidentName + " to geoserver");
+                geoserver.addIncidentView(incidentName, incidentId);
+            } finally {
+                release(layername, true);
+            }
+        }
+    }
+
+
+    /**
+     * Claims a layer to add, loading the list of layers from geoserver if no full sync has yet
+     *
+     * @return true if the caller should add the layer, false if it exists or is being added by another thread
+     */
+    private boolean claim(String layername) {
+        Set<String> layers = geoserverList;
+        if(layers == null) {
+            layers = loadLayers();
+        }
+
+        if(layers.contains(layername) || inFlight.putIfAbsent(layername, Boolean.TRUE) != null) {
+            return false;
+        }
+        if(geoserverList.contains(layername)) {
+            // Added by whoever released it between the check and the claim
+            inFlight.remove(layername);
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Releases a layer claimed with {@link #claim(String)}
+     *
+     * @param added whether it was added. Like the full sync, a layer that geoserver failed to add is still counted,
+     *              it's retried when the next full sync reloads the layers
+     */
+    private void release(String layername, boolean added) {
+        if(added) {
+            geoserverList.add(layername);
+        }
+        inFlight.remove(layername);
+    }
+
+
+    /**
+     * @return the layers on geoserver, replacing the known list
+     */
+    private synchronized Set<String> loadLayers() {
+        Set<String> layers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        layers.addAll(geoserver.getFeatureTypeList());
+        geoserverList = layers;
+        return layers;
+    }
+
+
+    /**
+     * @return whether the room has any features that aren't deleted
+     */
+    private boolean hasFeatures(EntityManager em, int roomId) {
+        return !em.createNativeQuery("SELECT 1 FROM Feature f, CollabroomFeature cf WHERE cf.featureid=f.featureid " +
+                "AND cf.collabroomid = :roomId AND deleted='f' LIMIT 1")
+                .setParameter("roomId", roomId)
+                .getResultList().isEmpty();
+    }
+
+
+    /**
+     * What's needed to add a room's layer, from a new room message or the DB
+     */
+    private static final class RoomInfo {
+        String name;
+        int incidentid;
+        String incidentname;
+        boolean incidentActive;
+
+        String title() {
+            return incidentname == null ? name : incidentname + "-" + name;
+        }
+
+        /**
+         * @return the room from a new room message, or null if the message doesn't include its incident
+         */
+        static RoomInfo fromJson(JSONObject room) {
+            RoomInfo info = new RoomInfo();
+            info.name = room.optString("name", null);
+            info.incidentid = room.optInt("incidentid", 0);
+
+            JSONObject incident = room.optJSONObject("incident");
+            if(incident != null) {
+                info.incidentname = incident.optString("incidentname", null);
+                info.incidentActive = incident.optBoolean("active", false);
+            }
+
+            if(info.name == null || (info.incidentid != 0 && info.incidentname == null)) {
+                return null;
+            }
+            return info;
+        }
+
+        /**
+         * @return the room with id roomId, null if there's none
+         */
+        static RoomInfo load(EntityManager em, int roomId) {
+            List<CollabRoom> rooms = em.createQuery("FROM CollabRoom WHERE collabRoomId = :roomId")
+                    .setParameter("roomId", roomId)
+                    .getResultList();
+            if(rooms.isEmpty()) {
+                return null;
+            }
+
+            CollabRoom room = rooms.get(0);
+            RoomInfo info = new RoomInfo();
+            info.name = room.getName();
+            info.incidentid = room.getIncidentid();
+            if(room.getIncident() != null) {
+                info.incidentname = room.getIncident().getIncidentname();
+                info.incidentActive = room.getIncident().getActive();
+            }
+            return info;
+        }
+    }
+
+
     /**
      * The timer event. Synchronize the DB, geoserver, and kml docs
      */
@@ -261,13 +428,7 @@ public class CollabFeedSync extends TimerTask implements Processor {
             //log.debug(dbList);
 
             //update list of geoserver layers
-            geoserverList = geoserver.getFeatureTypeList();
-
-            if(geoserverList == null) {
-                geoserverList = new ArrayList<String>();
-            }
-
-            log.debug(geoserverList);
+            log.debug(loadLayers());
 
 
             //sync collabrooms and incidents
@@ -292,26 +453,21 @@ public class CollabFeedSync extends TimerTask implements Processor {
             em = emf.createEntityManager();
             for(CollabRoom room : collabRooms) {
                 String layername = "R" + String.valueOf(room.getCollabRoomId());
-                String query1 =
-                        "SELECT f.* FROM Feature f, CollabroomFeature cf WHERE cf.featureid=f.featureid AND cf" +
-                                ".collabroomid = " +
-                                room.getCollabRoomId() + " and deleted='f'";
-                boolean hasFeatures = !em.createNativeQuery(query1, HibernateFeature.class).getResultList().isEmpty();
+                if(geoserverList.contains(layername)) {
+                    continue;
+                }
+
                 boolean roomActive = room.getIncident() != null && room.getIncident().getActive();
                 boolean noIncident = room.getIncidentid() == 0; //0 means no incident
 
-                if(noIncident || (hasFeatures && roomActive)) {
-                    boolean isaLayer = false;
-                    if(geoserverList != null) {
-                        isaLayer = geoserverList.contains(layername);
-                    } else {
-                        geoserverList = new ArrayList<String>();
-                    }
-
-                    if(!isaLayer) {
+                if((noIncident || (roomActive && hasFeatures(em, room.getCollabRoomId()))) && claim(layername)) {
+                    boolean added = false;
+                    try {
                         log.info("Adding layer: " + room.getName() + " to geoserver");
                         geoserver.addCollabRoomView(room);
-                        geoserverList.add(layername);
+                        added = true;
+                    } finally {
+                        release(layername, added);
                     }
                 }
             }
@@ -329,13 +485,15 @@ public class CollabFeedSync extends TimerTask implements Processor {
 
             if(incident.getActive()) {
                 String layername = "I" + String.valueOf(incident.getIncidentid());
-                boolean isaLayer = geoserverList.contains(layername);
 
                 //Update geoserver
-                if(!isaLayer) {
-                    log.info("Adding layer: " + incident.getIncidentname() + " to geoserver");
-                    geoserver.addIncidentView(incident);
-                    geoserverList.add(layername);
+                if(claim(layername)) {
+                    try {
+                        log.info("Adding layer: " + incident.getIncidentname() + " to geoserver");
+                        geoserver.addIncidentView(incident);
+                    } finally {
+                        release(layername, true);
+                    }
                 }
             }
         }
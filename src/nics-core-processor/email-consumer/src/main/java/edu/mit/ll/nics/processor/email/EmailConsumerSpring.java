@@ -29,31 +29,20 @@
  */
 package edu.mit.ll.nics.processor.email;
 
-import edu.mit.ll.nics.common.email.EmailType;
+import edu.mit.ll.nics.common.email.HeaderType;
 import edu.mit.ll.nics.common.email.JsonEmail;
-import edu.mit.ll.nics.common.email.XmlEmail;
 import edu.mit.ll.nics.common.email.exception.JsonEmailException;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.util.Properties;
 import java.util.regex.Pattern;
-import javax.activation.DataHandler;
-import javax.imageio.ImageIO;
 import javax.mail.Authenticator;
 import javax.mail.Message;
 import javax.mail.MessagingException;
-import javax.mail.Multipart;
 import javax.mail.PasswordAuthentication;
 import javax.mail.Session;
 import javax.mail.Transport;
-import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
-import javax.mail.internet.MimeMultipart;
-import javax.mail.util.ByteArrayDataSource;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
 import org.apache.log4j.PropertyConfigurator;
@@ -82,8 +71,15 @@ public class EmailConsumerSpring implements Processor {
      */
     private static final Logger LOG = LoggerFactory.getLogger(EmailConsumerSpring.class);
 
-    private Unmarshaller unmarsh = null;
-    private EmailType email = null;
+    /**
+     * Renders XML messages, reusing recently rendered bodies
+     */
+    private EmailRenderer renderer;
+
+    /**
+     * Mailer for simple JSON messages, built on first use
+     */
+    private volatile Mailer mailer;
 
     // Properties
 
@@ -106,6 +102,11 @@ public class EmailConsumerSpring implements Processor {
 
     private String smtpPassword;
 
+    /**
+     * How many rendered e-mail bodies to keep for messages sending the same content. Default: 32
+     */
+    private int renderCacheSize = 32;
+
     /**
      * Default constructor, required by Spring
      */
@@ -121,13 +122,13 @@ public class EmailConsumerSpring implements Processor {
         PropertyConfigurator.configure(log4jPropertyFile);
 
 
-        try { // create JAXB objects
-            JAXBContext jaxbContext = JAXBContext.newInstance(XmlEmail.class.getPackage().getName());
-            unmarsh = jaxbContext.createUnmarshaller(); // get an unmarshaller
+        try { // create the shared JAXB context now rather than on the first message
+            EmailRenderer.getJaxbContext();
         } catch(JAXBException e) {
-            LOG.warn("Exception getting JAXB unmarshaller: " + e.getMessage());
+            LOG.warn("Exception getting JAXB context: " + e.getMessage());
             throw e;
         }
+        renderer = new EmailRenderer(renderCacheSize);
     }
 
     /**
@@ -244,22 +245,6 @@ public class EmailConsumerSpring implements Processor {
         return session;
     }
 
-    private MimeMessage createMimeMessage(Session session) {
-        return new MimeMessage(session);
-    }
-
-    private MimeMessage createMimeMessage(Session session, String to, String subject)
-            throws MessagingException {
-        MimeMessage msg = createMimeMessage(session);
-
-        msg.setRecipients(Message.RecipientType.TO,
-                validateRecipients(to));
-
-        msg.setSubject(subject);
-
-        return msg;
-    }
-
     private void handleSimpleEmailMessage(String message) {
         try {
             JsonEmail je = JsonEmail.fromJSONString(message);
@@ -274,23 +259,7 @@ public class EmailConsumerSpring implements Processor {
                     .withSubject(subject)
                     .withPlainText(body)
                     .buildEmail();
-            MailerBuilder.MailerRegularBuilder mBuild = MailerBuilder
-                    .withDebugLogging(false);
-            if(LOG.isDebugEnabled()) {
-                mBuild = mBuild.withDebugLogging(true);
-            }
-            if(Boolean.parseBoolean(smtpAuth)) {
-                mBuild = mBuild.withSMTPServer(smtpHost, Integer.parseInt(smtpPort), smtpUsername, smtpPassword);
-            } else {
-                mBuild = mBuild.withSMTPServer(smtpHost, Integer.parseInt(smtpPort));
-            }
-            if(Boolean.parseBoolean(smtpStartTLS)) {
-                mBuild = mBuild.withTransportStrategy(TransportStrategy.SMTP_TLS);
-            } else if(Boolean.parseBoolean(smtpSSL)) {
-                mBuild = mBuild.withTransportStrategy(TransportStrategy.SMTPS);
-            }
-            Mailer mailer = mBuild.buildMailer();
-            mailer.sendMail(email);
+            getMailer().sendMail(email);
             LOG.debug("Message sent");
         } catch(JsonEmailException jee) {
             LOG.error("Caught JsonEmailException");
@@ -301,94 +270,62 @@ public class EmailConsumerSpring implements Processor {
         }
     }
 
-    private void handleXmlEmailMessage(String body) {
-        // put the body into a string reader class
-        java.io.StringReader sr = new java.io.StringReader(body);
+    /**
+     * @return the mailer for simple messages, built once as its SMTP settings never change
+     */
+    private Mailer getMailer() {
+        Mailer built = mailer;
+        if(built == null) {
+            synchronized(this) {
+                built = mailer;
+                if(built == null) {
+                    MailerBuilder.MailerRegularBuilder mBuild = MailerBuilder
+                            .withDebugLogging(false);
+                    if(LOG.isDebugEnabled()) {
+                        mBuild = mBuild.withDebugLogging(true);
+                    }
+                    if(Boolean.parseBoolean(smtpAuth)) {
+                        mBuild = mBuild.withSMTPServer(smtpHost, Integer.parseInt(smtpPort), smtpUsername,
+                                smtpPassword);
+                    } else {
+                        mBuild = mBuild.withSMTPServer(smtpHost, Integer.parseInt(smtpPort));
+                    }
+                    if(Boolean.parseBoolean(smtpStartTLS)) {
+                        mBuild = mBuild.withTransportStrategy(TransportStrategy.SMTP_TLS);
+                    } else if(Boolean.parseBoolean(smtpSSL)) {
+                        mBuild = mBuild.withTransportStrategy(TransportStrategy.SMTPS);
+                    }
+                    built = mBuild.buildMailer();
+                    mailer = built;
+                }
+            }
+        }
+        return built;
+    }
 
-        JAXBElement<EmailType> email_t;
+    private void handleXmlEmailMessage(String body) {
         try {
-            //Unmarshall the XML into Email object
-            email_t = (JAXBElement<EmailType>) unmarsh.unmarshal(sr);
-            email = email_t.getValue();
+            //Unmarshall the XML and build the e-mail body, or reuse the body already built for the same content
+            EmailRenderer.Rendered rendered = renderer.render(body);
+            HeaderType header = rendered.getHeader();
 
-            //Build MimeMessage from email object
-            Session session = createSession(email.getHeader().getFrom());
+            Session session = createSession(header.getFrom());
             try {
                 //Add e-mail header
-
-                MimeMessage msg = createMimeMessage(session, email.getHeader().getTo(), email.getHeader().getSubject());
+                MimeMessage msg = rendered.newMessage(session);
+                msg.setFrom(new InternetAddress(header.getFrom()));
+                msg.setRecipients(Message.RecipientType.TO, validateRecipients(header.getTo()));
+                msg.setSubject(header.getSubject());
 
                 // add CC recipients
-                if(email.getHeader().getCc() != null) {
+                if(header.getCc() != null) {
                     msg.addRecipients(Message.RecipientType.CC,
-                            validateRecipients(email.getHeader().getCc()));
-                }
-
-                //Create and add the e-mail body
-                //If no images are included just add body text
-                if(email.getContent().getImage().getLocation() == null
-                        && email.getContent().getBody().getFormat() != null) {
-                    String body_text = email.getContent().getBody().getText();
-                    if(email.getContent().getBody().getFormat().equals("HTML")) {
-                        msg.setContent(body_text, "text/html");
-                    } else {
-                        msg.setText(body_text);
-                    }
-                } else {
-                    //If Images are included create a multipart email body
-                    Multipart multipartbody;
-                    //Buffer the image
-                    BufferedImage img = (BufferedImage) email.getContent().getImage().getJPEGPicture();
-                    //Create a message body part and add the image
-                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                    ImageIO.write(img, "jpeg", bos);
-                    MimeBodyPart imageBodyPart = new MimeBodyPart();
-                    imageBodyPart
-                            .setDataHandler(new DataHandler(new ByteArrayDataSource(bos.toByteArray(), "image/jpeg")));
-                    //Create the multipart body and add the image bodypart
-                    if(email.getContent().getImage().getLocation().equals("embed")) {
-                        //Embed image
-                        multipartbody = new MimeMultipart("related");
-                        imageBodyPart.setHeader("Content-ID", "<embedded_image>");
-                    } else {
-                        //Attach image
-                        multipartbody = new MimeMultipart();
-                        imageBodyPart.setFileName("image.jpg");
-                    }
-
-                    //add the text bodypart
-                    if(email.getContent().getBody().getFormat() != null) {
-                        MimeBodyPart messageBodyPart = new MimeBodyPart();
-                        String body_text = email.getContent().getBody().getText();
-                        if(email.getContent().getImage().getLocation().equals("embed")
-                                && email.getContent().getBody().getFormat().equals("HTML")) {
-                            //Embedded image in html message
-                            //Insert image at end of body tag
-                            messageBodyPart.setContent(body_text.substring(0, body_text.lastIndexOf("</body>"))
-                                    + ("<br/><br/><img src=\"cid:embedded_image\">")
-                                    + (body_text.substring(body_text.lastIndexOf("</body>"))), "text/html");
-                        } else if(email.getContent().getImage().getLocation().equals("embed")) {
-                            //Embedded image in regular text body
-                            //Convert into html message
-                            messageBodyPart.setContent("<html><body>"
-                                    + body_text + "<br/><br/><img src=\"cid:embedded_image\">"
-                                    + "</body></html>", "text/html");
-                        } else if(email.getContent().getBody().getFormat().equals("HTML")) {
-                            //Attached image with html body
-                            messageBodyPart.setContent(body_text, "text/html");
-                        } else {
-                            //Attached image with text body
-                            messageBodyPart.setText(body_text);
-                        }
-                        multipartbody.addBodyPart(messageBodyPart);
-                        multipartbody.addBodyPart(imageBodyPart);
-                    }
-                    msg.setContent(multipartbody);
+                            validateRecipients(header.getCc()));
                 }
 
                 //Send the message
                 Transport.send(msg);
-                LOG.info("Message sent to:" + email.getHeader().getTo());
+                LOG.info("Message sent to:" + header.getTo());
             } catch(MessagingException mex) {
                 System.out.println("send failed, exception: " + mex);
             }
@@ -465,6 +402,14 @@ public class EmailConsumerSpring implements Processor {
     public void setSmtpAuth(String smtpAuth) {
         this.smtpAuth = smtpAuth;
     }
+
+    public int getRenderCacheSize() {
+        return renderCacheSize;
+    }
+
+    public void setRenderCacheSize(int renderCacheSize) {
+        this.renderCacheSize = renderCacheSize;
+    }
 }
 
 
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.email;
+
+import edu.mit.ll.nics.common.email.ContentType;
+import edu.mit.ll.nics.common.email.EmailType;
+import edu.mit.ll.nics.common.email.HeaderType;
+import edu.mit.ll.nics.common.email.XmlEmail;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.activation.DataHandler;
+import javax.imageio.ImageIO;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+
+/**
+ * Renders XML e-mail messages into MIME messages, reusing the MIME body of any content it has rendered recently.
+ *
+ * <p>Alerts often send the same content, map snapshot included, to many recipient lists one message at a time.
+ * The body of each message is keyed by a hash of its {@code <content>} element. When the content has been seen before
+ * only the header is unmarshalled, so the image isn't decoded from the XML and re-encoded as a JPEG again, and the
+ * message is parsed from the cached MIME bytes, whose parts are written out again as they are.</p>
+ *
+ * <p>Instances are thread safe.</p>
+ */
+public class EmailRenderer {
+
+    private static final String CONTENT_START = "<content>";
+    private static final String CONTENT_END = "</content>";
+
+    /**
+     * Headers of the rendered body that belong to each message rather than to the content
+     */
+    private static final String[] PER_MESSAGE_HEADERS = {"Message-ID", "Date"};
+
+    /**
+     * Shared by every renderer, a JAXBContext is thread safe and slow to create
+     */
+    private static volatile JAXBContext jaxbContext;
+
+    private final Map<String, byte[]> bodies;
+
+    private final LongAdder rendered = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+
+    /**
+     * @param cacheSize how many rendered bodies to keep, 0 to render every message
+     */
+    public EmailRenderer(final int cacheSize) {
+        this.bodies = Collections.synchronizedMap(new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    /**
+     * @return the JAXBContext for the xml-email classes, created the first time it's needed
+     *
+     * @throws JAXBException if it can't be created
+     */
+    public static JAXBContext getJaxbContext() throws JAXBException {
+        JAXBContext context = jaxbContext;
+        if(context == null) {
+            synchronized(EmailRenderer.class) {
+                context = jaxbContext;
+                if(context == null) {
+                    context = JAXBContext.newInstance(XmlEmail.class.getPackage().getName());
+                    jaxbContext = context;
+                }
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Unmarshals an XML e-mail message. Unmarshallers aren't thread safe, so each call gets its own from the shared
+     * context
+     *
+     * @param xml the message
+     * @return the e-mail
+     *
+     * @throws JAXBException if the message can't be unmarshalled
+     */
+    @SuppressWarnings("unchecked")
+    public static EmailType unmarshal(final String xml) throws JAXBException {
+        return ((JAXBElement<EmailType>) getJaxbContext().createUnmarshaller().unmarshal(new StringReader(xml)))
+                .getValue();
+    }
+
+    /**
+     * Renders an XML e-mail message
+     *
+     * @param xml the message
+     * @return the message's header and rendered body
+     *
+     * @throws JAXBException      if the message can't be unmarshalled
+     * @throws MessagingException if the body can't be built
+     * @throws IOException        if the image can't be encoded
+     */
+    public Rendered render(final String xml) throws JAXBException, MessagingException, IOException {
+        int start = xml.indexOf(CONTENT_START);
+        int end = xml.lastIndexOf(CONTENT_END);
+
+        String key = null;
+        byte[] body = null;
+        if(start >= 0 && end > start) {
+            key = hash(xml.substring(start, end));
+            body = bodies.get(key);
+        }
+
+        if(body != null) {
+            reused.increment();
+            // Only the header is needed, leave the content and its image alone
+            EmailType email = unmarshal(xml.substring(0, start) + xml.substring(end + CONTENT_END.length()));
+            return new Rendered(email.getHeader(), body);
+        }
+
+        EmailType email = unmarshal(xml);
+        body = renderBody(email.getContent());
+        rendered.increment();
+        if(key != null) {
+            bodies.put(key, body);
+        }
+        return new Rendered(email.getHeader(), body);
+    }
+
+    /**
+     * Builds the MIME body for the content: the text on its own, or the text and the JPEG, embedded or attached
+     *
+     * @return the body as MIME bytes, without any addressing headers
+     */
+    private byte[] renderBody(final ContentType content) throws MessagingException, IOException {
+        MimeMessage msg = new MimeMessage((Session) null);
+
+        //Create and add the e-mail body
+        //If no images are included just add body text
+        if(content.getImage().getLocation() == null
+                && content.getBody().getFormat() != null) {
+            String body_text = content.getBody().getText();
+            if(content.getBody().getFormat().equals("HTML")) {
+                msg.setContent(body_text, "text/html");
+            } else {
+                msg.setText(body_text);
+            }
+        } else {
+            //If Images are included create a multipart email body
+            Multipart multipartbody;
+            //Buffer the image
+            BufferedImage img = (BufferedImage) content.getImage().getJPEGPicture();
+            //Create a message body part and add the image
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ImageIO.write(img, "jpeg", bos);
+            MimeBodyPart imageBodyPart = new MimeBodyPart();
+            imageBodyPart
+                    .setDataHandler(new DataHandler(new ByteArrayDataSource(bos.toByteArray(), "image/jpeg")));
+            //Create the multipart body and add the image bodypart
+            if(content.getImage().getLocation().equals("embed")) {
+                //Embed image
+                multipartbody = new MimeMultipart("related");
+                imageBodyPart.setHeader("Content-ID", "<embedded_image>");
+            } else {
+                //Attach image
+                multipartbody = new MimeMultipart();
+                imageBodyPart.setFileName("image.jpg");
+            }
+
+            //add the text bodypart
+            if(content.getBody().getFormat() != null) {
+                MimeBodyPart messageBodyPart = new MimeBodyPart();
+                String body_text = content.getBody().getText();
+                if(content.getImage().getLocation().equals("embed")
+                        && content.getBody().getFormat().equals("HTML")) {
+                    //Embedded image in html message
+                    //Insert image at end of body tag
+                    messageBodyPart.setContent(body_text.substring(0, body_text.lastIndexOf("</body>"))
+                            + ("<br/><br/><img src=\"cid:embedded_image\">")
+                            + (body_text.substring(body_text.lastIndexOf("</body>"))), "text/html");
+                } else if(content.getImage().getLocation().equals("embed")) {
+                    //Embedded image in regular text body
+                    //Convert into html message
+                    messageBodyPart.setContent("<html><body>"
+                            + body_text + "<br/><br/><img src=\"cid:embedded_image\">"
+                            + "</body></html>", "text/html");
+                } else if(content.getBody().getFormat().equals("HTML")) {
+                    //Attached image with html body
+                    messageBodyPart.setContent(body_text, "text/html");
+                } else {
+                    //Attached image with text body
+                    messageBodyPart.setText(body_text);
+                }
+                multipartbody.addBodyPart(messageBodyPart);
+                multipartbody.addBodyPart(imageBodyPart);
+            }
+            msg.setContent(multipartbody);
+        }
+
+        // Encode the parts now, so every message sent with this body reuses them as they are
+        msg.saveChanges();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        msg.writeTo(out, PER_MESSAGE_HEADERS);
+        return out.toByteArray();
+    }
+
+    private static String hash(final String content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for(byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch(NoSuchAlgorithmException e) {
+            // Every JRE has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return messages whose body was rendered
+     */
+    public long getRendered() {
+        return rendered.sum();
+    }
+
+    /**
+     * @return messages that reused a body rendered for an earlier message
+     */
+    public long getReused() {
+        return reused.sum();
+    }
+
+    /**
+     * A rendered message, ready to be addressed and sent
+     */
+    public static final class Rendered {
+        private final HeaderType header;
+        private final byte[] body;
+
+        Rendered(HeaderType header, byte[] body) {
+            this.header = header;
+            this.body = body;
+        }
+
+        /**
+         * @return the header from the XML message, with its addresses and subject
+         */
+        public HeaderType getHeader() {
+            return header;
+        }
+
+        /**
+         * @return a new message with the rendered body, to set the addresses and subject on. Each call returns its
+         * own message, so one body can be sent to many recipient lists
+         *
+         * @throws MessagingException if the body can't be read back
+         */
+        public MimeMessage newMessage(final Session session) throws MessagingException {
+            return new MimeMessage(session, new ByteArrayInputStream(body));
+        }
+    }
+}
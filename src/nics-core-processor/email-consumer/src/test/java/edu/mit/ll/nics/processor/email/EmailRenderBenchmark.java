@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.email;
+
+import edu.mit.ll.nics.common.email.BodyType;
+import edu.mit.ll.nics.common.email.ContentType;
+import edu.mit.ll.nics.common.email.EmailType;
+import edu.mit.ll.nics.common.email.HeaderType;
+import edu.mit.ll.nics.common.email.ImageType;
+import edu.mit.ll.nics.common.email.ObjectFactory;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.Properties;
+import javax.mail.Message;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * Times rendering an alert e-mail with an embedded map snapshot, through to the bytes that would go to the SMTP
+ * server, without sending anything. Compares rendering every message with {@link EmailRenderer} reusing the body for
+ * the same content sent to different recipients.
+ *
+ * <pre>
+ * java -cp ... edu.mit.ll.nics.processor.email.EmailRenderBenchmark [iterations] [imageWidth]
+ * </pre>
+ */
+public class EmailRenderBenchmark {
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int width = args.length > 1 ? Integer.parseInt(args[1]) : 800;
+
+        Session session = Session.getInstance(new Properties());
+        String[] xml = new String[iterations];
+        for(int i = 0; i < iterations; i++) {
+            // Same content, a different recipient list for each message
+            xml[i] = alert("responders" + i + "@localhost.local", width);
+        }
+
+        for(int round = 0; round < 2; round++) {
+            EmailRenderer uncached = new EmailRenderer(0);
+            long t0 = System.nanoTime();
+            for(int i = 0; i < iterations; i++) {
+                send(uncached.render(xml[i]), session);
+            }
+            long t1 = System.nanoTime();
+            EmailRenderer cached = new EmailRenderer(32);
+            for(int i = 0; i < iterations; i++) {
+                send(cached.render(xml[i]), session);
+            }
+            long t2 = System.nanoTime();
+            System.out.printf("%s render every message: %.2f ms/msg, reuse body: %.2f ms/msg " +
+                            "(%d rendered, %d reused)%n", round == 0 ? "warmup" : "measure",
+                    (t1 - t0) / 1e6 / iterations, (t2 - t1) / 1e6 / iterations, cached.getRendered(),
+                    cached.getReused());
+        }
+    }
+
+    private static void send(EmailRenderer.Rendered rendered, Session session) throws Exception {
+        MimeMessage msg = rendered.newMessage(session);
+        msg.setRecipients(Message.RecipientType.TO, rendered.getHeader().getTo());
+        msg.setSubject(rendered.getHeader().getSubject());
+        msg.saveChanges();
+        msg.writeTo(DISCARD);
+    }
+
+    private static String alert(String to, int width) throws Exception {
+        ObjectFactory of = new ObjectFactory();
+        HeaderType header = of.createHeaderType();
+        header.setFrom("alerts@localhost.local");
+        header.setTo(to);
+        header.setSubject("New incident near you");
+
+        BodyType body = of.createBodyType();
+        body.setFormat("HTML");
+        body.setText("<html><body><p>An incident has been created in your area.</p></body></html>");
+
+        BufferedImage snapshot = new BufferedImage(width, width * 3 / 4, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = snapshot.createGraphics();
+        for(int x = 0; x < width; x += 16) {
+            g.setColor(new Color(x * 255 / width, 128, 255 - x * 255 / width));
+            g.fillRect(x, 0, 16, width);
+        }
+        g.dispose();
+        ImageType image = of.createImageType();
+        image.setLocation("embed");
+        image.setJPEGPicture(snapshot);
+
+        ContentType content = of.createContentType();
+        content.setBody(body);
+        content.setImage(image);
+        EmailType email = new EmailType();
+        email.setHeader(header);
+        email.setContent(content);
+
+        StringWriter xml = new StringWriter();
+        EmailRenderer.getJaxbContext().createMarshaller().marshal(of.createEmailMessage(email), xml);
+        return xml.toString();
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.gml.consumer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.geotools.referencing.CRS;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+
+/**
+ * Parsed coordinate reference systems and the transforms between them, shared by every thread.
+ *
+ * <p>Every track carries its CRS as WKT, and feeds send the same few over and over. Parsing the WKT and finding the
+ * transform to the table's CRS costs far more than transforming the point, so each is done once per definition and
+ * the result reused. The WKT string and the CRS pair are the keys, since a parsed CRS is only ever compared against
+ * the one instance this cache returned for it.</p>
+ */
+public final class CrsCache {
+
+    /**
+     * Most definitions kept, in case a feed sends something new with every track. Past this they're still parsed,
+     * just not kept
+     */
+    private static final int MAX_ENTRIES = 256;
+
+    private static final ConcurrentMap<String, CoordinateReferenceSystem> crsByWkt =
+            new ConcurrentHashMap<String, CoordinateReferenceSystem>();
+
+    private static final ConcurrentMap<String, CoordinateReferenceSystem> crsByCode =
+            new ConcurrentHashMap<String, CoordinateReferenceSystem>();
+
+    private static final ConcurrentMap<TransformKey, MathTransform> transforms =
+            new ConcurrentHashMap<TransformKey, MathTransform>();
+
+    private CrsCache() {
+    }
+
+    /**
+     * @param wkt a CRS in well known text
+     * @return the parsed CRS, the same instance for the same text
+     *
+     * @throws FactoryException if the text can't be parsed
+     */
+    public static CoordinateReferenceSystem parseWKT(String wkt) throws FactoryException {
+        CoordinateReferenceSystem crs = crsByWkt.get(wkt);
+        if(crs == null) {
+            crs = CRS.parseWKT(wkt);
+            crs = keep(crsByWkt, wkt, crs);
+        }
+        return crs;
+    }
+
+    /**
+     * @param code an authority code, such as EPSG:3857
+     * @return the CRS, the same instance for the same code
+     *
+     * @throws FactoryException if the code isn't known
+     */
+    public static CoordinateReferenceSystem decode(String code) throws FactoryException {
+        CoordinateReferenceSystem crs = crsByCode.get(code);
+        if(crs == null) {
+            crs = CRS.decode(code);
+            crs = keep(crsByCode, code, crs);
+        }
+        return crs;
+    }
+
+    /**
+     * @return the transform from source to target, allowing for datum shifts the same way as
+     * {@link CRS#findMathTransform(CoordinateReferenceSystem, CoordinateReferenceSystem, boolean)} with lenient false
+     *
+     * @throws FactoryException if there's no transform between them
+     */
+    public static MathTransform findMathTransform(CoordinateReferenceSystem source, CoordinateReferenceSystem target)
+            throws FactoryException {
+        TransformKey key = new TransformKey(source, target);
+        MathTransform transform = transforms.get(key);
+        if(transform == null) {
+            transform = CRS.findMathTransform(source, target, false);
+            transform = keep(transforms, key, transform);
+        }
+        return transform;
+    }
+
+    /**
+     * Decodes EPSG:4326 and EPSG:3857 and finds the transforms both ways, so the first tracks don't pay for loading
+     * the EPSG database
+     *
+     * @throws FactoryException if either can't be decoded
+     */
+    public static void warmUp() throws FactoryException {
+        CoordinateReferenceSystem wgs84 = decode("EPSG:4326");
+        CoordinateReferenceSystem webMercator = decode("EPSG:3857");
+        findMathTransform(wgs84, webMercator);
+        findMathTransform(webMercator, wgs84);
+    }
+
+    /**
+     * @return the number of definitions and transforms held
+     */
+    public static int size() {
+        return crsByWkt.size() + crsByCode.size() + transforms.size();
+    }
+
+    private static <K, V> V keep(ConcurrentMap<K, V> map, K key, V value) {
+        if(map.size() >= MAX_ENTRIES) {
+            return value;
+        }
+        V existing = map.putIfAbsent(key, value);
+        return existing == null ? value : existing;
+    }
+
+    private static final class TransformKey {
+        private final CoordinateReferenceSystem source;
+        private final CoordinateReferenceSystem target;
+
+        TransformKey(CoordinateReferenceSystem source, CoordinateReferenceSystem target) {
+            this.source = source;
+            this.target = target;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof TransformKey)) {
+                return false;
+            }
+            TransformKey other = (TransformKey) o;
+            return source.equals(other.source) && target.equals(other.target);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * source.hashCode() + target.hashCode();
+        }
+    }
+}
@@ -33,22 +33,33 @@ import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Point;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.ConnectException;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
 import java.sql.Timestamp;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Pattern;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.ObjectName;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
-import org.apache.commons.lang.time.StopWatch;
+import org.apache.camel.component.rabbitmq.RabbitMQConstants;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
 import org.geotools.GML;
 import org.geotools.GML.Version;
 import org.geotools.data.DataStore;
 import org.geotools.data.DataStoreFinder;
+import org.geotools.data.DataUtilities;
 import org.geotools.data.DefaultTransaction;
 import org.geotools.data.Transaction;
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -57,7 +68,6 @@ import org.geotools.data.simple.SimpleFeatureStore;
 import org.geotools.feature.type.Types;
 import org.geotools.filter.text.cql2.CQL;
 import org.geotools.geometry.jts.JTS;
-import org.geotools.referencing.CRS;
 import org.geotools.util.logging.Logging;
 import org.opengis.feature.IllegalAttributeException;
 import org.opengis.feature.simple.SimpleFeature;
@@ -70,14 +80,24 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.MathTransform;
 
 
-public class GMLToDBProcessor implements Processor {
+public class GMLToDBProcessor implements Processor, GMLToDBProcessorMBean {
 
     /**
      * The logger.
      */
     private static final Logger log = Logger.getLogger(GMLToDBProcessor.class.getSimpleName());
 
-    private static boolean hasInitialized = false;
+    /**
+     * Name the processor's statistics are registered under with the platform MBean server
+     */
+    public static final String MBEAN_NAME = "edu.mit.ll.nics.processor:type=GMLToDBProcessor";
+
+    /**
+     * Longest wait between attempts to reach the database
+     */
+    private static final long MAX_RETRY_DELAY = 30000;
+
+    private static volatile boolean hasInitialized = false;
 
     // !!! Properties !!!
 
@@ -117,10 +137,26 @@ public class GMLToDBProcessor implements Processor {
     private String crs;
 
     /**
-     * DataSource reset interval in minutes
+     * No longer used, see {@link #setDb_reset_interval(long)}
      */
     private long db_reset_interval;
 
+    /**
+     * Most connections the datastore's pool opens to the database
+     */
+    private int db_max_connections = 10;
+
+    /**
+     * Times a message is retried when the database can't be reached, before it's handed back to the rabbit consumer,
+     * which holds it and retries it with a backoff until the database is back
+     */
+    private int db_max_retries = 5;
+
+    /**
+     * Wait in milliseconds before the first retry, doubled for each retry after it up to 30 seconds
+     */
+    private long db_retry_delay = 1000;
+
     /**
      * The property name that contains the time in the GML Default: timestamp
      */
@@ -155,9 +191,11 @@ public class GMLToDBProcessor implements Processor {
     // !!! Local private use objects !!!
 
     /**
-     * The GeoTools datastore object which connects to the database specified in the db_params Map
+     * The GeoTools datastore object which connects to the database specified in the db_params Map. Its connections
+     * are pooled and validated before use, so it's kept for the life of the processor and only recreated if it
+     * couldn't be created at all
      */
-    private static DataStore datastore = null;
+    private static volatile DataStore datastore = null;
 
     /**
      * The coordinate reference system used for a table
@@ -180,39 +218,49 @@ public class GMLToDBProcessor implements Processor {
     private static Map db_params;
 
     /**
-     * Interval in milliseconds to reset the datastore
+     * The table the last feature was stored in, so a change of table is logged
      */
-    private static long datastore_reset_interval;
+    private static volatile String last_table;
 
     /**
-     * TODO:
+     * String of bad GML coordinates containing only a comma
      */
-    private static final StopWatch stopwatch = new StopWatch();
+    private static final String gml_coord_comma = "<gml:coordinates>,</gml:coordinates>";
 
     /**
-     * TODO:
+     * Number of messages that have entered the process
      */
-    private static String last_table;
+    private static final LongAdder num_msg_started = new LongAdder();
 
     /**
-     * String of bad GML coordinates containing only a comma
+     * Number of messages that have had an exception
      */
-    private static final String gml_coord_comma = "<gml:coordinates>,</gml:coordinates>";
+    private static final LongAdder num_msg_ex = new LongAdder();
 
     /**
-     * Number of messages that have entered the process, used for debugging
+     * Number of messages, or features of a batch, that have had a handled exception
      */
-    private static int num_msg_started = 0;
+    private static final LongAdder num_msg_h_ex = new LongAdder();
 
     /**
-     * Number of messages that have had an exception, used for debugging
+     * Number of features stored in the database
      */
-    private static int num_msg_ex = 0;
+    private static final LongAdder num_feat_stored = new LongAdder();
 
     /**
-     * Number of messages that have had a handled exception, used for debugging
+     * Number of times storing was retried because the database couldn't be reached
      */
-    private static int num_msg_h_ex = 0;
+    private static final LongAdder num_db_retries = new LongAdder();
+
+    /**
+     * Number of messages handed back to the rabbit consumer to retry after running out of retries
+     */
+    private static final LongAdder num_msg_requeued = new LongAdder();
+
+    /**
+     * Number of times the datastore was created after the first attempt failed
+     */
+    private static final LongAdder num_db_reconnects = new LongAdder();
 
     /**
      * Time threshold to throw away incoming features if they are older than
@@ -235,67 +283,53 @@ public class GMLToDBProcessor implements Processor {
      *
      * @return true if datastore was successfully initialized, false otherwise
      */
-    private boolean init_datastore() {
-        boolean success = false;
+    private static synchronized boolean init_datastore() {
+        if(datastore != null) {
+            return true;
+        }
+
         try {
             // If no datastore is found, this will be null
             datastore = DataStoreFinder.getDataStore(db_params);
 
             if(datastore == null) {
                 log.info("datastore was null, so no datastore was found");
-            } else {
-                success = true;
-                stopwatch.reset();
-                stopwatch.start();
             }
         } catch(Exception e) {
             log.error("Unhandled exception while getting datastore: " + e.getMessage(), e);
         }
 
-        return success;
+        return datastore != null;
     }
 
 
     /**
-     * Disposes of the datastore connection, and reconnects
+     * @return the datastore, creating it if it couldn't be created before
+     *
+     * @throws DatastoreUnavailableException if it still can't be created
      */
-    private void reset_datastore() {
-        try {
-            log.info("\n!!! RESETTING DATASTORE !!!\n");
-            if(datastore != null) {
-                datastore.dispose();
-                datastore = null;
-            }
-
-            try {
-                datastore = DataStoreFinder.getDataStore(db_params);
-            } catch(IOException dse) {
-                log.error("Unhandled Exception (" + dse.getMessage() + ") getting datastore with db_params: "
-                        + db_params.toString(), dse);
-            }
-
-
-            if(datastore == null) {
-                log.fatal("reset_datastore(): Could not connect to PostGIS DB");
-                System.exit(1);
-            } else {
-                log.info("Successfully connected PostGIS DB");
-                stopwatch.reset();
-                stopwatch.start();
+    private static DataStore getDatastore() throws DatastoreUnavailableException {
+        DataStore store = datastore;
+        if(store == null) {
+            if(!init_datastore()) {
+                throw new DatastoreUnavailableException("Could not connect to PostGIS DB");
             }
-
-        } catch(Exception e) {
-            log.error("Error initializing database connection.  Exiting.", e);
-            System.exit(1);
+            num_db_reconnects.increment();
+            log.info("Successfully connected PostGIS DB");
+            store = datastore;
         }
-
+        return store;
     }
 
 
     /**
      * Initializes various objects with specified property values
      */
-    private boolean init() {
+    private synchronized boolean init() {
+        if(hasInitialized) {
+            return true;
+        }
+
         PropertyConfigurator.configure(log4jPropertyFile);
 
         try {
@@ -315,21 +349,32 @@ public class GMLToDBProcessor implements Processor {
         db_params.put("database", dbname);
         db_params.put("user", dbuser);
         db_params.put("passwd", dbpassword);
+        // Pooled connections, checked before each use so a restarted database is picked up without a reset
+        db_params.put("max connections", db_max_connections);
+        db_params.put("min connections", 1);
+        db_params.put("validate connections", Boolean.TRUE);
 
-        log.info("Using the following for database:\n" + db_params.toString());
+        log.info("Using the following for database:\n" + db_params.toString().replace(
+                "passwd=" + dbpassword, "passwd=*"));
 
-        datastore_reset_interval = db_reset_interval * 60 * 1000;
-        log.info("Using a db_reset_interval of: " + db_reset_interval);
-
-        // Initialize the datastore
-        //reset_datastore();
+        // Initialize the datastore. If the database is down, messages wait and retry for it in process()
         if(!init_datastore()) {
+            log.warn("Could not connect to PostGIS DB, will keep trying as messages arrive");
             success = false;
         }
 
         try {
-            // Set the CRS
-            tablecrs = CRS.decode(crs);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(MBEAN_NAME));
+        } catch(InstanceAlreadyExistsException e) {
+            log.debug("Statistics already registered as " + MBEAN_NAME);
+        } catch(Exception e) {
+            log.warn("Could not register statistics as " + MBEAN_NAME + ": " + e.getMessage());
+        }
+
+        try {
+            // Set the CRS, and load the EPSG database now rather than on the first track
+            CrsCache.warmUp();
+            tablecrs = CrsCache.decode(crs);
             log.info("Set CRS to: " + crs);
             log.info("tablecrs: " + tablecrs);
         } catch(NoSuchAuthorityCodeException e) {
@@ -398,28 +443,16 @@ public class GMLToDBProcessor implements Processor {
      */
     @Override
     //@SuppressWarnings({"unchecked", "unchecked", "unchecked", "unchecked"})
-    public void process(Exchange exchange) {
+    public void process(Exchange exchange) throws Exception {
 
-        if(!hasInitialized && !init()) {
-            log.info("Initialization failed... shutting down.");
-            try {
-                exchange.getContext().stop();
-                System.exit(1);
-            } catch(Exception e) {
-                log.error("Unhandled exception while attempting to stop context: " + e.getMessage(), e);
-            }
+        if(!hasInitialized) {
+            init();
         }
 
-        num_msg_started++;
+        num_msg_started.increment();
 
         SimpleFeatureIterator iterator = null;
-        SimpleFeatureCollection getfeatures = null;
         SimpleFeatureCollection featcollection = null;
-        SimpleFeatureStore featStore = null;
-
-        String id = null;
-        int count;
-        Filter filter = null;
 
         // get the GML message from the exchange
         InputStream in = exchange.getIn().getBody(InputStream.class);
@@ -434,196 +467,292 @@ public class GMLToDBProcessor implements Processor {
         }
 
         try {
-            if(stopwatch.getTime() > datastore_reset_interval) {
-                stopwatch.stop();
-                reset_datastore();
-            }
-
             // Bad coordinates bomb here, so checks later don't help, at least not for the ',' kind - jp
             featcollection = gml.decodeFeatureCollection(in);
             //log.info("GML parsed");
 
             iterator = featcollection.features();
-            SimpleFeature feat = iterator.next();
+            List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+            while(iterator.hasNext()) {
+                features.add(iterator.next());
+            }
+            if(features.isEmpty()) {
+                throw new GdfcException("No feature in incoming GML");
+            }
 
-            // The below check of the attributes may be unnecessary? When it's decoded, it runs
-            // into syntax issues and dies, dropping the track. However, there may be parseable values
-            // that make it here, then other issues the validation below susses out. Except not sure if
-            // the decoding does validation at the same time already, though? - jp
+            storeFeatures(features, featcollection.getSchema());
 
-            //ERROR CHECK - Use geotools validation
-            for(AttributeDescriptor property : feat.getType().getAttributeDescriptors()) {
-                Object value = feat.getAttribute(property.getName());
-                try {
-                    Types.validate(property, value);
-                } catch(IllegalAttributeException ex) {
-                    throw new GdfcException("Failed geotools validation", ex);
-                }
-            }
+        } catch(GdfcException ex) {
+            log.warn("Caught expected exception processing gml: " + gml_str + " exception: " + ex.getMessage());
+            num_msg_h_ex.increment();
+
+        } catch(DatastoreUnavailableException ex) {
+            // Hand the message back to the rabbit consumer rather than drop it. The REQUEUE header has the consumer
+            // hold it on its lane and retry it with a backoff, keeping it ahead of later messages for the same
+            // feature, until the database is back
+            log.error("Database still unavailable after " + db_max_retries + " retries, handing gml back to the " +
+                    "consumer to retry: " + ex.getMessage());
+            num_msg_requeued.increment();
+            exchange.getIn().setHeader(RabbitMQConstants.REQUEUE, true);
+            throw ex;
 
-            //ERROR CHECK - 1 FEATURE
-            if(iterator.hasNext()) {
-                throw new GdfcException("More than one feature in incoming GML");
-            }
+        } catch(Exception ex) {
+            log.error("Caught UNEXPECTED exception processing gml: " + gml_str + " exception: " + ex, ex);
+            num_msg_ex.increment();
 
-            //ERROR CHECK - ID
+        } finally {
             try {
-                id = feat.getAttribute(id_table_entry).toString();
-            } catch(NullPointerException ex) {
-                throw new GdfcException("NullPointerException getting " + id_table_entry + " attribute from feature",
-                        ex);
-            }
+                if(num_msg_started.sum() % 1000 == 0) {
+                    log.info("number of messages started: " + num_msg_started.sum() +
+                            "   number of messages with a handled exception: " + num_msg_h_ex.sum() +
+                            "   number of messages with an unhandled exception: " + num_msg_ex.sum() +
+                            "   number of database retries: " + num_db_retries.sum());
+                }
 
-            //ERROR CHECK - TIMESTAMP
-            // Don't persist a track with an invalid or old time
-            Timestamp tsNew = getTimestampFromFeature(feat);
-            if(tsNew == null) {
-                throw new GdfcException("Unparseable timestamp, dropping track");
-            }
+                featcollection = null;
+
+                if(iterator != null) {
+                    iterator.close();
+                }
 
-            long currentTimeMillis = System.currentTimeMillis();
+                in.close();
 
-            if(tsNew.before(new Timestamp(currentTimeMillis - old_feature_threshold))) { //if it's older than threshold
-                throw new GdfcException("Timestamp is old and being ignored");
+            } catch(IOException ex) {
+                log.error("could not close GML inputstream");
+                num_msg_ex.increment();
             }
+        }
+    }
 
-            if(tsNew.after(new Timestamp(currentTimeMillis + new_feature_threshold))) { //if it's "newer" than threshold
-                throw new GdfcException("Timestamp is too far in the future and being ignored");
+
+    /**
+     * Stores the features of one message. A feature that fails because the database can't be reached is retried,
+     * waiting longer each time, which holds the route and so the rabbit consumer until the database is back. A
+     * batch, such as a snapshot from the OCFA processor, picks up from the feature that failed, and one bad track
+     * doesn't drop the rest of the batch
+     *
+     * @param features   the features of the message
+     * @param schema_new the schema of the collection the features came in
+     * @throws GdfcException                 if the only feature is invalid or older than the stored one
+     * @throws DatastoreUnavailableException if the database still can't be reached after db_max_retries
+     */
+    private void storeFeatures(List<SimpleFeature> features, SimpleFeatureType schema_new) throws Exception {
+        int retries = 0;
+        long delay = db_retry_delay;
+        int i = 0;
+        while(i < features.size()) {
+            SimpleFeature feat = features.get(i);
+            try {
+                storeFeature(feat, schema_new);
+                num_feat_stored.increment();
+                i++;
+            } catch(Exception ex) {
+                if(isConnectionFailure(ex)) {
+                    if(retries >= db_max_retries) {
+                        throw ex instanceof DatastoreUnavailableException ? (DatastoreUnavailableException) ex :
+                                new DatastoreUnavailableException(ex.getMessage(), ex);
+                    }
+                    retries++;
+                    num_db_retries.increment();
+                    log.warn("Database unavailable storing feature " + feat.getID() + ", retry " + retries +
+                            " of " + db_max_retries + " in " + delay + "ms: " + ex.getMessage());
+                    Thread.sleep(delay);
+                    delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+                } else if(features.size() > 1 && ex instanceof GdfcException) {
+                    log.warn("Caught expected exception processing feature " + feat.getID() +
+                            " of a batch: " + ex.getMessage());
+                    num_msg_h_ex.increment();
+                    i++;
+                } else {
+                    throw ex;
+                }
             }
+        }
+    }
 
 
-            //ERROR CHECK - COORDINATES
-            Point point = (Point) feat.getDefaultGeometry();
-            if(!Pattern.matches("(\\(-?\\d+(\\.\\d+)?,\\s?-?\\d+(\\.\\d+)?(,\\s?-?\\d+(\\.\\d+)?|(,\\s?NaN))?\\))",
-                    point.getCoordinate().toString())) {
-                throw new GdfcException("failed coordinate regex check on: " + point.getCoordinate().toString());
+    /**
+     * @return true if ex, or anything that caused it, says the database couldn't be reached, rather than that
+     * something was wrong with the feature
+     */
+    static boolean isConnectionFailure(Throwable ex) {
+        for(Throwable t = ex; t != null; t = t.getCause()) {
+            if(t instanceof DatastoreUnavailableException || t instanceof ConnectException ||
+                    t instanceof SQLTransientConnectionException || t instanceof SQLNonTransientConnectionException) {
+                return true;
             }
-            if(point.getCoordinate().equals(new Coordinate(0, 0))) {
-                throw new GdfcException("Coordinates 0,0 in GML");
+            if(t instanceof SQLException) {
+                // Connection exception, or the server shutting down
+                String state = ((SQLException) t).getSQLState();
+                if(state != null && (state.startsWith("08") || state.startsWith("57P"))) {
+                    return true;
+                }
             }
+            if(t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Validates one feature and inserts it, or replaces the stored feature with the same id
+     *
+     * @param feat       the feature to store
+     * @param schema_new the schema of the collection the feature came in
+     * @throws GdfcException if the feature is invalid or older than the stored one
+     */
+    private void storeFeature(SimpleFeature feat, SimpleFeatureType schema_new) throws Exception {
+        String id = null;
+        int count;
+        Filter filter = null;
+        SimpleFeatureStore featStore = null;
+        SimpleFeatureCollection getfeatures = null;
 
-            //ERROR CHECK - COORDINATE REFERENCE SYSTEM
-            String feat_crs_wkt = point.getUserData().toString();
-            CoordinateReferenceSystem pointcrs = CRS.parseWKT(feat_crs_wkt);
-            if(pointcrs == null) {
-                throw new GdfcException("pointcrs is null");
+        // The below check of the attributes may be unnecessary? When it's decoded, it runs
+        // into syntax issues and dies, dropping the track. However, there may be parseable values
+        // that make it here, then other issues the validation below susses out. Except not sure if
+        // the decoding does validation at the same time already, though? - jp
+
+        //ERROR CHECK - Use geotools validation
+        for(AttributeDescriptor property : feat.getType().getAttributeDescriptors()) {
+            Object value = feat.getAttribute(property.getName());
+            try {
+                Types.validate(property, value);
+            } catch(IllegalAttributeException ex) {
+                throw new GdfcException("Failed geotools validation", ex);
             }
+        }
 
-            //transform coordinates to our preferred CRS
-            MathTransform transform = CRS.findMathTransform(pointcrs, tablecrs, false);
-            point = (Point) JTS.transform(point, transform);
-            point.setUserData(null);
-            feat.setDefaultGeometry(point);
-
-
-            //THIS FEATURE ISNT USED, DISABLE FOR NOW
-            // Log the track to the current table's log table
-            //logTrack(postgisTableName + "_log", featcollection);
-
-
-            //connect to feature store
-            final SimpleFeatureType schema_new = featcollection.getSchema();
-            final String postgisTableName = schema_new.getName().getLocalPart();
-            //featuresource is read only, cast as featurestore for write/modify
-            featStore = (SimpleFeatureStore) datastore.getFeatureSource(postgisTableName);
-            //log.info("connected to postgis table: " + postgisTableName);
-
-            //look for feature in table
-            filter = CQL.toFilter(id_table_entry + " = '" + id + "'");
-            getfeatures = featStore.getFeatures(filter);
-            count = getfeatures.size();
-
-            switch(count) {
-                case 0:    //if no feature exists then create feature for postgis database
-                    //log.info("adding feature: " + id + " to db: " + postgisTableName);
-
-                    //add feature to database
-                    Transaction addTransaction = new DefaultTransaction("add");
-                    featStore.setTransaction(addTransaction);
-                    try {
-                        featStore.addFeatures(featcollection);
-                        addTransaction.commit();
-                    } catch(Exception ex) {
-                        addTransaction.rollback();
-                        throw new GdfcException("Exception adding features: " + ex.getMessage(), ex);
-                    } finally {
-                        addTransaction.close();
-                    }
+        //ERROR CHECK - ID
+        try {
+            id = feat.getAttribute(id_table_entry).toString();
+        } catch(NullPointerException ex) {
+            throw new GdfcException("NullPointerException getting " + id_table_entry + " attribute from feature",
+                    ex);
+        }
 
-                    //log.info("added feature: " + id + " to table: " + postgisTableName);
-                    break;
+        //ERROR CHECK - TIMESTAMP
+        // Don't persist a track with an invalid or old time
+        Timestamp tsNew = getTimestampFromFeature(feat);
+        if(tsNew == null) {
+            throw new GdfcException("Unparseable timestamp, dropping track");
+        }
 
-                case 1://if feature is in table modify feature with updated info
+        long currentTimeMillis = System.currentTimeMillis();
 
-                    //log.info("found feature id: " + id + " in db: " + postgisTableName);
+        if(tsNew.before(new Timestamp(currentTimeMillis - old_feature_threshold))) { //if it's older than threshold
+            throw new GdfcException("Timestamp is old and being ignored");
+        }
 
-                    // Get existing track's timestamp
-                    Timestamp tsCurrent = getTimestampFromFeatureCollection(getfeatures);
+        if(tsNew.after(new Timestamp(currentTimeMillis + new_feature_threshold))) { //if it's "newer" than threshold
+            throw new GdfcException("Timestamp is too far in the future and being ignored");
+        }
 
-                    if(tsCurrent == null) {
-                        throw new GdfcException("A feature exists in the DB with a null timestamp");
-                    } else if(tsNew.before(tsCurrent)) {
-                        throw new GdfcException("A feature exists in the DB with a newer timestamp");
-                    }
 
-                    Transaction removeAddTransaction = new DefaultTransaction("remove_add");
-                    featStore.setTransaction(removeAddTransaction);
-                    try {
-                        featStore.removeFeatures(filter);
-                        featStore.addFeatures(featcollection);
-                        removeAddTransaction.commit();
-                    } catch(Exception ex) {
-                        removeAddTransaction.rollback();
-                        throw new GdfcException("Exception during remove_add transaction: " + ex.getMessage(), ex);
-                    } finally {
-                        removeAddTransaction.close();
-                    }
+        //ERROR CHECK - COORDINATES
+        Point point = (Point) feat.getDefaultGeometry();
+        if(!Pattern.matches("(\\(-?\\d+(\\.\\d+)?,\\s?-?\\d+(\\.\\d+)?(,\\s?-?\\d+(\\.\\d+)?|(,\\s?NaN))?\\))",
+                point.getCoordinate().toString())) {
+            throw new GdfcException("failed coordinate regex check on: " + point.getCoordinate().toString());
+        }
+        if(point.getCoordinate().equals(new Coordinate(0, 0))) {
+            throw new GdfcException("Coordinates 0,0 in GML");
+        }
 
-                    //log.info("modified feature: " + id + " in table: " + postgisTableName);
+        //ERROR CHECK - COORDINATE REFERENCE SYSTEM
+        // The decoder usually leaves the CRS itself here, only parse it when it's been left as text
+        Object feat_crs = point.getUserData();
+        CoordinateReferenceSystem pointcrs = feat_crs instanceof CoordinateReferenceSystem ?
+                (CoordinateReferenceSystem) feat_crs :
+                feat_crs == null ? null : CrsCache.parseWKT(feat_crs.toString());
+        if(pointcrs == null) {
+            throw new GdfcException("pointcrs is null");
+        }
 
-                    break;
+        //transform coordinates to our preferred CRS, the transform is found once per CRS and reused
+        MathTransform transform = CrsCache.findMathTransform(pointcrs, tablecrs);
+        point = (Point) JTS.transform(point, transform);
+        point.setUserData(null);
+        feat.setDefaultGeometry(point);
 
-                default:
-                    throw new GdfcException(
-                            "More than one feature with same " + id_table_entry + " in DB, " + id_table_entry + " : " +
-                                    id);
-            }
 
-            if(!postgisTableName.equals(last_table)) {
-                last_table = postgisTableName;
-                log.info("current data source: " + postgisTableName);
-            }
+        //THIS FEATURE ISNT USED, DISABLE FOR NOW
+        // Log the track to the current table's log table
+        //logTrack(postgisTableName + "_log", featcollection);
 
-        } catch(GdfcException ex) {
-            log.warn("Caught expected exception processing gml: " + gml_str + " exception: " + ex.getMessage());
-            num_msg_h_ex++;
 
-        } catch(Exception ex) {
-            log.error("Caught UNEXPECTED exception processing gml: " + gml_str + " exception: " + ex, ex);
-            num_msg_ex++;
+        //connect to feature store
+        final String postgisTableName = schema_new.getName().getLocalPart();
+        //featuresource is read only, cast as featurestore for write/modify
+        featStore = (SimpleFeatureStore) getDatastore().getFeatureSource(postgisTableName);
+        //log.info("connected to postgis table: " + postgisTableName);
 
-        } finally {
-            try {
-                if(num_msg_started % 1000 == 0) {
-                    log.info("number of messages started: " + num_msg_started +
-                            "   number of messages with a handled exception: " + num_msg_h_ex +
-                            "   number of messages with an unhandled exception: " + num_msg_ex);
+        //look for feature in table
+        filter = CQL.toFilter(id_table_entry + " = '" + id + "'");
+        getfeatures = featStore.getFeatures(filter);
+        count = getfeatures.size();
+
+        switch(count) {
+            case 0:    //if no feature exists then create feature for postgis database
+                //log.info("adding feature: " + id + " to db: " + postgisTableName);
+
+                //add feature to database
+                Transaction addTransaction = new DefaultTransaction("add");
+                featStore.setTransaction(addTransaction);
+                try {
+                    featStore.addFeatures(DataUtilities.collection(feat));
+                    addTransaction.commit();
+                } catch(Exception ex) {
+                    addTransaction.rollback();
+                    throw new GdfcException("Exception adding features: " + ex.getMessage(), ex);
+                } finally {
+                    addTransaction.close();
                 }
 
-                featStore = null;
-                featcollection = null;
-                getfeatures = null;
+                //log.info("added feature: " + id + " to table: " + postgisTableName);
+                break;
 
-                if(iterator != null) {
-                    iterator.close();
+            case 1://if feature is in table modify feature with updated info
+
+                //log.info("found feature id: " + id + " in db: " + postgisTableName);
+
+                // Get existing track's timestamp
+                Timestamp tsCurrent = getTimestampFromFeatureCollection(getfeatures);
+
+                if(tsCurrent == null) {
+                    throw new GdfcException("A feature exists in the DB with a null timestamp");
+                } else if(tsNew.before(tsCurrent)) {
+                    throw new GdfcException("A feature exists in the DB with a newer timestamp");
                 }
 
-                in.close();
+                Transaction removeAddTransaction = new DefaultTransaction("remove_add");
+                featStore.setTransaction(removeAddTransaction);
+                try {
+                    featStore.removeFeatures(filter);
+                    featStore.addFeatures(DataUtilities.collection(feat));
+                    removeAddTransaction.commit();
+                } catch(Exception ex) {
+                    removeAddTransaction.rollback();
+                    throw new GdfcException("Exception during remove_add transaction: " + ex.getMessage(), ex);
+                } finally {
+                    removeAddTransaction.close();
+                }
 
-            } catch(IOException ex) {
-                log.error("could not close GML inputstream");
-                num_msg_ex++;
-            }
+                //log.info("modified feature: " + id + " in table: " + postgisTableName);
+
+                break;
+
+            default:
+                throw new GdfcException(
+                        "More than one feature with same " + id_table_entry + " in DB, " + id_table_entry + " : " +
+                                id);
+        }
+
+        if(!postgisTableName.equals(last_table)) {
+            last_table = postgisTableName;
+            log.info("current data source: " + postgisTableName);
         }
     }
 
@@ -786,6 +915,63 @@ public class GMLToDBProcessor implements Processor {
         }
     }
 
+    /**
+     * Thrown when the database can't be reached, as opposed to a problem with the feature being stored
+     */
+    private static class DatastoreUnavailableException extends IOException {
+        private static final long serialVersionUID = -3617460523190845542L;
+
+        public DatastoreUnavailableException(String message) {
+            super(message);
+        }
+
+        public DatastoreUnavailableException(String message, Throwable ex) {
+            super(message, ex);
+        }
+    }
+
+    // Statistics, also available over JMX as GMLToDBProcessorMBean
+
+    @Override
+    public long getMessagesStarted() {
+        return num_msg_started.sum();
+    }
+
+    @Override
+    public long getFeaturesStored() {
+        return num_feat_stored.sum();
+    }
+
+    @Override
+    public long getHandledExceptions() {
+        return num_msg_h_ex.sum();
+    }
+
+    @Override
+    public long getUnhandledExceptions() {
+        return num_msg_ex.sum();
+    }
+
+    @Override
+    public long getDatabaseRetries() {
+        return num_db_retries.sum();
+    }
+
+    @Override
+    public long getMessagesRequeued() {
+        return num_msg_requeued.sum();
+    }
+
+    @Override
+    public long getDatabaseReconnects() {
+        return num_db_reconnects.sum();
+    }
+
+    @Override
+    public boolean isDatastoreConnected() {
+        return datastore != null;
+    }
+
     // Property getter/setters
 
     public final String getDbtype() {
@@ -868,15 +1054,54 @@ public class GMLToDBProcessor implements Processor {
     }
 
 
+    /**
+     * @deprecated the datastore is no longer reset, its pool validates connections instead
+     */
+    @Deprecated
     public final long getDb_reset_interval() {
         return db_reset_interval;
     }
 
 
+    /**
+     * @deprecated the datastore is no longer reset, its pool validates connections instead. Kept so existing
+     * configurations still load
+     */
+    @Deprecated
     public final void setDb_reset_interval(final long db_reset_interval) {
         this.db_reset_interval = db_reset_interval;
     }
 
+
+    public final int getDb_max_connections() {
+        return db_max_connections;
+    }
+
+
+    public final void setDb_max_connections(final int db_max_connections) {
+        this.db_max_connections = db_max_connections;
+    }
+
+
+    public final int getDb_max_retries() {
+        return db_max_retries;
+    }
+
+
+    public final void setDb_max_retries(final int db_max_retries) {
+        this.db_max_retries = db_max_retries;
+    }
+
+
+    public final long getDb_retry_delay() {
+        return db_retry_delay;
+    }
+
+
+    public final void setDb_retry_delay(final long db_retry_delay) {
+        this.db_retry_delay = db_retry_delay;
+    }
+
     public String getTimestampPropertyName() {
         return timestampPropertyName;
     }
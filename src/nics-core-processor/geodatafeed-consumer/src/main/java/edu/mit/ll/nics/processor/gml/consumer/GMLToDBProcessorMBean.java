@@ -27,42 +27,51 @@
  * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
  * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
-package edu.mit.ll.em.api.main;
+package edu.mit.ll.nics.processor.gml.consumer;
 
-import java.io.IOException;
-import java.util.Set;
+/**
+ * Statistics {@link GMLToDBProcessor} registers with the platform MBean server, under
+ * {@link GMLToDBProcessor#MBEAN_NAME}, so they can be watched with jconsole or any JMX client while it runs
+ */
+public interface GMLToDBProcessorMBean {
 
-import javax.ws.rs.container.ContainerRequestContext;
-import javax.ws.rs.container.ContainerRequestFilter;
-import javax.ws.rs.core.Response;
+    /**
+     * @return messages that have entered the processor
+     */
+    long getMessagesStarted();
 
+    /**
+     * @return features stored in the database
+     */
+    long getFeaturesStored();
 
-//import org.apache.cxf.jaxrs.ext.RequestHandler;
-import org.apache.cxf.jaxrs.model.ClassResourceInfo;
-import org.apache.cxf.message.Message;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+    /**
+     * @return messages, or features of a batch, dropped for an expected reason such as an old timestamp
+     */
+    long getHandledExceptions();
 
-public class DefaultRequestFilter implements ContainerRequestFilter {
+    /**
+     * @return messages dropped for an unexpected reason
+     */
+    long getUnhandledExceptions();
 
     /**
-     * Logger
+     * @return times storing was retried because the database couldn't be reached
      */
-    private static final Logger log = LoggerFactory.getLogger(DefaultRequestFilter.class);
+    long getDatabaseRetries();
 
-    public Response handleRequest(Message inputMessage, ClassResourceInfo resourceClass) {
-        Set<String> keys = inputMessage.keySet();
-        for(String key : keys) {
-            log.debug("Key: " + key + " => Value: " + inputMessage.get(key).toString());
-        }
-        return null;  // Makes processing chain continue.
-    }
+    /**
+     * @return messages handed back to the rabbit consumer to retry after running out of retries
+     */
+    long getMessagesRequeued();
 
-    @Override
-    public void filter(ContainerRequestContext containerRequestContext) throws IOException {
-        // TODO:REFACTOR WIth upgrading cxf to 3.0.3, it removed the RequestHandler, in favor of JAXRS
-        //  ContainerRequestFilter,
-        //	but the above handleRequest wasn't even doing anything... so, do nothing here? Can this class be removed?
+    /**
+     * @return times the datastore was created after the first attempt failed
+     */
+    long getDatabaseReconnects();
 
-    }
+    /**
+     * @return whether the datastore exists. Its pool checks each connection before use
+     */
+    boolean isDatastoreConnected();
 }
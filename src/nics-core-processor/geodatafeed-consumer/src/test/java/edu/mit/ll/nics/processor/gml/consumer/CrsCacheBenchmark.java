@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.gml.consumer;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.referencing.CRS;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+
+/**
+ * Compares the per track cost of reprojecting a point to the table's CRS the way GMLToDBProcessor used to, parsing
+ * the track's WKT and finding the transform every time, with {@link CrsCache}.
+ *
+ * <pre>
+ * java -cp ... edu.mit.ll.nics.processor.gml.consumer.CrsCacheBenchmark [iterations]
+ * </pre>
+ */
+public class CrsCacheBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        CrsCache.warmUp();
+        CoordinateReferenceSystem tablecrs = CrsCache.decode("EPSG:3857");
+        String wkt = CRS.decode("EPSG:4326").toWKT();
+        Point point = new GeometryFactory().createPoint(new Coordinate(-117.084382, 33.454267));
+
+        for(int round = 0; round < 2; round++) {
+            long t0 = System.nanoTime();
+            double x = 0;
+            for(int i = 0; i < iterations; i++) {
+                MathTransform transform = CRS.findMathTransform(CRS.parseWKT(wkt), tablecrs, false);
+                x += JTS.transform(point, transform).getCoordinate().x;
+            }
+            long t1 = System.nanoTime();
+            for(int i = 0; i < iterations; i++) {
+                MathTransform transform = CrsCache.findMathTransform(CrsCache.parseWKT(wkt), tablecrs);
+                x += JTS.transform(point, transform).getCoordinate().x;
+            }
+            long t2 = System.nanoTime();
+            System.out.printf("%s parse and find: %.1f us/track, cached: %.1f us/track (%.0f)%n",
+                    round == 0 ? "warmup" : "measure", (t1 - t0) / 1000.0 / iterations,
+                    (t2 - t1) / 1000.0 / iterations, x);
+        }
+    }
+}
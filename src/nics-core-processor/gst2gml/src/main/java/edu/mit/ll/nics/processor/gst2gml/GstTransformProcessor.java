@@ -0,0 +1,447 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.gst2gml;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stax.StAXResult;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.transform.stream.StreamSource;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.log4j.Logger;
+
+/**
+ * Transforms GST tracks to GML with a precompiled stylesheet and sends the result to the geodatafeed.
+ *
+ * <p>Each stylesheet is compiled once into a {@link Templates}, shared by every processor using the same file.
+ * Documents are read through a StAX source and written through a StAX result, so no DOM is built for either side.
+ * </p>
+ *
+ * <p>With transformThreads above 1, the route thread reads the UnitID and hands the document to one of that many
+ * lanes, each a single thread with a bounded queue, then waits for the lane to finish with it. A unit always maps to
+ * the same lane, so when several consumer threads run the route, a unit's tracks reach the geodatafeed in the order
+ * they arrived while different units are transformed in parallel. With 1 thread the transform runs on the route
+ * thread.</p>
+ *
+ * <p>Either way a track that fails to transform or send fails the exchange, so the route's error handling applies
+ * and the rabbit consumer retries or dead letters the message instead of acknowledging it.</p>
+ */
+public class GstTransformProcessor implements Processor {
+
+    public static final String UNIT_ID = "UnitID";
+
+    private static final Logger log = Logger.getLogger(GstTransformProcessor.class);
+
+    private static final ConcurrentMap<String, Templates> templatesCache = new ConcurrentHashMap<String, Templates>();
+
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+    static {
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private String xslt;
+    private String geodatafeed;
+    private int transformThreads = 1;
+    private int queueSize = 1000;
+    private String identityElement = "Identity";
+    private long statsIntervalMillis = 60000;
+    private long shutdownTimeoutMillis = 30000;
+
+    private Templates templates;
+    private volatile ProducerTemplate producer;
+    private Lane[] lanes;
+    private volatile boolean stopping;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder transformed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder transformNanos = new LongAdder();
+    private final LongAccumulator maxTransformNanos = new LongAccumulator(Math::max, 0);
+    private volatile long lastStats = System.currentTimeMillis();
+
+    /**
+     * Called by Spring once properties have been set. Compiles the stylesheet and starts the lanes
+     *
+     * @throws TransformerConfigurationException if the stylesheet doesn't compile
+     */
+    public void init() throws TransformerConfigurationException {
+        templates = compile(xslt);
+
+        if(transformThreads > 1) {
+            lanes = new Lane[transformThreads];
+            for(int i = 0; i < lanes.length; i++) {
+                lanes[i] = new Lane(new File(xslt).getName() + "-" + i, queueSize);
+                lanes[i].start();
+            }
+        }
+        log.info("Transforming with " + xslt + " on " + Math.max(1, transformThreads) + " thread(s)");
+    }
+
+    /**
+     * Stops the lanes once their queued documents are done, waiting up to shutdownTimeoutMillis for them. Documents
+     * still queued after that fail, so their messages aren't acknowledged and are delivered again. Called by Spring
+     * on shutdown
+     */
+    public void shutdown() {
+        if(lanes != null) {
+            stopping = true;
+            long deadline = System.currentTimeMillis() + shutdownTimeoutMillis;
+            for(Lane lane : lanes) {
+                try {
+                    lane.join(Math.max(1, deadline - System.currentTimeMillis()));
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            for(Lane lane : lanes) {
+                if(lane.isAlive()) {
+                    log.warn(lane.getName() + " still had " + lane.queue.size() + " document(s) queued after " +
+                            shutdownTimeoutMillis + "ms, stopping it");
+                    lane.interrupt();
+                }
+            }
+        }
+        logStats();
+    }
+
+    @Override
+    public void process(Exchange exchange) throws Exception {
+        String body = exchange.getIn().getBody(String.class);
+        if(body == null) {
+            return;
+        }
+        received.increment();
+
+        if(producer == null) {
+            initProducer(exchange.getContext());
+        }
+
+        if(lanes == null) {
+            transformAndSend(body);
+        } else {
+            if(stopping) {
+                throw new IllegalStateException("Transform lanes for " + xslt + " are stopped");
+            }
+            String unitId = readUnitId(body);
+            Lane lane = lanes[unitId == null ? 0 : (unitId.hashCode() & Integer.MAX_VALUE) % lanes.length];
+            Task task = new Task(body);
+            while(!lane.queue.offer(task, 1, TimeUnit.SECONDS)) {
+                if(!lane.isAlive()) {
+                    throw new IllegalStateException(lane.getName() + " is stopped");
+                }
+            }
+            await(task, lane);
+        }
+
+        long now = System.currentTimeMillis();
+        if(now - lastStats >= statsIntervalMillis) {
+            lastStats = now;
+            logStats();
+        }
+    }
+
+    /**
+     * Transforms one GST document to GML
+     *
+     * @param gst the GST document
+     * @return the GML document
+     * @throws TransformerException if the transform fails
+     * @throws XMLStreamException   if the document is not well formed
+     */
+    public String transform(String gst) throws TransformerException, XMLStreamException {
+        long start = System.nanoTime();
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(new StringReader(gst));
+        StringWriter gml = new StringWriter(2048);
+        XMLStreamWriter writer = outputFactory.createXMLStreamWriter(gml);
+        try {
+            templates.newTransformer().transform(new StAXSource(reader), new StAXResult(writer));
+            writer.flush();
+        } finally {
+            writer.close();
+            reader.close();
+        }
+
+        long nanos = System.nanoTime() - start;
+        transformed.increment();
+        transformNanos.add(nanos);
+        maxTransformNanos.accumulate(nanos);
+        return gml.toString();
+    }
+
+    /**
+     * @throws Exception if the document couldn't be transformed or sent, after counting and logging it
+     */
+    private void transformAndSend(String gst) throws Exception {
+        try {
+            producer.sendBody(geodatafeed, transform(gst));
+        } catch(Exception e) {
+            failed.increment();
+            log.error("Failed to transform GST document with " + xslt + ": " + e.getMessage() + "\n" + gst);
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for a lane to finish with the task
+     *
+     * @throws Exception the task's failure, or IllegalStateException if the lane stopped without running it
+     */
+    private void await(Task task, Lane lane) throws Exception {
+        while(true) {
+            try {
+                task.done.get(1, TimeUnit.SECONDS);
+                return;
+            } catch(TimeoutException e) {
+                if(!lane.isAlive()) {
+                    task.done.completeExceptionally(new IllegalStateException(lane.getName() + " is stopped"));
+                }
+            } catch(ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : new IllegalStateException(cause);
+            }
+        }
+    }
+
+    /**
+     * @return the UnitID of the document's first Identity element, null if there is none or it can't be read
+     */
+    String readUnitId(String gst) {
+        XMLStreamReader reader = null;
+        try {
+            reader = inputFactory.createXMLStreamReader(new StringReader(gst));
+            while(reader.hasNext()) {
+                if(reader.next() == XMLStreamConstants.START_ELEMENT &&
+                        identityElement.equals(reader.getLocalName())) {
+                    return reader.getAttributeValue(null, UNIT_ID);
+                }
+            }
+        } catch(XMLStreamException e) {
+            // Left for the transform to report
+        } finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                } catch(XMLStreamException e) {
+                    // Nothing to do
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the compiled stylesheet for path, compiling it the first time any processor asks for it
+     */
+    static Templates compile(String path) throws TransformerConfigurationException {
+        String key = new File(path).getAbsolutePath();
+        Templates compiled = templatesCache.get(key);
+        if(compiled == null) {
+            compiled = TransformerFactory.newInstance().newTemplates(new StreamSource(new File(key)));
+            Templates existing = templatesCache.putIfAbsent(key, compiled);
+            if(existing != null) {
+                compiled = existing;
+            }
+        }
+        return compiled;
+    }
+
+    private synchronized void initProducer(CamelContext context) {
+        if(producer == null) {
+            producer = context.createProducerTemplate();
+        }
+    }
+
+    /**
+     * @return documents received, transformed and failed, transform time and the documents still queued
+     */
+    public Map<String, Long> getStats() {
+        long count = transformed.sum();
+        long queued = 0;
+        if(lanes != null) {
+            for(Lane lane : lanes) {
+                queued += lane.queue.size();
+            }
+        }
+
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("received", received.sum());
+        stats.put("transformed", count);
+        stats.put("failed", failed.sum());
+        stats.put("queued", queued);
+        stats.put("avgTransformMicros", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(transformNanos.sum() / count));
+        stats.put("maxTransformMicros", TimeUnit.NANOSECONDS.toMicros(maxTransformNanos.get()));
+        return stats;
+    }
+
+    private void logStats() {
+        log.info(new File(String.valueOf(xslt)).getName() + " " + getStats());
+    }
+
+    /**
+     * A document handed to a lane, and the route thread's wait for it
+     */
+    private static final class Task {
+        final String gst;
+        final CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+        Task(String gst) {
+            this.gst = gst;
+        }
+    }
+
+    /**
+     * One transform thread and its queue. Once stopping it finishes what is queued, unless interrupted, in which case
+     * what is left fails
+     */
+    private class Lane extends Thread {
+        final BlockingQueue<Task> queue;
+
+        Lane(String name, int capacity) {
+            super(name);
+            setDaemon(true);
+            queue = new ArrayBlockingQueue<Task>(capacity);
+        }
+
+        @Override
+        public void run() {
+            while(!stopping || !queue.isEmpty()) {
+                Task task;
+                try {
+                    task = queue.poll(1, TimeUnit.SECONDS);
+                } catch(InterruptedException e) {
+                    break;
+                }
+                if(task == null) {
+                    continue;
+                }
+                try {
+                    transformAndSend(task.gst);
+                    task.done.complete(null);
+                } catch(Exception e) {
+                    task.done.completeExceptionally(e);
+                }
+            }
+
+            Task task;
+            while((task = queue.poll()) != null) {
+                task.done.completeExceptionally(new IllegalStateException(getName() + " is stopped"));
+            }
+        }
+    }
+
+    public String getXslt() {
+        return xslt;
+    }
+
+    public void setXslt(String xslt) {
+        this.xslt = xslt;
+    }
+
+    public String getGeodatafeed() {
+        return geodatafeed;
+    }
+
+    public void setGeodatafeed(String geodatafeed) {
+        this.geodatafeed = geodatafeed;
+    }
+
+    public int getTransformThreads() {
+        return transformThreads;
+    }
+
+    public void setTransformThreads(int transformThreads) {
+        this.transformThreads = transformThreads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public String getIdentityElement() {
+        return identityElement;
+    }
+
+    public void setIdentityElement(String identityElement) {
+        this.identityElement = identityElement;
+    }
+
+    public long getStatsIntervalMillis() {
+        return statsIntervalMillis;
+    }
+
+    public void setStatsIntervalMillis(long statsIntervalMillis) {
+        this.statsIntervalMillis = statsIntervalMillis;
+    }
+
+    public long getShutdownTimeoutMillis() {
+        return shutdownTimeoutMillis;
+    }
+
+    /**
+     * @param shutdownTimeoutMillis longest wait on shutdown for the lanes to finish their queued documents
+     */
+    public void setShutdownTimeoutMillis(long shutdownTimeoutMillis) {
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    }
+}
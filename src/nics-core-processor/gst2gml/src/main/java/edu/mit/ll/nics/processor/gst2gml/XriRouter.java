@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.gst2gml;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.log4j.Logger;
+
+/**
+ * Routes XRI GST tracks to the aircraft or ground transform.
+ *
+ * <p>A feed document with several unit elements (GSTTracker) is read once with a StAX reader. Each unit is copied
+ * out as a standalone document and classified on its own by the UnitID of its Identity element. A mixed document is
+ * therefore split between both endpoints instead of being routed whole by whichever unit a regex over the body
+ * happened to find.</p>
+ *
+ * <p>A document with a single unit, which is how the GST feed sends tracks, has nothing to split. It is routed as it
+ * is by the first UnitID="..." after its unit start tag, found with indexOf rather than a parser or a regex over the
+ * body.</p>
+ */
+public class XriRouter implements Processor {
+
+    /**
+     * UnitID prefixes of aircraft, followed by the unit number. Same language as the regex the route used before
+     */
+    public static final String DEFAULT_AIRCRAFT_PATTERN = "(?:H|HT|AA|AT|LP)+[0-9]+";
+
+    public static final String UNIT_ID = "UnitID";
+
+    private static final String UNIT_ID_ATTRIBUTE = UNIT_ID + "=\"";
+
+    private static final Logger log = Logger.getLogger(XriRouter.class);
+
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+    static {
+        // Feed documents come from outside, don't resolve anything they point at
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private ProducerTemplate producer;
+
+    private String airEndpoint;
+    private String groundEndpoint;
+    private String unitElement = "GSTTracker";
+    private String identityElement = "Identity";
+    private Pattern aircraftPattern = Pattern.compile(DEFAULT_AIRCRAFT_PATTERN);
+
+    private final LongAdder documents = new LongAdder();
+    private final LongAdder aircraft = new LongAdder();
+    private final LongAdder ground = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    @Override
+    public void process(Exchange exchange) throws Exception {
+        String document = exchange.getIn().getBody(String.class);
+        if(document == null) {
+            return;
+        }
+
+        List<Unit> units;
+        try {
+            units = split(document);
+        } catch(XMLStreamException e) {
+            failed.increment();
+            log.error("Dropping unparseable XRI document: " + e.getMessage());
+            return;
+        }
+        documents.increment();
+
+        if(producer == null) {
+            initProducer(exchange.getContext());
+        }
+
+        for(Unit unit : units) {
+            boolean air = isAircraft(unit.unitId);
+            (air ? aircraft : ground).increment();
+            producer.sendBody(air ? airEndpoint : groundEndpoint, unit.xml);
+        }
+
+        if(documents.sum() % 1000 == 0) {
+            log.info("XRI documents: " + documents.sum() + ", aircraft units: " + aircraft.sum() +
+                    ", ground units: " + ground.sum() + ", unparseable documents: " + failed.sum());
+        }
+    }
+
+    /**
+     * @param unitId the UnitID of a unit, may be null
+     * @return true if the unit is an aircraft, anything else is ground
+     */
+    public boolean isAircraft(String unitId) {
+        return unitId != null && aircraftPattern.matcher(unitId).matches();
+    }
+
+    /**
+     * Copies out each unit element of a feed document as its own document. A document with a single unit is returned
+     * as it is
+     *
+     * @param document the feed document
+     * @return the units in document order
+     * @throws XMLStreamException if the document has several units and is not well formed
+     */
+    public List<Unit> split(String document) throws XMLStreamException {
+        int unit = indexOfUnit(document, 0);
+        if(unit < 0) {
+            return Collections.emptyList();
+        }
+        if(indexOfUnit(document, unit + 1) < 0) {
+            return Collections.singletonList(new Unit(unitId(document, unit), document));
+        }
+
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(new StringReader(document));
+        try {
+            List<Unit> units = new ArrayList<Unit>();
+            while(reader.hasNext()) {
+                if(reader.next() == XMLStreamConstants.START_ELEMENT && unitElement.equals(reader.getLocalName())) {
+                    units.add(copyUnit(reader));
+                }
+            }
+            return units;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return the index of the next unit start tag at or after from, or -1. A wrapper element whose name starts with
+     * the unit element's name (GSTTrackers) is not a unit
+     */
+    private int indexOfUnit(String document, int from) {
+        String tag = "<" + unitElement;
+        for(int i = document.indexOf(tag, from); i >= 0; i = document.indexOf(tag, i + 1)) {
+            int end = i + tag.length();
+            if(end < document.length()) {
+                char next = document.charAt(end);
+                if(next == '>' || next == '/' || Character.isWhitespace(next)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the first UnitID after the unit start tag at unit, or null if there is none
+     */
+    private static String unitId(String document, int unit) {
+        int start = document.indexOf(UNIT_ID_ATTRIBUTE, unit);
+        if(start < 0) {
+            return null;
+        }
+        start += UNIT_ID_ATTRIBUTE.length();
+        int end = document.indexOf('"', start);
+        return end < 0 ? null : document.substring(start, end);
+    }
+
+    /**
+     * Copies the unit element the reader is positioned on, through its matching end element, into a new document
+     */
+    private Unit copyUnit(XMLStreamReader reader) throws XMLStreamException {
+        StringWriter xml = new StringWriter(512);
+        XMLStreamWriter writer = outputFactory.createXMLStreamWriter(xml);
+        String unitId = null;
+        int depth = 0;
+
+        writer.writeStartDocument("UTF-8", "1.0");
+        int event = XMLStreamConstants.START_ELEMENT;
+        while(true) {
+            switch(event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    writer.writeStartElement(reader.getLocalName());
+                    for(int i = 0; i < reader.getAttributeCount(); i++) {
+                        writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                    }
+                    if(unitId == null && identityElement.equals(reader.getLocalName())) {
+                        unitId = reader.getAttributeValue(null, UNIT_ID);
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    writer.writeEndElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                default:
+                    // Comments and processing instructions inside a unit aren't needed by the transforms
+                    break;
+            }
+            if(depth == 0 || !reader.hasNext()) {
+                break;
+            }
+            event = reader.next();
+        }
+        writer.writeEndDocument();
+        writer.close();
+
+        return new Unit(unitId, xml.toString());
+    }
+
+    private synchronized void initProducer(CamelContext context) {
+        if(producer == null) {
+            producer = context.createProducerTemplate();
+        }
+    }
+
+    public long getDocumentCount() {
+        return documents.sum();
+    }
+
+    public long getAircraftCount() {
+        return aircraft.sum();
+    }
+
+    public long getGroundCount() {
+        return ground.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    public String getAirEndpoint() {
+        return airEndpoint;
+    }
+
+    public void setAirEndpoint(String airEndpoint) {
+        this.airEndpoint = airEndpoint;
+    }
+
+    public String getGroundEndpoint() {
+        return groundEndpoint;
+    }
+
+    public void setGroundEndpoint(String groundEndpoint) {
+        this.groundEndpoint = groundEndpoint;
+    }
+
+    public String getUnitElement() {
+        return unitElement;
+    }
+
+    public void setUnitElement(String unitElement) {
+        this.unitElement = unitElement;
+    }
+
+    public String getIdentityElement() {
+        return identityElement;
+    }
+
+    public void setIdentityElement(String identityElement) {
+        this.identityElement = identityElement;
+    }
+
+    public String getAircraftPattern() {
+        return aircraftPattern.pattern();
+    }
+
+    public void setAircraftPattern(String aircraftPattern) {
+        this.aircraftPattern = Pattern.compile(aircraftPattern);
+    }
+
+    /**
+     * One unit copied out of a feed document
+     */
+    public static class Unit {
+        public final String unitId;
+        public final String xml;
+
+        public Unit(String unitId, String xml) {
+            this.unitId = unitId;
+            this.xml = xml;
+        }
+    }
+}
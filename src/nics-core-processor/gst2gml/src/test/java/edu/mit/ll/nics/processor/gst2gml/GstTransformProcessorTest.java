@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.gst2gml;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+
+/**
+ * Runs src/test/resources/samplegst.xml through {@link GstTransformProcessor} on an in-memory route, in place of the
+ * rabbit endpoints gst2gml.xml uses
+ */
+public class GstTransformProcessorTest {
+
+    private static final String[] UNITS = {"B15A", "E3111", "H301", "AA12"};
+
+    private CamelContext context;
+    private ProducerTemplate template;
+    private GstTransformProcessor inline;
+    private GstTransformProcessor concurrent;
+    private String sample;
+
+    @BeforeClass
+    public void before() throws Exception {
+        sample = new String(Files.readAllBytes(Paths.get("src/test/resources/samplegst.xml")), StandardCharsets.UTF_8);
+
+        inline = processor(1, "mock:inline");
+        concurrent = processor(4, "mock:concurrent");
+
+        context = new DefaultCamelContext();
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:inline").process(inline);
+                from("direct:concurrent").process(concurrent);
+            }
+        });
+        context.start();
+        template = context.createProducerTemplate();
+    }
+
+    @AfterClass
+    public void after() throws Exception {
+        concurrent.shutdown();
+        inline.shutdown();
+        context.stop();
+    }
+
+    @Test(testName = "TestTransformSample")
+    public void testTransformSample() throws Exception {
+        MockEndpoint out = context.getEndpoint("mock:inline", MockEndpoint.class);
+        out.expectedMessageCount(1);
+
+        template.sendBody("direct:inline", sample);
+
+        out.assertIsSatisfied();
+        String gml = out.getExchanges().get(0).getIn().getBody(String.class);
+        Assert.assertTrue(gml.contains("<NICS:name>B15A</NICS:name>"), gml);
+        Assert.assertTrue(gml.contains("<gml:coordinates>33.454267,-117.084382,0</gml:coordinates>"), gml);
+        Assert.assertEquals(inline.getStats().get("transformed"), Long.valueOf(1));
+    }
+
+    @Test(testName = "TestUnitOrderKept")
+    public void testUnitOrderKept() throws Exception {
+        int perUnit = 50;
+        MockEndpoint out = context.getEndpoint("mock:concurrent", MockEndpoint.class);
+        out.expectedMessageCount(perUnit * UNITS.length);
+
+        for(int i = 0; i < perUnit; i++) {
+            for(String unit : UNITS) {
+                template.sendBody("direct:concurrent", sample.replace("B15A", unit)
+                        .replace("Speed=\"0\"", "Speed=\"" + i + "\""));
+            }
+        }
+
+        out.assertIsSatisfied(10000);
+        for(String unit : UNITS) {
+            List<Integer> speeds = new ArrayList<Integer>();
+            for(Exchange exchange : out.getExchanges()) {
+                String gml = exchange.getIn().getBody(String.class);
+                if(gml.contains("<NICS:name>" + unit + "</NICS:name>")) {
+                    int start = gml.indexOf("<NICS:speed>") + "<NICS:speed>".length();
+                    speeds.add(Integer.parseInt(gml.substring(start, gml.indexOf("</NICS:speed>", start))));
+                }
+            }
+            Assert.assertEquals(speeds.size(), perUnit, unit);
+            for(int i = 0; i < perUnit; i++) {
+                Assert.assertEquals(speeds.get(i), Integer.valueOf(i), unit);
+            }
+        }
+        Assert.assertEquals(concurrent.getStats().get("failed"), Long.valueOf(0));
+    }
+
+    @Test(testName = "TestFailureReachesRoute")
+    public void testFailureReachesRoute() throws Exception {
+        for(String endpoint : new String[] {"direct:inline", "direct:concurrent"}) {
+            Exchange exchange = template.send(endpoint, e -> e.getIn().setBody("<Identity UnitID=\"B15A\">"));
+            Assert.assertTrue(exchange.isFailed(), endpoint);
+            Assert.assertNotNull(exchange.getException(), endpoint);
+        }
+        Assert.assertEquals(inline.getStats().get("failed"), Long.valueOf(1));
+        Assert.assertEquals(concurrent.getStats().get("failed"), Long.valueOf(1));
+    }
+
+    @Test(testName = "TestShutdownDrainsLanes")
+    public void testShutdownDrainsLanes() throws Exception {
+        GstTransformProcessor draining = processor(2, "mock:draining");
+        CamelContext drainContext = new DefaultCamelContext();
+        drainContext.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:draining").process(draining);
+            }
+        });
+        drainContext.start();
+        ProducerTemplate drainTemplate = drainContext.createProducerTemplate();
+
+        List<Future<Object>> sends = new ArrayList<Future<Object>>();
+        for(int i = 0; i < 20; i++) {
+            sends.add(drainTemplate.asyncSendBody("direct:draining", sample.replace("B15A", UNITS[i % UNITS.length])));
+        }
+        // Every track handed to a lane, some still queued
+        while(draining.getStats().get("transformed") + draining.getStats().get("queued") < sends.size()) {
+            Thread.sleep(1);
+        }
+        draining.shutdown();
+
+        for(Future<Object> send : sends) {
+            send.get();
+        }
+        Assert.assertEquals(draining.getStats().get("transformed"), Long.valueOf(sends.size()));
+        Assert.assertEquals(drainContext.getEndpoint("mock:draining", MockEndpoint.class).getReceivedCounter(),
+                sends.size());
+        drainContext.stop();
+    }
+
+    private static GstTransformProcessor processor(int threads, String geodatafeed) throws Exception {
+        GstTransformProcessor processor = new GstTransformProcessor();
+        processor.setXslt("src/main/config/gst2gml-air.xslt");
+        processor.setGeodatafeed(geodatafeed);
+        processor.setTransformThreads(threads);
+        processor.setQueueSize(16);
+        processor.init();
+        return processor;
+    }
+}
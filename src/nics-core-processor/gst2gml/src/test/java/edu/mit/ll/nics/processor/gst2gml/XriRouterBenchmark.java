@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.gst2gml;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.regex.Pattern;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * Compares the regex the XRI splitter route used to run over each document with {@link XriRouter} on a single unit
+ * track (src/test/resources/samplegst.xml), on the sample feed in src/test/resources/samplexri.xml, and on that feed
+ * repeated to a large multi-unit document. For scale, it also times the air transform every routed unit goes through
+ * next.
+ *
+ * <pre>
+ * java -cp ... edu.mit.ll.nics.processor.gst2gml.XriRouterBenchmark [feed.xml] [copies] [track.xml]
+ * </pre>
+ */
+public class XriRouterBenchmark {
+
+    private static final Pattern ROUTE_REGEX = Pattern.compile(
+            ".*UnitID=\"((H)+|(HT)+|(AA)+|(AT)+|(LP)+)+[0-9]+\".*", Pattern.DOTALL);
+
+    public static void main(String[] args) throws Exception {
+        String path = args.length > 0 ? args[0] : "src/test/resources/samplexri.xml";
+        int copies = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        String trackPath = args.length > 2 ? args[2] : "src/test/resources/samplegst.xml";
+
+        String feed = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+        String track = new String(Files.readAllBytes(Paths.get(trackPath)), StandardCharsets.UTF_8);
+        int start = feed.indexOf("<GSTTracker ");
+        int end = feed.lastIndexOf("</GSTTracker>") + "</GSTTracker>".length();
+        StringBuilder large = new StringBuilder("<GSTTrackers>");
+        for(int i = 0; i < copies; i++) {
+            large.append(feed, start, end);
+        }
+        large.append("</GSTTrackers>");
+
+        run("single track", track, 20000);
+        run("sample feed", feed, 20000);
+        run("sample feed x" + copies, large.toString(), 200);
+        // No aircraft at all is the regex's worst case, it has to give up at every UnitID in the document
+        run("ground only x" + copies, large.toString().replaceAll("UnitID=\"(H|HT|AA|AT|LP)+", "UnitID=\"E"), 200);
+        transform(track, "src/main/config/gst2gml-air.xslt", 20000);
+    }
+
+    private static void transform(String track, String xslt, int iterations) throws Exception {
+        Templates templates = TransformerFactory.newInstance().newTemplates(new StreamSource(new File(xslt)));
+        for(int round = 0; round < 2; round++) {
+            long t0 = System.nanoTime();
+            int length = 0;
+            for(int i = 0; i < iterations; i++) {
+                StringWriter out = new StringWriter();
+                templates.newTransformer().transform(new StreamSource(new StringReader(track)), new StreamResult(out));
+                length += out.getBuffer().length();
+            }
+            long t1 = System.nanoTime();
+            System.out.printf("%s transform of one unit: %.1f us (%d)%n", round == 0 ? "warmup" : "measure",
+                    (t1 - t0) / 1000.0 / iterations, length);
+        }
+    }
+
+    private static void run(String name, String document, int iterations) throws Exception {
+        XriRouter router = new XriRouter();
+        List<XriRouter.Unit> units = router.split(document);
+        int air = 0;
+        for(XriRouter.Unit unit : units) {
+            air += router.isAircraft(unit.unitId) ? 1 : 0;
+        }
+        System.out.println(name + ": " + document.length() + " chars, " + units.size() + " units, " + air +
+                " aircraft. Whole document regex says " + (ROUTE_REGEX.matcher(document).matches() ? "aircraft" :
+                "ground"));
+
+        for(int round = 0; round < 2; round++) {
+            long t0 = System.nanoTime();
+            int matches = 0;
+            for(int i = 0; i < iterations; i++) {
+                matches += ROUTE_REGEX.matcher(document).matches() ? 1 : 0;
+            }
+            long t1 = System.nanoTime();
+            int split = 0;
+            for(int i = 0; i < iterations; i++) {
+                for(XriRouter.Unit unit : router.split(document)) {
+                    split += router.isAircraft(unit.unitId) ? 1 : 0;
+                }
+            }
+            long t2 = System.nanoTime();
+            System.out.printf("  %s regex: %.1f us/doc, split and classify: %.1f us/doc (%d, %d)%n",
+                    round == 0 ? "warmup" : "measure", (t1 - t0) / 1000.0 / iterations,
+                    (t2 - t1) / 1000.0 / iterations, matches, split);
+        }
+    }
+}
@@ -33,7 +33,9 @@
 
 package edu.mit.ll.nics.processor.jsonpliconsumer;
 
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import org.apache.log4j.Logger;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -90,7 +92,7 @@ public class JSONPLIEntry {
      * @return
      */
     public String toXML(boolean format) {
-        return toXML(null, format);
+        return toXML(Collections.singletonList(this), format);
     }
 
 
@@ -103,18 +105,22 @@ public class JSONPLIEntry {
      * @return
      */
     public String toXML(String includeFields, boolean format) {
-        final String TAB = format ? "\t" : "";
-        final String BR = format ? "\n" : "";
+        return toXML(Collections.singletonList(this), format);
+    }
 
-        final String lt = TAB + "<";
+    /**
+     * Converts several entries to one FeatureCollection with a featureMember per entry, so a batch of tracks can be
+     * sent downstream as a single message
+     *
+     * @param entries entries to include, in order
+     * @param format  Set to true to enable formatting
+     *
+     * @return
+     */
+    public static String toXML(List<JSONPLIEntry> entries, boolean format) {
+        final String BR = format ? "\n" : "";
         final String ltc = "</";
-        final String ltn = TAB + "<NICS:";
-        final String ltnc = "</NICS:";
-        final String gt = ">";
         final String gtc = ">" + BR;
-        final String b = "&lt;b&gt;";
-        final String bc = "&lt;/b&gt;";
-        final String br = "&lt;br/&gt;";
 
         StringBuilder stringBuilder = new StringBuilder();
         stringBuilder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + BR);
@@ -128,6 +134,32 @@ public class JSONPLIEntry {
         stringBuilder.append("xmlns:NICS=\"" + nicsSchemaLocationURI + "\" xmlns:wfs=\"http://www.opengis.net/wfs\">");
         LOG.debug("amp== " + wfsServiceURI);
 
+        for(JSONPLIEntry entry : entries) {
+            entry.appendFeatureMember(stringBuilder, format);
+        }
+        stringBuilder.append(ltc + "wfs:FeatureCollection" + gtc);
+
+        if(LOG.isDebugEnabled()) {
+            LOG.debug("\nGML: \n" + stringBuilder.toString() + "\n");
+        }
+
+        return stringBuilder.toString();
+    }
+
+    private void appendFeatureMember(StringBuilder stringBuilder, boolean format) {
+        final String TAB = format ? "\t" : "";
+        final String BR = format ? "\n" : "";
+
+        final String lt = TAB + "<";
+        final String ltc = "</";
+        final String ltn = TAB + "<NICS:";
+        final String ltnc = "</NICS:";
+        final String gt = ">";
+        final String gtc = ">" + BR;
+        final String b = "&lt;b&gt;";
+        final String bc = "&lt;/b&gt;";
+        final String br = "&lt;br/&gt;";
+
         stringBuilder.append("<gml:featureMember>");
         stringBuilder.append(ltn + typeName);
         stringBuilder.append(gtc);
@@ -191,11 +223,6 @@ public class JSONPLIEntry {
         stringBuilder.append(ltnc + "version" + gtc);
         stringBuilder.append(ltnc + typeName + gtc);
         stringBuilder.append(ltc + "gml:featureMember" + gtc);
-        stringBuilder.append(ltc + "wfs:FeatureCollection" + gtc);
-
-        LOG.info("\nGML: \n" + stringBuilder.toString() + "\n");
-
-        return stringBuilder.toString();
     }
 
     @Override
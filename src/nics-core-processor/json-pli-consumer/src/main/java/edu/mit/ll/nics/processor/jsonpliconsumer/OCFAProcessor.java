@@ -30,8 +30,14 @@
 package edu.mit.ll.nics.processor.jsonpliconsumer;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import org.apache.camel.CamelContext;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
@@ -92,6 +98,37 @@ public class OCFAProcessor implements Processor {
     private boolean prependOrgToName;
     private String orgName;
 
+    /**
+     * Only send units that changed since the last snapshot. When false every unit is sent on every poll
+     */
+    private boolean snapshotMode = true;
+
+    /**
+     * Smallest move, in meters, that counts as a change
+     */
+    private double minDistanceMeters = 10;
+
+    /**
+     * A unit is sent at least this often even if it hasn't changed, so its track doesn't age out. 0 disables
+     */
+    private long maxQuietMillis = 300000;
+
+    /**
+     * Most units in one GML message sent downstream
+     */
+    private int batchSize = 500;
+
+    private static final double EARTH_RADIUS_METERS = 6371008.8;
+
+    /**
+     * Last state sent downstream per FleetId
+     */
+    private final Map<String, UnitState> lastKnown = new ConcurrentHashMap<String, UnitState>();
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder unchanged = new LongAdder();
+    private final LongAdder emitted = new LongAdder();
+
 
     /**
      * Called by Spring once properties have been set
@@ -109,34 +146,35 @@ public class OCFAProcessor implements Processor {
             return;
         }
 
-        log.info("\nGOT JSON: " + strJson + "\n");
+        if(log.isDebugEnabled()) {
+            log.debug("\nGOT JSON: " + strJson + "\n");
+        }
 
         JSONArray jsonArr = null;
         JSONObject jsonObj = null;
 
         try {
-            //jsonObj = new JSONObject(strJson);
             jsonArr = new JSONArray(strJson);
-            //jsonObj = jsonArr.getJSONObject(0);
         } catch(JSONException e) {
             log.error("Exception reading in JSON", e);
             return;
         }
 
-        JSONPLIEntry pliEntry = null;
+        // One pair of formats per snapshot, SimpleDateFormat isn't thread safe so they aren't shared across calls
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        SimpleDateFormat sdfUtc = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        sdfUtc.setTimeZone(TimeZone.getTimeZone("UTC"));
+        sdf.setTimeZone(TimeZone.getTimeZone("America/Los_Angeles"));
+
+        long now = System.currentTimeMillis();
+        List<JSONPLIEntry> changed = new ArrayList<JSONPLIEntry>();
+        Map<String, UnitState> changedStates = new HashMap<String, UnitState>();
+        int unchangedCount = 0;
 
         for(int i = 0; i < jsonArr.length(); i++) {
 
             jsonObj = jsonArr.getJSONObject(i);
-            pliEntry = new JSONPLIEntry();
-
-            int heading = jsonObj.optInt(HEADING);
-            pliEntry.setCourse(heading + "");
-
-            double lat = jsonObj.optDouble(LATITUDE);
-            double lon = jsonObj.optDouble(LONGITUDE);
-
-            pliEntry.setCoordinates(lat + "," + lon); // TODO: Make order configurable?
+            received.increment();
 
             String id = jsonObj.optString(FLEET_ID, null);
 
@@ -144,75 +182,181 @@ public class OCFAProcessor implements Processor {
                 // TODO: No ID... drop track?
                 log.error("No ID was specified");
             }
-            // TODO: chance to add configurable ORG to prepend
-            pliEntry.setId(id);
 
-            if(prependOrgToName && orgName != null && orgName != "") {
-                pliEntry.setName(orgName + "-" + id);
-            } else {
-                pliEntry.setName(id);
+            JSONPLIEntry pliEntry = toEntry(jsonObj, id, sdf, sdfUtc);
+            UnitState state = new UnitState(jsonObj.optDouble(LATITUDE), jsonObj.optDouble(LONGITUDE),
+                    pliEntry.getExtended(), now);
+
+            if(snapshotMode && id != null && !hasChanged(lastKnown.get(id), state)) {
+                unchangedCount++;
+                continue;
             }
 
-            pliEntry.setSpeed(jsonObj.optInt(SPEED) + "");
-
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-            SimpleDateFormat sdfUtc = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-            sdfUtc.setTimeZone(TimeZone.getTimeZone("UTC"));
-            sdf.setTimeZone(TimeZone.getTimeZone("America/Los_Angeles"));
-            Date date = null;
-            try {
-                date = sdf.parse(jsonObj.optString(TIME_STRING));
-                pliEntry.setTimestamp(sdfUtc.format(date));
-            } catch(Exception e) {
-                log.error("Exception parsing timestamp for ID " +
-                        pliEntry.getId() + ": " + e.getMessage(), e);
+            changed.add(pliEntry);
+            if(id != null) {
+                changedStates.put(id, state);
             }
+        }
+
+        unchanged.add(unchangedCount);
 
-            String description = jsonObj.optString(DESCRIPTION, "<br/>");
+        if(producer == null) {
+            initProducer(exchange.getContext());
+        }
 
-            StringBuilder sb = new StringBuilder();
-            sb.append(description);
-            sb.append("<br/>");
+        int size = Math.max(1, batchSize);
+        for(int from = 0; from < changed.size(); from += size) {
+            List<JSONPLIEntry> batch = changed.subList(from, Math.min(from + size, changed.size()));
+            if(sendToEndpoint(geodatafeedConsumer, JSONPLIEntry.toXML(batch, false))) {
+                emitted.add(batch.size());
+                // Only remember what was delivered, so a failed send is retried on the next snapshot
+                for(JSONPLIEntry sent : batch) {
+                    UnitState state = changedStates.get(sent.getId());
+                    if(state != null) {
+                        lastKnown.put(sent.getId(), state);
+                    }
+                }
+            }
+        }
 
-            JSONObject jsonExtended = new JSONObject();
+        log.info("Snapshot of " + jsonArr.length() + " units: " + changed.size() + " changed, " + unchangedCount +
+                " unchanged. Totals: received=" + received.sum() + " unchanged=" + unchanged.sum() + " emitted=" +
+                emitted.sum());
+    }
 
-            Object objKeyVal = null;
-            String strKeyVal = null;
-            for(String key : extended) {
+    /**
+     * Builds the track entry for one unit of the snapshot
+     */
+    private JSONPLIEntry toEntry(JSONObject jsonObj, String id, SimpleDateFormat sdf, SimpleDateFormat sdfUtc)
+            throws JSONException {
+        JSONPLIEntry pliEntry = new JSONPLIEntry();
 
-                objKeyVal = jsonObj.get(key);
-                log.debug("Extended: " + key + ":" + objKeyVal);
+        int heading = jsonObj.optInt(HEADING);
+        pliEntry.setCourse(heading + "");
 
-                if(objKeyVal == null) {
-                    strKeyVal = "";
-                } else {
+        double lat = jsonObj.optDouble(LATITUDE);
+        double lon = jsonObj.optDouble(LONGITUDE);
 
-                    strKeyVal = objKeyVal + "";
-                    if(strKeyVal.contains("null")) {
-                        strKeyVal = "";
-                    }
+        pliEntry.setCoordinates(lat + "," + lon); // TODO: Make order configurable?
+
+        // TODO: chance to add configurable ORG to prepend
+        pliEntry.setId(id);
+
+        if(prependOrgToName && orgName != null && orgName != "") {
+            pliEntry.setName(orgName + "-" + id);
+        } else {
+            pliEntry.setName(id);
+        }
+
+        pliEntry.setSpeed(jsonObj.optInt(SPEED) + "");
+
+        try {
+            Date date = sdf.parse(jsonObj.optString(TIME_STRING));
+            pliEntry.setTimestamp(sdfUtc.format(date));
+        } catch(Exception e) {
+            log.error("Exception parsing timestamp for ID " +
+                    pliEntry.getId() + ": " + e.getMessage(), e);
+        }
+
+        JSONObject jsonExtended = new JSONObject();
+
+        Object objKeyVal = null;
+        String strKeyVal = null;
+        for(String key : extended) {
+
+            objKeyVal = jsonObj.get(key);
+
+            if(objKeyVal == null) {
+                strKeyVal = "";
+            } else {
+
+                strKeyVal = objKeyVal + "";
+                if(strKeyVal.contains("null")) {
+                    strKeyVal = "";
                 }
-                //jsonExtended.append(key, strKeyVal);
-                jsonExtended.put(key, strKeyVal);
             }
-            log.debug("Setting extended to:\n" + jsonExtended.toString());
-            pliEntry.setExtended(jsonExtended.toString());
+            jsonExtended.put(key, strKeyVal);
+        }
+        pliEntry.setExtended(jsonExtended.toString());
 
-            pliEntry.setSrsName(srsName);
-            pliEntry.setVersion("0.0.1");
-            pliEntry.setTypeName(typeName);
-            pliEntry.setNicsSchemaLocationURI(nicsSchemaLocationURI);
-            pliEntry.setWfsServiceURI(wfsServiceURI);
-            pliEntry.setWfsSchemasURI(wfsSchemasURI);
+        pliEntry.setSrsName(srsName);
+        pliEntry.setVersion("0.0.1");
+        pliEntry.setTypeName(typeName);
+        pliEntry.setNicsSchemaLocationURI(nicsSchemaLocationURI);
+        pliEntry.setWfsServiceURI(wfsServiceURI);
+        pliEntry.setWfsSchemasURI(wfsSchemasURI);
 
-            log.info("\n====\n" + pliEntry.toXML(true) + "\n====\n");
+        return pliEntry;
+    }
 
-            if(producer == null) {
-                initProducer(exchange.getContext());
-            }
+    /**
+     * A unit has changed if it moved at least minDistanceMeters, its status or other extended attributes differ, or
+     * nothing was sent for it in maxQuietMillis
+     *
+     * @param last    state last sent for the unit, null if never sent
+     * @param current state in this snapshot
+     * @return true if the unit should be sent downstream
+     */
+    boolean hasChanged(UnitState last, UnitState current) {
+        if(last == null) {
+            return true;
+        }
+        if(maxQuietMillis > 0 && current.time - last.time >= maxQuietMillis) {
+            return true;
+        }
+        if(last.extended == null ? current.extended != null : !last.extended.equals(current.extended)) {
+            return true;
+        }
+        if(Double.isNaN(current.lat) || Double.isNaN(current.lon) || Double.isNaN(last.lat) || Double.isNaN(last.lon)) {
+            return !(Double.compare(last.lat, current.lat) == 0 && Double.compare(last.lon, current.lon) == 0);
+        }
+        return distanceMeters(last.lat, last.lon, current.lat, current.lon) >= minDistanceMeters;
+    }
+
+    /**
+     * Great circle distance, accurate enough to tell a parked unit from a moving one
+     */
+    static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) + Math.cos(Math.toRadians(lat1)) *
+                Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Clears the last known state, so every unit of the next snapshot is sent
+     */
+    public void reset() {
+        lastKnown.clear();
+    }
 
-            sendToEndpoint(geodatafeedConsumer, pliEntry.toXML(false));
+    public long getReceivedCount() {
+        return received.sum();
+    }
+
+    public long getUnchangedCount() {
+        return unchanged.sum();
+    }
 
+    public long getEmittedCount() {
+        return emitted.sum();
+    }
+
+    /**
+     * What was last sent downstream for a unit
+     */
+    static class UnitState {
+        final double lat;
+        final double lon;
+        final String extended;
+        final long time;
+
+        UnitState(double lat, double lon, String extended, long time) {
+            this.lat = lat;
+            this.lon = lon;
+            this.extended = extended;
+            this.time = time;
         }
     }
 
@@ -243,8 +387,10 @@ public class OCFAProcessor implements Processor {
     private boolean sendToEndpoint(String endpoint, String message) {
         boolean success = false;
 
-        log.debug("Sending below message to endpoint: " + endpoint
-                + "\n====BODY====\n" + message + "\n============\n");
+        if(log.isDebugEnabled()) {
+            log.debug("Sending below message to endpoint: " + endpoint
+                    + "\n====BODY====\n" + message + "\n============\n");
+        }
 
         try {
             producer.sendBody(endpoint, message);
@@ -345,4 +491,35 @@ public class OCFAProcessor implements Processor {
         this.orgName = orgName;
     }
 
+    public boolean isSnapshotMode() {
+        return snapshotMode;
+    }
+
+    public void setSnapshotMode(boolean snapshotMode) {
+        this.snapshotMode = snapshotMode;
+    }
+
+    public double getMinDistanceMeters() {
+        return minDistanceMeters;
+    }
+
+    public void setMinDistanceMeters(double minDistanceMeters) {
+        this.minDistanceMeters = minDistanceMeters;
+    }
+
+    public long getMaxQuietMillis() {
+        return maxQuietMillis;
+    }
+
+    public void setMaxQuietMillis(long maxQuietMillis) {
+        this.maxQuietMillis = maxQuietMillis;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
 }
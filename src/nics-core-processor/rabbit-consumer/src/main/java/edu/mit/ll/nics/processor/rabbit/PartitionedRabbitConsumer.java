@@ -0,0 +1,760 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.rabbit;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.LongString;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.ObjectName;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Endpoint;
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.component.rabbitmq.RabbitMQConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Consumes a rabbit queue and hands each message to a Camel endpoint, normally the direct: route of a processor,
+ * acknowledging it only once the route has finished with it.
+ *
+ * <p>The broker sends at most prefetchCount unacknowledged messages, so that is all the work held in memory and all
+ * that's redelivered if the processor dies. Messages are spread over concurrency lanes, each a single thread, by a
+ * partition key taken from the routing key, the body or a header, optionally narrowed by a pattern whose first
+ * group is the key. Messages with the same key always share a lane and are processed in the order they were
+ * delivered, while other keys are processed in parallel. With partitionBy set to none, messages go to the lanes in
+ * turn and no order is kept.</p>
+ *
+ * <p>A message that fails is processed again on its lane, so later messages with its key wait behind it, up to
+ * maxAttempts in all. After that it is published to the dead letter exchange, with the attempts and the last
+ * error in its headers, and acknowledged. Without a dead letter exchange it is rejected, which leaves it to any
+ * dead letter policy on the queue. A route that sets {@link RabbitMQConstants#REQUEUE} on a failed message, for
+ * failures that aren't the message's fault such as the database being down, has it held on its lane and processed
+ * again with a backoff, starting at retryDelay and doubling up to maxRetryDelay, for as long as the route keeps
+ * asking. Those attempts don't count against maxAttempts. The message is never returned to the queue, where it
+ * would be redelivered without a pause and could overtake or fall behind later messages with its key; while it is
+ * held the prefetch window fills and the broker stops delivering.</p>
+ *
+ * <p>The queue is durable and bound to the exchange with each of routingKeys. Delivery is at least once, a
+ * message whose acknowledgment is lost with the connection is delivered again.</p>
+ */
+public class PartitionedRabbitConsumer implements PartitionedRabbitConsumerMBean {
+
+    /**
+     * Name the statistics are registered under with the platform MBean server, with the queue as the name key
+     */
+    public static final String MBEAN_NAME = "edu.mit.ll.nics.processor:type=PartitionedRabbitConsumer";
+
+    public static final String PARTITION_ROUTING_KEY = "routingKey";
+    public static final String PARTITION_BODY = "body";
+    public static final String PARTITION_HEADER = "header:";
+    public static final String PARTITION_NONE = "none";
+
+    /**
+     * Headers added to a dead lettered message
+     */
+    public static final String ATTEMPTS_HEADER = "x-nics-attempts";
+    public static final String EXCEPTION_HEADER = "x-nics-exception";
+    public static final String QUEUE_HEADER = "x-nics-queue";
+
+    private static final Logger log = LoggerFactory.getLogger(PartitionedRabbitConsumer.class);
+
+    private String host = "localhost";
+    private int port = ConnectionFactory.DEFAULT_AMQP_PORT;
+    private String virtualHost = ConnectionFactory.DEFAULT_VHOST;
+    private String username = ConnectionFactory.DEFAULT_USER;
+    private String password = ConnectionFactory.DEFAULT_PASS;
+    private String exchange = "amq.topic";
+    private String exchangeType = "topic";
+    private String routingKeys;
+    private String queue;
+
+    private int prefetchCount = 100;
+    private int concurrency = 4;
+    private String partitionBy = PARTITION_ROUTING_KEY;
+    private String partitionPattern;
+    private int maxAttempts = 3;
+    private long retryDelay = 1000;
+    private long maxRetryDelay = 60000;
+    private String deadLetterExchange;
+    private String deadLetterQueue;
+    private long statsIntervalMillis = 60000;
+
+    private CamelContext camelContext;
+    private String endpointUri;
+    private ConnectionFactory connectionFactory;
+
+    private Pattern keyPattern;
+    private Endpoint endpoint;
+    private ProducerTemplate producer;
+    private Connection connection;
+    private Channel channel;
+    private String consumerTag;
+    private Lane[] lanes;
+
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder acknowledged = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder held = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private final LongAdder processNanos = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong lastStats = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * Called by Spring once properties have been set. Declares the queue and its bindings and starts the lanes.
+     * Consuming starts once the Camel context has started its routes
+     *
+     * @throws Exception if the broker can't be reached or the endpoint doesn't exist
+     */
+    public void init() throws Exception {
+        if(isBlank(queue) || isBlank(routingKeys) || camelContext == null || isBlank(endpointUri)) {
+            throw new IllegalArgumentException("queue, routingKeys, camelContext and endpointUri must be set");
+        }
+        keyPattern = isBlank(partitionPattern) ? null : Pattern.compile(partitionPattern);
+        endpoint = camelContext.getEndpoint(endpointUri);
+        producer = camelContext.createProducerTemplate();
+
+        connect();
+
+        lanes = new Lane[Math.max(1, concurrency)];
+        for(int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(queue + "-" + i);
+            lanes[i].start();
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName());
+        } catch(InstanceAlreadyExistsException e) {
+            log.debug("Statistics already registered for {}", queue);
+        } catch(Exception e) {
+            log.warn("Could not register statistics for {}: {}", queue, e.getMessage());
+        }
+
+        camelContext.addStartupListener((context, alreadyStarted) -> consume());
+    }
+
+    /**
+     * Stops taking messages, and stops the lanes once the messages they're processing are done. Anything not yet
+     * acknowledged is delivered again by the broker. Called by Spring on shutdown
+     */
+    public void shutdown() {
+        if(channel != null && consumerTag != null) {
+            try {
+                synchronized(channel) {
+                    channel.basicCancel(consumerTag);
+                }
+            } catch(Exception e) {
+                log.debug("Could not cancel consumer on {}: {}", queue, e.getMessage());
+            }
+        }
+        if(lanes != null) {
+            for(Lane lane : lanes) {
+                lane.interrupt();
+            }
+            for(Lane lane : lanes) {
+                try {
+                    lane.join(TimeUnit.SECONDS.toMillis(10));
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        if(connection != null) {
+            try {
+                connection.close();
+            } catch(Exception e) {
+                log.debug("Could not close connection for {}: {}", queue, e.getMessage());
+            }
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName());
+        } catch(Exception e) {
+            // Not registered
+        }
+        logStats();
+    }
+
+    private void connect() throws Exception {
+        ConnectionFactory factory = connectionFactory;
+        if(factory == null) {
+            factory = new ConnectionFactory();
+            factory.setHost(host);
+            factory.setPort(port);
+            factory.setVirtualHost(virtualHost);
+            factory.setUsername(username);
+            factory.setPassword(password);
+            factory.setAutomaticRecoveryEnabled(true);
+        }
+        connection = factory.newConnection();
+        channel = connection.createChannel();
+        channel.basicQos(prefetchCount);
+
+        // Exchanges are declared as the camel rabbitmq endpoints did, so they match whoever declared them first
+        if(!exchange.startsWith("amq.")) {
+            channel.exchangeDeclare(exchange, exchangeType, true, true, null);
+        }
+        channel.queueDeclare(queue, true, false, false, null);
+        for(String routingKey : routingKeys.split(",")) {
+            channel.queueBind(queue, exchange, routingKey.trim());
+        }
+
+        if(!isBlank(deadLetterExchange)) {
+            channel.exchangeDeclare(deadLetterExchange, "topic", true, false, null);
+            if(!isBlank(deadLetterQueue)) {
+                channel.queueDeclare(deadLetterQueue, true, false, false, null);
+                channel.queueBind(deadLetterQueue, deadLetterExchange, "#");
+            }
+        }
+        log.info("Consuming {} bound to {} with {} on {}:{}, prefetch {} over {} lane(s) partitioned by {}", queue,
+                exchange, routingKeys, host, port, prefetchCount, Math.max(1, concurrency), partitionBy);
+    }
+
+    private void consume() throws IOException {
+        synchronized(channel) {
+            if(consumerTag == null) {
+                consumerTag = channel.basicConsume(queue, false, new DefaultConsumer(channel) {
+                    @Override
+                    public void handleDelivery(String tag, Envelope envelope, AMQP.BasicProperties properties,
+                                               byte[] body) {
+                        dispatch(new Delivery(envelope, properties, body));
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Hands a delivery to the lane for its partition key. Called on the connection's consumer thread, which never
+     * waits: the prefetch count already bounds what the lanes can be given
+     */
+    void dispatch(Delivery delivery) {
+        delivered.increment();
+        inFlight.incrementAndGet();
+        String key = partitionKey(delivery);
+        long index = key == null ? delivery.getEnvelope().getDeliveryTag() : key.hashCode() & Integer.MAX_VALUE;
+        lanes[(int) (index % lanes.length)].queue.add(delivery);
+    }
+
+    /**
+     * @return the key messages are kept in order by, null if they aren't
+     */
+    String partitionKey(Delivery delivery) {
+        String routingKey = delivery.getEnvelope().getRoutingKey();
+        String source;
+        if(PARTITION_NONE.equals(partitionBy)) {
+            return null;
+        } else if(PARTITION_BODY.equals(partitionBy)) {
+            source = new String(delivery.getBody(), StandardCharsets.UTF_8);
+        } else if(partitionBy != null && partitionBy.startsWith(PARTITION_HEADER)) {
+            Map<String, Object> headers = delivery.getProperties().getHeaders();
+            Object value = headers == null ? null : headers.get(partitionBy.substring(PARTITION_HEADER.length()));
+            source = value == null ? null : value.toString();
+        } else {
+            source = routingKey;
+        }
+
+        if(source != null && keyPattern != null) {
+            Matcher m = keyPattern.matcher(source);
+            source = m.find() ? (m.groupCount() > 0 ? m.group(1) : m.group()) : null;
+        }
+        // Anything without a key of its own is kept in order with its routing key
+        return source == null ? routingKey : source;
+    }
+
+    /**
+     * Runs a delivery through the route until it succeeds or runs out of attempts, then acknowledges or dead letters
+     * it. Failures the route marks with {@link RabbitMQConstants#REQUEUE} hold the lane and are retried without limit
+     *
+     * @throws InterruptedException if the lane is stopped while waiting to retry, the delivery is left to the broker
+     */
+    private void handle(Delivery delivery) throws InterruptedException {
+        long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+        long holdDelay = retryDelay;
+        try {
+            for(int attempt = 1; ; ) {
+                Exchange exchange = createExchange(delivery);
+                long start = System.nanoTime();
+                producer.send(endpoint, exchange);
+                processNanos.add(System.nanoTime() - start);
+
+                if(!exchange.isFailed()) {
+                    acknowledge(deliveryTag);
+                    return;
+                }
+
+                Exception e = exchange.getException();
+                if(exchange.getIn().getHeader(RabbitMQConstants.REQUEUE, false, Boolean.class)) {
+                    held.increment();
+                    log.warn("Holding message {} on {} and retrying in {}ms: {}", deliveryTag, queue, holdDelay,
+                            describe(e));
+                    Thread.sleep(holdDelay);
+                    holdDelay = Math.min(holdDelay * 2, Math.max(retryDelay, maxRetryDelay));
+                    continue;
+                }
+                if(attempt >= maxAttempts) {
+                    deadLetter(delivery, attempt, e);
+                    return;
+                }
+
+                retries.increment();
+                log.warn("Attempt {} of {} failed for message {} on {}: {}", attempt, maxAttempts, deliveryTag, queue,
+                        describe(e));
+                attempt++;
+                Thread.sleep(retryDelay);
+            }
+        } finally {
+            inFlight.decrementAndGet();
+            long now = System.currentTimeMillis();
+            long last = lastStats.get();
+            if(now - last >= statsIntervalMillis && lastStats.compareAndSet(last, now)) {
+                logStats();
+            }
+        }
+    }
+
+    /**
+     * @return an exchange for the endpoint, with the body and the headers the camel rabbitmq consumer would set
+     */
+    private Exchange createExchange(Delivery delivery) {
+        Envelope envelope = delivery.getEnvelope();
+        AMQP.BasicProperties properties = delivery.getProperties();
+
+        Exchange exchange = endpoint.createExchange();
+        Message in = exchange.getIn();
+        in.setBody(delivery.getBody());
+        in.setHeader(RabbitMQConstants.ROUTING_KEY, envelope.getRoutingKey());
+        in.setHeader(RabbitMQConstants.EXCHANGE_NAME, envelope.getExchange());
+        in.setHeader(RabbitMQConstants.DELIVERY_TAG, envelope.getDeliveryTag());
+        in.setHeader(RabbitMQConstants.REDELIVERY_TAG, envelope.isRedeliver());
+        if(properties.getContentType() != null) {
+            in.setHeader(RabbitMQConstants.CONTENT_TYPE, properties.getContentType());
+        }
+        if(properties.getMessageId() != null) {
+            in.setHeader(RabbitMQConstants.MESSAGE_ID, properties.getMessageId());
+        }
+        if(properties.getHeaders() != null) {
+            for(Map.Entry<String, Object> header : properties.getHeaders().entrySet()) {
+                Object value = header.getValue();
+                in.setHeader(header.getKey(), value instanceof LongString ? value.toString() : value);
+            }
+        }
+        return exchange;
+    }
+
+    private void deadLetter(Delivery delivery, int attempts, Exception e) {
+        long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+        if(isBlank(deadLetterExchange)) {
+            log.error("Rejecting message {} on {} after {} attempt(s): {}", deliveryTag, queue, attempts, describe(e));
+            reject(deliveryTag, false);
+            deadLettered.increment();
+            return;
+        }
+
+        AMQP.BasicProperties properties = delivery.getProperties();
+        Map<String, Object> headers = new HashMap<String, Object>();
+        if(properties.getHeaders() != null) {
+            headers.putAll(properties.getHeaders());
+        }
+        headers.put(ATTEMPTS_HEADER, attempts);
+        headers.put(EXCEPTION_HEADER, describe(e));
+        headers.put(QUEUE_HEADER, queue);
+
+        try {
+            synchronized(channel) {
+                channel.basicPublish(deadLetterExchange, delivery.getEnvelope().getRoutingKey(),
+                        properties.builder().headers(headers).build(), delivery.getBody());
+                channel.basicAck(deliveryTag, false);
+            }
+            deadLettered.increment();
+            log.error("Dead lettered message {} on {} to {} after {} attempt(s): {}", deliveryTag, queue,
+                    deadLetterExchange, attempts, describe(e));
+        } catch(Exception ex) {
+            log.error("Could not dead letter message {} on {}, it will be delivered again: {}", deliveryTag, queue,
+                    ex.getMessage());
+        }
+    }
+
+    private void acknowledge(long deliveryTag) {
+        try {
+            synchronized(channel) {
+                channel.basicAck(deliveryTag, false);
+            }
+            acknowledged.increment();
+        } catch(Exception e) {
+            log.warn("Could not acknowledge message {} on {}, it will be delivered again: {}", deliveryTag, queue,
+                    e.getMessage());
+        }
+    }
+
+    private void reject(long deliveryTag, boolean requeue) {
+        try {
+            synchronized(channel) {
+                channel.basicReject(deliveryTag, requeue);
+            }
+        } catch(Exception e) {
+            log.warn("Could not reject message {} on {}, it will be delivered again: {}", deliveryTag, queue,
+                    e.getMessage());
+        }
+    }
+
+    private ObjectName objectName() throws Exception {
+        return new ObjectName(MBEAN_NAME + ",name=" + ObjectName.quote(queue));
+    }
+
+    private static String describe(Exception e) {
+        return e == null ? "unknown error" : e.getClass().getSimpleName() + ": " + e.getMessage();
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    /**
+     * @return the counters below, also available over JMX
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("delivered", getDelivered());
+        stats.put("acknowledged", getAcknowledged());
+        stats.put("retries", getRetries());
+        stats.put("held", getHeld());
+        stats.put("deadLettered", getDeadLettered());
+        stats.put("inFlight", (long) getInFlight());
+        stats.put("largestLaneBacklog", (long) getLargestLaneBacklog());
+        stats.put("lag", getLag());
+        stats.put("avgProcessMillis", getAverageProcessMillis());
+        return stats;
+    }
+
+    private void logStats() {
+        log.info("{} {}", queue, getStats());
+    }
+
+    @Override
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    @Override
+    public long getAcknowledged() {
+        return acknowledged.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getHeld() {
+        return held.sum();
+    }
+
+    @Override
+    public long getDeadLettered() {
+        return deadLettered.sum();
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public int getLargestLaneBacklog() {
+        int largest = 0;
+        if(lanes != null) {
+            for(Lane lane : lanes) {
+                largest = Math.max(largest, lane.queue.size());
+            }
+        }
+        return largest;
+    }
+
+    @Override
+    public long getLag() {
+        if(!isConnected()) {
+            return -1;
+        }
+        try {
+            synchronized(channel) {
+                return channel.messageCount(queue);
+            }
+        } catch(Exception e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public long getAverageProcessMillis() {
+        long count = acknowledged.sum() + retries.sum() + held.sum() + deadLettered.sum();
+        return count <= 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(processNanos.sum() / count);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connection != null && connection.isOpen() && channel != null && channel.isOpen();
+    }
+
+    /**
+     * One processing thread and the deliveries waiting for it
+     */
+    private class Lane extends Thread {
+        final BlockingQueue<Delivery> queue = new LinkedBlockingQueue<Delivery>();
+
+        Lane(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while(true) {
+                    handle(queue.take());
+                }
+            } catch(InterruptedException e) {
+                // Whatever is still queued was never acknowledged, so the broker delivers it again
+            }
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public String getVirtualHost() {
+        return virtualHost;
+    }
+
+    public void setVirtualHost(String virtualHost) {
+        this.virtualHost = virtualHost;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    public String getExchange() {
+        return exchange;
+    }
+
+    public void setExchange(String exchange) {
+        this.exchange = exchange;
+    }
+
+    public String getExchangeType() {
+        return exchangeType;
+    }
+
+    public void setExchangeType(String exchangeType) {
+        this.exchangeType = exchangeType;
+    }
+
+    public String getRoutingKeys() {
+        return routingKeys;
+    }
+
+    /**
+     * @param routingKeys comma separated binding keys for the queue
+     */
+    public void setRoutingKeys(String routingKeys) {
+        this.routingKeys = routingKeys;
+    }
+
+    @Override
+    public String getQueue() {
+        return queue;
+    }
+
+    public void setQueue(String queue) {
+        this.queue = queue;
+    }
+
+    public int getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    public void setPrefetchCount(int prefetchCount) {
+        this.prefetchCount = prefetchCount;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public String getPartitionBy() {
+        return partitionBy;
+    }
+
+    /**
+     * @param partitionBy routingKey, body, header:name or none
+     */
+    public void setPartitionBy(String partitionBy) {
+        this.partitionBy = partitionBy;
+    }
+
+    public String getPartitionPattern() {
+        return partitionPattern;
+    }
+
+    public void setPartitionPattern(String partitionPattern) {
+        this.partitionPattern = partitionPattern;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    public long getMaxRetryDelay() {
+        return maxRetryDelay;
+    }
+
+    /**
+     * @param maxRetryDelay longest wait between attempts of a message held because its route asked for a requeue
+     */
+    public void setMaxRetryDelay(long maxRetryDelay) {
+        this.maxRetryDelay = maxRetryDelay;
+    }
+
+    public String getDeadLetterExchange() {
+        return deadLetterExchange;
+    }
+
+    public void setDeadLetterExchange(String deadLetterExchange) {
+        this.deadLetterExchange = deadLetterExchange;
+    }
+
+    public String getDeadLetterQueue() {
+        return deadLetterQueue;
+    }
+
+    public void setDeadLetterQueue(String deadLetterQueue) {
+        this.deadLetterQueue = deadLetterQueue;
+    }
+
+    public long getStatsIntervalMillis() {
+        return statsIntervalMillis;
+    }
+
+    public void setStatsIntervalMillis(long statsIntervalMillis) {
+        this.statsIntervalMillis = statsIntervalMillis;
+    }
+
+    public CamelContext getCamelContext() {
+        return camelContext;
+    }
+
+    public void setCamelContext(CamelContext camelContext) {
+        this.camelContext = camelContext;
+    }
+
+    public String getEndpointUri() {
+        return endpointUri;
+    }
+
+    public void setEndpointUri(String endpointUri) {
+        this.endpointUri = endpointUri;
+    }
+
+    public ConnectionFactory getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    /**
+     * @param connectionFactory used instead of one built from the host, port and credentials when set
+     */
+    public void setConnectionFactory(ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.rabbit;
+
+/**
+ * Statistics {@link PartitionedRabbitConsumer} registers with the platform MBean server, under
+ * {@link PartitionedRabbitConsumer#MBEAN_NAME} and the name of its queue, so they can be watched with jconsole or
+ * any JMX client while it runs
+ */
+public interface PartitionedRabbitConsumerMBean {
+
+    /**
+     * @return the queue being consumed
+     */
+    String getQueue();
+
+    /**
+     * @return messages delivered by the broker
+     */
+    long getDelivered();
+
+    /**
+     * @return messages processed and acknowledged
+     */
+    long getAcknowledged();
+
+    /**
+     * @return times a failed message was processed again
+     */
+    long getRetries();
+
+    /**
+     * @return times a message was held on its lane and processed again because the route asked for a requeue
+     */
+    long getHeld();
+
+    /**
+     * @return messages moved to the dead letter exchange after failing every attempt
+     */
+    long getDeadLettered();
+
+    /**
+     * @return messages delivered and not yet acknowledged, at most the prefetch count
+     */
+    int getInFlight();
+
+    /**
+     * @return messages waiting on the lane with the longest backlog
+     */
+    int getLargestLaneBacklog();
+
+    /**
+     * @return messages ready in the queue that haven't been delivered yet, -1 if the broker can't be asked
+     */
+    long getLag();
+
+    /**
+     * @return average milliseconds the route took for each attempt at a message
+     */
+    long getAverageProcessMillis();
+
+    /**
+     * @return whether the connection to the broker is open
+     */
+    boolean isConnected();
+}
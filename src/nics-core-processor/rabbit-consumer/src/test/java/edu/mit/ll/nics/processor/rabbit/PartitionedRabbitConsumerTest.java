@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.rabbit;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.apache.camel.CamelContext;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.rabbitmq.RabbitMQConstants;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Runs {@link PartitionedRabbitConsumer} against {@link StubBroker}, handing messages to in-memory routes
+ */
+public class PartitionedRabbitConsumerTest {
+
+    private static final String[] KEYS = {"B15A", "E3111", "H301", "AA12"};
+
+    private StubBroker broker;
+    private CamelContext context;
+
+    private final Map<String, List<Integer>> ordered = new ConcurrentHashMap<String, List<Integer>>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger mostActive = new AtomicInteger();
+    private final List<String> poisonRoute = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> requeueRoute = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Boolean> requeueRedelivered = Collections.synchronizedList(new ArrayList<Boolean>());
+    private final AtomicInteger databaseDown = new AtomicInteger(2);
+
+    @BeforeClass
+    public void before() throws Exception {
+        broker = new StubBroker();
+        context = new DefaultCamelContext();
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:ordered").process(exchange -> {
+                    mostActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                    String[] body = exchange.getIn().getBody(String.class).split(":");
+                    Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+                    ordered.computeIfAbsent(body[0], key -> Collections.synchronizedList(new ArrayList<Integer>()))
+                            .add(Integer.parseInt(body[1]));
+                    active.decrementAndGet();
+                });
+
+                from("direct:poison").process(exchange -> {
+                    String body = exchange.getIn().getBody(String.class);
+                    poisonRoute.add(body);
+                    if("poison".equals(body)) {
+                        throw new IllegalArgumentException("Can't process " + body);
+                    }
+                });
+
+                from("direct:requeue").process(exchange -> {
+                    requeueRoute.add(exchange.getIn().getBody(String.class));
+                    requeueRedelivered.add(exchange.getIn().getHeader(RabbitMQConstants.REDELIVERY_TAG,
+                            Boolean.class));
+                    if(databaseDown.getAndDecrement() > 0) {
+                        exchange.getIn().setHeader(RabbitMQConstants.REQUEUE, true);
+                        throw new IllegalStateException("Database is down");
+                    }
+                });
+            }
+        });
+        context.start();
+    }
+
+    @AfterClass
+    public void after() throws Exception {
+        context.stop();
+    }
+
+    @Test(testName = "TestOrderKeptPerKey")
+    public void testOrderKeptPerKey() throws Exception {
+        int perKey = 50;
+        PartitionedRabbitConsumer consumer = consumer("test.ordered", "ordered.#", "direct:ordered", 8);
+        consumer.setPartitionPattern("ordered\\.(.+)");
+        consumer.init();
+
+        for(int i = 0; i < perKey; i++) {
+            for(String key : KEYS) {
+                broker.publish("amq.topic", "ordered." + key, key + ":" + i);
+            }
+        }
+
+        waitFor(() -> consumer.getAcknowledged() == perKey * KEYS.length);
+        for(String key : KEYS) {
+            List<Integer> sequence = ordered.get(key);
+            Assert.assertEquals(sequence.size(), perKey, key);
+            for(int i = 0; i < perKey; i++) {
+                Assert.assertEquals(sequence.get(i), Integer.valueOf(i), key);
+            }
+        }
+        Assert.assertTrue(mostActive.get() > 1, "Keys should have been processed in parallel");
+        Assert.assertTrue(broker.largestUnacknowledged("test.ordered") <= 8, "Prefetch window exceeded");
+        Assert.assertEquals(broker.unacknowledged("test.ordered"), 0);
+        Assert.assertEquals(consumer.getInFlight(), 0);
+        Assert.assertEquals(consumer.getLag(), 0);
+        consumer.shutdown();
+    }
+
+    @Test(testName = "TestPoisonDeadLettered")
+    public void testPoisonDeadLettered() throws Exception {
+        PartitionedRabbitConsumer consumer = consumer("test.poison", "poison.#", "direct:poison", 4);
+        consumer.setDeadLetterExchange("test.dead");
+        consumer.setDeadLetterQueue("test.dead.poison");
+        consumer.init();
+
+        broker.publish("amq.topic", "poison.track", "good-1");
+        broker.publish("amq.topic", "poison.track", "poison");
+        broker.publish("amq.topic", "poison.track", "good-2");
+
+        waitFor(() -> consumer.getAcknowledged() == 2 && consumer.getDeadLettered() == 1);
+        Assert.assertEquals(poisonRoute, Arrays.asList("good-1", "poison", "poison", "poison", "good-2"));
+        Assert.assertEquals(consumer.getRetries(), 2);
+        Assert.assertEquals(broker.unacknowledged("test.poison"), 0);
+
+        List<byte[]> dead = broker.bodies("test.dead.poison");
+        Assert.assertEquals(dead.size(), 1);
+        Assert.assertEquals(new String(dead.get(0), StandardCharsets.UTF_8), "poison");
+        Map<String, Object> headers = broker.properties("test.dead.poison").get(0).getHeaders();
+        Assert.assertEquals(headers.get(PartitionedRabbitConsumer.ATTEMPTS_HEADER), 3);
+        Assert.assertEquals(headers.get(PartitionedRabbitConsumer.QUEUE_HEADER), "test.poison");
+        consumer.shutdown();
+    }
+
+    @Test(testName = "TestRequeueHeader")
+    public void testRequeueHeader() throws Exception {
+        PartitionedRabbitConsumer consumer = consumer("test.requeue", "requeue.#", "direct:requeue", 4);
+        consumer.setMaxAttempts(1);
+        consumer.init();
+
+        broker.publish("amq.topic", "requeue.track", "track-1");
+        broker.publish("amq.topic", "requeue.track", "track-2");
+
+        // Held on its lane with a backoff rather than returned to the queue, so nothing overtakes it and the broker
+        // never redelivers it, and it isn't dead lettered although the outage outlasts maxAttempts
+        waitFor(() -> consumer.getAcknowledged() == 2);
+        Assert.assertEquals(requeueRoute, Arrays.asList("track-1", "track-1", "track-1", "track-2"));
+        Assert.assertEquals(requeueRedelivered, Arrays.asList(false, false, false, false));
+        Assert.assertEquals(consumer.getHeld(), 2);
+        Assert.assertEquals(consumer.getRetries(), 0);
+        Assert.assertEquals(consumer.getDeadLettered(), 0);
+        Assert.assertEquals(broker.unacknowledged("test.requeue"), 0);
+        consumer.shutdown();
+    }
+
+    private PartitionedRabbitConsumer consumer(String queue, String routingKeys, String endpointUri,
+                                               int prefetchCount) {
+        PartitionedRabbitConsumer consumer = new PartitionedRabbitConsumer();
+        consumer.setConnectionFactory(broker.connectionFactory());
+        consumer.setCamelContext(context);
+        consumer.setEndpointUri(endpointUri);
+        consumer.setQueue(queue);
+        consumer.setRoutingKeys(routingKeys);
+        consumer.setPrefetchCount(prefetchCount);
+        consumer.setConcurrency(4);
+        consumer.setMaxAttempts(3);
+        consumer.setRetryDelay(10);
+        return consumer;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        while(!condition.getAsBoolean() && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(condition.getAsBoolean(), "Timed out");
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2008-2021, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.processor.rabbit;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory stand-in for a rabbit broker, enough of one for {@link PartitionedRabbitConsumer}: topic bindings,
+ * durable queues, one consumer per queue honoring the prefetch count, acknowledgment, rejection with and without
+ * requeue, and message counts. Channels and connections are proxies answering only the calls it knows about.
+ */
+class StubBroker {
+
+    private final Map<String, StubQueue> queues = new HashMap<String, StubQueue>();
+    private final List<Object[]> bindings = new ArrayList<Object[]>();
+
+    /**
+     * @return a connection factory whose connections are to this broker
+     */
+    ConnectionFactory connectionFactory() {
+        return new ConnectionFactory() {
+            @Override
+            public Connection newConnection() {
+                return connection();
+            }
+        };
+    }
+
+    /**
+     * Routes a message to the queues bound to exchange with a matching key
+     */
+    synchronized void publish(String exchange, String routingKey, AMQP.BasicProperties properties, byte[] body) {
+        for(Object[] binding : bindings) {
+            if(binding[1].equals(exchange) && ((Pattern) binding[2]).matcher(routingKey).matches()) {
+                StubQueue queue = queues.get(binding[0]);
+                queue.ready.add(new Object[]{exchange, routingKey, properties, body, false});
+                queue.deliver();
+            }
+        }
+    }
+
+    void publish(String exchange, String routingKey, String body) {
+        publish(exchange, routingKey, new AMQP.BasicProperties(), body.getBytes());
+    }
+
+    synchronized List<byte[]> bodies(String queueName) {
+        List<byte[]> bodies = new ArrayList<byte[]>();
+        for(Object[] message : queues.get(queueName).ready) {
+            bodies.add((byte[]) message[3]);
+        }
+        return bodies;
+    }
+
+    synchronized List<AMQP.BasicProperties> properties(String queueName) {
+        List<AMQP.BasicProperties> properties = new ArrayList<AMQP.BasicProperties>();
+        for(Object[] message : queues.get(queueName).ready) {
+            properties.add((AMQP.BasicProperties) message[2]);
+        }
+        return properties;
+    }
+
+    synchronized int unacknowledged(String queueName) {
+        return queues.get(queueName).unacked.size();
+    }
+
+    synchronized int largestUnacknowledged(String queueName) {
+        return queues.get(queueName).largestUnacked;
+    }
+
+    private Connection connection() {
+        return proxy(Connection.class, (method, args) -> {
+            switch(method.getName()) {
+                case "createChannel":
+                    return channel(new int[]{0});
+                case "isOpen":
+                    return true;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private Channel channel(int[] prefetch) {
+        return proxy(Channel.class, (method, args) -> {
+            synchronized(StubBroker.this) {
+                switch(method.getName()) {
+                    case "basicQos":
+                        prefetch[0] = (Integer) args[args.length == 3 ? 1 : 0];
+                        return null;
+                    case "queueDeclare":
+                        if(!queues.containsKey(args[0])) {
+                            queues.put((String) args[0], new StubQueue());
+                        }
+                        return null;
+                    case "queueBind":
+                        bindings.add(new Object[]{args[0], args[1], topicPattern((String) args[2])});
+                        return null;
+                    case "basicConsume":
+                        StubQueue queue = queues.get(args[0]);
+                        queue.consumer = (Consumer) args[args.length - 1];
+                        queue.prefetch = prefetch[0];
+                        queue.deliver();
+                        return "consumer-" + args[0];
+                    case "basicCancel":
+                        queues.get(((String) args[0]).substring("consumer-".length())).consumer = null;
+                        return null;
+                    case "basicAck":
+                        settle((Long) args[0], false);
+                        return null;
+                    case "basicReject":
+                        settle((Long) args[0], (Boolean) args[1]);
+                        return null;
+                    case "basicPublish":
+                        publish((String) args[0], (String) args[1], (AMQP.BasicProperties) args[args.length - 2],
+                                (byte[]) args[args.length - 1]);
+                        return null;
+                    case "messageCount":
+                        return (long) queues.get(args[0]).ready.size();
+                    case "isOpen":
+                        return true;
+                    default:
+                        return null;
+                }
+            }
+        });
+    }
+
+    private void settle(long deliveryTag, boolean requeue) {
+        for(StubQueue queue : queues.values()) {
+            Object[] message = queue.unacked.remove(deliveryTag);
+            if(message != null) {
+                if(requeue) {
+                    message[4] = true;
+                    queue.ready.addFirst(message);
+                }
+                queue.deliver();
+                return;
+            }
+        }
+        throw new IllegalStateException("Unknown delivery tag " + deliveryTag);
+    }
+
+    /**
+     * @return a regex for a topic binding key, * matching one word and # one or more
+     */
+    private static Pattern topicPattern(String key) {
+        return Pattern.compile(key.replace(".", "\\.").replace("*", "[^.]+").replace("#", ".*"));
+    }
+
+    private interface Handler {
+        Object handle(Method method, Object[] args) throws Exception;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Object result = handler.handle(method, args);
+            if(result == null && method.getReturnType().isPrimitive() && method.getReturnType() != void.class) {
+                // Calls it doesn't know about get the zero value of their primitive type
+                return method.getReturnType() == boolean.class ? false : defaultNumber(method.getReturnType());
+            }
+            return result;
+        });
+    }
+
+    private static Object defaultNumber(Class<?> type) {
+        if(type == long.class) {
+            return 0L;
+        } else if(type == double.class) {
+            return 0d;
+        } else if(type == float.class) {
+            return 0f;
+        }
+        return 0;
+    }
+
+    private class StubQueue {
+        final Deque<Object[]> ready = new ArrayDeque<Object[]>();
+        final Map<Long, Object[]> unacked = new HashMap<Long, Object[]>();
+        Consumer consumer;
+        int prefetch;
+        int largestUnacked;
+        long nextTag = 1;
+
+        /**
+         * Delivers ready messages while the consumer has room in its prefetch window. Like a real channel, a
+         * consumer's deliveries arrive one after another, here on the thread that made room for them
+         */
+        void deliver() {
+            while(consumer != null && !ready.isEmpty() && (prefetch == 0 || unacked.size() < prefetch)) {
+                Object[] message = ready.poll();
+                long tag = nextTag++;
+                unacked.put(tag, message);
+                largestUnacked = Math.max(largestUnacked, unacked.size());
+                try {
+                    consumer.handleDelivery("consumer", new Envelope(tag, (Boolean) message[4], (String) message[0],
+                            (String) message[1]), (AMQP.BasicProperties) message[2], (byte[]) message[3]);
+                } catch(Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+}
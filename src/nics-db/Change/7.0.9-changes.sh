@@ -50,4 +50,8 @@ fi
 psql -f contacttype.sql $1 $2
 psql -f currentusersession.sql $1 $2
 psql -f datalayersource_layername.sql $1 $2
+psql -f user_search.sql $1 $2
+psql -f folder_ordering.sql $1 $2
+psql -f form_query.sql $1 $2
+psql -f imagelayerjob.sql $1 $2
 
@@ -0,0 +1,4 @@
+-- Folders and datalayerfolders now keep sparse sibling indexes, so a move only updates the moved row (see
+-- SiblingOrder in nics-dao). These indexes serve the neighbor lookups done on each move and append.
+CREATE INDEX IF NOT EXISTS folder_parentfolderid_index ON folder USING btree (parentfolderid, index);
+CREATE INDEX IF NOT EXISTS datalayerfolder_folderid_index ON datalayerfolder USING btree (folderid, index);
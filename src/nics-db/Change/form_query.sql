@@ -0,0 +1,3 @@
+-- Report lists read forms by incident and type, newest first, and page by (seqtime, formid). This index serves
+-- those reads and the keyset cursor without sorting. See FormDAOImpl.readForms in nics-dao.
+CREATE INDEX IF NOT EXISTS form_incidentid_formtypeid_seqtime ON form USING btree (incidentid, formtypeid, seqtime, formid);
@@ -0,0 +1,17 @@
+-- Image layers are provisioned in the background. One row per image layer tracks its GeoServer and datalayer
+-- creation, read by the status endpoint and claimed by ImageLayerProvisioner in em-api.
+CREATE TABLE IF NOT EXISTS imagelayerjob (
+	imageid varchar PRIMARY KEY,
+	workspaceid integer NOT NULL REFERENCES workspace(workspaceid),
+	title varchar NOT NULL,
+	usersessionid integer NOT NULL,
+	folderid varchar,
+	status varchar(16) NOT NULL DEFAULT 'pending',
+	attempts integer NOT NULL DEFAULT 0,
+	message varchar,
+	datalayerid varchar,
+	created timestamp without time zone NOT NULL DEFAULT now(),
+	lastupdate timestamp without time zone NOT NULL DEFAULT now(),
+	nextattempt timestamp without time zone NOT NULL DEFAULT now()
+);
+CREATE INDEX IF NOT EXISTS imagelayerjob_status_nextattempt ON imagelayerjob USING btree (status, nextattempt);
@@ -0,0 +1,9 @@
+-- Trigram indexes backing the user search (UserDAOImpl.searchUsers), which matches a term anywhere in the
+-- username, the full name or an email contact. Creating the extension requires a superuser, so if the
+-- change user isn't one, run the first statement separately as postgres.
+CREATE EXTENSION IF NOT EXISTS pg_trgm WITH SCHEMA public;
+
+CREATE INDEX IF NOT EXISTS user_username_trgm ON "user" USING gin (username gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS user_fullname_trgm ON "user"
+    USING gin ((coalesce(firstname, '') || ' ' || coalesce(lastname, '')) gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS contact_value_trgm ON contact USING gin (value gin_trgm_ops);
@@ -26,6 +26,9 @@ COMMENT ON EXTENSION postgis IS 'PostGIS geometry, geography, and raster spatial
 CREATE EXTENSION IF NOT EXISTS "uuid-ossp" WITH SCHEMA public;
 COMMENT ON EXTENSION "uuid-ossp" IS 'generate universally unique identifiers (UUIDs)';
 
+CREATE EXTENSION IF NOT EXISTS pg_trgm WITH SCHEMA public;
+COMMENT ON EXTENSION pg_trgm IS 'text similarity measurement and index searching based on trigrams';
+
 -- NICS SCHEMA
 
 -- =======================
@@ -553,6 +556,21 @@ CREATE TABLE imagefeature (
     CONSTRAINT enforce_srid_bounds CHECK ((st_srid(location) = 3857))
 );
 
+CREATE TABLE imagelayerjob (
+	imageid varchar PRIMARY KEY,
+	workspaceid integer NOT NULL REFERENCES workspace(workspaceid),
+	title varchar NOT NULL,
+	usersessionid integer NOT NULL,
+	folderid varchar,
+	status varchar(16) NOT NULL DEFAULT 'pending',
+	attempts integer NOT NULL DEFAULT 0,
+	message varchar,
+	datalayerid varchar,
+	created timestamp without time zone NOT NULL DEFAULT now(),
+	lastupdate timestamp without time zone NOT NULL DEFAULT now(),
+	nextattempt timestamp without time zone NOT NULL DEFAULT now()
+);
+
 CREATE TABLE org_incidenttype (
     org_incidenttypeid SERIAL PRIMARY KEY,
     orgid integer NOT NULL references org(orgid),
@@ -805,6 +823,7 @@ CREATE INDEX fk_datalayer_usersession ON datalayer USING btree (usersessionid);
 CREATE INDEX fk_datalayersource_datasource ON datalayersource USING btree (datasourceid);
 CREATE INDEX fk_datalayersource_usersessionid ON datalayersource USING btree (usersessionid);
 CREATE INDEX fk_form_incidentid ON form USING btree (incidentid);
+CREATE INDEX form_incidentid_formtypeid_seqtime ON form USING btree (incidentid, formtypeid, seqtime, formid);
 CREATE INDEX fk_incident ON incident_incidenttype USING btree (incidentid);
 CREATE INDEX fk_incident_usersession ON incident USING btree (usersessionid);
 CREATE INDEX fk_incidenttype ON incident_incidenttype USING btree (incidenttypeid);
@@ -819,3 +838,9 @@ CREATE INDEX fk_usersession_userorg ON usersession USING btree (userorgid);
 CREATE INDEX incident_gist ON incident USING gist (bounds);
 CREATE INDEX incidentid ON collabroom USING btree (incidentid);
 CREATE UNIQUE INDEX uname_idx ON "user" USING btree (username);
+CREATE INDEX user_username_trgm ON "user" USING gin (username gin_trgm_ops);
+CREATE INDEX user_fullname_trgm ON "user" USING gin ((coalesce(firstname, '') || ' ' || coalesce(lastname, '')) gin_trgm_ops);
+CREATE INDEX contact_value_trgm ON contact USING gin (value gin_trgm_ops);
+CREATE INDEX folder_parentfolderid_index ON folder USING btree (parentfolderid, index);
+CREATE INDEX datalayerfolder_folderid_index ON datalayerfolder USING btree (folderid, index);
+CREATE INDEX imagelayerjob_status_nextattempt ON imagelayerjob USING btree (status, nextattempt);
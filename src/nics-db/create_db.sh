@@ -53,6 +53,7 @@ psql -c "COMMENT ON EXTENSION plpgsql IS 'PL/pgSQL procedural language'" -d "$1"
 psql -c "CREATE EXTENSION IF NOT EXISTS postgis WITH SCHEMA public;" -d "$1"
 psql -c "COMMENT ON EXTENSION postgis IS 'PostGIS geometry, geography, and raster spatial types and functions'" -d "$1"
 psql -c "CREATE EXTENSION IF NOT EXISTS \"uuid-ossp\" WITH SCHEMA public;" -d "$1"
+psql -c "CREATE EXTENSION IF NOT EXISTS pg_trgm WITH SCHEMA public;" -d "$1"
 
 # now create baseline schema and insert baseline data
 psql -f baseline.sql "$1" "$2"
@@ -0,0 +1,65 @@
+-- Benchmarks the user search (UserDAOImpl.searchUsers) against 100k generated users.
+--
+-- Usage: psql -f user_search_benchmark.sql <database> <user>
+--
+-- Everything runs in one transaction that is rolled back at the end, so the fixture users and contacts are
+-- never committed. Requires the indexes from Change/user_search.sql. Compare the plans and timings with and
+-- without them by dropping the indexes inside the transaction.
+
+BEGIN;
+
+INSERT INTO "user" (username, firstname, lastname, active)
+SELECT 'bench.user' || n || '@example.test',
+       (ARRAY['James','Mary','Robert','Patricia','John','Jennifer','Michael','Linda','David','Elizabeth'])[1 + n % 10],
+       (ARRAY['Smith','Johnson','Williams','Brown','Jones','Garcia','Miller','Davis','Rodriguez','Martinez'])[1 + (n / 10) % 10]
+           || '-' || substr(md5(n::text), 1, 6),
+       true
+FROM generate_series(1, 100000) AS n;
+
+INSERT INTO contact (userid, contacttypeid, enabled, value)
+SELECT userid, 0, true, 'mail.' || userid || '@bench.example.test'
+FROM "user" WHERE username LIKE 'bench.user%';
+
+ANALYZE "user";
+ANALYZE contact;
+
+\timing on
+
+-- Short prefix, as typed by the first keystrokes in a dialog
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT u.* FROM "user" u
+WHERE u.username ILIKE '%jen%'
+   OR (coalesce(u.firstname, '') || ' ' || coalesce(u.lastname, '')) ILIKE '%jen%'
+   OR u.userid IN (SELECT c.userid FROM contact c WHERE c.contacttypeid = 0 AND c.value ILIKE '%jen%')
+ORDER BY (u.username ILIKE 'jen%' OR u.firstname ILIKE 'jen%' OR u.lastname ILIKE 'jen%') DESC,
+         greatest(similarity(u.username, 'jen'),
+                  similarity(coalesce(u.firstname, '') || ' ' || coalesce(u.lastname, ''), 'jen')) DESC,
+         u.username
+LIMIT 25 OFFSET 0;
+
+-- Selective full name match
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT u.* FROM "user" u
+WHERE u.username ILIKE '%linda garcia-1%'
+   OR (coalesce(u.firstname, '') || ' ' || coalesce(u.lastname, '')) ILIKE '%linda garcia-1%'
+   OR u.userid IN (SELECT c.userid FROM contact c WHERE c.contacttypeid = 0 AND c.value ILIKE '%linda garcia-1%')
+ORDER BY (u.username ILIKE 'linda garcia-1%' OR u.firstname ILIKE 'linda garcia-1%'
+              OR u.lastname ILIKE 'linda garcia-1%') DESC,
+         greatest(similarity(u.username, 'linda garcia-1'),
+                  similarity(coalesce(u.firstname, '') || ' ' || coalesce(u.lastname, ''), 'linda garcia-1')) DESC,
+         u.username
+LIMIT 25 OFFSET 0;
+
+-- Email fragment
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT u.* FROM "user" u
+WHERE u.username ILIKE '%mail.4242%'
+   OR (coalesce(u.firstname, '') || ' ' || coalesce(u.lastname, '')) ILIKE '%mail.4242%'
+   OR u.userid IN (SELECT c.userid FROM contact c WHERE c.contacttypeid = 0 AND c.value ILIKE '%mail.4242%')
+ORDER BY (u.username ILIKE 'mail.4242%' OR u.firstname ILIKE 'mail.4242%' OR u.lastname ILIKE 'mail.4242%') DESC,
+         greatest(similarity(u.username, 'mail.4242'),
+                  similarity(coalesce(u.firstname, '') || ' ' || coalesce(u.lastname, ''), 'mail.4242')) DESC,
+         u.username
+LIMIT 25 OFFSET 0;
+
+ROLLBACK;
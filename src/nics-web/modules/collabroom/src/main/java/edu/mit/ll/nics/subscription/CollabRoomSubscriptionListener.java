@@ -42,11 +42,22 @@ import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Invocation.Builder;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Cookie;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import org.atmosphere.cpr.AtmosphereResource;
+import org.glassfish.jersey.client.ClientProperties;
 
+/**
+ * Validates collaboration room subscriptions against the API. Invoked from the subscription validation workers, so
+ * it must remain thread safe.
+ */
 public class CollabRoomSubscriptionListener implements SubscriptionValidator {
 
+    private static final Pattern COLLABROOM_ID_PATTERN = Pattern.compile("collabroom.([0-9]*)");
+
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 10000;
+
     private final Client jerseyClient;
 
     private final String COLLABROOM_TOPIC = "iweb.NICS.collabroom";
@@ -56,7 +67,9 @@ public class CollabRoomSubscriptionListener implements SubscriptionValidator {
     private final String USERNAME_ATTRIB = "username";
 
     public CollabRoomSubscriptionListener() {
-        jerseyClient = ClientBuilder.newClient();
+        jerseyClient = ClientBuilder.newClient()
+                .property(ClientProperties.CONNECT_TIMEOUT, CONNECT_TIMEOUT)
+                .property(ClientProperties.READ_TIMEOUT, READ_TIMEOUT);
     }
 
     /**
@@ -70,8 +83,7 @@ public class CollabRoomSubscriptionListener implements SubscriptionValidator {
         if(subscription.startsWith(COLLABROOM_TOPIC)) {
 
             // Find the collab room id
-            Matcher m = Pattern.compile("collabroom.([0-9]*)").matcher(
-                    subscription);
+            Matcher m = COLLABROOM_ID_PATTERN.matcher(subscription);
 
             Long collabRoomId = null;
             while(m.find()) {
@@ -118,8 +130,12 @@ public class CollabRoomSubscriptionListener implements SubscriptionValidator {
         Builder builder = target.request(REQUEST_TYPE);
         this.setCookies(builder, token, username);
 
-        return builder.get().getStatusInfo().getReasonPhrase()
-                .equals(Status.OK.getReasonPhrase());
+        Response response = builder.get();
+        try {
+            return response.getStatus() == Status.OK.getStatusCode();
+        } finally {
+            response.close();
+        }
     }
 
     /**
@@ -764,30 +764,21 @@ define(['ext', 'iweb/CoreModule', './DatalayerBuilder',
 			},
 			
 			onMoveCallback: function(movedNode, newParent, dropHandlers, evt, data){
-				var oldParent = movedNode.parentNode,
-						treeView = this.getView().getTree().getView();
+				var treeView = this.getView().getTree().getView();
 				treeView.setLoading(false);
 				//everything is in the right place, just update folder indexes
 				if (data && data.count) {
 					dropHandlers.processDrop();
 
-					var oldIndex = movedNode.get("folderindex"),
-							folderItems = [].concat(data.folders, data.datalayerfolders);
+					var folderItems = [].concat(data.folders, data.datalayerfolders);
 					
 					if (folderItems.length) {
+						//the moved item is first. Indexes are sparse, so siblings keep theirs unless
+						//the server had to renumber them, which arrives as update messages
 						folderItem = folderItems[0];
 						
-						//decrement folder indexes in old folder
-						var oldSiblings = this.getLikeFolderItems(movedNode, oldParent.childNodes);
-						this.adjustSiblingFolderIndexes(oldIndex, oldSiblings, -1);
-					
-						//increment folder indexes in new folder
-						var newIndex = folderItem.index;
-						var newSiblings = this.getLikeFolderItems(movedNode, newParent.childNodes);
-						this.adjustSiblingFolderIndexes(newIndex, newSiblings, 1);
-						
 						//set new folder index
-						movedNode.set({folderindex: newIndex});
+						movedNode.set({folderindex: folderItem.index});
 						
 						//sort to maintain node ordering
 						newParent.sort();
@@ -798,15 +789,6 @@ define(['ext', 'iweb/CoreModule', './DatalayerBuilder',
 				}
 			},
 			
-			adjustSiblingFolderIndexes: function(index, siblings, offset){
-				siblings.forEach(function(node){
-					var layerIndex = node.get("folderindex");
-					if (layerIndex >= index) {
-						node.set("folderindex", layerIndex + offset);
-					}
-				});
-			},
-			
 			handleMove: function(folderItemNode, folderItemData) {
 				var store = this.getView().getTree().getStore(),
 						oldIndex = folderItemNode.get("folderindex"),
@@ -821,18 +803,8 @@ define(['ext', 'iweb/CoreModule', './DatalayerBuilder',
 					return;
 				}
 				
-				if (oldParent && oldParent.lazyLoaded) {
-					//decrement folder indexes in old folder
-					var oldSiblings = this.getLikeFolderItems(folderItemNode, oldParent.childNodes);
-					this.adjustSiblingFolderIndexes(oldIndex, oldSiblings, -1);
-				}
-				
 				if (newParent && newParent.lazyLoaded) {
-					//increment folder indexes in new folder
-					var newSiblings = this.getLikeFolderItems(folderItemNode, newParent.childNodes);
-					this.adjustSiblingFolderIndexes(newIndex, newSiblings, 1);
-					
-					//set new folder index
+					//set new folder index, sibling indexes are unaffected by a move
 					folderItemNode.set({folderindex: newIndex});
 					
 					//append our node to its new parent
@@ -40,11 +40,20 @@ import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Invocation.Builder;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Cookie;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import org.atmosphere.cpr.AtmosphereResource;
+import org.glassfish.jersey.client.ClientProperties;
 
+/**
+ * Validates super user subscriptions against the API. Invoked from the subscription validation workers, so it must
+ * remain thread safe.
+ */
 public class IncidentSubscriptionListener implements SubscriptionValidator {
 
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 10000;
+
     private final Client jerseyClient;
 
     private final String SUPER_USER_TOPIC = "superuser";
@@ -53,7 +62,9 @@ public class IncidentSubscriptionListener implements SubscriptionValidator {
     private final String REST_ENDPOINT_CONFIG = "endpoint.rest";
 
     public IncidentSubscriptionListener() {
-        jerseyClient = ClientBuilder.newClient();
+        jerseyClient = ClientBuilder.newClient()
+                .property(ClientProperties.CONNECT_TIMEOUT, CONNECT_TIMEOUT)
+                .property(ClientProperties.READ_TIMEOUT, READ_TIMEOUT);
     }
 
     /**
@@ -95,8 +106,12 @@ public class IncidentSubscriptionListener implements SubscriptionValidator {
         Builder builder = target.request(REQUEST_TYPE);
         this.setCookies(builder, token, username);
 
-        return builder.get().getStatusInfo().getReasonPhrase()
-                .equals(Status.OK.getReasonPhrase());
+        Response response = builder.get();
+        try {
+            return response.getStatus() == Status.OK.getStatusCode();
+        } finally {
+            response.close();
+        }
     }
 
     /**